@@ -16,11 +16,10 @@
  */
 package org.graylog.storage.opensearch2;
 
-import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Iterables;
+import org.graylog2.indexer.messages.BulkRequestWriter;
 import org.graylog2.indexer.messages.ChunkedBulkIndexer;
 import org.graylog2.indexer.messages.DocumentNotFoundException;
 import org.graylog2.indexer.messages.Indexable;
@@ -28,20 +27,27 @@ import org.graylog2.indexer.messages.IndexingRequest;
 import org.graylog2.indexer.messages.Messages;
 import org.graylog2.indexer.messages.MessagesAdapter;
 import org.graylog2.indexer.results.ResultMessage;
+import org.graylog.shaded.opensearch2.org.apache.http.entity.ContentType;
+import org.graylog.shaded.opensearch2.org.apache.http.nio.entity.NByteArrayEntity;
 import org.graylog.shaded.opensearch2.org.opensearch.OpenSearchException;
 import org.graylog.shaded.opensearch2.org.opensearch.action.bulk.BulkItemResponse;
-import org.graylog.shaded.opensearch2.org.opensearch.action.bulk.BulkRequest;
 import org.graylog.shaded.opensearch2.org.opensearch.action.bulk.BulkResponse;
 import org.graylog.shaded.opensearch2.org.opensearch.action.get.GetRequest;
 import org.graylog.shaded.opensearch2.org.opensearch.action.get.GetResponse;
-import org.graylog.shaded.opensearch2.org.opensearch.action.index.IndexRequest;
+import org.graylog.shaded.opensearch2.org.opensearch.client.Request;
+import org.graylog.shaded.opensearch2.org.opensearch.client.Response;
+import org.graylog.shaded.opensearch2.org.opensearch.client.ResponseException;
 import org.graylog.shaded.opensearch2.org.opensearch.client.indices.AnalyzeRequest;
 import org.graylog.shaded.opensearch2.org.opensearch.client.indices.AnalyzeResponse;
+import org.graylog.shaded.opensearch2.org.opensearch.common.xcontent.DeprecationHandler;
+import org.graylog.shaded.opensearch2.org.opensearch.common.xcontent.NamedXContentRegistry;
+import org.graylog.shaded.opensearch2.org.opensearch.common.xcontent.XContentParser;
 import org.graylog.shaded.opensearch2.org.opensearch.common.xcontent.XContentType;
 import org.graylog.shaded.opensearch2.org.opensearch.rest.RestStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -68,16 +74,14 @@ public class MessagesAdapterOS2 implements MessagesAdapter {
     static final String NO_WRITE_INDEX_DEFINED_FOR_ALIAS = "no write index is defined for alias";
 
     private final OpenSearchClient client;
-    private final Meter invalidTimestampMeter;
     private final ChunkedBulkIndexer chunkedBulkIndexer;
-    private final ObjectMapper objectMapper;
+    private final BulkRequestWriter bulkRequestWriter;
 
     @Inject
     public MessagesAdapterOS2(OpenSearchClient openSearchClient, MetricRegistry metricRegistry, ChunkedBulkIndexer chunkedBulkIndexer, ObjectMapper objectMapper) {
         this.client = openSearchClient;
-        this.invalidTimestampMeter = metricRegistry.meter(name(Messages.class, "invalid-timestamps"));
         this.chunkedBulkIndexer = chunkedBulkIndexer;
-        this.objectMapper = objectMapper;
+        this.bulkRequestWriter = new BulkRequestWriter(objectMapper, metricRegistry.meter(name(Messages.class, "invalid-timestamps")));
     }
 
     @Override
@@ -104,8 +108,8 @@ public class MessagesAdapterOS2 implements MessagesAdapter {
     }
 
     @Override
-    public List<Messages.IndexingError> bulkIndex(List<IndexingRequest> messageList) throws IOException {
-        return chunkedBulkIndexer.index(messageList, this::bulkIndexChunked);
+    public List<Messages.IndexingError> bulkIndex(List<IndexingRequest> messageList, @Nullable Messages.IndexingListener indexingListener) throws IOException {
+        return chunkedBulkIndexer.index(messageList, this::bulkIndexChunked, indexingListener);
     }
 
     private List<Messages.IndexingError> bulkIndexChunked(ChunkedBulkIndexer.Chunk command) throws ChunkedBulkIndexer.EntityTooLargeException {
@@ -167,30 +171,42 @@ public class MessagesAdapterOS2 implements MessagesAdapter {
     }
 
     private BulkResponse runBulkRequest(int indexedSuccessfully, List<IndexingRequest> chunk) throws ChunkedBulkIndexer.EntityTooLargeException {
-        final BulkRequest bulkRequest = createBulkRequest(chunk);
+        final Request request = createBulkRequest(chunk);
 
         final BulkResponse result;
         try {
-            result = this.client.execute((c, requestOptions) -> c.bulk(bulkRequest, requestOptions));
-        } catch (OpenSearchException e) {
-            for (OpenSearchException cause : e.guessRootCauses()) {
-                if (cause.status().equals(RestStatus.REQUEST_ENTITY_TOO_LARGE)) {
-                    throw new ChunkedBulkIndexer.EntityTooLargeException(indexedSuccessfully);
-                } else if (cause.status().equals(RestStatus.TOO_MANY_REQUESTS)) {
-                    throw new ChunkedBulkIndexer.TooManyRequestsException(indexedSuccessfully);
+            result = this.client.executeWithIOException((c, requestOptions) -> {
+                request.setOptions(requestOptions);
+                final Response response = c.getLowLevelClient().performRequest(request);
+                try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                        DeprecationHandler.THROW_UNSUPPORTED_OPERATION, response.getEntity().getContent())) {
+                    return BulkResponse.fromXContent(parser);
                 }
+            }, "Unable to perform bulk request: ");
+        } catch (ResponseException e) {
+            final int status = e.getResponse().getStatusLine().getStatusCode();
+            if (status == RestStatus.REQUEST_ENTITY_TOO_LARGE.getStatus()) {
+                throw new ChunkedBulkIndexer.EntityTooLargeException(indexedSuccessfully);
+            } else if (status == RestStatus.TOO_MANY_REQUESTS.getStatus()) {
+                throw new ChunkedBulkIndexer.TooManyRequestsException(indexedSuccessfully);
             }
             throw new org.graylog2.indexer.ElasticsearchException(e);
+        } catch (IOException | OpenSearchException e) {
+            throw new org.graylog2.indexer.ElasticsearchException(e);
         }
         return result;
     }
 
-    private BulkRequest createBulkRequest(List<IndexingRequest> chunk) {
-        final BulkRequest bulkRequest = new BulkRequest();
-        chunk.forEach(request -> bulkRequest.add(
-                indexRequestFrom(request)
-        ));
-        return bulkRequest;
+    private Request createBulkRequest(List<IndexingRequest> chunk) {
+        final BulkRequestWriter.Buffer body;
+        try {
+            body = bulkRequestWriter.write(chunk);
+        } catch (IOException e) {
+            throw new org.graylog2.indexer.ElasticsearchException("Unable to serialize bulk request", e);
+        }
+        final Request request = new Request("POST", "/_bulk");
+        request.setEntity(new NByteArrayEntity(body.array(), 0, body.size(), ContentType.APPLICATION_JSON));
+        return request;
     }
 
     private List<Messages.IndexingError> indexingErrorsFrom(List<IndexingRequest> messageList) {
@@ -246,15 +262,4 @@ public class MessagesAdapterOS2 implements MessagesAdapter {
         }
     }
 
-    private IndexRequest indexRequestFrom(IndexingRequest request) {
-        final byte[] body;
-        try {
-            body = this.objectMapper.writeValueAsBytes(request.message().toElasticSearchObject(objectMapper, this.invalidTimestampMeter));
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
-        }
-        return new IndexRequest(request.indexSet().getWriteIndexAlias())
-                .id(request.message().getId())
-                .source(body, XContentType.JSON);
-    }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks.codecs;
+
+import com.codahale.metrics.MetricRegistry;
+import org.graylog2.benchmarks.corpus.SyntheticCorpus;
+import org.graylog2.inputs.codecs.SyslogCodec;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.journal.RawMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes RFC 3164 and RFC 5424 syslog messages with {@link SyslogCodec}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SyslogCodecBenchmark {
+    private static final int MESSAGES = 1024;
+
+    private SyslogCodec codec;
+    private RawMessage[] rawMessages;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        codec = new SyslogCodec(Configuration.EMPTY_CONFIGURATION, new MetricRegistry());
+        final List<byte[]> payloads = new SyntheticCorpus().syslogMessages(MESSAGES);
+        rawMessages = new RawMessage[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            rawMessages[i] = new RawMessage(payloads.get(i));
+            if (codec.decode(rawMessages[i]) == null) {
+                throw new IllegalStateException("Unable to decode message: " + new String(payloads.get(i), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Benchmark
+    public Message decode() {
+        return codec.decode(rawMessages[next++ & (MESSAGES - 1)]);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks.corpus;
+
+import org.graylog2.indexer.IndexSet;
+
+import java.lang.reflect.Proxy;
+
+/**
+ * Creates index sets for benchmarks which route or index messages without an actual search cluster.
+ */
+public class BenchmarkIndexSet {
+    private BenchmarkIndexSet() {
+    }
+
+    /**
+     * Returns an index set which only supports {@link IndexSet#getWriteIndexAlias()} and the methods of
+     * {@link Object}, all other methods throw an {@link UnsupportedOperationException}.
+     */
+    public static IndexSet withWriteIndexAlias(String writeIndexAlias) {
+        return (IndexSet) Proxy.newProxyInstance(IndexSet.class.getClassLoader(),
+                new Class<?>[]{IndexSet.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getWriteIndexAlias":
+                            return writeIndexAlias;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "BenchmarkIndexSet{writeIndexAlias=" + writeIndexAlias + "}";
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
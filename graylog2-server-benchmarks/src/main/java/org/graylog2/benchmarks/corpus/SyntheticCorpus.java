@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks.corpus;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates reproducible synthetic log messages for the benchmarks.
+ *
+ * All messages describe requests against a fictional web application and are derived from a seeded {@link Random},
+ * so two corpora created with the same seed produce exactly the same messages in the same order. This keeps the
+ * results of benchmark runs on different machines or branches comparable.
+ */
+public class SyntheticCorpus {
+    public static final long DEFAULT_SEED = 42L;
+
+    private static final long BASE_TIMESTAMP = new DateTime(2023, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+    private static final DateTimeFormatter RFC3164_TIMESTAMP = DateTimeFormat.forPattern("MMM dd HH:mm:ss")
+            .withLocale(Locale.ENGLISH)
+            .withZoneUTC();
+    private static final DateTimeFormatter RFC5424_TIMESTAMP = ISODateTimeFormat.dateTime().withZoneUTC();
+
+    private static final String[] HOSTS = {
+            "web-01.example.org", "web-02.example.org", "web-03.example.org", "api-01.example.org",
+            "api-02.example.org", "worker-01.example.org", "db-01.example.org", "lb-01.example.org"
+    };
+    private static final String[] PROGRAMS = {"nginx", "sshd", "postfix", "cron", "kernel", "app"};
+    private static final String[] METHODS = {"GET", "GET", "GET", "GET", "POST", "POST", "PUT", "DELETE"};
+    private static final String[] PATHS = {
+            "/", "/healthz", "/login", "/logout", "/search", "/api/users", "/api/users/profile", "/api/orders",
+            "/api/orders/items", "/api/products", "/api/products/reviews", "/static/app.js", "/static/app.css"
+    };
+    private static final int[] STATUSES = {200, 200, 200, 200, 200, 200, 201, 204, 301, 304, 400, 401, 403, 404, 500, 502, 503};
+    private static final String[] USERS = {"alice", "bob", "carol", "dave", "eve", "mallory", "trent", "victor"};
+    private static final String[] TENANTS = {"acme", "globex", "initech", "umbrella"};
+    private static final String[] USER_AGENTS = {
+            "Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 Firefox/115.0",
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/114.0.0.0 Safari/537.36",
+            "curl/7.88.1",
+            "Go-http-client/1.1"
+    };
+    private static final String[] CEF_EVENTS = {
+            "100|Port scan detected|5", "200|Login failed|3", "300|Malware blocked|8", "400|Policy violation|4"
+    };
+
+    private final Random random;
+
+    public SyntheticCorpus() {
+        this(DEFAULT_SEED);
+    }
+
+    public SyntheticCorpus(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Returns uncompressed GELF 1.1 payloads with a handful of additional fields.
+     */
+    public List<byte[]> gelfMessages(int count) {
+        final List<byte[]> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Request request = nextRequest();
+            final String jsonSummary = request.summary().replace("\"", "\\\"");
+            final StringBuilder sb = new StringBuilder(512)
+                    .append("{\"version\":\"1.1\"")
+                    .append(",\"host\":\"").append(request.host).append('"')
+                    .append(",\"short_message\":\"").append(jsonSummary).append('"')
+                    .append(",\"timestamp\":").append(request.timestamp / 1000L).append('.').append(String.format(Locale.ENGLISH, "%03d", request.timestamp % 1000L))
+                    .append(",\"level\":").append(request.level())
+                    .append(",\"_facility\":\"").append(request.program).append('"')
+                    .append(",\"_http_method\":\"").append(request.method).append('"')
+                    .append(",\"_http_status\":").append(request.status)
+                    .append(",\"_request_path\":\"").append(request.path).append('"')
+                    .append(",\"_response_time_ms\":").append(request.responseTime)
+                    .append(",\"_bytes\":").append(request.bytes)
+                    .append(",\"_client_ip\":\"").append(request.clientIp).append('"')
+                    .append(",\"_user_agent\":\"").append(request.userAgent).append('"')
+                    .append(",\"_details\":\"").append(request.details()).append('"');
+            if (request.status >= 500) {
+                sb.append(",\"full_message\":\"").append(jsonSummary).append("\\n\\tat org.example.Handler.handle(Handler.java:42)\\n\\tat org.example.Server.run(Server.java:128)\"");
+            }
+            messages.add(sb.append('}').toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return messages;
+    }
+
+    /**
+     * Returns syslog payloads, alternating between the RFC 3164 and the RFC 5424 format.
+     */
+    public List<byte[]> syslogMessages(int count) {
+        final List<byte[]> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Request request = nextRequest();
+            final int priority = 16 * 8 + (request.status >= 500 ? 3 : 6);
+            final String message;
+            if (i % 2 == 0) {
+                message = "<" + priority + ">" + RFC3164_TIMESTAMP.print(request.timestamp) + " " + request.shortHost() + " "
+                        + request.program + "[" + request.pid + "]: " + request.summary();
+            } else {
+                message = "<" + priority + ">1 " + RFC5424_TIMESTAMP.print(request.timestamp) + " " + request.host + " "
+                        + request.program + " " + request.pid + " ID" + request.status
+                        + " [request@32473 method=\"" + request.method + "\" status=\"" + request.status + "\" user=\"" + request.user + "\"] "
+                        + request.summary();
+            }
+            messages.add(message.getBytes(StandardCharsets.UTF_8));
+        }
+        return messages;
+    }
+
+    /**
+     * Returns CEF payloads with a syslog header, like they are sent by most security appliances.
+     */
+    public List<byte[]> cefMessages(int count) {
+        final List<byte[]> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Request request = nextRequest();
+            final String event = pick(CEF_EVENTS);
+            final String message = "<134>" + RFC3164_TIMESTAMP.print(request.timestamp) + " " + request.shortHost()
+                    + " CEF:0|Example|Firewall|2.4|" + event
+                    + "|rt=" + request.timestamp + " src=" + request.clientIp + " spt=" + (1024 + random.nextInt(64000))
+                    + " dst=10.1.0." + (1 + random.nextInt(254)) + " dpt=443 proto=TCP suser=" + request.user
+                    + " request=" + request.path + " act=" + (request.status >= 400 ? "blocked" : "allowed")
+                    + " msg=" + request.summary().replace("=", "\\=");
+            messages.add(message.getBytes(StandardCharsets.UTF_8));
+        }
+        return messages;
+    }
+
+    /**
+     * Returns the fields of decoded messages, suitable for {@link Message#Message(Map)}.
+     * Every call returns new maps, so the messages created from them can be modified.
+     */
+    public List<Map<String, Object>> messageFields(int count) {
+        final List<Map<String, Object>> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Request request = nextRequest();
+            final Map<String, Object> fields = new HashMap<>();
+            fields.put(Message.FIELD_ID, new UUID(random.nextLong(), random.nextLong()).toString());
+            fields.put(Message.FIELD_MESSAGE, request.summary());
+            fields.put(Message.FIELD_SOURCE, request.host);
+            fields.put(Message.FIELD_TIMESTAMP, new DateTime(request.timestamp, DateTimeZone.UTC));
+            fields.put("level", request.level());
+            fields.put("facility", request.program);
+            fields.put("http_method", request.method);
+            fields.put("http_status", request.status);
+            fields.put("request_path", request.path);
+            fields.put("response_time_ms", request.responseTime);
+            fields.put("bytes", request.bytes);
+            fields.put("client_ip", request.clientIp);
+            fields.put("user_agent", request.userAgent);
+            fields.put("user", request.user);
+            fields.put("details", request.details());
+            fields.put("http.request.duration", request.responseTime / 1000.0d);
+            messages.add(fields);
+        }
+        return messages;
+    }
+
+    /**
+     * Returns new messages, see {@link #messageFields(int)}.
+     */
+    public List<Message> messages(int count) {
+        return messageFields(count).stream()
+                .map(Message::new)
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    private Request nextRequest() {
+        final Request request = new Request();
+        request.timestamp = BASE_TIMESTAMP + random.nextInt(86_400_000);
+        request.host = pick(HOSTS);
+        request.program = pick(PROGRAMS);
+        request.pid = 1000 + random.nextInt(30000);
+        request.method = pick(METHODS);
+        request.path = pick(PATHS);
+        request.status = STATUSES[random.nextInt(STATUSES.length)];
+        // Long tail of slow requests.
+        request.responseTime = (long) Math.min(30_000d, Math.exp(random.nextGaussian() * 1.5d + 4d));
+        request.bytes = random.nextInt(256 * 1024);
+        request.clientIp = "192.168." + random.nextInt(256) + "." + (1 + random.nextInt(254));
+        request.userAgent = pick(USER_AGENTS);
+        request.user = pick(USERS);
+        request.tenant = pick(TENANTS);
+        request.session = Long.toHexString(random.nextLong());
+        return request;
+    }
+
+    private String pick(String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static class Request {
+        long timestamp;
+        String host;
+        String program;
+        int pid;
+        String method;
+        String path;
+        int status;
+        long responseTime;
+        int bytes;
+        String clientIp;
+        String userAgent;
+        String user;
+        String tenant;
+        String session;
+
+        String shortHost() {
+            return host.substring(0, host.indexOf('.'));
+        }
+
+        int level() {
+            if (status >= 500) {
+                return 3;
+            }
+            return status >= 400 ? 4 : 6;
+        }
+
+        String summary() {
+            return clientIp + " - " + user + " \"" + method + " " + path + " HTTP/1.1\" " + status + " " + bytes + " " + responseTime + "ms";
+        }
+
+        String details() {
+            return "user=" + user + " tenant=" + tenant + " session=" + session;
+        }
+    }
+}
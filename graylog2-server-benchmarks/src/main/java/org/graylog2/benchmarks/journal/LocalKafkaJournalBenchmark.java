@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks.journal;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Size;
+import com.google.common.eventbus.EventBus;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import org.graylog2.audit.NullAuditEventSender;
+import org.graylog2.benchmarks.corpus.SyntheticCorpus;
+import org.graylog2.plugin.ServerStatus;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.plugin.system.SimpleNodeId;
+import org.graylog2.shared.journal.Journal;
+import org.graylog2.shared.journal.LocalKafkaJournal;
+import org.joda.time.Duration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes and reads batches of encoded raw GELF messages to and from a {@link LocalKafkaJournal}.
+ *
+ * Every iteration uses a new journal, which is pre-filled with {@link #PREFILLED_ENTRIES} entries for the read
+ * benchmark. Reads cycle through the pre-filled entries, so they are usually served from the page cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalKafkaJournalBenchmark {
+    private static final int MESSAGES = 1024;
+    private static final int PREFILLED_ENTRIES = 16 * MESSAGES;
+
+    @Param({"100"})
+    public int batchSize;
+
+    private ScheduledThreadPoolExecutor scheduler;
+    private ServerStatus serverStatus;
+    private byte[][] idBytes;
+    private byte[][] messageBytes;
+    private Path journalDirectory;
+    private LocalKafkaJournal journal;
+    private int next;
+    private long readOffset;
+
+    @Setup
+    public void setUp() {
+        scheduler = new ScheduledThreadPoolExecutor(1);
+        serverStatus = new ServerStatus(new org.graylog2.Configuration(), EnumSet.of(ServerStatus.Capability.SERVER),
+                new EventBus("journal-benchmark"), NullAuditEventSender::new, new SimpleNodeId("5ca1ab1e-0000-4000-a000-000000000000"));
+
+        final List<byte[]> payloads = new SyntheticCorpus().gelfMessages(MESSAGES);
+        idBytes = new byte[MESSAGES][];
+        messageBytes = new byte[MESSAGES][];
+        for (int i = 0; i < MESSAGES; i++) {
+            final RawMessage rawMessage = new RawMessage(payloads.get(i));
+            rawMessage.setCodecName("gelf");
+            rawMessage.setCodecConfig(Configuration.EMPTY_CONFIGURATION);
+            idBytes[i] = rawMessage.getIdBytes();
+            messageBytes[i] = rawMessage.encode();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Setup(Level.Iteration)
+    public void createJournal() throws IOException {
+        journalDirectory = Files.createTempDirectory(Path.of(System.getProperty("java.io.tmpdir")), "journal-benchmark");
+        journal = new LocalKafkaJournal(journalDirectory,
+                scheduler,
+                Size.megabytes(100L),
+                Duration.standardHours(1),
+                Size.gigabytes(5L),
+                Duration.standardHours(1),
+                1_000_000,
+                Duration.standardMinutes(1),
+                100,
+                new MetricRegistry(),
+                serverStatus);
+        journal.startAsync().awaitRunning();
+
+        for (int i = 0; i < PREFILLED_ENTRIES; i += batchSize) {
+            journal.write(nextBatch());
+        }
+        readOffset = 0L;
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteJournal() throws IOException {
+        journal.stopAsync().awaitTerminated();
+        MoreFiles.deleteRecursively(journalDirectory, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    private List<Journal.Entry> nextBatch() {
+        final List<Journal.Entry> entries = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            final int index = next++ & (MESSAGES - 1);
+            entries.add(journal.createEntry(idBytes[index], messageBytes[index]));
+        }
+        return entries;
+    }
+
+    @Benchmark
+    public long write() {
+        return journal.write(nextBatch());
+    }
+
+    @Benchmark
+    public List<Journal.JournalReadEntry> read() {
+        final List<Journal.JournalReadEntry> entries = journal.read(readOffset, batchSize);
+        readOffset = (readOffset + batchSize) % PREFILLED_ENTRIES;
+        return entries;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks.journal;
+
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.benchmarks.corpus.SyntheticCorpus;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.plugin.system.SimpleNodeId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes the journal representation of raw GELF messages, including the codec configuration and
+ * source node information which is written for every message received by an input.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RawMessageBenchmark {
+    private static final int MESSAGES = 1024;
+
+    private RawMessage[] rawMessages;
+    private byte[][] encoded;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        final Configuration codecConfig = new Configuration(ImmutableMap.of(
+                "decompress_size_limit", 8388608,
+                "override_source", "",
+                "charset_name", "UTF-8"));
+        final SimpleNodeId nodeId = new SimpleNodeId("5ca1ab1e-0000-4000-a000-000000000000");
+        final List<byte[]> payloads = new SyntheticCorpus().gelfMessages(MESSAGES);
+
+        rawMessages = new RawMessage[MESSAGES];
+        encoded = new byte[MESSAGES][];
+        for (int i = 0; i < MESSAGES; i++) {
+            final RawMessage rawMessage = new RawMessage(payloads.get(i), new InetSocketAddress("192.168.1." + (1 + i % 254), 12201));
+            rawMessage.setCodecName("gelf");
+            rawMessage.setCodecConfig(codecConfig);
+            rawMessage.addSourceNode("5ca1ab1e0000000000000001", nodeId);
+            rawMessages[i] = rawMessage;
+            encoded[i] = rawMessage.encode();
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return rawMessages[next++ & (MESSAGES - 1)].encode();
+    }
+
+    @Benchmark
+    public RawMessage decode() {
+        final int index = next++ & (MESSAGES - 1);
+        return RawMessage.decode(encoded[index], index);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks.messages;
+
+import org.graylog2.benchmarks.corpus.SyntheticCorpus;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageFieldStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link MessageFieldStorage storages} of message fields when creating messages, reading fields and
+ * copying all fields.
+ *
+ * The corpus messages have 16 fields, {@link #extraFields} adds numeric fields to model wider messages. Run with
+ * {@code -prof gc} to compare the allocation rates of the storages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageFieldStorageBenchmark {
+    private static final int MESSAGES = 1024;
+
+    @Param({"hash_map", "compact"})
+    public String storage;
+
+    @Param({"0", "40"})
+    public int extraFields;
+
+    private List<Map<String, Object>> fields;
+    private Message[] messages;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Message.setFieldStorage(new MessageFieldStorage.Converter().convertFrom(storage));
+
+        fields = new SyntheticCorpus().messageFields(MESSAGES);
+        messages = new Message[MESSAGES];
+        for (int i = 0; i < MESSAGES; i++) {
+            final Map<String, Object> messageFields = fields.get(i);
+            for (int j = 0; j < extraFields; j++) {
+                messageFields.put("extra_field_" + j, (long) i * j);
+            }
+            messages[i] = new Message(messageFields);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Message.setFieldStorage(MessageFieldStorage.HASH_MAP);
+    }
+
+    private int nextIndex() {
+        return next++ & (MESSAGES - 1);
+    }
+
+    @Benchmark
+    public Message createMessage() {
+        return new Message(fields.get(nextIndex()));
+    }
+
+    @Benchmark
+    public long readFields() {
+        final Message message = messages[nextIndex()];
+        long result = message.getFieldAs(String.class, "http_method").length();
+        result += message.getFieldAs(String.class, "request_path").length();
+        result += ((Number) message.getField("http_status")).longValue();
+        result += message.getFieldAs(Long.class, "response_time_ms");
+        result += message.getFieldAs(Double.class, "http.request.duration").longValue();
+        result += message.hasField("missing_field") ? 1 : 0;
+        return result + message.getSize();
+    }
+
+    @Benchmark
+    public Map<String, Object> copyFields() {
+        return messages[nextIndex()].getFields();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks.messages;
+
+import com.codahale.metrics.Meter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.graylog2.benchmarks.corpus.BenchmarkIndexSet;
+import org.graylog2.benchmarks.corpus.SyntheticCorpus;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.indexer.messages.BulkRequestWriter;
+import org.graylog2.indexer.messages.IndexingRequest;
+import org.graylog2.plugin.Message;
+import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Serializes messages for indexing, either through the intermediate map of {@link Message#toElasticSearchObject}
+ * or streamed into a bulk request body by the {@link BulkRequestWriter}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageSerializationBenchmark {
+    private static final int MESSAGES = 1024;
+    private static final int BATCH_SIZE = 500;
+
+    private final ObjectMapper objectMapper = new ObjectMapperProvider().get();
+    private final Meter invalidTimestampMeter = new Meter();
+
+    private Message[] messages;
+    private List<IndexingRequest> batch;
+    private BulkRequestWriter bulkRequestWriter;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        final List<Message> corpus = new SyntheticCorpus().messages(MESSAGES);
+        messages = corpus.toArray(new Message[0]);
+
+        final IndexSet indexSet = BenchmarkIndexSet.withWriteIndexAlias("graylog_deflector");
+        batch = corpus.stream()
+                .limit(BATCH_SIZE)
+                .map(message -> IndexingRequest.create(indexSet, message))
+                .collect(Collectors.toList());
+        bulkRequestWriter = new BulkRequestWriter(objectMapper, invalidTimestampMeter);
+    }
+
+    @Benchmark
+    public Map<String, Object> toElasticSearchObject() {
+        return messages[next++ & (MESSAGES - 1)].toElasticSearchObject(objectMapper, invalidTimestampMeter);
+    }
+
+    @Benchmark
+    public byte[] toElasticSearchObjectAsJson() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(messages[next++ & (MESSAGES - 1)].toElasticSearchObject(objectMapper, invalidTimestampMeter));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int writeBulkRequest() throws IOException {
+        return bulkRequestWriter.write(batch).size();
+    }
+}
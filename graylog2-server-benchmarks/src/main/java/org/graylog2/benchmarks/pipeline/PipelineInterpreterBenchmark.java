@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks.pipeline;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.io.Resources;
+import org.bson.types.ObjectId;
+import org.graylog.plugins.pipelineprocessor.ast.Pipeline;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.functions.Function;
+import org.graylog.plugins.pipelineprocessor.compiler.RuleCompiler;
+import org.graylog.plugins.pipelineprocessor.db.RuleMetricsConfigDto;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.LongConversion;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.StringConversion;
+import org.graylog.plugins.pipelineprocessor.functions.messages.DropMessage;
+import org.graylog.plugins.pipelineprocessor.functions.messages.HasField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.RemoveField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.SetField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.SetFields;
+import org.graylog.plugins.pipelineprocessor.functions.strings.Concat;
+import org.graylog.plugins.pipelineprocessor.functions.strings.Contains;
+import org.graylog.plugins.pipelineprocessor.functions.strings.KeyValue;
+import org.graylog.plugins.pipelineprocessor.functions.strings.Lowercase;
+import org.graylog.plugins.pipelineprocessor.functions.strings.RegexMatch;
+import org.graylog.plugins.pipelineprocessor.functions.strings.Substring;
+import org.graylog.plugins.pipelineprocessor.parser.FunctionRegistry;
+import org.graylog.plugins.pipelineprocessor.parser.PipelineRuleParser;
+import org.graylog.plugins.pipelineprocessor.processors.PipelineInterpreter;
+import org.graylog.plugins.pipelineprocessor.processors.listeners.NoopInterpreterListener;
+import org.graylog2.benchmarks.corpus.BenchmarkIndexSet;
+import org.graylog2.benchmarks.corpus.SyntheticCorpus;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageCollection;
+import org.graylog2.plugin.Messages;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.shared.messageq.noop.NoopMessageQueueAcknowledger;
+import org.graylog2.streams.StreamImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Runs batches of access log messages through a pipeline with three stages and seven rules, which parse, normalize
+ * and enrich the messages with commonly used functions.
+ *
+ * The messages are modified by the pipeline, so every invocation processes a new batch. Building the batch from the
+ * pre-generated field maps is not part of the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineInterpreterBenchmark {
+    private static final int MESSAGES = 4096;
+    private static final List<String> RULES = ImmutableList.of(
+            "drop-health-checks.rule",
+            "normalize-http-method.rule",
+            "parse-request-details.rule",
+            "classify-http-status.rule",
+            "extract-api-resource.rule",
+            "flag-server-errors.rule",
+            "flag-slow-requests.rule");
+    private static final String PIPELINE = "access-log.pipeline";
+
+    @Param({"100"})
+    public int batchSize;
+
+    @Param({"true", "false"})
+    public boolean compiled;
+
+    private PipelineInterpreter interpreter;
+    private PipelineInterpreter.State state;
+    private Stream defaultStream;
+    private List<Map<String, Object>> corpus;
+    private Messages batch;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final PipelineRuleParser parser = new PipelineRuleParser(new FunctionRegistry(functions()));
+
+        final Map<String, Rule> rules = new HashMap<>();
+        for (String resource : RULES) {
+            final Rule rule = parser.parseRule(resource, load(resource), false);
+            rules.put(rule.name(), rule);
+        }
+        final Pipeline pipeline = parser.parsePipeline("access-log", load(PIPELINE));
+        pipeline.stages().forEach(stage -> {
+            final List<Rule> resolvedRules = stage.ruleReferences().stream()
+                    .map(ref -> {
+                        final Rule rule = rules.get(ref).copy();
+                        if (compiled) {
+                            RuleCompiler.compile(rule);
+                        }
+                        rule.registerMetrics(metricRegistry, pipeline.id(), String.valueOf(stage.stage()));
+                        return rule;
+                    })
+                    .collect(Collectors.toList());
+            stage.setRules(resolvedRules);
+            stage.setPipeline(pipeline);
+            stage.registerMetrics(metricRegistry, pipeline.id());
+        });
+        pipeline.registerMetrics(metricRegistry);
+
+        state = new PipelineInterpreter.State(ImmutableMap.of(pipeline.id(), pipeline),
+                ImmutableSetMultimap.of(Stream.DEFAULT_STREAM_ID, pipeline),
+                RuleMetricsConfigDto.createDefault(),
+                metricRegistry,
+                1,
+                true);
+        interpreter = new PipelineInterpreter(new NoopMessageQueueAcknowledger(), metricRegistry, null);
+        defaultStream = new StreamImpl(new ObjectId(Stream.DEFAULT_STREAM_ID), new HashMap<>(), Collections.emptyList(),
+                Collections.emptySet(), BenchmarkIndexSet.withWriteIndexAlias("graylog_deflector"));
+        corpus = new SyntheticCorpus().messageFields(MESSAGES);
+    }
+
+    @Setup(Level.Invocation)
+    public void createBatch() {
+        final List<Message> messages = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            final Message message = new Message(new HashMap<>(corpus.get(next++ & (MESSAGES - 1))));
+            message.addStream(defaultStream);
+            messages.add(message);
+        }
+        batch = new MessageCollection(messages);
+    }
+
+    @Benchmark
+    public Messages process() {
+        return interpreter.process(batch, new NoopInterpreterListener(), state);
+    }
+
+    private static Map<String, Function<?>> functions() {
+        final Map<String, Function<?>> functions = new HashMap<>();
+        functions.put(StringConversion.NAME, new StringConversion());
+        functions.put(LongConversion.NAME, new LongConversion());
+        functions.put(HasField.NAME, new HasField());
+        functions.put(SetField.NAME, new SetField());
+        functions.put(SetFields.NAME, new SetFields());
+        functions.put(RemoveField.NAME, new RemoveField());
+        functions.put(DropMessage.NAME, new DropMessage());
+        functions.put(Lowercase.NAME, new Lowercase());
+        functions.put(Contains.NAME, new Contains());
+        functions.put(Concat.NAME, new Concat());
+        functions.put(Substring.NAME, new Substring());
+        functions.put(KeyValue.NAME, new KeyValue());
+        functions.put(RegexMatch.NAME, new RegexMatch());
+        return functions;
+    }
+
+    private static String load(String resource) throws IOException {
+        return Resources.toString(Resources.getResource(PipelineInterpreterBenchmark.class, resource), StandardCharsets.UTF_8);
+    }
+}
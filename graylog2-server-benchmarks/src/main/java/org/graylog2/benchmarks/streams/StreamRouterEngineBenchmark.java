@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks.streams;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bson.types.ObjectId;
+import org.graylog2.Configuration;
+import org.graylog2.benchmarks.corpus.SyntheticCorpus;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugin.streams.StreamRule;
+import org.graylog2.plugin.streams.StreamRuleType;
+import org.graylog2.streams.StreamFaultManager;
+import org.graylog2.streams.StreamImpl;
+import org.graylog2.streams.StreamMetrics;
+import org.graylog2.streams.StreamRouterEngine;
+import org.graylog2.streams.StreamRuleImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matches messages against a set of streams with a realistic mix of stream rule types.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamRouterEngineBenchmark {
+    private static final int MESSAGES = 1024;
+    private static final String[] FIELDS = {"source", "facility", "http_method", "request_path", "user", "client_ip"};
+    private static final String[] EXACT_VALUES = {"web-01.example.org", "nginx", "POST", "/login", "alice", "app"};
+    private static final String[] REGEX_VALUES = {"^web-\\d+\\.", "^/api/(users|orders)", "^192\\.168\\.1\\d\\.", "^(eve|mallory)$"};
+
+    @Param({"10", "100"})
+    public int streams;
+
+    @Param({"true", "false"})
+    public boolean compiled;
+
+    private ExecutorService executor;
+    private StreamRouterEngine engine;
+    private Message[] messages;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final StreamMetrics streamMetrics = new StreamMetrics(metricRegistry);
+        final Stream defaultStream = stream(Stream.DEFAULT_STREAM_ID, Collections.emptyList(), Stream.MatchingType.AND);
+
+        final Random random = new Random(SyntheticCorpus.DEFAULT_SEED);
+        final List<Stream> streamList = new ArrayList<>(streams);
+        for (int i = 0; i < streams; i++) {
+            final String id = String.format(Locale.ENGLISH, "%024x", i + 1);
+            final List<StreamRule> rules = new ArrayList<>();
+            final int ruleCount = 1 + random.nextInt(3);
+            for (int j = 0; j < ruleCount; j++) {
+                rules.add(streamRule(id, random));
+            }
+            streamList.add(stream(id, rules, random.nextBoolean() ? Stream.MatchingType.AND : Stream.MatchingType.OR));
+        }
+
+        executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("stream-router-benchmark-%d").build());
+        engine = new StreamRouterEngine(streamList,
+                executor,
+                new StreamFaultManager(new Configuration(), streamMetrics, null, null),
+                streamMetrics,
+                () -> defaultStream,
+                metricRegistry,
+                compiled);
+
+        messages = new SyntheticCorpus().messages(MESSAGES).toArray(new Message[0]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static Stream stream(String id, List<StreamRule> rules, Stream.MatchingType matchingType) {
+        final Map<String, Object> fields = new HashMap<>();
+        fields.put(StreamImpl.FIELD_TITLE, "Stream " + id);
+        fields.put(StreamImpl.FIELD_MATCHING_TYPE, matchingType.name());
+        fields.put(StreamImpl.FIELD_REMOVE_MATCHES_FROM_DEFAULT_STREAM, false);
+        return new StreamImpl(new ObjectId(id), fields, rules, Collections.emptySet(), null);
+    }
+
+    private static StreamRule streamRule(String streamId, Random random) {
+        final Map<String, Object> fields = new HashMap<>();
+        fields.put(StreamRuleImpl.FIELD_STREAM_ID, new ObjectId(streamId));
+        fields.put(StreamRuleImpl.FIELD_INVERTED, random.nextInt(10) == 0);
+        final int type = random.nextInt(10);
+        if (type < 5) {
+            final int field = random.nextInt(FIELDS.length);
+            fields.put(StreamRuleImpl.FIELD_TYPE, StreamRuleType.EXACT.toInteger());
+            fields.put(StreamRuleImpl.FIELD_FIELD, FIELDS[field]);
+            fields.put(StreamRuleImpl.FIELD_VALUE, EXACT_VALUES[field]);
+        } else if (type < 7) {
+            fields.put(StreamRuleImpl.FIELD_TYPE, StreamRuleType.REGEX.toInteger());
+            fields.put(StreamRuleImpl.FIELD_FIELD, random.nextBoolean() ? "source" : "request_path");
+            fields.put(StreamRuleImpl.FIELD_VALUE, REGEX_VALUES[random.nextInt(REGEX_VALUES.length)]);
+        } else if (type < 8) {
+            fields.put(StreamRuleImpl.FIELD_TYPE, StreamRuleType.GREATER.toInteger());
+            fields.put(StreamRuleImpl.FIELD_FIELD, "http_status");
+            fields.put(StreamRuleImpl.FIELD_VALUE, String.valueOf(399 + 100 * random.nextInt(2)));
+        } else if (type < 9) {
+            fields.put(StreamRuleImpl.FIELD_TYPE, StreamRuleType.CONTAINS.toInteger());
+            fields.put(StreamRuleImpl.FIELD_FIELD, "message");
+            fields.put(StreamRuleImpl.FIELD_VALUE, "HTTP/1.1\" 50");
+        } else {
+            fields.put(StreamRuleImpl.FIELD_TYPE, StreamRuleType.PRESENCE.toInteger());
+            fields.put(StreamRuleImpl.FIELD_FIELD, random.nextBoolean() ? "user" : "trace_id");
+        }
+        return new StreamRuleImpl(fields);
+    }
+
+    @Benchmark
+    public List<Stream> match() {
+        return engine.match(messages[next++ & (MESSAGES - 1)]);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.benchmarks.utilities;
+
+import org.graylog2.utilities.IpPrefixTrie;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Longest-prefix-match lookups in an {@link IpPrefixTrie} filled with random IPv4 or IPv6 prefixes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IpPrefixTrieBenchmark {
+    private static final int ADDRESSES = 4096;
+
+    @Param({"10000", "1000000"})
+    public int prefixes;
+
+    @Param({"4", "16"})
+    public int addressLength;
+
+    private IpPrefixTrie<String> trie;
+    private InetAddress[] addresses;
+    private String[] addressStrings;
+    private int next;
+
+    @Setup
+    public void setUp() throws UnknownHostException {
+        final Random random = new Random(42L);
+        final int bits = addressLength * 8;
+        trie = new IpPrefixTrie<>();
+        while (trie.size() < prefixes) {
+            // Mostly long prefixes, like in real-world routing and threat intel tables.
+            final int prefixLength = Math.max(8, bits - random.nextInt(bits / 2));
+            trie.add(randomAddress(random), prefixLength, "value");
+        }
+
+        addresses = new InetAddress[ADDRESSES];
+        addressStrings = new String[ADDRESSES];
+        for (int i = 0; i < ADDRESSES; i++) {
+            addresses[i] = randomAddress(random);
+            addressStrings[i] = addresses[i].getHostAddress();
+        }
+    }
+
+    private InetAddress randomAddress(Random random) throws UnknownHostException {
+        final byte[] bytes = new byte[addressLength];
+        random.nextBytes(bytes);
+        if (addressLength == 16) {
+            // Avoid IPv4-mapped addresses which are turned into IPv4 addresses.
+            bytes[0] = (byte) 0x20;
+        }
+        return InetAddress.getByAddress(bytes);
+    }
+
+    @Benchmark
+    public String findAddress() {
+        return trie.find(addresses[next++ & (ADDRESSES - 1)]);
+    }
+
+    @Benchmark
+    public String findString() {
+        return trie.find(addressStrings[next++ & (ADDRESSES - 1)]);
+    }
+}
@@ -106,6 +106,24 @@ public class EventProcessorEngine {
         }
     }
 
+    /**
+     * Runs the field spec, notification and storage handlers for events which have been created outside of an event
+     * processor execution. (e.g. while processing messages)
+     *
+     * @param definition        the event definition of the events
+     * @param eventsWithContext the events
+     * @throws EventProcessorException if the events couldn't be emitted
+     */
+    public void emitEvents(EventDefinition definition, List<EventWithContext> eventsWithContext) throws EventProcessorException {
+        final EventProcessor.Factory factory = eventProcessorFactories.get(definition.config().type());
+
+        if (factory == null) {
+            throw new EventProcessorException("Couldn't find event processor factory for type " + definition.config().type(), true, definition.id(), definition);
+        }
+
+        emitEvents(factory.create(definition), definition, eventsWithContext);
+    }
+
     private void emitEvents(EventProcessor eventProcessor, EventDefinition eventDefinition, List<EventWithContext> eventsWithContext) throws EventProcessorException {
         if (eventsWithContext.isEmpty()) {
             return;
@@ -30,6 +30,7 @@ import org.graylog.scheduler.JobExecutionContext;
 import org.graylog.scheduler.JobExecutionException;
 import org.graylog.scheduler.JobScheduleStrategies;
 import org.graylog.scheduler.JobTriggerData;
+import org.graylog.scheduler.JobTriggerDto;
 import org.graylog.scheduler.JobTriggerUpdate;
 import org.graylog.scheduler.clock.JobSchedulerClock;
 import org.joda.time.DateTime;
@@ -78,16 +79,7 @@ public class EventProcessorExecutionJob implements Job {
     @Override
     public JobTriggerUpdate execute(JobExecutionContext ctx) throws JobExecutionException {
         final Optional<Data> data = ctx.trigger().data().map(d -> (Data) d);
-
-        // Use timerange from job trigger data if it exists
-        final EventProcessorParametersWithTimerange parameters;
-        if (data.isPresent()) {
-            LOG.trace("Using timerange from job trigger data: from={} to={} (trigger={})",
-                    data.get().timerangeFrom(), data.get().timerangeTo(), ctx.trigger().id());
-            parameters = config.parameters().withTimerange(data.get().timerangeFrom(), data.get().timerangeTo());
-        } else {
-            parameters = config.parameters();
-        }
+        final EventProcessorParametersWithTimerange parameters = parameters(config, ctx.trigger());
 
         final DateTime from = parameters.timerange().getFrom();
         final DateTime to = parameters.timerange().getTo();
@@ -200,6 +192,25 @@ public class EventProcessorExecutionJob implements Job {
         }
     }
 
+    /**
+     * Returns the parameters for the next execution of the given trigger of an event processor job.
+     *
+     * @param config  the config of the job definition
+     * @param trigger the job trigger
+     * @return the parameters with the timerange to process
+     */
+    public static EventProcessorParametersWithTimerange parameters(Config config, JobTriggerDto trigger) {
+        final Optional<Data> data = trigger.data().map(d -> (Data) d);
+
+        // Use timerange from job trigger data if it exists
+        if (data.isPresent()) {
+            LOG.trace("Using timerange from job trigger data: from={} to={} (trigger={})",
+                    data.get().timerangeFrom(), data.get().timerangeTo(), trigger.id());
+            return config.parameters().withTimerange(data.get().timerangeFrom(), data.get().timerangeTo());
+        }
+        return config.parameters();
+    }
+
     @AutoValue
     @JsonTypeName(EventProcessorExecutionJob.TYPE_NAME)
     @JsonDeserialize(builder = Config.Builder.class)
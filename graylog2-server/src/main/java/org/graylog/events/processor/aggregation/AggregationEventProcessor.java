@@ -45,6 +45,7 @@ import org.graylog.plugins.views.search.elasticsearch.ElasticsearchQueryString;
 import org.graylog.plugins.views.search.errors.ParameterExpansionError;
 import org.graylog.plugins.views.search.errors.SearchException;
 import org.graylog2.indexer.ElasticsearchException;
+import org.graylog2.indexer.messages.DocumentNotFoundException;
 import org.graylog2.indexer.messages.Messages;
 import org.graylog2.indexer.results.ResultMessage;
 import org.graylog2.plugin.Message;
@@ -85,6 +86,7 @@ public class AggregationEventProcessor implements EventProcessor {
     private final MoreSearch moreSearch;
     private final EventStreamService eventStreamService;
     private final Messages messages;
+    private final FilterEventDefinitionRegistry filterEventDefinitionRegistry;
 
     @Inject
     public AggregationEventProcessor(@Assisted EventDefinition eventDefinition,
@@ -93,7 +95,8 @@ public class AggregationEventProcessor implements EventProcessor {
                                      DBEventProcessorStateService stateService,
                                      MoreSearch moreSearch,
                                      EventStreamService eventStreamService,
-                                     Messages messages) {
+                                     Messages messages,
+                                     FilterEventDefinitionRegistry filterEventDefinitionRegistry) {
         this.eventDefinition = eventDefinition;
         this.config = (AggregationEventProcessorConfig) eventDefinition.config();
         this.aggregationSearchFactory = aggregationSearchFactory;
@@ -102,6 +105,7 @@ public class AggregationEventProcessor implements EventProcessor {
         this.moreSearch = moreSearch;
         this.eventStreamService = eventStreamService;
         this.messages = messages;
+        this.filterEventDefinitionRegistry = filterEventDefinitionRegistry;
     }
 
     @Override
@@ -156,6 +160,10 @@ public class AggregationEventProcessor implements EventProcessor {
                 final ResultMessage message;
                 message = messages.get(esContext.messageId(), esContext.indexName());
                 messageConsumer.accept(Lists.newArrayList(new MessageSummary(message.getIndex(), message.getMessage())));
+            } catch (DocumentNotFoundException e) {
+                // Events created while processing messages reference the write index alias of the message's index set,
+                // which might point to a newer index by now.
+                sourceMessageById(event, esContext.messageId(), messageConsumer);
             } catch (IOException e) {
                 throw new EventProcessorException("Failed to query origin context message", false, eventDefinition, e);
             }
@@ -184,6 +192,22 @@ public class AggregationEventProcessor implements EventProcessor {
         }
     }
 
+    private void sourceMessageById(Event event, String messageId, Consumer<List<MessageSummary>> messageConsumer) throws EventProcessorException {
+        if (event.getTimerangeStart() == null || event.getTimerangeEnd() == null) {
+            throw new EventProcessorException("Failed to query origin context message", false, eventDefinition);
+        }
+        final MoreSearch.ScrollCallback callback = (messages, continueScrolling) -> {
+            continueScrolling.set(false);
+            messageConsumer.accept(messages.stream()
+                    .limit(1)
+                    .map(resultMessage -> new MessageSummary(resultMessage.getIndex(), resultMessage.getMessage()))
+                    .collect(Collectors.toList()));
+        };
+        final String queryString = "_id:\"" + luceneEscape(messageId) + "\"";
+        final TimeRange timeRange = AbsoluteRange.create(event.getTimerangeStart(), event.getTimerangeEnd());
+        moreSearch.scrollQuery(queryString, config.streams(), ImmutableSet.of(), timeRange, 1, callback);
+    }
+
     // Return the ES query string for the group by fields specified in event; or empty if none specified.
     // Search value is escaped and enclosed in quotes.
     private ElasticsearchQueryString groupByQueryString(Event event) {
@@ -238,7 +262,18 @@ public class AggregationEventProcessor implements EventProcessor {
             eventsConsumer.accept(eventsWithContext.build());
         };
 
-        moreSearch.scrollQuery(config.query(), streams, config.queryParameters(), parameters.timerange(), parameters.batchSize(), callback);
+        moreSearch.scrollQuery(filterQueryString(), streams, config.queryParameters(), parameters.timerange(), parameters.batchSize(), callback);
+    }
+
+    // Messages which already created an event while they were processed must not create another one.
+    private String filterQueryString() {
+        if (!filterEventDefinitionRegistry.isEnabled()) {
+            return config.query();
+        }
+        final String exclusion = "NOT " + Message.FIELD_GL2_EVENT_DEFINITION_IDS + ":\"" + luceneEscape(eventDefinition.id()) + "\"";
+        return ElasticsearchQueryString.of(config.query())
+                .concatenate(ElasticsearchQueryString.of(exclusion))
+                .queryString();
     }
 
     private void aggregatedSearch(EventFactory eventFactory, AggregationEventProcessorParameters parameters,
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.aggregation;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.graylog.events.configuration.EventsConfigurationProvider;
+import org.graylog.events.processor.DBEventDefinitionService;
+import org.graylog.events.processor.EventDefinitionDto;
+import org.graylog.events.processor.EventProcessorException;
+import org.graylog.events.processor.EventProcessorExecutionJob;
+import org.graylog.events.processor.EventProcessorParametersWithTimerange;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.QueryResult;
+import org.graylog.plugins.views.search.Search;
+import org.graylog.plugins.views.search.SearchJob;
+import org.graylog.plugins.views.search.SearchType;
+import org.graylog.plugins.views.search.db.SearchJobService;
+import org.graylog.plugins.views.search.elasticsearch.ElasticsearchQueryString;
+import org.graylog.plugins.views.search.engine.QueryEngine;
+import org.graylog.plugins.views.search.rest.PermittedStreams;
+import org.graylog.scheduler.DBJobDefinitionService;
+import org.graylog.scheduler.DBJobTriggerService;
+import org.graylog.scheduler.JobDefinitionDto;
+import org.graylog.scheduler.JobTriggerDto;
+import org.graylog.scheduler.clock.JobSchedulerClock;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.graylog2.plugin.indexer.searches.timeranges.TimeRange;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Runs the searches of aggregation event definitions in the same streams as a single search.
+ * <p>
+ * The job scheduler locks and executes the trigger of one event definition at a time. When the search of an
+ * aggregation event definition is executed, the batcher looks up the other due triggers of aggregation event
+ * definitions with the same streams and runs all of their searches in one search job. Every event definition gets
+ * its own pivot search types, which override the query and timerange of the batch query, so the backend executes
+ * them with a single multi-search request. The results for the other event definitions are kept until their
+ * triggers are executed. These skip their own search and evaluate their conditions against the batched result.
+ */
+@Singleton
+public class AggregationSearchBatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(AggregationSearchBatcher.class);
+
+    private static final String QUERY_ID = "batch-query-1";
+    private static final String SEARCH_OWNER = "event-processor-" + AggregationEventProcessorConfig.TYPE_NAME + "-batch";
+
+    // Batched results are discarded if the triggers of their event definitions aren't executed in time, e.g. because
+    // the event definition has been disabled in the meantime.
+    @VisibleForTesting
+    static final Duration RESULT_TTL = Duration.standardMinutes(5);
+
+    private final int maxBatchSize;
+    private final DBJobTriggerService jobTriggerService;
+    private final DBJobDefinitionService jobDefinitionService;
+    private final DBEventDefinitionService eventDefinitionService;
+    private final AggregationSearch.Factory aggregationSearchFactory;
+    private final SearchJobService searchJobService;
+    private final QueryEngine queryEngine;
+    private final PermittedStreams permittedStreams;
+    private final EventsConfigurationProvider configurationProvider;
+    private final JobSchedulerClock clock;
+    private final ConcurrentMap<ResultKey, BatchedResult> batchedResults = new ConcurrentHashMap<>();
+    private final Histogram batchSize;
+    private final Counter searchesSaved;
+    private final Counter expiredResults;
+
+    @Inject
+    public AggregationSearchBatcher(@Named("events_aggregation_search_batch_size") int maxBatchSize,
+                                    DBJobTriggerService jobTriggerService,
+                                    DBJobDefinitionService jobDefinitionService,
+                                    DBEventDefinitionService eventDefinitionService,
+                                    AggregationSearch.Factory aggregationSearchFactory,
+                                    SearchJobService searchJobService,
+                                    QueryEngine queryEngine,
+                                    PermittedStreams permittedStreams,
+                                    EventsConfigurationProvider configurationProvider,
+                                    JobSchedulerClock clock,
+                                    MetricRegistry metricRegistry) {
+        this.maxBatchSize = maxBatchSize;
+        this.jobTriggerService = jobTriggerService;
+        this.jobDefinitionService = jobDefinitionService;
+        this.eventDefinitionService = eventDefinitionService;
+        this.aggregationSearchFactory = aggregationSearchFactory;
+        this.searchJobService = searchJobService;
+        this.queryEngine = queryEngine;
+        this.permittedStreams = permittedStreams;
+        this.configurationProvider = configurationProvider;
+        this.clock = clock;
+        this.batchSize = metricRegistry.histogram(name(AggregationSearchBatcher.class, "batchSize"));
+        this.searchesSaved = metricRegistry.counter(name(AggregationSearchBatcher.class, "searchesSaved"));
+        this.expiredResults = metricRegistry.counter(name(AggregationSearchBatcher.class, "expiredResults"));
+    }
+
+    public boolean isEnabled() {
+        return maxBatchSize > 1;
+    }
+
+    /**
+     * Returns the result of the batch query which contains the search types of the given search. The result is
+     * either taken from an earlier batch which included the search, or a new batch with the due searches in the
+     * same streams is executed.
+     *
+     * @param search the search, which must be {@link PivotAggregationSearch#isBatchable() batchable}
+     * @return the result of the batch query
+     */
+    QueryResult search(PivotAggregationSearch search) throws EventProcessorException {
+        expireResults();
+
+        final BatchedResult batchedResult = batchedResults.remove(ResultKey.of(search));
+        if (batchedResult != null) {
+            try {
+                final QueryResult queryResult = awaitResult(batchedResult.result(), search);
+                searchesSaved.inc();
+                return queryResult;
+            } catch (EventProcessorException e) {
+                LOG.debug("Batched search for event definition <{}/{}> failed, running a new search.",
+                        search.eventDefinition().title(), search.eventDefinition().id(), e);
+            }
+        }
+
+        return searchBatch(search);
+    }
+
+    private QueryResult searchBatch(PivotAggregationSearch search) throws EventProcessorException {
+        final CompletableFuture<QueryResult> result = new CompletableFuture<>();
+        final BatchedResult batchedResult = BatchedResult.create(result, clock.nowUTC());
+
+        final List<PivotAggregationSearch> searches = new ArrayList<>();
+        searches.add(search);
+        for (final PivotAggregationSearch peer : duePeers(search)) {
+            if (searches.size() >= maxBatchSize) {
+                break;
+            }
+            // The search might already be part of another batch which is still running
+            if (batchedResults.putIfAbsent(ResultKey.of(peer), batchedResult) == null) {
+                searches.add(peer);
+            }
+        }
+        batchSize.update(searches.size());
+        LOG.debug("Running batch of {} aggregation searches for event definition <{}/{}>",
+                searches.size(), search.eventDefinition().title(), search.eventDefinition().id());
+
+        try {
+            final QueryResult queryResult = execute(searches, search);
+            result.complete(queryResult);
+            return queryResult;
+        } catch (EventProcessorException | RuntimeException e) {
+            result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the searches of the due aggregation event definitions with the same streams.
+     * Only timeranges which end before the timerange of the given search are included, because the indexing of the
+     * messages has only been checked for that timerange.
+     */
+    private List<PivotAggregationSearch> duePeers(PivotAggregationSearch search) {
+        final List<JobTriggerDto> triggers = jobTriggerService.findDueTriggers(EventProcessorExecutionJob.TYPE_NAME);
+        if (triggers.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final Map<String, EventProcessorExecutionJob.Config> jobConfigs;
+        try (Stream<JobDefinitionDto> jobDefinitions = jobDefinitionService.streamByIds(triggers.stream().map(JobTriggerDto::jobDefinitionId).collect(toSet()))) {
+            jobConfigs = jobDefinitions
+                    .filter(jobDefinition -> jobDefinition.config() instanceof EventProcessorExecutionJob.Config)
+                    .collect(Collectors.toMap(JobDefinitionDto::id, jobDefinition -> (EventProcessorExecutionJob.Config) jobDefinition.config()));
+        }
+        final Map<String, EventDefinitionDto> eventDefinitions;
+        try (Stream<EventDefinitionDto> dtos = eventDefinitionService.streamByIds(jobConfigs.values().stream().map(EventProcessorExecutionJob.Config::eventDefinitionId).collect(toSet()))) {
+            eventDefinitions = dtos
+                    .filter(eventDefinition -> eventDefinition.config() instanceof AggregationEventProcessorConfig)
+                    .collect(Collectors.toMap(EventDefinitionDto::id, Function.identity()));
+        }
+
+        final List<PivotAggregationSearch> peers = new ArrayList<>();
+        for (final JobTriggerDto trigger : triggers) {
+            final EventProcessorExecutionJob.Config jobConfig = jobConfigs.get(trigger.jobDefinitionId());
+            final EventDefinitionDto eventDefinition = jobConfig == null ? null : eventDefinitions.get(jobConfig.eventDefinitionId());
+            if (eventDefinition == null || eventDefinition.id().equals(search.eventDefinition().id())) {
+                continue;
+            }
+
+            final AggregationEventProcessorConfig config = (AggregationEventProcessorConfig) eventDefinition.config();
+            final EventProcessorParametersWithTimerange parameters = EventProcessorExecutionJob.parameters(jobConfig, trigger);
+            final TimeRange timerange = parameters.timerange();
+            if (config.series().isEmpty()
+                    || !(parameters instanceof AggregationEventProcessorParameters)
+                    || !timerange.getTo().isAfter(timerange.getFrom())
+                    || timerange.getTo().isAfter(search.timerange().getTo())) {
+                continue;
+            }
+
+            final String searchOwner = "event-processor-" + AggregationEventProcessorConfig.TYPE_NAME + "-" + eventDefinition.id();
+            final AggregationSearch peer = aggregationSearchFactory.create(config, (AggregationEventProcessorParameters) parameters, searchOwner, eventDefinition);
+            if (peer instanceof PivotAggregationSearch) {
+                final PivotAggregationSearch pivotSearch = (PivotAggregationSearch) peer;
+                if (pivotSearch.isBatchable() && pivotSearch.configuredStreams().equals(search.configuredStreams())) {
+                    peers.add(pivotSearch);
+                }
+            }
+        }
+        return peers;
+    }
+
+    private QueryResult execute(List<PivotAggregationSearch> searches, PivotAggregationSearch search) throws EventProcessorException {
+        final ImmutableSet<SearchType> searchTypes = searches.stream()
+                .flatMap(s -> s.batchSearchTypes().stream())
+                .collect(ImmutableSet.toImmutableSet());
+        final DateTime from = searches.stream().map(s -> s.timerange().getFrom()).min(Comparator.naturalOrder()).orElseThrow();
+        final DateTime to = searches.stream().map(s -> s.timerange().getTo()).max(Comparator.naturalOrder()).orElseThrow();
+
+        final Query.Builder queryBuilder = Query.builder()
+                .id(QUERY_ID)
+                .searchTypes(searchTypes)
+                .query(ElasticsearchQueryString.empty())
+                .timerange(AbsoluteRange.create(from, to));
+
+        final Set<String> streams = search.streams();
+        if (!streams.isEmpty()) {
+            queryBuilder.filter(PivotAggregationSearch.filteringForStreamIds(streams));
+        }
+
+        Search batchSearch = Search.builder()
+                .queries(ImmutableSet.of(queryBuilder.build()))
+                .build();
+        // This adds all streams if none were provided, like the search of a single event definition
+        batchSearch = batchSearch.addStreamsToQueriesWithoutStreams(() -> permittedStreams.load((streamId) -> true));
+
+        final SearchJob searchJob = queryEngine.execute(searchJobService.create(batchSearch, SEARCH_OWNER), Collections.emptySet());
+        awaitResult(searchJob.getResultFuture(), search);
+
+        return searchJob.results().get(QUERY_ID);
+    }
+
+    private <T> T awaitResult(CompletableFuture<T> future, PivotAggregationSearch search) throws EventProcessorException {
+        try {
+            return Uninterruptibles.getUninterruptibly(future, configurationProvider.get().eventsSearchTimeout(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new EventProcessorException("Error executing search job: " + e.getMessage(), false, search.eventDefinition(), e);
+        } catch (TimeoutException e) {
+            throw new EventProcessorException("Timeout while executing search job.", false, search.eventDefinition(), e);
+        } catch (Exception e) {
+            throw new EventProcessorException("Unhandled exception in search job.", false, search.eventDefinition(), e);
+        }
+    }
+
+    private void expireResults() {
+        final DateTime expiry = clock.nowUTC().minus(RESULT_TTL);
+        batchedResults.values().removeIf(batchedResult -> {
+            final boolean expired = batchedResult.result().isDone() && batchedResult.createdAt().isBefore(expiry);
+            if (expired) {
+                expiredResults.inc();
+            }
+            return expired;
+        });
+    }
+
+    @AutoValue
+    abstract static class ResultKey {
+        abstract String eventDefinitionId();
+
+        // A result is only used for the same config and parameters, in case the event definition has been changed
+        abstract AggregationEventProcessorConfig config();
+
+        abstract AggregationEventProcessorParameters parameters();
+
+        static ResultKey of(PivotAggregationSearch search) {
+            return new AutoValue_AggregationSearchBatcher_ResultKey(search.eventDefinition().id(), search.config(), search.parameters());
+        }
+    }
+
+    @AutoValue
+    abstract static class BatchedResult {
+        abstract CompletableFuture<QueryResult> result();
+
+        abstract DateTime createdAt();
+
+        static BatchedResult create(CompletableFuture<QueryResult> result, DateTime createdAt) {
+            return new AutoValue_AggregationSearchBatcher_BatchedResult(result, createdAt);
+        }
+    }
+}
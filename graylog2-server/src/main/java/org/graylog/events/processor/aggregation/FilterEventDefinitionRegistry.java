@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.aggregation;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import org.graylog.events.processor.DBEventDefinitionService;
+import org.graylog.events.processor.EventDefinitionDto;
+import org.graylog.events.processor.EventProcessorExecutionJob;
+import org.graylog.scheduler.DBJobDefinitionService;
+import org.graylog2.plugin.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the compiled filter event definitions which are evaluated by the {@link FilterEventMessageProcessor}.
+ * <p>
+ * Only scheduled aggregation event definitions without series and query parameters and with a query supported by
+ * {@link FilterQueryMatcher} are included. The definitions are reloaded periodically.
+ */
+@Singleton
+public class FilterEventDefinitionRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(FilterEventDefinitionRegistry.class);
+
+    private static final long RELOAD_INTERVAL_SECONDS = 5;
+
+    private final boolean enabled;
+    private final DBEventDefinitionService eventDefinitionService;
+    private final DBJobDefinitionService jobDefinitionService;
+    private final AtomicReference<List<FilterEventDefinition>> definitions = new AtomicReference<>(ImmutableList.of());
+
+    @Inject
+    public FilterEventDefinitionRegistry(@Named("events_filter_message_processor_enabled") boolean enabled,
+                                         DBEventDefinitionService eventDefinitionService,
+                                         DBJobDefinitionService jobDefinitionService,
+                                         @Named("daemonScheduler") ScheduledExecutorService scheduler) {
+        this.enabled = enabled;
+        this.eventDefinitionService = eventDefinitionService;
+        this.jobDefinitionService = jobDefinitionService;
+
+        if (enabled) {
+            scheduler.scheduleWithFixedDelay(this::reload, 0, RELOAD_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public List<FilterEventDefinition> definitions() {
+        return definitions.get();
+    }
+
+    @VisibleForTesting
+    void reload() {
+        try {
+            final List<EventDefinitionDto> filterDefinitions;
+            try (Stream<EventDefinitionDto> stream = eventDefinitionService.streamAll()) {
+                filterDefinitions = stream.filter(FilterEventDefinitionRegistry::isFilterDefinition)
+                        .collect(Collectors.toList());
+            }
+            if (filterDefinitions.isEmpty()) {
+                definitions.set(ImmutableList.of());
+                return;
+            }
+
+            // Event definitions without a job definition are disabled
+            final Set<String> ids = filterDefinitions.stream().map(EventDefinitionDto::id).collect(Collectors.toSet());
+            final Map<String, ?> scheduled = jobDefinitionService.getAllByConfigField(
+                    EventProcessorExecutionJob.Config.FIELD_EVENT_DEFINITION_ID, ids);
+
+            final List<FilterEventDefinition> compiled = filterDefinitions.stream()
+                    .filter(definition -> scheduled.containsKey(definition.id()))
+                    .map(FilterEventDefinitionRegistry::compile)
+                    .flatMap(Optional::stream)
+                    .collect(ImmutableList.toImmutableList());
+
+            LOG.debug("Evaluating {} of {} filter event definitions while processing messages", compiled.size(), filterDefinitions.size());
+            definitions.set(compiled);
+        } catch (Exception e) {
+            LOG.error("Couldn't reload filter event definitions", e);
+        }
+    }
+
+    private static boolean isFilterDefinition(EventDefinitionDto eventDefinition) {
+        if (!(eventDefinition.config() instanceof AggregationEventProcessorConfig)) {
+            return false;
+        }
+        final AggregationEventProcessorConfig config = (AggregationEventProcessorConfig) eventDefinition.config();
+        return config.series().isEmpty() && config.queryParameters().isEmpty();
+    }
+
+    @VisibleForTesting
+    static Optional<FilterEventDefinition> compile(EventDefinitionDto eventDefinition) {
+        if (!isFilterDefinition(eventDefinition)) {
+            return Optional.empty();
+        }
+        final AggregationEventProcessorConfig config = (AggregationEventProcessorConfig) eventDefinition.config();
+        final Optional<FilterEventDefinition> definition = FilterQueryMatcher.compile(config.query())
+                .map(matcher -> new FilterEventDefinition(eventDefinition, config, matcher));
+        if (definition.isEmpty()) {
+            LOG.debug("Query <{}> of event definition <{}/{}> can't be evaluated while processing messages",
+                    config.query(), eventDefinition.title(), eventDefinition.id());
+        }
+        return definition;
+    }
+
+    public static class FilterEventDefinition {
+        private final EventDefinitionDto eventDefinition;
+        private final AggregationEventProcessorConfig config;
+        private final FilterQueryMatcher matcher;
+
+        private FilterEventDefinition(EventDefinitionDto eventDefinition,
+                                      AggregationEventProcessorConfig config,
+                                      FilterQueryMatcher matcher) {
+            this.eventDefinition = eventDefinition;
+            this.config = config;
+            this.matcher = matcher;
+        }
+
+        public EventDefinitionDto eventDefinition() {
+            return eventDefinition;
+        }
+
+        public AggregationEventProcessorConfig config() {
+            return config;
+        }
+
+        /**
+         * Returns {@code true} if the message is in one of the streams of the event definition and its query
+         * definitely matches the message.
+         */
+        public boolean matches(Message message) {
+            if (!config.streams().isEmpty() && message.getStreamIds().stream().noneMatch(config.streams()::contains)) {
+                return false;
+            }
+            return matcher.match(message) == FilterQueryMatcher.Result.MATCH;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.aggregation;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.events.event.Event;
+import org.graylog.events.event.EventFactory;
+import org.graylog.events.event.EventOriginContext;
+import org.graylog.events.event.EventProcessorEventFactory;
+import org.graylog.events.event.EventReplayInfo;
+import org.graylog.events.event.EventWithContext;
+import org.graylog.events.processor.EventDefinitionDto;
+import org.graylog.events.processor.EventProcessorEngine;
+import org.graylog.events.processor.EventProcessorException;
+import org.graylog.events.processor.EventStreamService;
+import org.graylog.events.processor.aggregation.FilterEventDefinitionRegistry.FilterEventDefinition;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Messages;
+import org.graylog2.plugin.messageprocessors.MessageProcessor;
+import org.graylog2.plugin.streams.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Creates the events of filter event definitions while messages are processed, instead of waiting for the scheduled
+ * search of the event definition.
+ * <p>
+ * Messages which created an event get the event definition ID added to the
+ * {@link Message#FIELD_GL2_EVENT_DEFINITION_IDS} field, which the scheduled execution excludes. Messages whose events
+ * couldn't be emitted and messages the query can't be evaluated for are left to the scheduled execution.
+ * This processor should run after the stream routing and all processors which modify messages.
+ */
+public class FilterEventMessageProcessor implements MessageProcessor {
+    private static final Logger LOG = LoggerFactory.getLogger(FilterEventMessageProcessor.class);
+
+    public static class Descriptor implements MessageProcessor.Descriptor {
+        @Override
+        public String name() {
+            return "Event Definition Filter Processor";
+        }
+
+        @Override
+        public String className() {
+            return FilterEventMessageProcessor.class.getCanonicalName();
+        }
+    }
+
+    private final FilterEventDefinitionRegistry registry;
+    private final EventProcessorEngine eventProcessorEngine;
+    private final EventStreamService eventStreamService;
+    private final Supplier<EventFactory> eventFactory;
+    private final Timer executionTime;
+    private final Meter matchedMessages;
+    private final Counter failedEmissions;
+
+    @Inject
+    public FilterEventMessageProcessor(FilterEventDefinitionRegistry registry,
+                                       EventProcessorEngine eventProcessorEngine,
+                                       EventStreamService eventStreamService,
+                                       Provider<EventProcessorEventFactory> eventFactoryProvider,
+                                       MetricRegistry metricRegistry) {
+        this.registry = registry;
+        this.eventProcessorEngine = eventProcessorEngine;
+        this.eventStreamService = eventStreamService;
+        // Creating the factory resolves the local hostname, so only do it once events are created
+        this.eventFactory = Suppliers.memoize(eventFactoryProvider::get);
+        this.executionTime = metricRegistry.timer(name(FilterEventMessageProcessor.class, "executionTime"));
+        this.matchedMessages = metricRegistry.meter(name(FilterEventMessageProcessor.class, "matchedMessages"));
+        this.failedEmissions = metricRegistry.counter(name(FilterEventMessageProcessor.class, "failedEmissions"));
+    }
+
+    @Override
+    public Messages process(Messages messages) {
+        final List<FilterEventDefinition> definitions = registry.definitions();
+        if (definitions.isEmpty()) {
+            return messages;
+        }
+
+        try (Timer.Context ignored = executionTime.time()) {
+            final Map<FilterEventDefinition, List<Message>> matches = new LinkedHashMap<>();
+            for (Message message : messages) {
+                if (message.getFilterOut()) {
+                    continue;
+                }
+                for (FilterEventDefinition definition : definitions) {
+                    if (matches(definition, message)) {
+                        matches.computeIfAbsent(definition, d -> new ArrayList<>()).add(message);
+                    }
+                }
+            }
+            matches.forEach(this::emitEvents);
+        }
+        return messages;
+    }
+
+    @Override
+    public boolean supportsBatches() {
+        return true;
+    }
+
+    private boolean matches(FilterEventDefinition definition, Message message) {
+        try {
+            return definition.matches(message);
+        } catch (Exception e) {
+            // The scheduled execution evaluates the query for the message instead
+            LOG.warn("Couldn't evaluate event definition <{}/{}> for message <{}>: {}",
+                    definition.eventDefinition().title(), definition.eventDefinition().id(), message.getId(), e.toString());
+            return false;
+        }
+    }
+
+    private void emitEvents(FilterEventDefinition definition, List<Message> messages) {
+        final EventDefinitionDto eventDefinition = definition.eventDefinition();
+        matchedMessages.mark(messages.size());
+        final List<Message> emittedMessages = new ArrayList<>(messages.size());
+        try {
+            final ImmutableList.Builder<EventWithContext> eventsWithContext = ImmutableList.builder();
+            for (Message message : messages) {
+                try {
+                    eventsWithContext.add(createEvent(definition, message));
+                    emittedMessages.add(message);
+                } catch (Exception e) {
+                    // Leave the message to the scheduled execution, the events of the other messages are emitted
+                    failedEmissions.inc();
+                    LOG.warn("Couldn't create event of event definition <{}/{}> for message <{}>. The scheduled execution will create it: {}",
+                            eventDefinition.title(), eventDefinition.id(), message.getId(), e.toString());
+                }
+            }
+            eventProcessorEngine.emitEvents(eventDefinition, eventsWithContext.build());
+        } catch (EventProcessorException e) {
+            failedEmissions.inc();
+            LOG.warn("Couldn't emit events of event definition <{}/{}> while processing messages. The scheduled execution will create them.",
+                    eventDefinition.title(), eventDefinition.id(), e);
+            return;
+        }
+        emittedMessages.forEach(message -> addEventDefinitionId(message, eventDefinition.id()));
+    }
+
+    private EventWithContext createEvent(FilterEventDefinition definition, Message message) {
+        final EventDefinitionDto eventDefinition = definition.eventDefinition();
+        final Event event = eventFactory.get().createEvent(eventDefinition, message.getTimestamp(), eventDefinition.title());
+
+        // Ensure the event has values in the "source_streams" field for permission checks to work
+        final Set<String> sourceStreams = eventStreamService.buildEventSourceStreams(definition.config().streams(),
+                ImmutableSet.copyOf(message.getStreamIds()));
+        sourceStreams.forEach(event::addSourceStream);
+
+        // The index of the message isn't known yet, so the write index alias of its index set is used
+        writeIndexAlias(message, sourceStreams).ifPresent(alias ->
+                event.setOriginContext(EventOriginContext.elasticsearchMessage(alias, message.getId())));
+
+        event.setTimerangeStart(message.getTimestamp());
+        event.setTimerangeEnd(message.getTimestamp());
+        event.setReplayInfo(EventReplayInfo.builder()
+                .timerangeStart(message.getTimestamp())
+                .timerangeEnd(message.getTimestamp())
+                .query(definition.config().query())
+                .streams(event.getSourceStreams())
+                .build());
+
+        return EventWithContext.create(event, message);
+    }
+
+    private static Optional<String> writeIndexAlias(Message message, Set<String> sourceStreams) {
+        IndexSet fallback = null;
+        for (Stream stream : message.getStreams()) {
+            final IndexSet indexSet = stream.getIndexSet();
+            if (indexSet == null) {
+                continue;
+            }
+            if (sourceStreams.contains(stream.getId())) {
+                return Optional.of(indexSet.getWriteIndexAlias());
+            }
+            if (fallback == null) {
+                fallback = indexSet;
+            }
+        }
+        return Optional.ofNullable(fallback).map(IndexSet::getWriteIndexAlias);
+    }
+
+    private static void addEventDefinitionId(Message message, String eventDefinitionId) {
+        final ImmutableList.Builder<String> ids = ImmutableList.builder();
+        final Object existingIds = message.getField(Message.FIELD_GL2_EVENT_DEFINITION_IDS);
+        if (existingIds instanceof Collection) {
+            ((Collection<?>) existingIds).forEach(id -> ids.add(String.valueOf(id)));
+        }
+        message.addField(Message.FIELD_GL2_EVENT_DEFINITION_IDS, ids.add(eventDefinitionId).build());
+    }
+}
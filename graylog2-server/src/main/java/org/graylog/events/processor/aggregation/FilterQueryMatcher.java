@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.aggregation;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.graylog2.plugin.Message;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Evaluates the search query of an event definition against a message before it gets indexed.
+ * <p>
+ * Only queries which can be evaluated the same way the search backend would do it with the default index mapping are
+ * supported: exact term and phrase queries on non-analyzed fields, {@code _exists_} queries, match-all queries and
+ * boolean combinations of them. Wildcard, range, fuzzy and regular expression queries as well as terms for the
+ * analyzed {@code message} and {@code full_message} fields can't be compiled.
+ * <p>
+ * Whether a term matches might depend on the type the field is mapped to in the index. (e.g. {@code "1.0"} and
+ * {@code "1"} are equal for a numeric field but not for a keyword field) The matcher returns {@link Result#UNKNOWN}
+ * in these cases, so the message is left to the scheduled execution of the event definition.
+ */
+public class FilterQueryMatcher {
+    public enum Result {
+        MATCH, NO_MATCH, UNKNOWN;
+
+        private Result not() {
+            switch (this) {
+                case MATCH:
+                    return NO_MATCH;
+                case NO_MATCH:
+                    return MATCH;
+                default:
+                    return UNKNOWN;
+            }
+        }
+    }
+
+    private static final String EXISTS_FIELD = "_exists_";
+    private static final String STREAMS_FIELD = Message.FIELD_STREAMS;
+    // Fields which are analyzed, only added when the message gets indexed or can change after the evaluation
+    private static final ImmutableSet<String> UNSUPPORTED_FIELDS = ImmutableSet.of(
+            Message.FIELD_MESSAGE,
+            Message.FIELD_FULL_MESSAGE,
+            Message.FIELD_GL2_ACCOUNTED_MESSAGE_SIZE,
+            Message.FIELD_GL2_EVENT_DEFINITION_IDS);
+
+    private static final FilterQueryMatcher MATCH_ALL = new FilterQueryMatcher(message -> Result.MATCH);
+
+    private final Condition condition;
+
+    private FilterQueryMatcher(Condition condition) {
+        this.condition = condition;
+    }
+
+    /**
+     * Compiles the given query string.
+     *
+     * @param queryString the query string
+     * @return the matcher or an empty optional if the query contains unsupported elements
+     */
+    public static Optional<FilterQueryMatcher> compile(String queryString) {
+        final String trimmed = queryString == null ? "" : queryString.trim();
+        if (trimmed.isEmpty() || "*".equals(trimmed)) {
+            return Optional.of(MATCH_ALL);
+        }
+        try {
+            return Optional.of(new FilterQueryMatcher(compile(new ExactTermQueryParser().parse(trimmed), true)));
+        } catch (ParseException e) {
+            return Optional.empty();
+        }
+    }
+
+    public Result match(Message message) {
+        return condition.match(message);
+    }
+
+    private static Condition compile(Query query, boolean topLevel) throws ParseException {
+        if (query instanceof BoostQuery) {
+            return compile(((BoostQuery) query).getQuery(), topLevel);
+        }
+        if (query instanceof MatchAllDocsQuery) {
+            return message -> Result.MATCH;
+        }
+        if (query instanceof TermQuery) {
+            return compileTerm(((TermQuery) query).getTerm());
+        }
+        if (query instanceof BooleanQuery) {
+            return compileBoolean((BooleanQuery) query, topLevel);
+        }
+        throw new ParseException("Unsupported query <" + query + ">");
+    }
+
+    private static Condition compileTerm(Term term) throws ParseException {
+        if (EXISTS_FIELD.equals(term.field())) {
+            final String field = checkField(term.text());
+            return message -> fieldValue(message, field) == null ? Result.NO_MATCH : Result.MATCH;
+        }
+        final String field = checkField(term.field());
+        // The "source" field uses an analyzer which lower-cases the whole value
+        final boolean lowerCase = Message.FIELD_SOURCE.equals(field);
+        final String value = lowerCase ? term.text().toLowerCase(Locale.ROOT) : term.text();
+        final BigDecimal number = toNumber(value);
+
+        return message -> matchValue(fieldValue(message, field), value, number, lowerCase);
+    }
+
+    private static Condition compileBoolean(BooleanQuery query, boolean topLevel) throws ParseException {
+        if (query.getMinimumNumberShouldMatch() > 0) {
+            throw new ParseException("Unsupported minimum number of should clauses in <" + query + ">");
+        }
+        final ImmutableList.Builder<Condition> required = ImmutableList.builder();
+        final ImmutableList.Builder<Condition> optional = ImmutableList.builder();
+        final ImmutableList.Builder<Condition> prohibited = ImmutableList.builder();
+
+        for (BooleanClause clause : query.clauses()) {
+            final Condition condition = compile(clause.getQuery(), false);
+            switch (clause.getOccur()) {
+                case MUST:
+                case FILTER:
+                    required.add(condition);
+                    break;
+                case SHOULD:
+                    optional.add(condition);
+                    break;
+                case MUST_NOT:
+                    prohibited.add(condition);
+                    break;
+            }
+        }
+
+        final List<Condition> requiredConditions = required.build();
+        final List<Condition> optionalConditions = optional.build();
+        final List<Condition> prohibitedConditions = prohibited.build();
+
+        final Condition positive;
+        if (!requiredConditions.isEmpty()) {
+            positive = message -> all(requiredConditions, message);
+        } else if (!optionalConditions.isEmpty()) {
+            positive = message -> any(optionalConditions, message);
+        } else if (topLevel) {
+            // The search backend matches all documents for a purely negative query
+            positive = message -> Result.MATCH;
+        } else {
+            throw new ParseException("Unsupported nested negative query <" + query + ">");
+        }
+
+        if (prohibitedConditions.isEmpty()) {
+            return positive;
+        }
+        return message -> and(positive.match(message), any(prohibitedConditions, message).not());
+    }
+
+    private static String checkField(String field) throws ParseException {
+        if (UNSUPPORTED_FIELDS.contains(field) || field.startsWith("_") || field.contains(".")
+                || field.contains("*") || field.contains("?")) {
+            throw new ParseException("Unsupported field <" + field + ">");
+        }
+        return field;
+    }
+
+    private static Object fieldValue(Message message, String field) {
+        if (STREAMS_FIELD.equals(field)) {
+            final Collection<String> streamIds = message.getStreamIds();
+            return streamIds.isEmpty() ? null : streamIds;
+        }
+        final Object value = message.getField(field);
+        if (value != null || field.indexOf('_') < 0) {
+            return value;
+        }
+        // Dots in field names are replaced with underscores when the message gets indexed
+        for (String name : message.getFieldNames()) {
+            if (name.indexOf('.') >= 0 && name.replace('.', '_').equals(field)) {
+                return message.getField(name);
+            }
+        }
+        return null;
+    }
+
+    private static Result matchValue(Object value, String term, BigDecimal numericTerm, boolean lowerCase) {
+        if (value == null) {
+            return Result.NO_MATCH;
+        }
+        if (value instanceof Collection) {
+            Result result = Result.NO_MATCH;
+            for (Object element : (Collection<?>) value) {
+                result = or(result, matchValue(element, term, numericTerm, lowerCase));
+                if (result == Result.MATCH) {
+                    break;
+                }
+            }
+            return result;
+        }
+        if (!(value instanceof String || value instanceof Number || value instanceof Boolean)) {
+            return Result.UNKNOWN;
+        }
+
+        final String string = lowerCase ? value.toString().toLowerCase(Locale.ROOT) : value.toString();
+        if (string.equals(term)) {
+            return Result.MATCH;
+        }
+        if (numericTerm == null || value instanceof Boolean) {
+            return Result.NO_MATCH;
+        }
+        final BigDecimal number = toNumber(string);
+        if (number == null) {
+            return Result.NO_MATCH;
+        }
+        // Different strings might still be equal numbers if the field is mapped as a numeric type. Fractions might
+        // be truncated or lose precision, depending on the numeric type.
+        if (number.compareTo(numericTerm) == 0 || !isInteger(number) || !isInteger(numericTerm)) {
+            return Result.UNKNOWN;
+        }
+        return Result.NO_MATCH;
+    }
+
+    private static BigDecimal toNumber(String value) {
+        try {
+            return new BigDecimal(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean isInteger(BigDecimal number) {
+        return number.signum() == 0 || number.scale() <= 0 || number.stripTrailingZeros().scale() <= 0;
+    }
+
+    private static Result all(List<Condition> conditions, Message message) {
+        Result result = Result.MATCH;
+        for (Condition condition : conditions) {
+            result = and(result, condition.match(message));
+            if (result == Result.NO_MATCH) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private static Result any(List<Condition> conditions, Message message) {
+        Result result = Result.NO_MATCH;
+        for (Condition condition : conditions) {
+            result = or(result, condition.match(message));
+            if (result == Result.MATCH) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private static Result and(Result a, Result b) {
+        if (a == Result.NO_MATCH || b == Result.NO_MATCH) {
+            return Result.NO_MATCH;
+        }
+        return a == Result.UNKNOWN || b == Result.UNKNOWN ? Result.UNKNOWN : Result.MATCH;
+    }
+
+    private static Result or(Result a, Result b) {
+        if (a == Result.MATCH || b == Result.MATCH) {
+            return Result.MATCH;
+        }
+        return a == Result.UNKNOWN || b == Result.UNKNOWN ? Result.UNKNOWN : Result.NO_MATCH;
+    }
+
+    private interface Condition {
+        Result match(Message message);
+    }
+
+    /**
+     * Parses every term and phrase into a single exact {@link TermQuery}, like the keyword analyzer of
+     * non-analyzed fields does. Terms without a field use the analyzed "message" field and are rejected later.
+     */
+    private static class ExactTermQueryParser extends QueryParser {
+        ExactTermQueryParser() {
+            super(Message.FIELD_MESSAGE, new KeywordAnalyzer());
+            setSplitOnWhitespace(true);
+        }
+
+        @Override
+        protected Query getFieldQuery(String field, String queryText, boolean quoted) {
+            return new TermQuery(new Term(field, queryText));
+        }
+    }
+}
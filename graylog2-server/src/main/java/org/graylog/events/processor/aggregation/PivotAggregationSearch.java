@@ -37,6 +37,7 @@ import org.graylog.plugins.views.search.engine.QueryEngine;
 import org.graylog.plugins.views.search.errors.EmptyParameterError;
 import org.graylog.plugins.views.search.errors.QueryError;
 import org.graylog.plugins.views.search.errors.SearchError;
+import org.graylog.plugins.views.search.errors.SearchTypeError;
 import org.graylog.plugins.views.search.filter.OrFilter;
 import org.graylog.plugins.views.search.filter.StreamFilter;
 import org.graylog.plugins.views.search.rest.PermittedStreams;
@@ -48,6 +49,7 @@ import org.graylog.plugins.views.search.searchtypes.pivot.buckets.DateRange;
 import org.graylog.plugins.views.search.searchtypes.pivot.buckets.DateRangeBucket;
 import org.graylog.plugins.views.search.searchtypes.pivot.buckets.Values;
 import org.graylog.plugins.views.search.searchtypes.pivot.series.Count;
+import org.graylog.plugins.views.search.timeranges.DerivedTimeRange;
 import org.graylog2.notifications.Notification;
 import org.graylog2.notifications.NotificationService;
 import org.graylog2.plugin.indexer.searches.timeranges.TimeRange;
@@ -92,6 +94,7 @@ public class PivotAggregationSearch implements AggregationSearch {
     private final MoreSearch moreSearch;
     private final PermittedStreams permittedStreams;
     private final NotificationService notificationService;
+    private final AggregationSearchBatcher searchBatcher;
 
     @Inject
     public PivotAggregationSearch(@Assisted AggregationEventProcessorConfig config,
@@ -103,7 +106,8 @@ public class PivotAggregationSearch implements AggregationSearch {
                                   EventsConfigurationProvider configProvider,
                                   MoreSearch moreSearch,
                                   PermittedStreams permittedStreams,
-                                  NotificationService notificationService) {
+                                  NotificationService notificationService,
+                                  AggregationSearchBatcher searchBatcher) {
         this.config = config;
         this.parameters = parameters;
         this.searchOwner = searchOwner;
@@ -114,6 +118,7 @@ public class PivotAggregationSearch implements AggregationSearch {
         this.moreSearch = moreSearch;
         this.permittedStreams = permittedStreams;
         this.notificationService = notificationService;
+        this.searchBatcher = searchBatcher;
     }
 
     private String metricName(AggregationSeries series) {
@@ -123,13 +128,23 @@ public class PivotAggregationSearch implements AggregationSearch {
 
     @Override
     public AggregationResult doSearch() throws EventProcessorException {
+        if (searchBatcher.isEnabled() && isBatchable()) {
+            return batchedResult(searchBatcher.search(this));
+        }
+
         final SearchJob searchJob = getSearchJob(parameters, searchOwner, config.searchWithinMs(), config.executeEveryMs());
         final QueryResult queryResult = searchJob.results().get(QUERY_ID);
         final QueryResult streamQueryResult = searchJob.results().get(STREAMS_QUERY_ID);
 
-        final Set<SearchError> aggregationErrors = firstNonNull(queryResult.errors(), Collections.emptySet());
-        final Set<SearchError> streamErrors = firstNonNull(streamQueryResult.errors(), Collections.emptySet());
+        return aggregationResult(
+                firstNonNull(queryResult.errors(), Collections.emptySet()),
+                firstNonNull(streamQueryResult.errors(), Collections.emptySet()),
+                (PivotResult) queryResult.searchTypes().get(PIVOT_ID),
+                (PivotResult) streamQueryResult.searchTypes().get(STREAMS_PIVOT_ID));
+    }
 
+    private AggregationResult aggregationResult(Set<SearchError> aggregationErrors, Set<SearchError> streamErrors,
+                                                PivotResult pivotResult, PivotResult streamsResult) throws EventProcessorException {
         if (!aggregationErrors.isEmpty() || !streamErrors.isEmpty()) {
             final Set<SearchError> errors = aggregationErrors.isEmpty() ? streamErrors : aggregationErrors;
 
@@ -173,9 +188,6 @@ public class PivotAggregationSearch implements AggregationSearch {
             }
         }
 
-        final PivotResult pivotResult = (PivotResult) queryResult.searchTypes().get(PIVOT_ID);
-        final PivotResult streamsResult = (PivotResult) streamQueryResult.searchTypes().get(STREAMS_PIVOT_ID);
-
         return AggregationResult.builder()
                 .keyResults( extractValues(pivotResult))
                 .effectiveTimerange(pivotResult.effectiveTimerange())
@@ -184,6 +196,81 @@ public class PivotAggregationSearch implements AggregationSearch {
                 .build();
     }
 
+    /**
+     * Searches of event definitions without query parameters can be batched, because the parameters are global
+     * to a search.
+     */
+    boolean isBatchable() {
+        return eventDefinition.id() != null && config.queryParameters().isEmpty();
+    }
+
+    EventDefinition eventDefinition() {
+        return eventDefinition;
+    }
+
+    AggregationEventProcessorConfig config() {
+        return config;
+    }
+
+    AggregationEventProcessorParameters parameters() {
+        return parameters;
+    }
+
+    TimeRange timerange() {
+        return parameters.timerange();
+    }
+
+    /**
+     * @return the configured streams, including streams which don't exist anymore
+     */
+    Set<String> configuredStreams() {
+        return parameters.streams().isEmpty() ? config.streams() : parameters.streams();
+    }
+
+    /**
+     * @return the existing streams to search in
+     */
+    Set<String> streams() {
+        return getStreams(parameters);
+    }
+
+    /**
+     * Returns the search types of this search for a batch of aggregation searches in the same streams. The search
+     * types override the query and timerange of the batch query.
+     *
+     * @return the search types, with IDs which are unique in the batch
+     */
+    List<SearchType> batchSearchTypes() {
+        final ElasticsearchQueryString query = ElasticsearchQueryString.of(config.query());
+        final DerivedTimeRange timerange = DerivedTimeRange.of(parameters.timerange());
+
+        return ImmutableList.of(
+                aggregationPivot(batchSearchTypeId(PIVOT_ID), config.searchWithinMs(), config.executeEveryMs()).query(query).timerange(timerange).build(),
+                sourceStreamsPivot(batchSearchTypeId(STREAMS_PIVOT_ID)).query(query).timerange(timerange).build());
+    }
+
+    @VisibleForTesting
+    AggregationResult batchedResult(QueryResult queryResult) throws EventProcessorException {
+        final String pivotId = batchSearchTypeId(PIVOT_ID);
+        final String streamsPivotId = batchSearchTypeId(STREAMS_PIVOT_ID);
+        final Set<SearchError> errors = firstNonNull(queryResult.errors(), Collections.emptySet());
+
+        return aggregationResult(errorsOf(errors, pivotId), errorsOf(errors, streamsPivotId),
+                (PivotResult) queryResult.searchTypes().get(pivotId),
+                (PivotResult) queryResult.searchTypes().get(streamsPivotId));
+    }
+
+    private String batchSearchTypeId(String searchTypeId) {
+        return eventDefinition.id() + "-" + searchTypeId;
+    }
+
+    // Errors of the batch query which don't belong to a search type affect all searches of the batch
+    private static Set<SearchError> errorsOf(Set<SearchError> errors, String searchTypeId) {
+        return errors.stream()
+                .filter(error -> !(error instanceof SearchTypeError) || searchTypeId.equals(((SearchTypeError) error).searchTypeId()))
+                .collect(toSet());
+    }
+
     private ImmutableSet<String> extractSourceStreams(PivotResult pivotResult) {
         return pivotResult.rows().stream()
             // "non-leaf" values can show up when the "rollup" feature is enabled in the pivot search type
@@ -388,14 +475,7 @@ public class PivotAggregationSearch implements AggregationSearch {
      * @return source streams query
      */
     private Query getSourceStreamsQuery(AggregationEventProcessorParameters parameters) {
-        final Pivot pivot = Pivot.builder()
-            .id(STREAMS_PIVOT_ID)
-            .rollup(true)
-            .rowGroups(ImmutableList.of(Values.builder().limit(Integer.MAX_VALUE).field("streams").build()))
-            .series(ImmutableList.of(Count.builder().id(STREAMS_PIVOT_COUNT_ID).build()))
-            .build();
-
-        final Set<SearchType> searchTypes = Collections.singleton(pivot);
+        final Set<SearchType> searchTypes = Collections.singleton(sourceStreamsPivot(STREAMS_PIVOT_ID).build());
         final Query.Builder queryBuilder = Query.builder()
             .id(STREAMS_QUERY_ID)
             .searchTypes(searchTypes)
@@ -410,6 +490,14 @@ public class PivotAggregationSearch implements AggregationSearch {
         return queryBuilder.build();
     }
 
+    private Pivot.Builder sourceStreamsPivot(String id) {
+        return Pivot.builder()
+            .id(id)
+            .rollup(true)
+            .rowGroups(ImmutableList.of(Values.builder().limit(Integer.MAX_VALUE).field("streams").build()))
+            .series(ImmutableList.of(Count.builder().id(STREAMS_PIVOT_COUNT_ID).build()));
+    }
+
     /**
      * Returns the query to compute the aggregation.
      *
@@ -419,8 +507,25 @@ public class PivotAggregationSearch implements AggregationSearch {
      * @return aggregation query
      */
     private Query getAggregationQuery(AggregationEventProcessorParameters parameters, long searchWithinMs, long executeEveryMs) {
+        final Set<SearchType> searchTypes = Collections.singleton(aggregationPivot(PIVOT_ID, searchWithinMs, executeEveryMs).build());
+
+        final Query.Builder queryBuilder = Query.builder()
+                .id(QUERY_ID)
+                .searchTypes(searchTypes)
+                .query(ElasticsearchQueryString.of(config.query()))
+                .timerange(parameters.timerange());
+
+        final Set<String> streams = getStreams(parameters);
+        if (!streams.isEmpty()) {
+            queryBuilder.filter(filteringForStreamIds(streams));
+        }
+
+        return queryBuilder.build();
+    }
+
+    private Pivot.Builder aggregationPivot(String id, long searchWithinMs, long executeEveryMs) {
         final Pivot.Builder pivotBuilder = Pivot.builder()
-                .id(PIVOT_ID)
+                .id(id)
                 .rollup(true);
 
         final ImmutableList<SeriesSpec> series = config.series().stream()
@@ -468,25 +573,10 @@ public class PivotAggregationSearch implements AggregationSearch {
         }
 
         // We always have row groups because of the date range buckets
-        pivotBuilder.rowGroups(groupBy);
-
-        final Set<SearchType> searchTypes = Collections.singleton(pivotBuilder.build());
-
-        final Query.Builder queryBuilder = Query.builder()
-                .id(QUERY_ID)
-                .searchTypes(searchTypes)
-                .query(ElasticsearchQueryString.of(config.query()))
-                .timerange(parameters.timerange());
-
-        final Set<String> streams = getStreams(parameters);
-        if (!streams.isEmpty()) {
-            queryBuilder.filter(filteringForStreamIds(streams));
-        }
-
-        return queryBuilder.build();
+        return pivotBuilder.rowGroups(groupBy);
     }
 
-    private Filter filteringForStreamIds(Set<String> streamIds) {
+    static Filter filteringForStreamIds(Set<String> streamIds) {
         final Set<Filter> streamFilters = streamIds.stream()
                 .map(StreamFilter::ofId)
                 .collect(toSet());
@@ -102,6 +102,16 @@ public class GeoIpProcessor implements MessageProcessor {
         return messages;
     }
 
+    @Override
+    public boolean supportsBatches() {
+        return true;
+    }
+
+    @Override
+    public boolean isIdempotent() {
+        return true;
+    }
+
     @Subscribe
     @SuppressWarnings("unused")
     public void updateConfig(ClusterConfigChangedEvent event) {
@@ -23,13 +23,16 @@ import com.google.auto.value.AutoValue;
 import com.google.common.collect.Sets;
 import com.swrve.ratelimitedlogger.RateLimitedLog;
 import org.antlr.v4.runtime.CommonToken;
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
 import org.graylog.plugins.pipelineprocessor.ast.expressions.BooleanExpression;
 import org.graylog.plugins.pipelineprocessor.ast.expressions.LogicalExpression;
 import org.graylog.plugins.pipelineprocessor.ast.statements.Statement;
+import org.graylog.plugins.pipelineprocessor.compiler.CompiledCondition;
 
 import javax.annotation.Nullable;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 import static org.graylog.plugins.pipelineprocessor.processors.PipelineInterpreter.getRateLimitedLog;
@@ -49,6 +52,11 @@ public abstract class Rule {
     private transient Meter globalNotMatched;
     private transient Meter localNotMatched;
 
+    @Nullable
+    private transient CompiledCondition compiledCondition;
+    @Nullable
+    private transient List<Statement> compiledActions;
+
     @Nullable
     public abstract String id();
 
@@ -72,6 +80,44 @@ public abstract class Rule {
         return builder().name(name).when(new BooleanExpression(new CommonToken(-1), false)).then(Collections.emptyList()).build();
     }
 
+    /**
+     * Evaluates the condition of this rule. Uses the compiled condition if the rule has been compiled with the
+     * {@link org.graylog.plugins.pipelineprocessor.compiler.RuleCompiler}, the AST otherwise.
+     *
+     * @param context the evaluation context
+     * @return {@code true} if the condition matches
+     */
+    public boolean evaluateCondition(EvaluationContext context) {
+        final CompiledCondition condition = compiledCondition;
+        if (condition != null) {
+            return condition.evaluate(context);
+        }
+        return when().evaluateBool(context);
+    }
+
+    /**
+     * Returns the actions of this rule. These are the compiled actions if the rule has been compiled with the
+     * {@link org.graylog.plugins.pipelineprocessor.compiler.RuleCompiler}, the statements of the AST otherwise.
+     *
+     * @return the actions to execute if the condition matches
+     */
+    public Collection<Statement> actions() {
+        final List<Statement> actions = compiledActions;
+        if (actions != null) {
+            return actions;
+        }
+        return then();
+    }
+
+    public void setCompiled(@Nullable CompiledCondition compiledCondition, @Nullable List<Statement> compiledActions) {
+        this.compiledCondition = compiledCondition;
+        this.compiledActions = compiledActions;
+    }
+
+    public boolean isCompiled() {
+        return compiledCondition != null;
+    }
+
     /**
      * Register the metrics attached to this pipeline.
      *
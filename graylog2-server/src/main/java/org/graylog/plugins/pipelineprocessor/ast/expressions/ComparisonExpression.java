@@ -40,9 +40,17 @@ public class ComparisonExpression extends BinaryExpression implements LogicalExp
 
     @Override
     public boolean evaluateBool(EvaluationContext context) {
+        return compareValues(this.left.evaluateUnsafe(context), this.right.evaluateUnsafe(context));
+    }
 
-        final Object leftValue = this.left.evaluateUnsafe(context);
-        final Object rightValue = this.right.evaluateUnsafe(context);
+    /**
+     * Compares the already evaluated values of the left and right expression.
+     *
+     * @param leftValue  the value of the left expression
+     * @param rightValue the value of the right expression
+     * @return the result of the comparison
+     */
+    public boolean compareValues(Object leftValue, Object rightValue) {
         if (leftValue instanceof DateTime && rightValue instanceof DateTime) {
             return compareDateTimes(operator, (DateTime) leftValue, (DateTime) rightValue);
         }
@@ -21,6 +21,8 @@ import org.antlr.v4.runtime.Token;
 import org.graylog.plugins.pipelineprocessor.EvaluationContext;
 import org.joda.time.DateTime;
 
+import javax.annotation.Nullable;
+
 import static org.graylog.plugins.pipelineprocessor.processors.PipelineInterpreter.getRateLimitedLog;
 
 public class EqualityExpression extends BinaryExpression implements LogicalExpression {
@@ -45,8 +47,18 @@ public class EqualityExpression extends BinaryExpression implements LogicalExpre
 
     @Override
     public boolean evaluateBool(EvaluationContext context) {
-        final Object left = this.left.evaluateUnsafe(context);
-        final Object right = this.right.evaluateUnsafe(context);
+        return compareValues(context, this.left.evaluateUnsafe(context), this.right.evaluateUnsafe(context));
+    }
+
+    /**
+     * Compares the already evaluated values of the left and right expression.
+     *
+     * @param context the evaluation context
+     * @param left    the value of the left expression
+     * @param right   the value of the right expression
+     * @return the result of the equality check
+     */
+    public boolean compareValues(EvaluationContext context, @Nullable Object left, @Nullable Object right) {
         if (left == null) {
             log.warn(context.pipelineErrorMessage("left expression evaluated to null, returning false: " + this.left));
             return false;
@@ -23,6 +23,7 @@ import org.antlr.v4.runtime.Token;
 import org.apache.commons.beanutils.PropertyUtils;
 import org.graylog.plugins.pipelineprocessor.EvaluationContext;
 
+import javax.annotation.Nullable;
 import java.lang.reflect.InvocationTargetException;
 
 import static org.graylog.plugins.pipelineprocessor.processors.PipelineInterpreter.getRateLimitedLog;
@@ -46,8 +47,19 @@ public class FieldAccessExpression extends BaseExpression {
 
     @Override
     public Object evaluateUnsafe(EvaluationContext context) {
-        final Object bean = this.object.evaluateUnsafe(context);
-        final Object fieldValue = field.evaluateUnsafe(context);
+        return accessField(object.evaluateUnsafe(context), field.evaluateUnsafe(context));
+    }
+
+    /**
+     * Reads a property of the given bean, like {@link #evaluateUnsafe(EvaluationContext)} does with the values of the
+     * object and field expressions.
+     *
+     * @param bean       the value of the object expression
+     * @param fieldValue the value of the field expression
+     * @return the value of the property, or {@code null} if it cannot be read
+     */
+    @Nullable
+    public Object accessField(@Nullable Object bean, @Nullable Object fieldValue) {
         if (bean == null || fieldValue == null) {
             return null;
         }
@@ -77,6 +77,19 @@ public class FunctionArgs {
         constantValues.put(name, value);
     }
 
+    /**
+     * Creates a copy of these arguments which evaluates the given expressions instead, keeping the pre-computed
+     * values of constant arguments.
+     *
+     * @param args the argument expressions of the copy
+     * @return the new function arguments
+     */
+    public FunctionArgs withArgs(Map<String, Expression> args) {
+        final FunctionArgs copy = new FunctionArgs(function, args);
+        copy.constantValues.putAll(constantValues);
+        return copy;
+    }
+
     public Function<?> getFunction() {
         return function;
     }
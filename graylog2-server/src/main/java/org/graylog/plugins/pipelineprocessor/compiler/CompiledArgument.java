@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.compiler;
+
+import org.antlr.v4.runtime.Token;
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.Expression;
+
+/**
+ * A function argument which is evaluated through its compiled form. Everything else is delegated to the original
+ * expression, so functions can't tell the difference.
+ */
+class CompiledArgument implements Expression {
+    private final Expression expression;
+    private final CompiledExpression compiled;
+
+    CompiledArgument(Expression expression, CompiledExpression compiled) {
+        this.expression = expression;
+        this.compiled = compiled;
+    }
+
+    @Override
+    public boolean isConstant() {
+        return expression.isConstant();
+    }
+
+    @Override
+    public Token getStartToken() {
+        return expression.getStartToken();
+    }
+
+    @Override
+    public Class getType() {
+        return expression.getType();
+    }
+
+    @Override
+    public Object evaluateUnsafe(EvaluationContext context) {
+        return compiled.evaluate(context);
+    }
+
+    @Override
+    public Iterable<Expression> children() {
+        return expression.children();
+    }
+
+    @Override
+    public Type nodeType() {
+        return expression.nodeType();
+    }
+
+    @Override
+    public String toString() {
+        return expression.toString();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.compiler;
+
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.statements.Statement;
+
+import java.util.function.Function;
+
+/**
+ * A rule action compiled by the {@link RuleCompiler}. Like the original {@link Statement}, it records errors in the
+ * evaluation context instead of throwing them.
+ */
+class CompiledStatement implements Statement {
+    private final Statement statement;
+    private final Function<EvaluationContext, Object> compiled;
+
+    CompiledStatement(Statement statement, Function<EvaluationContext, Object> compiled) {
+        this.statement = statement;
+        this.compiled = compiled;
+    }
+
+    @Override
+    public Object evaluate(EvaluationContext context) {
+        return compiled.apply(context);
+    }
+
+    @Override
+    public String toString() {
+        return statement.toString();
+    }
+}
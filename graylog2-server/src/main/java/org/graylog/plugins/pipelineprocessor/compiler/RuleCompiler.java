@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.compiler;
+
+import com.google.common.collect.ImmutableList;
+import com.swrve.ratelimitedlogger.RateLimitedLog;
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.exceptions.FunctionEvaluationException;
+import org.graylog.plugins.pipelineprocessor.ast.exceptions.LocationAwareEvalException;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.AndExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.BooleanValuedFunctionWrapper;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.ComparisonExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.EqualityExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.Expression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.FieldAccessExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.FunctionExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.LogicalExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.MessageRefExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.NotExpression;
+import org.graylog.plugins.pipelineprocessor.ast.expressions.OrExpression;
+import org.graylog.plugins.pipelineprocessor.ast.functions.Function;
+import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionArgs;
+import org.graylog.plugins.pipelineprocessor.ast.statements.FunctionStatement;
+import org.graylog.plugins.pipelineprocessor.ast.statements.Statement;
+import org.graylog.plugins.pipelineprocessor.ast.statements.VarAssignStatement;
+import org.joda.time.DateTime;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.graylog.plugins.pipelineprocessor.processors.PipelineInterpreter.getRateLimitedLog;
+
+/**
+ * Compiles the condition and the actions of a parsed {@link Rule} into a tree of {@link CompiledCondition} and
+ * {@link CompiledExpression} closures.
+ * <p>
+ * Compared to walking the AST, the compiled rule
+ * <ul>
+ *     <li>folds constant sub-expressions into their value once,</li>
+ *     <li>removes branches of {@code AND}, {@code OR} and {@code NOT} which are decided by constants,</li>
+ *     <li>evaluates the operands of comparisons and equality checks through their compiled form,</li>
+ *     <li>reads message fields with constant names directly and resolves field access on its compiled operands,
+ *     and</li>
+ *     <li>calls functions with their compiled arguments, constant arguments are already pre-computed by
+ *     {@link org.graylog.plugins.pipelineprocessor.ast.functions.Function#preprocessArgs}.</li>
+ * </ul>
+ * Function calls and variable assignments of the rule actions are compiled the same way. All other expressions are
+ * evaluated through the AST, so the compiled rule always yields the same result as interpreting it. If a rule cannot
+ * be compiled, it keeps using the AST.
+ */
+public class RuleCompiler {
+    private static final RateLimitedLog log = getRateLimitedLog(RuleCompiler.class);
+
+    private static final CompiledCondition TRUE = context -> true;
+    private static final CompiledCondition FALSE = context -> false;
+
+    private RuleCompiler() {
+    }
+
+    /**
+     * Compiles the condition and the actions of the given rule and attaches them to the rule.
+     *
+     * @param rule the rule to compile
+     * @return {@code true} if the rule has been compiled, {@code false} if it keeps using the AST
+     */
+    public static boolean compile(Rule rule) {
+        try {
+            final CompiledCondition condition = compileCondition(rule.when());
+            final ImmutableList.Builder<Statement> actions = ImmutableList.builder();
+            for (Statement statement : rule.then()) {
+                actions.add(compileStatement(statement));
+            }
+            rule.setCompiled(condition, actions.build());
+            return true;
+        } catch (Exception e) {
+            log.warn("Unable to compile rule <{}/{}>, falling back to interpreting it: {}", rule.name(), rule.id(), e.getMessage());
+            rule.setCompiled(null, null);
+            return false;
+        }
+    }
+
+    /**
+     * Compiles a rule action. Like {@link Expression#evaluate(EvaluationContext)}, the compiled action records errors
+     * in the evaluation context instead of throwing them.
+     */
+    public static Statement compileStatement(Statement statement) {
+        if (statement instanceof FunctionStatement) {
+            final Expression expression = ((FunctionStatement) statement).getFunctionExpression();
+            final CompiledExpression function = compileExpression(expression);
+            return new CompiledStatement(statement, context -> evaluate(function, expression, context));
+        }
+        if (statement instanceof VarAssignStatement) {
+            final VarAssignStatement assignment = (VarAssignStatement) statement;
+            final String name = assignment.getName();
+            final Expression expression = assignment.getValueExpression();
+            final CompiledExpression value = compileExpression(expression);
+            return new CompiledStatement(statement, context -> {
+                context.define(name, expression.getType(), evaluate(value, expression, context));
+                return null;
+            });
+        }
+        return statement;
+    }
+
+    private static Object evaluate(CompiledExpression compiled, Expression expression, EvaluationContext context) {
+        try {
+            return compiled.evaluate(context);
+        } catch (Exception e) {
+            context.onEvaluationException(e, expression);
+        }
+        return null;
+    }
+
+    public static CompiledCondition compileCondition(LogicalExpression expression) {
+        final Optional<Object> constant = foldConstant(expression);
+        if (constant.isPresent()) {
+            return Boolean.TRUE.equals(constant.get()) ? TRUE : FALSE;
+        }
+
+        final Expression.Type nodeType = expression.nodeType();
+        if (nodeType == null) {
+            return expression::evaluateBool;
+        }
+        switch (nodeType) {
+            case AND:
+                return compileAnd((AndExpression) expression);
+            case OR:
+                return compileOr((OrExpression) expression);
+            case NOT:
+                return compileNot((NotExpression) expression);
+            case BOOLEAN_FUNC_WRAPPER:
+                final CompiledExpression function = compileExpression(((BooleanValuedFunctionWrapper) expression).expression());
+                return context -> {
+                    final Object value = function.evaluate(context);
+                    return value != null && (Boolean) value;
+                };
+            case EQUALITY:
+                final EqualityExpression equality = (EqualityExpression) expression;
+                final CompiledExpression equalityLeft = compileExpression(equality.left());
+                final CompiledExpression equalityRight = compileExpression(equality.right());
+                return context -> equality.compareValues(context, equalityLeft.evaluate(context), equalityRight.evaluate(context));
+            case COMPARISON:
+                final ComparisonExpression comparison = (ComparisonExpression) expression;
+                final CompiledExpression comparisonLeft = compileExpression(comparison.left());
+                final CompiledExpression comparisonRight = compileExpression(comparison.right());
+                return context -> comparison.compareValues(comparisonLeft.evaluate(context), comparisonRight.evaluate(context));
+            default:
+                return expression::evaluateBool;
+        }
+    }
+
+    private static CompiledCondition compileAnd(AndExpression expression) {
+        final CompiledCondition left = compileCondition((LogicalExpression) expression.left());
+        final CompiledCondition right = compileCondition((LogicalExpression) expression.right());
+        if (left == FALSE) {
+            return FALSE;
+        }
+        if (left == TRUE) {
+            return right;
+        }
+        if (right == TRUE) {
+            return left;
+        }
+        return context -> left.evaluate(context) && right.evaluate(context);
+    }
+
+    private static CompiledCondition compileOr(OrExpression expression) {
+        final CompiledCondition left = compileCondition((LogicalExpression) expression.left());
+        final CompiledCondition right = compileCondition((LogicalExpression) expression.right());
+        if (left == TRUE) {
+            return TRUE;
+        }
+        if (left == FALSE) {
+            return right;
+        }
+        if (right == FALSE) {
+            return left;
+        }
+        return context -> left.evaluate(context) || right.evaluate(context);
+    }
+
+    private static CompiledCondition compileNot(NotExpression expression) {
+        final CompiledCondition operand = compileCondition((LogicalExpression) expression.right());
+        if (operand == TRUE) {
+            return FALSE;
+        }
+        if (operand == FALSE) {
+            return TRUE;
+        }
+        return context -> !operand.evaluate(context);
+    }
+
+    public static CompiledExpression compileExpression(Expression expression) {
+        final Optional<Object> constant = foldConstant(expression);
+        if (constant.isPresent()) {
+            final Object value = constant.get();
+            return context -> value;
+        }
+        if (expression instanceof LogicalExpression) {
+            final CompiledCondition condition = compileCondition((LogicalExpression) expression);
+            return condition::evaluate;
+        }
+        final Expression.Type nodeType = expression.nodeType();
+        if (nodeType == null) {
+            return expression::evaluateUnsafe;
+        }
+        switch (nodeType) {
+            case MESSAGE:
+                return compileMessageRef((MessageRefExpression) expression);
+            case FIELD_ACCESS:
+                final FieldAccessExpression fieldAccess = (FieldAccessExpression) expression;
+                final CompiledExpression object = compileExpression(fieldAccess.object());
+                final CompiledExpression field = compileExpression(fieldAccess.field());
+                return context -> fieldAccess.accessField(object.evaluate(context), field.evaluate(context));
+            case FUNCTION:
+                return compileFunction((FunctionExpression) expression);
+            default:
+                return expression::evaluateUnsafe;
+        }
+    }
+
+    private static CompiledExpression compileMessageRef(MessageRefExpression expression) {
+        final Expression fieldExpr = expression.getFieldExpr();
+        if (fieldExpr == expression) {
+            return EvaluationContext::currentMessage;
+        }
+        final Optional<Object> constantName = foldConstant(fieldExpr);
+        if (constantName.isPresent()) {
+            final String fieldName = constantName.get().toString();
+            return context -> context.currentMessage().getField(fieldName);
+        }
+        final CompiledExpression fieldName = compileExpression(fieldExpr);
+        return context -> {
+            final Object name = fieldName.evaluate(context);
+            return name == null ? null : context.currentMessage().getField(name.toString());
+        };
+    }
+
+    /**
+     * Calls the function with arguments which are evaluated through their compiled form. Errors are wrapped exactly
+     * like {@link FunctionExpression#evaluateUnsafe(EvaluationContext)} does.
+     */
+    private static CompiledExpression compileFunction(FunctionExpression expression) {
+        final FunctionArgs args = expression.getArgs();
+        final Map<String, Expression> compiledArgs = new HashMap<>();
+        for (Map.Entry<String, Expression> arg : args.getArgs().entrySet()) {
+            final Expression argExpression = arg.getValue();
+            compiledArgs.put(arg.getKey(), argExpression == null ? null : new CompiledArgument(argExpression, compileExpression(argExpression)));
+        }
+        final FunctionArgs functionArgs = args.withArgs(compiledArgs);
+        final Function<?> function = expression.getFunction();
+        final Class<?> returnType = function.descriptor().returnType();
+        return context -> {
+            try {
+                return returnType.cast(function.evaluate(functionArgs, context));
+            } catch (LocationAwareEvalException laee) {
+                throw laee;
+            } catch (Exception e) {
+                throw new FunctionEvaluationException(expression, e);
+            }
+        };
+    }
+
+    /**
+     * Evaluates constant expressions with an immutable scalar value. Variable references are never folded because
+     * their value is defined at runtime, collection literals aren't folded because their values are mutable.
+     */
+    private static Optional<Object> foldConstant(Expression expression) {
+        if (!expression.isConstant() || expression.nodeType() == Expression.Type.VAR_REF) {
+            return Optional.empty();
+        }
+        final Object value;
+        try {
+            value = expression.evaluateUnsafe();
+        } catch (Exception e) {
+            // Keep the expression so the error is reported at runtime, just like the interpreter does.
+            return Optional.empty();
+        }
+        if (value instanceof String || value instanceof Number || value instanceof Boolean || value instanceof DateTime) {
+            return Optional.of(value);
+        }
+        return Optional.empty();
+    }
+}
@@ -26,6 +26,7 @@ import com.google.common.eventbus.Subscribe;
 import com.swrve.ratelimitedlogger.RateLimitedLog;
 import org.graylog.plugins.pipelineprocessor.ast.Pipeline;
 import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.compiler.RuleCompiler;
 import org.graylog.plugins.pipelineprocessor.db.PipelineService;
 import org.graylog.plugins.pipelineprocessor.db.PipelineStreamConnectionsService;
 import org.graylog.plugins.pipelineprocessor.db.RuleMetricsConfigDto;
@@ -169,6 +170,7 @@ public class ConfigurationStateUpdater {
                         }
                         // make a copy so that the metrics match up (we don't share actual objects between stages)
                         rule = rule.copy();
+                        RuleCompiler.compile(rule);
                         log.debug("Resolved rule `{}` to {}", ref, rule);
                         // include back reference to stage
                         rule.registerMetrics(metricRegistry, pipeline.id(), String.valueOf(stage.stage()));
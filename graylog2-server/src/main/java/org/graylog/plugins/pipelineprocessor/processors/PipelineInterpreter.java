@@ -108,6 +108,11 @@ public class PipelineInterpreter implements MessageProcessor {
         }
     }
 
+    @Override
+    public boolean supportsBatches() {
+        return true;
+    }
+
     /**
      * Evaluates all pipelines that apply to the given messages, based on the current stream routing
      * of the messages.
@@ -138,24 +143,36 @@ public class PipelineInterpreter implements MessageProcessor {
             for (Message message : currentSet) {
                 final String msgId = message.getId();
 
-                // this makes a copy of the list, which is mutated later in updateStreamBlacklist
-                // it serves as a worklist, to keep track of which <msg, stream> tuples need to be re-run again
-                final Set<String> initialStreamIds = message.getStreams().stream().map(Stream::getId).collect(Collectors.toSet());
-
-                final ImmutableSet<Pipeline> pipelinesToRun = selectPipelines(interpreterListener,
-                        processingBlacklist,
-                        message,
-                        initialStreamIds,
-                        state.getStreamPipelineConnections());
-
-                toProcess.addAll(processForResolvedPipelines(message, msgId, pipelinesToRun, interpreterListener, state));
-
-                // add each processed message-stream combination to the blacklist set and figure out if the processing
-                // has added a stream to the message, in which case we need to cycle and determine whether to process
-                // its pipeline connections, too
-                boolean addedStreams = updateStreamBlacklist(processingBlacklist,
-                        message,
-                        initialStreamIds);
+                final boolean addedStreams;
+                try {
+                    // this makes a copy of the list, which is mutated later in updateStreamBlacklist
+                    // it serves as a worklist, to keep track of which <msg, stream> tuples need to be re-run again
+                    final Set<String> initialStreamIds = message.getStreams().stream().map(Stream::getId).collect(Collectors.toSet());
+
+                    final ImmutableSet<Pipeline> pipelinesToRun = selectPipelines(interpreterListener,
+                            processingBlacklist,
+                            message,
+                            initialStreamIds,
+                            state.getStreamPipelineConnections());
+
+                    toProcess.addAll(processForResolvedPipelines(message, msgId, pipelinesToRun, interpreterListener, state));
+
+                    // add each processed message-stream combination to the blacklist set and figure out if the processing
+                    // has added a stream to the message, in which case we need to cycle and determine whether to process
+                    // its pipeline connections, too
+                    addedStreams = updateStreamBlacklist(processingBlacklist,
+                            message,
+                            initialStreamIds);
+                } catch (Exception e) {
+                    // Only give up on the failing message, the other messages of the batch are processed as usual
+                    log.warn("Unable to run pipelines for message <{}>: {}", msgId, e.toString());
+                    message.addProcessingError(new Message.ProcessingError(
+                            ProcessingFailureCause.UNKNOWN,
+                            String.format(Locale.ENGLISH, "Unable to run pipelines for message <%s>", msgId),
+                            ExceptionUtils.getRootCauseMessage(e)));
+                    fullyProcessed.add(message);
+                    continue;
+                }
                 potentiallyDropFilteredMessage(message);
 
                 // go to 1 and iterate over all messages again until no more streams are being assigned
@@ -379,7 +396,7 @@ public class PipelineInterpreter implements MessageProcessor {
         interpreterListener.executeRule(rule, pipeline);
         try {
             log.debug("[{}] rule `{}` matched running actions", msgId, rule.name());
-            for (Statement statement : rule.then()) {
+            for (Statement statement : rule.actions()) {
                 if (!evaluateStatement(message, interpreterListener, pipeline, context, rule, statement)) {
                     // statement raised an error, skip the rest of the rule
                     return false;
@@ -426,7 +443,7 @@ public class PipelineInterpreter implements MessageProcessor {
         final boolean matched;
         final LogicalExpression logicalExpression = rule.when();
         try {
-            matched = logicalExpression.evaluateBool(context);
+            matched = rule.evaluateCondition(context);
         } catch (Exception e) {
 
             context.onEvaluationException(e, logicalExpression);
@@ -25,8 +25,8 @@ import com.google.auto.value.AutoValue;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Multimap;
+import com.google.common.net.InetAddresses;
 import com.google.inject.assistedinject.Assisted;
-import org.apache.commons.net.util.SubnetUtils;
 import org.graylog.autovalue.WithBeanGetter;
 import org.graylog.plugins.threatintel.PluginConfigService;
 import org.graylog.plugins.threatintel.tools.AdapterDisabledException;
@@ -36,6 +36,7 @@ import org.graylog2.plugin.lookup.LookupDataAdapter;
 import org.graylog2.plugin.lookup.LookupDataAdapterConfiguration;
 import org.graylog2.plugin.lookup.LookupResult;
 import org.graylog2.shared.utilities.ExceptionUtils;
+import org.graylog2.utilities.IpPrefixTrie;
 import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +44,7 @@ import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
 import javax.validation.constraints.Min;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -63,7 +65,7 @@ public class SpamhausEDROPDataAdapter extends LookupDataAdapter {
     // the current cache-control header says max-age 14400 seconds
     private static final Duration REFRESH_INTERVAL = Duration.standardHours(4);
 
-    private final AtomicReference<Map<String, Map<SubnetUtils.SubnetInfo, String>>> subnets = new AtomicReference<>(Collections.emptyMap());
+    private final AtomicReference<Map<String, IpPrefixTrie<LookupResult>>> subnets = new AtomicReference<>(Collections.emptyMap());
     private final HTTPFileRetriever httpFileRetriever;
     private final PluginConfigService pluginConfigService;
 
@@ -84,9 +86,9 @@ public class SpamhausEDROPDataAdapter extends LookupDataAdapter {
         if (!pluginConfigService.config().getCurrent().spamhausEnabled()) {
             throw new AdapterDisabledException("Spamhaus service is disabled, not starting (E)DROP adapter. To enable it please go to System / Configurations.");
         }
-        final ImmutableMap.Builder<String, Map<SubnetUtils.SubnetInfo, String>> builder = ImmutableMap.builder();
+        final ImmutableMap.Builder<String, IpPrefixTrie<LookupResult>> builder = ImmutableMap.builder();
         for (String list : lists) {
-            final Map<SubnetUtils.SubnetInfo, String> subnetMap = fetchSubnetsFromEDROPLists(list);
+            final IpPrefixTrie<LookupResult> subnetMap = fetchSubnetsFromEDROPLists(list);
             if (subnetMap != null) {
                 builder.put(list, subnetMap);
             }
@@ -113,10 +115,10 @@ public class SpamhausEDROPDataAdapter extends LookupDataAdapter {
             throw new AdapterDisabledException("Spamhaus service is disabled, not refreshing (E)DROP adapter. To enable it please go to System / Configurations.");
         }
         // keep the old results, which will get overridden if we can fetch new lists
-        final Map<String, Map<SubnetUtils.SubnetInfo, String>> result = new HashMap<>(this.subnets.get());
+        final Map<String, IpPrefixTrie<LookupResult>> result = new HashMap<>(this.subnets.get());
         boolean hasUpdates = false;
         for (String list : lists) {
-            final Map<SubnetUtils.SubnetInfo, String> newList = fetchSubnetsFromEDROPLists(list);
+            final IpPrefixTrie<LookupResult> newList = fetchSubnetsFromEDROPLists(list);
             if (newList != null) {
                 result.put(list, newList);
                 hasUpdates = true;
@@ -130,8 +132,11 @@ public class SpamhausEDROPDataAdapter extends LookupDataAdapter {
         cachePurge.purgeAll();
     }
 
-    private Map<SubnetUtils.SubnetInfo, String> fetchSubnetsFromEDROPLists(String list) {
-        final ImmutableMap.Builder<SubnetUtils.SubnetInfo, String> builder = ImmutableMap.builder();
+    /**
+     * Parses the given list into a prefix trie which maps every subnet to its (pre-built) lookup result.
+     */
+    private IpPrefixTrie<LookupResult> fetchSubnetsFromEDROPLists(String list) {
+        final IpPrefixTrie<LookupResult> subnets = new IpPrefixTrie<>();
         try {
             final Optional<String> body = httpFileRetriever.fetchFileIfNotModified(list);
             if (body.isPresent()) {
@@ -142,8 +147,9 @@ public class SpamhausEDROPDataAdapter extends LookupDataAdapter {
                         if (!line.isEmpty() && !line.startsWith(";") && line.contains(";")) {
                             final String[] parts = line.split(";");
 
-                            final SubnetUtils su = new SubnetUtils(parts[0].trim());
-                            builder.put(su.getInfo(), parts.length > 1 ? parts[1].trim() : "N/A");
+                            final String subnet = parts[0].trim();
+                            final String sblId = parts.length > 1 ? parts[1].trim() : "N/A";
+                            subnets.add(subnet, LookupResult.multi(true, ImmutableMap.<Object, Object>of("sbl_id", sblId, "subnet", subnet)));
                         }
                     }
                 }
@@ -155,7 +161,7 @@ public class SpamhausEDROPDataAdapter extends LookupDataAdapter {
             return null;
         }
 
-        return builder.build();
+        return subnets;
     }
 
     @Override
@@ -166,24 +172,22 @@ public class SpamhausEDROPDataAdapter extends LookupDataAdapter {
             return LookupResult.empty();
         }
 
-        // TODO potentially use a RangeMap here instead of doing linear searches all the time
-        // We should be able to use ranges of the integer values of lowAddress and highAddress as keys
-        final Optional<Map.Entry<SubnetUtils.SubnetInfo, String>> match;
+        final InetAddress address;
         try {
-            match = subnets.get().values()
-                           .stream()
-                           .flatMap(list -> list.entrySet().stream())
-                           .filter(entry -> entry.getKey().isInRange(ip))
-                           .findFirst();
+            address = InetAddresses.forString(ip);
         } catch (IllegalArgumentException e) {
             // Gracefully handle the case when a blank or invalid IP is supplied.
             LOG.debug("[{}] is an invalid IP address. Lookup aborted. {}", ip, ExceptionUtils.getRootCauseMessage(e));
             return LookupResult.empty();
         }
 
-        return match.map(entry -> LookupResult.multi(true,
-                ImmutableMap.of("sbl_id", entry.getValue(), "subnet", entry.getKey().getCidrSignature())
-        )).orElse(LookupResult.single(false));
+        for (IpPrefixTrie<LookupResult> list : subnets.get().values()) {
+            final LookupResult match = list.find(address);
+            if (match != null) {
+                return match;
+            }
+        }
+        return LookupResult.single(false);
     }
 
     @Override
@@ -16,6 +16,9 @@
  */
 package org.graylog.plugins.views.search.engine;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.opentelemetry.instrumentation.annotations.WithSpan;
 import org.graylog.plugins.views.search.Query;
@@ -33,13 +36,17 @@ import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
+import static com.codahale.metrics.MetricRegistry.name;
 import static org.apache.commons.lang3.StringUtils.defaultIfEmpty;
 
 @Singleton
@@ -52,14 +59,33 @@ public class QueryEngine {
     // TODO proper thread pool with tunable settings
     private final Executor queryPool = Executors.newFixedThreadPool(4, new ThreadFactoryBuilder().setNameFormat("query-engine-%d").build());
     private final QueryBackend<? extends GeneratedQueryContext> backend;
+    private final SearchTypeResultCache searchTypeResultCache;
+
+    // Running executions by query. Search jobs for an identical query share the running execution instead of starting
+    // their own one. Permission-filtered streams and the time range are part of the query, so only equal searches share.
+    private final ConcurrentMap<Query, CompletableFuture<QueryExecution>> runningExecutions = new ConcurrentHashMap<>();
+    private final Meter executions;
+    private final Meter coalescedExecutions;
 
     @Inject
     public QueryEngine(QueryBackend<? extends GeneratedQueryContext> backend,
                        Set<QueryMetadataDecorator> queryMetadataDecorators,
-                       QueryParser queryParser) {
+                       QueryParser queryParser,
+                       SearchTypeResultCache searchTypeResultCache,
+                       MetricRegistry metricRegistry) {
         this.backend = backend;
         this.queryMetadataDecorators = queryMetadataDecorators;
         this.queryParser = queryParser;
+        this.searchTypeResultCache = searchTypeResultCache;
+        this.executions = metricRegistry.meter(name(QueryEngine.class, "executions"));
+        this.coalescedExecutions = metricRegistry.meter(name(QueryEngine.class, "coalesced-executions"));
+        metricRegistry.gauge(name(QueryEngine.class, "coalesced-ratio"), () -> new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(coalescedExecutions.getOneMinuteRate(),
+                        executions.getOneMinuteRate() + coalescedExecutions.getOneMinuteRate());
+            }
+        });
     }
 
     public QueryMetadata parse(Search search, Query query) {
@@ -81,7 +107,7 @@ public class QueryEngine {
         validQueries.forEach(query -> searchJob.addQueryResultFuture(query.id(),
                 // generate and run each query, making sure we never let an exception escape
                 // if need be we default to an empty result with a failed state and the wrapped exception
-                CompletableFuture.supplyAsync(() -> prepareAndRun(searchJob, query, validationErrors), queryPool)
+                run(searchJob, query, validationErrors)
                         .handle((queryResult, throwable) -> {
                             if (throwable != null) {
                                 final Throwable cause = throwable.getCause();
@@ -114,19 +140,40 @@ public class QueryEngine {
         return searchJob.seal();
     }
 
-    private QueryResult prepareAndRun(SearchJob searchJob, Query query, Set<SearchError> validationErrors) {
+    private CompletableFuture<QueryResult> run(SearchJob searchJob, Query query, Set<SearchError> validationErrors) {
+        final CompletableFuture<QueryExecution> execution = new CompletableFuture<>();
+        final CompletableFuture<QueryExecution> runningExecution = runningExecutions.putIfAbsent(query, execution);
+        if (runningExecution != null) {
+            LOG.debug("[{}] Sharing running execution of identical query with job {}", query.id(), searchJob.getId());
+            coalescedExecutions.mark();
+            return runningExecution.thenApply(queryExecution -> queryExecution.resultFor(searchJob));
+        }
+
+        executions.mark();
+        CompletableFuture.supplyAsync(() -> prepareAndRun(searchJob, query, validationErrors), queryPool)
+                .whenComplete((queryExecution, throwable) -> {
+                    runningExecutions.remove(query, execution);
+                    if (throwable != null) {
+                        execution.completeExceptionally(throwable);
+                    } else {
+                        execution.complete(queryExecution);
+                    }
+                });
+        return execution.thenApply(queryExecution -> queryExecution.resultFor(searchJob));
+    }
+
+    private QueryExecution prepareAndRun(SearchJob searchJob, Query query, Set<SearchError> validationErrors) {
         LOG.debug("[{}] Using {} to generate query", query.id(), backend);
         // with all the results done, we can execute the current query and eventually complete our own result
         // if any of this throws an exception, the handle in #execute will convert it to an error and return a "failed" result instead
         // if the backend already returns a "failed result" then nothing special happens here
-        final GeneratedQueryContext generatedQueryContext = backend.generate(query, validationErrors);
+        // pivots with cached time buckets are rewritten to only search the buckets which are not cached yet
+        final SearchTypeResultCache.Execution execution = searchTypeResultCache.prepare(query);
+        final GeneratedQueryContext generatedQueryContext = backend.generate(execution.query(), validationErrors);
         LOG.trace("[{}] Generated query {}, running it on backend {}", query.id(), generatedQueryContext, backend);
-        final QueryResult result = backend.run(searchJob, query, generatedQueryContext);
+        final QueryResult result = execution.complete(backend.run(searchJob, execution.query(), generatedQueryContext));
         LOG.debug("[{}] Query returned {}", query.id(), result);
-        if (!generatedQueryContext.errors().isEmpty()) {
-            generatedQueryContext.errors().forEach(searchJob::addError);
-        }
-        return result;
+        return new QueryExecution(result, List.copyOf(generatedQueryContext.errors()));
     }
 
     private boolean isQueryWithError(Collection<SearchError> validationErrors, Query query) {
@@ -136,4 +183,11 @@ public class QueryEngine {
                 .map(QueryError::queryId)
                 .anyMatch(id -> Objects.equals(id, query.id()));
     }
+
+    private record QueryExecution(QueryResult result, List<SearchError> errors) {
+        QueryResult resultFor(SearchJob searchJob) {
+            errors.forEach(searchJob::addError);
+            return result;
+        }
+    }
 }
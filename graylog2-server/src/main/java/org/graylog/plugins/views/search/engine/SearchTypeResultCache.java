@@ -0,0 +1,469 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.engine;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import org.graylog.plugins.views.search.Filter;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.QueryResult;
+import org.graylog.plugins.views.search.SearchType;
+import org.graylog.plugins.views.search.elasticsearch.ElasticsearchQueryString;
+import org.graylog.plugins.views.search.searchtypes.pivot.Pivot;
+import org.graylog.plugins.views.search.searchtypes.pivot.PivotResult;
+import org.graylog.plugins.views.search.searchtypes.pivot.SeriesSpec;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.DateInterval;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.Time;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Count;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Max;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Min;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Sum;
+import org.graylog2.indexer.ranges.events.IndexRangesUpdatedEvent;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.graylog2.plugin.indexer.searches.timeranges.RelativeRange;
+import org.graylog2.plugin.indexer.searches.timeranges.TimeRange;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongUnaryOperator;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Caches the closed time buckets of pivot search types, so refreshing a widget with a relative time range only has to
+ * search the parts of the range which are not covered by buckets computed earlier.
+ * <p>
+ * Only pivots with a single time row group on the {@code timestamp} field and without custom sorting are cached. The
+ * buckets of such a pivot are shared between all executions with the same query, filters, streams and bucket interval,
+ * independent of their time range. A bucket is closed once it ended at least the configured settle time ago. On a
+ * cache hit the pivot is rewritten to exclude the reusable buckets, and its result is merged with the cached rows.
+ * All cached buckets are dropped when index ranges are updated.
+ */
+@Singleton
+public class SearchTypeResultCache {
+    private static final Logger LOG = LoggerFactory.getLogger(SearchTypeResultCache.class);
+
+    // Hidden series which is added to pivots without a plain count, to be able to compute totals from cached buckets.
+    @VisibleForTesting
+    static final String BUCKET_COUNT_SERIES_ID = "gl2_cached_bucket_count";
+
+    private static final Set<String> MERGEABLE_SERIES = Set.of(Count.NAME, Sum.NAME, Min.NAME, Max.NAME);
+    private static final String NORMALIZED_ID = "";
+    private static final String SOURCE_NON_LEAF = "non-leaf";
+    private static final String SOURCE_ROW_INNER = "row-inner";
+
+    private final boolean enabled;
+    private final long ttlMillis;
+    private final long settleTimeMillis;
+    private final Cache<CacheKey, CachedBuckets> cache;
+    private final Meter hits;
+    private final Meter misses;
+
+    @Inject
+    public SearchTypeResultCache(@Named("search_type_result_cache_size") int maximumSize,
+                                 @Named("search_type_result_cache_ttl") Duration ttl,
+                                 @Named("search_type_result_cache_settle_time") Duration settleTime,
+                                 MetricRegistry metricRegistry,
+                                 EventBus eventBus) {
+        this.enabled = maximumSize > 0;
+        this.ttlMillis = ttl.toMilliseconds();
+        this.settleTimeMillis = settleTime.toMilliseconds();
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(maximumSize, 0))
+                .expireAfterAccess(ttlMillis, TimeUnit.MILLISECONDS)
+                .build();
+        this.hits = metricRegistry.meter(name(SearchTypeResultCache.class, "hits"));
+        this.misses = metricRegistry.meter(name(SearchTypeResultCache.class, "misses"));
+
+        eventBus.register(this);
+    }
+
+    /**
+     * Prepares the execution of the given query. The returned query has to be run instead of the given one, and its
+     * result has to be passed to {@link Execution#complete(QueryResult)}.
+     */
+    public Execution prepare(Query query) {
+        if (!enabled) {
+            return new Execution(query, query, Map.of());
+        }
+
+        final DateTime now = Tools.nowUTC();
+        final Map<String, PivotExecution> pivotExecutions = new HashMap<>();
+        final ImmutableSet.Builder<SearchType> searchTypes = ImmutableSet.builder();
+        for (SearchType searchType : query.searchTypes()) {
+            final Optional<PivotExecution> pivotExecution = searchType instanceof Pivot pivot
+                    ? prepare(query, pivot, now)
+                    : Optional.empty();
+            if (pivotExecution.isPresent()) {
+                pivotExecutions.put(searchType.id(), pivotExecution.get());
+                searchTypes.add(pivotExecution.get().rewrittenPivot);
+            } else {
+                searchTypes.add(searchType);
+            }
+        }
+
+        if (pivotExecutions.isEmpty()) {
+            return new Execution(query, query, Map.of());
+        }
+        return new Execution(query, query.toBuilder().searchTypes(searchTypes.build()).build(), pivotExecutions);
+    }
+
+    private Optional<PivotExecution> prepare(Query query, Pivot pivot, DateTime now) {
+        if (!isCacheable(query, pivot)) {
+            return Optional.empty();
+        }
+        final TimeRange timeRange = query.effectiveTimeRange(pivot);
+        if (timeRange instanceof RelativeRange relativeRange && relativeRange.isAllMessages()) {
+            return Optional.empty();
+        }
+
+        // Relative ranges are evaluated only once, so the backend searches the range the buckets were computed for.
+        final AbsoluteRange range = AbsoluteRange.create(timeRange.getFrom(), timeRange.getTo());
+        final DateInterval interval = ((Time) pivot.rowGroups().get(0)).interval().toDateInterval(range);
+        final Optional<Buckets> buckets = Buckets.of(interval);
+        if (buckets.isEmpty()) {
+            return Optional.empty();
+        }
+
+        final long closedFrom = buckets.get().ceil(range.getFrom().getMillis());
+        final long closedTo = buckets.get().floor(Math.min(range.getTo().getMillis(), now.getMillis() - settleTimeMillis));
+        if (closedFrom >= closedTo) {
+            return Optional.empty();
+        }
+
+        final CacheKey key = new CacheKey(query.query(),
+                query.filter(),
+                query.effectiveStreams(pivot),
+                pivot.toBuilder().id(NORMALIZED_ID).name(null).timerange((TimeRange) null).build(),
+                interval.toString());
+        final CachedBuckets cached = cache.getIfPresent(key);
+
+        long reuseFrom = closedFrom;
+        long reuseTo = closedFrom;
+        if (cached != null && now.getMillis() - cached.createdAt() <= ttlMillis) {
+            reuseFrom = Math.max(cached.from(), closedFrom);
+            reuseTo = Math.min(cached.to(), closedTo);
+        }
+
+        final Pivot.Builder rewrittenPivot = pivot.toBuilder().timerange(range);
+        final String countSeriesId = pivot.series().stream()
+                .filter(series -> series instanceof Count && series.field() == null)
+                .map(SeriesSpec::id)
+                .findFirst()
+                .orElse(BUCKET_COUNT_SERIES_ID);
+        if (BUCKET_COUNT_SERIES_ID.equals(countSeriesId)) {
+            rewrittenPivot.series(ImmutableList.<SeriesSpec>builder()
+                    .addAll(pivot.series())
+                    .add(Count.builder().id(BUCKET_COUNT_SERIES_ID).build())
+                    .build());
+        }
+
+        final NavigableMap<Long, PivotResult.Row> reusedRows;
+        final long createdAt;
+        if (reuseFrom < reuseTo) {
+            hits.mark();
+            LOG.debug("Reusing cached buckets from {} to {} for search type {}", reuseFrom, reuseTo, pivot.id());
+            rewrittenPivot.query(excludingBuckets(pivot, reuseFrom, reuseTo));
+            reusedRows = cached.rows().subMap(reuseFrom, true, reuseTo, false);
+            createdAt = cached.createdAt();
+        } else {
+            misses.mark();
+            reusedRows = ImmutableSortedMap.of();
+            createdAt = now.getMillis();
+        }
+
+        return Optional.of(new PivotExecution(pivot, rewrittenPivot.build(), key, countSeriesId,
+                closedFrom, closedTo, reuseFrom, reuseTo, reusedRows, createdAt));
+    }
+
+    private static boolean isCacheable(Query query, Pivot pivot) {
+        if (!pivot.sort().isEmpty() || !pivot.filters().isEmpty() || (query.filters() != null && !query.filters().isEmpty())) {
+            return false;
+        }
+        if (pivot.rowGroups().size() != 1
+                || !(pivot.rowGroups().get(0) instanceof Time time)
+                || !time.fields().equals(List.of(Message.FIELD_TIMESTAMP))) {
+            return false;
+        }
+        // Without row values there are no per-bucket document counts to compute the total from.
+        if (!pivot.columnGroups().isEmpty() && !pivot.rollup()) {
+            return false;
+        }
+        return !pivot.rollup() || pivot.series().stream().allMatch(series -> MERGEABLE_SERIES.contains(series.type()));
+    }
+
+    private static BackendQuery excludingBuckets(Pivot pivot, long from, long to) {
+        final String exclusion = Message.FIELD_TIMESTAMP + ":{* TO \"" + formatTimestamp(from) + "\"} OR "
+                + Message.FIELD_TIMESTAMP + ":[\"" + formatTimestamp(to) + "\" TO *]";
+        return pivot.query()
+                .map(query -> ElasticsearchQueryString.of(query.queryString()))
+                .orElseGet(ElasticsearchQueryString::empty)
+                .concatenate(ElasticsearchQueryString.of(exclusion));
+    }
+
+    private static String formatTimestamp(long millis) {
+        return Tools.buildElasticSearchTimeFormat(new DateTime(millis, DateTimeZone.UTC));
+    }
+
+    @Subscribe
+    @AllowConcurrentEvents
+    public void handleIndexRangesUpdated(IndexRangesUpdatedEvent event) {
+        LOG.debug("Index ranges of {} have been updated. Invalidating cached search type results.", event.indices());
+        cache.invalidateAll();
+    }
+
+    public class Execution {
+        private final Query originalQuery;
+        private final Query query;
+        private final Map<String, PivotExecution> pivotExecutions;
+
+        private Execution(Query originalQuery, Query query, Map<String, PivotExecution> pivotExecutions) {
+            this.originalQuery = originalQuery;
+            this.query = query;
+            this.pivotExecutions = pivotExecutions;
+        }
+
+        public Query query() {
+            return query;
+        }
+
+        public QueryResult complete(QueryResult result) {
+            if (pivotExecutions.isEmpty()) {
+                return result;
+            }
+            final Map<String, SearchType.Result> searchTypes = new HashMap<>(result.searchTypes());
+            pivotExecutions.forEach((id, pivotExecution) -> {
+                if (searchTypes.get(id) instanceof PivotResult pivotResult) {
+                    searchTypes.put(id, pivotExecution.complete(pivotResult));
+                }
+            });
+            return result.toBuilder()
+                    .query(originalQuery)
+                    .searchTypes(searchTypes)
+                    .build();
+        }
+    }
+
+    private class PivotExecution {
+        private final Pivot pivot;
+        private final Pivot rewrittenPivot;
+        private final CacheKey key;
+        private final String countSeriesId;
+        private final long closedFrom;
+        private final long closedTo;
+        private final long reuseFrom;
+        private final long reuseTo;
+        private final NavigableMap<Long, PivotResult.Row> reusedRows;
+        private final long createdAt;
+
+        private PivotExecution(Pivot pivot, Pivot rewrittenPivot, CacheKey key, String countSeriesId,
+                               long closedFrom, long closedTo, long reuseFrom, long reuseTo,
+                               NavigableMap<Long, PivotResult.Row> reusedRows, long createdAt) {
+            this.pivot = pivot;
+            this.rewrittenPivot = rewrittenPivot;
+            this.key = key;
+            this.countSeriesId = countSeriesId;
+            this.closedFrom = closedFrom;
+            this.closedTo = closedTo;
+            this.reuseFrom = reuseFrom;
+            this.reuseTo = reuseTo;
+            this.reusedRows = reusedRows;
+            this.createdAt = createdAt;
+        }
+
+        private PivotResult complete(PivotResult result) {
+            final TreeMap<Long, PivotResult.Row> rows = new TreeMap<>();
+            PivotResult.Row rollupRow = null;
+            for (PivotResult.Row row : result.rows()) {
+                if (row.key().isEmpty()) {
+                    rollupRow = row;
+                    continue;
+                }
+                final long bucketStart = DateTime.parse(row.key().get(0)).getMillis();
+                // The excluded buckets are returned empty, they are replaced by the cached ones.
+                if (bucketStart < reuseFrom || bucketStart >= reuseTo) {
+                    rows.put(bucketStart, row);
+                }
+            }
+            rows.putAll(reusedRows);
+
+            cache.put(key, new CachedBuckets(closedFrom, closedTo,
+                    ImmutableSortedMap.copyOf(rows.subMap(closedFrom, true, closedTo, false)), createdAt));
+
+            final PivotResult.Builder mergedResult = PivotResult.builder()
+                    .id(result.id())
+                    .effectiveTimerange(result.effectiveTimerange())
+                    .total(result.total() + reusedRows.values().stream().mapToLong(this::bucketCount).sum());
+            pivot.name().ifPresent(mergedResult::name);
+            rows.values().forEach(row -> mergedResult.addRow(withoutBucketCount(row)));
+            if (pivot.rollup()) {
+                mergedResult.addRow(mergedRollupRow(rollupRow));
+            }
+            return mergedResult.build();
+        }
+
+        private long bucketCount(PivotResult.Row row) {
+            return row.values().stream()
+                    .filter(value -> value.rollup() && value.key().equals(List.of(countSeriesId)))
+                    .map(PivotResult.Value::value)
+                    .filter(Number.class::isInstance)
+                    .mapToLong(value -> ((Number) value).longValue())
+                    .findFirst()
+                    .orElse(0L);
+        }
+
+        private PivotResult.Row withoutBucketCount(PivotResult.Row row) {
+            if (!BUCKET_COUNT_SERIES_ID.equals(countSeriesId)) {
+                return row;
+            }
+            final PivotResult.Row.Builder builder = PivotResult.Row.builder()
+                    .key(row.key())
+                    .source(row.source());
+            row.values().stream()
+                    .filter(value -> !BUCKET_COUNT_SERIES_ID.equals(value.key().get(value.key().size() - 1)))
+                    .forEach(builder::addValue);
+            return builder.build();
+        }
+
+        private PivotResult.Row mergedRollupRow(@Nullable PivotResult.Row rollupRow) {
+            final PivotResult.Row.Builder builder = PivotResult.Row.builder()
+                    .key(ImmutableList.of())
+                    .source(SOURCE_NON_LEAF);
+            for (SeriesSpec series : pivot.series()) {
+                final List<String> valueKey = List.of(series.id());
+                final List<Object> values = new ArrayList<>();
+                if (rollupRow != null) {
+                    rollupRow.values().stream()
+                            .filter(value -> value.key().equals(valueKey))
+                            .forEach(value -> values.add(value.value()));
+                }
+                reusedRows.values().forEach(row -> row.values().stream()
+                        .filter(value -> value.rollup() && value.key().equals(valueKey))
+                        .forEach(value -> values.add(value.value())));
+                builder.addValue(PivotResult.Value.create(valueKey, combine(series.type(), values), true, SOURCE_ROW_INNER));
+            }
+            return builder.build();
+        }
+    }
+
+    @Nullable
+    @VisibleForTesting
+    static Object combine(String seriesType, Collection<Object> values) {
+        final List<Number> numbers = values.stream()
+                .filter(Number.class::isInstance)
+                .map(Number.class::cast)
+                .toList();
+        if (numbers.isEmpty()) {
+            return values.stream().filter(Objects::nonNull).findFirst().orElse(null);
+        }
+        return switch (seriesType) {
+            case Count.NAME -> numbers.stream().allMatch(number -> number instanceof Long || number instanceof Integer)
+                    ? (Object) numbers.stream().mapToLong(Number::longValue).sum()
+                    : (Object) numbers.stream().mapToDouble(Number::doubleValue).sum();
+            case Sum.NAME -> numbers.stream().mapToDouble(Number::doubleValue).sum();
+            case Min.NAME -> numbers.stream().min((a, b) -> Double.compare(a.doubleValue(), b.doubleValue())).get();
+            case Max.NAME -> numbers.stream().max((a, b) -> Double.compare(a.doubleValue(), b.doubleValue())).get();
+            default -> throw new IllegalArgumentException("Cannot combine values of series type " + seriesType);
+        };
+    }
+
+    private record CacheKey(BackendQuery query, @Nullable Filter filter, Set<String> streams, Pivot pivot, String interval) {
+    }
+
+    private record CachedBuckets(long from, long to, ImmutableSortedMap<Long, PivotResult.Row> rows, long createdAt) {
+    }
+
+    /**
+     * Bucket boundaries of date histograms, which are aligned to the epoch in UTC for fixed intervals and to the start
+     * of the week or month for calendar intervals.
+     */
+    private record Buckets(LongUnaryOperator bucketStart, LongUnaryOperator nextBucketStart) {
+        private static final Map<String, Long> FIXED_UNIT_MILLIS = Map.of(
+                "ms", 1L,
+                "s", TimeUnit.SECONDS.toMillis(1),
+                "m", TimeUnit.MINUTES.toMillis(1),
+                "h", TimeUnit.HOURS.toMillis(1),
+                "d", TimeUnit.DAYS.toMillis(1));
+
+        static Optional<Buckets> of(DateInterval interval) {
+            final Number quantity = interval.getQuantity();
+            if (quantity == null || quantity.doubleValue() != quantity.longValue() || quantity.longValue() < 1) {
+                return Optional.empty();
+            }
+            final long amount = quantity.longValue();
+            final Long unitMillis = FIXED_UNIT_MILLIS.get(interval.getUnit());
+            if (unitMillis != null) {
+                final long size = amount * unitMillis;
+                return Optional.of(new Buckets(millis -> Math.floorDiv(millis, size) * size, start -> start + size));
+            }
+            if (amount == 1 && "w".equals(interval.getUnit())) {
+                return Optional.of(new Buckets(
+                        millis -> utc(millis).withDayOfWeek(DateTimeConstants.MONDAY).withTimeAtStartOfDay().getMillis(),
+                        start -> utc(start).plusWeeks(1).getMillis()));
+            }
+            if (amount == 1 && "M".equals(interval.getUnit())) {
+                return Optional.of(new Buckets(
+                        millis -> utc(millis).withDayOfMonth(1).withTimeAtStartOfDay().getMillis(),
+                        start -> utc(start).plusMonths(1).getMillis()));
+            }
+            return Optional.empty();
+        }
+
+        private static DateTime utc(long millis) {
+            return new DateTime(millis, DateTimeZone.UTC);
+        }
+
+        long floor(long millis) {
+            return bucketStart.applyAsLong(millis);
+        }
+
+        long ceil(long millis) {
+            final long start = floor(millis);
+            return start == millis ? start : nextBucketStart.applyAsLong(start);
+        }
+    }
+}
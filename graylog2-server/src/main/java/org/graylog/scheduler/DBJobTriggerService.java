@@ -376,6 +376,30 @@ public class DBJobTriggerService {
         return Optional.ofNullable(trigger);
     }
 
+    /**
+     * Returns the unlocked runnable triggers of the given job type which are due, without locking them.
+     * The triggers are sorted by their next time, like they will be locked by {@link #nextRunnableTrigger()}.
+     *
+     * @param jobDefinitionType the job definition type of the triggers
+     * @return the due triggers
+     */
+    public List<JobTriggerDto> findDueTriggers(String jobDefinitionType) {
+        final DateTime now = clock.nowUTC();
+
+        final Query query = DBQuery.and(
+                DBQuery.is(FIELD_JOB_DEFINITION_TYPE, jobDefinitionType),
+                DBQuery.is(FIELD_LOCK_OWNER, null),
+                DBQuery.is(FIELD_STATUS, JobTriggerStatus.RUNNABLE),
+                DBQuery.lessThanEquals(FIELD_START_TIME, now),
+                MongoQueryUtils.getArrayIsContainedQuery(FIELD_CONSTRAINTS, schedulerCapabilitiesService.getNodeCapabilities()),
+                DBQuery.lessThanEquals(FIELD_NEXT_TIME, now)
+        );
+
+        try (final DBCursor<JobTriggerDto> cursor = db.find(query).sort(DBSort.asc(FIELD_NEXT_TIME))) {
+            return ImmutableList.copyOf((Iterator<? extends JobTriggerDto>) cursor);
+        }
+    }
+
     /**
      * Releases a locked trigger. The trigger is only released if it's owned by the calling node.
      *
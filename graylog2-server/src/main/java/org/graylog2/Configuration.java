@@ -23,6 +23,7 @@ import com.github.joschi.jadconfig.ValidatorMethod;
 import com.github.joschi.jadconfig.converters.StringSetConverter;
 import com.github.joschi.jadconfig.converters.TrimmedStringSetConverter;
 import com.github.joschi.jadconfig.util.Duration;
+import com.github.joschi.jadconfig.util.Size;
 import com.github.joschi.jadconfig.validators.PositiveDurationValidator;
 import com.github.joschi.jadconfig.validators.PositiveIntegerValidator;
 import com.github.joschi.jadconfig.validators.PositiveLongValidator;
@@ -33,6 +34,7 @@ import org.graylog2.cluster.leader.LeaderElectionService;
 import org.graylog2.cluster.lock.MongoLockService;
 import org.graylog2.configuration.converters.JavaDurationConverter;
 import org.graylog2.plugin.BaseConfiguration;
+import org.graylog2.plugin.MessageFieldStorage;
 import org.graylog2.security.realm.RootAccountRealm;
 import org.graylog2.utilities.IPSubnetConverter;
 import org.graylog2.utilities.IpSubnet;
@@ -75,6 +77,21 @@ public class Configuration extends BaseConfiguration {
     @Parameter(value = "output_flush_interval", required = true, validators = PositiveIntegerValidator.class)
     private int outputFlushInterval = 1;
 
+    @Parameter(value = "output_inflight_batches")
+    private int outputInflightBatches = 0;
+
+    @Parameter(value = "output_adaptive_batch_size")
+    private boolean outputAdaptiveBatchSize = false;
+
+    @Parameter(value = "output_adaptive_batch_min_size")
+    private Size outputAdaptiveBatchMinSize = Size.megabytes(1L);
+
+    @Parameter(value = "output_adaptive_batch_max_size")
+    private Size outputAdaptiveBatchMaxSize = Size.megabytes(20L);
+
+    @Parameter(value = "output_adaptive_batch_target_latency", validators = PositiveDurationValidator.class)
+    private Duration outputAdaptiveBatchTargetLatency = Duration.seconds(2L);
+
     @Parameter(value = "outputbuffer_processors", required = true, validators = PositiveIntegerValidator.class)
     private int outputBufferProcessors = 3;
 
@@ -115,9 +132,24 @@ public class Configuration extends BaseConfiguration {
     @Parameter(value = "stream_processing_max_faults", validators = PositiveIntegerValidator.class)
     private int streamProcessingMaxFaults = 3;
 
+    @Parameter(value = "stream_router_compiled")
+    private boolean streamRouterCompiled = true;
+
     @Parameter(value = "output_module_timeout", validators = PositiveLongValidator.class)
     private long outputModuleTimeout = 10000;
 
+    @Parameter(value = "output_stream_queue_size", validators = PositiveIntegerValidator.class)
+    private int outputStreamQueueSize = 1000;
+
+    @Parameter(value = "output_stream_batch_size", validators = PositiveIntegerValidator.class)
+    private int outputStreamBatchSize = 500;
+
+    @Parameter(value = "output_stream_linger_time")
+    private long outputStreamLingerTime = 0;
+
+    @Parameter(value = "message_field_storage", converter = MessageFieldStorage.Converter.class)
+    private MessageFieldStorage messageFieldStorage = MessageFieldStorage.HASH_MAP;
+
     @Parameter(value = "output_fault_count_threshold", validators = PositiveLongValidator.class)
     private long outputFaultCountThreshold = 5;
 
@@ -139,6 +171,12 @@ public class Configuration extends BaseConfiguration {
     @Parameter(value = "ldap_connection_timeout", validators = PositiveIntegerValidator.class)
     private int ldapConnectionTimeout = 2000;
 
+    @Parameter(value = "events_aggregation_search_batch_size", validators = PositiveIntegerValidator.class)
+    private int eventsAggregationSearchBatchSize = 1;
+
+    @Parameter(value = "events_filter_message_processor_enabled")
+    private boolean eventsFilterMessageProcessorEnabled = false;
+
     @Parameter(value = "alert_check_interval", validators = PositiveIntegerValidator.class)
     @Deprecated
     private int alertCheckInterval = 60;
@@ -149,6 +187,15 @@ public class Configuration extends BaseConfiguration {
     @Parameter(value = "dashboard_widget_default_cache_time", validators = PositiveDurationValidator.class)
     private Duration dashboardWidgetDefaultCacheTime = Duration.seconds(10L);
 
+    @Parameter(value = "search_type_result_cache_size")
+    private int searchTypeResultCacheSize = 0;
+
+    @Parameter(value = "search_type_result_cache_ttl", validators = PositiveDurationValidator.class)
+    private Duration searchTypeResultCacheTtl = Duration.minutes(5L);
+
+    @Parameter(value = "search_type_result_cache_settle_time", validators = PositiveDurationValidator.class)
+    private Duration searchTypeResultCacheSettleTime = Duration.minutes(1L);
+
     @Parameter(value = "user_password_default_algorithm")
     private String userPasswordDefaultAlgorithm = "bcrypt";
 
@@ -167,6 +214,9 @@ public class Configuration extends BaseConfiguration {
     @Parameter(value = "index_ranges_cleanup_interval", validators = PositiveDurationValidator.class)
     private Duration indexRangesCleanupInterval = Duration.hours(1L);
 
+    @Parameter(value = "index_ranges_cache_refresh_interval", validators = PositiveDurationValidator.class)
+    private Duration indexRangesCacheRefreshInterval = Duration.minutes(1L);
+
     @Parameter(value = "trusted_proxies", converter = IPSubnetConverter.class)
     private Set<IpSubnet> trustedProxies = Collections.emptySet();
 
@@ -271,6 +321,26 @@ public class Configuration extends BaseConfiguration {
         return outputFlushInterval;
     }
 
+    public int getOutputInflightBatches() {
+        return outputInflightBatches;
+    }
+
+    public boolean isOutputAdaptiveBatchSize() {
+        return outputAdaptiveBatchSize;
+    }
+
+    public Size getOutputAdaptiveBatchMinSize() {
+        return outputAdaptiveBatchMinSize;
+    }
+
+    public Size getOutputAdaptiveBatchMaxSize() {
+        return outputAdaptiveBatchMaxSize;
+    }
+
+    public Duration getOutputAdaptiveBatchTargetLatency() {
+        return outputAdaptiveBatchTargetLatency;
+    }
+
     public int getOutputBufferProcessors() {
         return outputBufferProcessors;
     }
@@ -335,6 +405,10 @@ public class Configuration extends BaseConfiguration {
         return streamProcessingTimeout;
     }
 
+    public boolean isStreamRouterCompiled() {
+        return streamRouterCompiled;
+    }
+
     public int getStreamProcessingMaxFaults() {
         return streamProcessingMaxFaults;
     }
@@ -343,6 +417,30 @@ public class Configuration extends BaseConfiguration {
         return outputModuleTimeout;
     }
 
+    public int getOutputStreamQueueSize() {
+        return outputStreamQueueSize;
+    }
+
+    public int getOutputStreamBatchSize() {
+        return outputStreamBatchSize;
+    }
+
+    public long getOutputStreamLingerTime() {
+        return outputStreamLingerTime;
+    }
+
+    public MessageFieldStorage getMessageFieldStorage() {
+        return messageFieldStorage;
+    }
+
+    public int getEventsAggregationSearchBatchSize() {
+        return eventsAggregationSearchBatchSize;
+    }
+
+    public boolean isEventsFilterMessageProcessorEnabled() {
+        return eventsFilterMessageProcessorEnabled;
+    }
+
     public long getOutputFaultCountThreshold() {
         return outputFaultCountThreshold;
     }
@@ -380,6 +478,18 @@ public class Configuration extends BaseConfiguration {
         return dashboardWidgetDefaultCacheTime;
     }
 
+    public int getSearchTypeResultCacheSize() {
+        return searchTypeResultCacheSize;
+    }
+
+    public Duration getSearchTypeResultCacheTtl() {
+        return searchTypeResultCacheTtl;
+    }
+
+    public Duration getSearchTypeResultCacheSettleTime() {
+        return searchTypeResultCacheSettleTime;
+    }
+
     public String getUserPasswordDefaultAlgorithm() {
         return userPasswordDefaultAlgorithm;
     }
@@ -404,6 +514,10 @@ public class Configuration extends BaseConfiguration {
         return indexRangesCleanupInterval;
     }
 
+    public Duration getIndexRangesCacheRefreshInterval() {
+        return indexRangesCacheRefreshInterval;
+    }
+
     public Set<IpSubnet> getTrustedProxies() {
         return trustedProxies;
     }
@@ -450,6 +564,17 @@ public class Configuration extends BaseConfiguration {
         }
     }
 
+    @ValidatorMethod
+    @SuppressWarnings("unused")
+    public void validateOutputAdaptiveBatchSize() throws ValidationException {
+        if (outputAdaptiveBatchMinSize.toBytes() <= 0) {
+            throw new ValidationException("\"output_adaptive_batch_min_size\" must be larger than 0");
+        }
+        if (outputAdaptiveBatchMaxSize.toBytes() < outputAdaptiveBatchMinSize.toBytes()) {
+            throw new ValidationException("\"output_adaptive_batch_max_size\" must not be smaller than \"output_adaptive_batch_min_size\"");
+        }
+    }
+
     @ValidatorMethod
     public void validateLeaderElectionTimeouts() throws ValidationException {
         if (leaderElectionMode != LeaderElectionMode.AUTOMATIC) {
@@ -37,6 +37,7 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
+import java.util.List;
 import java.util.concurrent.ThreadFactory;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -100,6 +101,19 @@ public class OutputBuffer extends Buffer {
         insert(message);
     }
 
+    /**
+     * Inserts all given messages, claiming ring buffer slots in bulk instead of one slot per message.
+     *
+     * @param messages the messages to insert
+     */
+    public void insertBlocking(List<Message> messages) {
+        // A single claim cannot be larger than the ring buffer
+        for (int i = 0; i < messages.size(); i += ringBufferSize) {
+            final List<Message> chunk = messages.subList(i, Math.min(i + ringBufferSize, messages.size()));
+            insert(chunk.toArray(new Message[0]));
+        }
+    }
+
     @Override
     protected void afterInsert(int n) {
         incomingMessages.mark(n);
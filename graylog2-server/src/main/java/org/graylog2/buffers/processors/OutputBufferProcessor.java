@@ -17,15 +17,10 @@
 package org.graylog2.buffers.processors;
 
 import com.codahale.metrics.Counter;
-import com.codahale.metrics.InstrumentedExecutorService;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
-import com.google.common.util.concurrent.Futures;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
-import com.google.common.util.concurrent.Uninterruptibles;
 import com.lmax.disruptor.WorkHandler;
-import org.graylog2.Configuration;
 import org.graylog2.outputs.DefaultMessageOutput;
 import org.graylog2.outputs.OutputRouter;
 import org.graylog2.plugin.GlobalMetricNames;
@@ -37,13 +32,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
-import java.util.Set;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
@@ -54,9 +42,6 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
     private static final String INCOMING_MESSAGES_METRICNAME = name(OutputBufferProcessor.class, "incomingMessages");
     private static final String PROCESS_TIME_METRICNAME = name(OutputBufferProcessor.class, "processTime");
 
-    private final ExecutorService executor;
-
-    private final Configuration configuration;
     private final ServerStatus serverStatus;
 
     private final Meter incomingMessages;
@@ -67,34 +52,19 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
     private final MessageOutput defaultMessageOutput;
 
     @Inject
-    public OutputBufferProcessor(Configuration configuration,
-                                 MetricRegistry metricRegistry,
+    public OutputBufferProcessor(MetricRegistry metricRegistry,
                                  ServerStatus serverStatus,
                                  OutputRouter outputRouter,
                                  @DefaultMessageOutput MessageOutput defaultMessageOutput) {
-        this.configuration = configuration;
         this.serverStatus = serverStatus;
         this.outputRouter = outputRouter;
         this.defaultMessageOutput = defaultMessageOutput;
 
-        final String nameFormat = "outputbuffer-processor-executor-%d";
-        final int corePoolSize = configuration.getOutputBufferProcessorThreadsCorePoolSize();
-        this.executor = executorService(metricRegistry, nameFormat, corePoolSize);
-
         this.incomingMessages = metricRegistry.meter(INCOMING_MESSAGES_METRICNAME);
         this.outputThroughput = metricRegistry.counter(GlobalMetricNames.OUTPUT_THROUGHPUT);
         this.processTime = metricRegistry.timer(PROCESS_TIME_METRICNAME);
     }
 
-    private ExecutorService executorService(final MetricRegistry metricRegistry, final String nameFormat,
-                                            final int corePoolSize) {
-        final ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat(nameFormat).build();
-        return new InstrumentedExecutorService(
-                Executors.newFixedThreadPool(corePoolSize, threadFactory),
-                metricRegistry,
-                name(this.getClass(), "executor-service"));
-    }
-
     /**
      * Each message will be written to one or more outputs.
      * <p>
@@ -102,13 +72,14 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
      * outputs, currently based on the stream outputs that are configured in the system.
      * </p>
      * <p>
-     * The stream outputs are time limited so one bad output does not impact throughput too much. Essentially this means
-     * that the work of writing to the outputs is performed, but the writer threads will not wait forever for stream
-     * outputs to finish their work. <b>This might lead to increased memory usage!</b>
+     * The stream outputs are decoupled by the {@link OutputRouter}, which queues the messages per output and has them
+     * written in batches on separate threads, so one bad output does not impact throughput too much. The queues are
+     * bounded and messages are dropped for an output which doesn't keep up within the output module timeout.
      * </p>
      * <p>
-     * The default output, however, is allowed to block and is not subject to time limiting. This is important because it
-     * can exert back pressure on the processing pipeline this way, making sure we don't run into excessive heap usage.
+     * The default output, however, is written to directly by this processor and is not subject to time limiting. This is
+     * important because it can exert back pressure on the processing pipeline this way, making sure we don't run into
+     * excessive heap usage.
      * </p>
      *
      * @param event the message to write to outputs
@@ -125,29 +96,20 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
         }
         LOG.trace("Processing message <{}> from OutputBuffer.", msg.getId());
 
-        final Set<MessageOutput> messageOutputs = outputRouter.getStreamOutputsForMessage(msg);
-        msg.recordCounter(serverStatus, "matched-outputs", messageOutputs.size());
-
-        final Future<?> defaultOutputCompletion = processMessage(msg, defaultMessageOutput);
-
-        final CountDownLatch streamOutputsDoneSignal = new CountDownLatch(messageOutputs.size());
-        for (final MessageOutput output : messageOutputs) {
-            processMessage(msg, output, streamOutputsDoneSignal);
-        }
-
-        // Wait until all writer threads for stream outputs have finished or timeout is reached.
-        if (!streamOutputsDoneSignal.await(configuration.getOutputModuleTimeout(), TimeUnit.MILLISECONDS)) {
-            LOG.warn("Timeout reached. Not waiting any longer for stream output writer threads to complete.");
+        try {
+            final int streamOutputs = outputRouter.dispatchToStreamOutputs(msg);
+            msg.recordCounter(serverStatus, "matched-outputs", streamOutputs);
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while queueing message <{}> for stream outputs.", msg.getId());
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // A failing stream output must never keep the message from being written to the default output.
+            LOG.error("Unable to queue message <{}> for stream outputs.", msg.getId(), e);
         }
 
-        // now block until the default output has finished. most batching outputs will already been done because their
-        // fast path is really fast (usually an insert into a queue), but the slow flush path might block for a long time
-        // this exerts the back pressure to the system
-        if (defaultOutputCompletion != null) {
-            Uninterruptibles.getUninterruptibly(defaultOutputCompletion);
-        } else {
-            LOG.error("The default output future was null, this is a bug!");
-        }
+        // most batching outputs will return quickly because their fast path is really fast (usually an insert into a
+        // queue), but the slow flush path might block for a long time, this exerts the back pressure to the system
+        writeToDefaultOutput(msg);
 
         if (msg.hasRecordings()) {
             LOG.debug("Message event trace: {}", msg.recordingsAsString());
@@ -160,44 +122,24 @@ public class OutputBufferProcessor implements WorkHandler<MessageEvent> {
         event.clearMessages();
     }
 
-    private Future<?> processMessage(final Message msg, final MessageOutput defaultMessageOutput) {
-        return processMessage(msg, defaultMessageOutput, new CountDownLatch(0));
-    }
-
-    private Future<?> processMessage(final Message msg, final MessageOutput output, final CountDownLatch doneSignal) {
-        if (output == null) {
+    private void writeToDefaultOutput(final Message msg) {
+        if (defaultMessageOutput == null) {
             LOG.error("Output was null!");
-            doneSignal.countDown();
-            return Futures.immediateCancelledFuture();
+            return;
         }
-        if (!output.isRunning()) {
-            LOG.debug("Skipping stopped output {}", output.getClass().getName());
-            doneSignal.countDown();
-            return Futures.immediateCancelledFuture();
+        if (!defaultMessageOutput.isRunning()) {
+            LOG.debug("Skipping stopped output {}", defaultMessageOutput.getClass().getName());
+            return;
         }
 
-        Future<?> future = null;
-        try {
-            LOG.debug("Writing message to [{}].", output.getClass());
-            if (LOG.isTraceEnabled()) {
-                LOG.trace("Message id for [{}]: <{}>", output.getClass(), msg.getId());
-            }
-            future = executor.submit(new Runnable() {
-                @Override
-                public void run() {
-                    try (Timer.Context ignored = processTime.time()) {
-                        output.write(msg);
-                    } catch (Exception e) {
-                        LOG.error("Error in output [" + output.getClass() + "].", e);
-                    } finally {
-                        doneSignal.countDown();
-                    }
-                }
-            });
+        LOG.debug("Writing message to [{}].", defaultMessageOutput.getClass());
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Message id for [{}]: <{}>", defaultMessageOutput.getClass(), msg.getId());
+        }
+        try (Timer.Context ignored = processTime.time()) {
+            defaultMessageOutput.write(msg);
         } catch (Exception e) {
-            LOG.error("Could not write message batch to output [" + output.getClass() + "].", e);
-            doneSignal.countDown();
+            LOG.error("Error in output [" + defaultMessageOutput.getClass() + "].", e);
         }
-        return future;
     }
 }
@@ -85,6 +85,7 @@ import org.graylog2.migrations.MigrationsModule;
 import org.graylog2.notifications.Notification;
 import org.graylog2.notifications.NotificationService;
 import org.graylog2.plugin.KafkaJournalConfiguration;
+import org.graylog2.plugin.Plugin;
 import org.graylog2.plugin.ServerStatus;
 import org.graylog2.plugin.Tools;
 import org.graylog2.plugin.system.NodeId;
@@ -220,6 +221,13 @@ public class Server extends ServerBootstrap {
                 telemetryConfiguration);
     }
 
+    @Override
+    protected void beforeInjectorCreation(Set<Plugin> plugins) {
+        super.beforeInjectorCreation(plugins);
+        // Must be set before any message is created
+        org.graylog2.plugin.Message.setFieldStorage(configuration.getMessageFieldStorage());
+    }
+
     @Override
     protected void startNodeRegistration(Injector injector) {
         // Register this node.
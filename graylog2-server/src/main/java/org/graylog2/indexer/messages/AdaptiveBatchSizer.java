@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.messages;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import org.graylog2.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Controls the payload size of output batches with an additive-increase/multiplicative-decrease (AIMD) scheme.
+ *
+ * The target size grows by a fixed step after every full batch which has been indexed within the target latency.
+ * It shrinks multiplicatively if a batch took longer than the target latency, and even more if a bulk request has
+ * been rejected with "429 Too Many Requests" or "413 Request Entity Too Large" while indexing it.
+ * Rejections are counted per batch by a {@link RejectionCounter} which is passed to the bulk request, the
+ * {@link ChunkedBulkIndexer} still splits the rejected request itself.
+ */
+@Singleton
+public class AdaptiveBatchSizer {
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveBatchSizer.class);
+
+    static final double REJECTION_DECREASE_FACTOR = 0.5;
+    static final double LATENCY_DECREASE_FACTOR = 0.75;
+    // Batches which have been flushed by the flush interval before reaching this share of the target size don't
+    // tell anything about the capacity of the cluster and don't grow the target size.
+    static final double FULL_BATCH_RATIO = 0.9;
+    static final int INCREASE_STEPS = 32;
+
+    private final boolean enabled;
+    private final long minBytes;
+    private final long maxBytes;
+    private final long increaseBytes;
+    private final long targetLatencyNanos;
+    private final AtomicLong targetBytes;
+    private final Meter rejections;
+
+    @Inject
+    public AdaptiveBatchSizer(Configuration configuration, MetricRegistry metricRegistry) {
+        this.enabled = configuration.isOutputAdaptiveBatchSize();
+        this.minBytes = configuration.getOutputAdaptiveBatchMinSize().toBytes();
+        this.maxBytes = configuration.getOutputAdaptiveBatchMaxSize().toBytes();
+        this.increaseBytes = Math.max(1L, (maxBytes - minBytes) / INCREASE_STEPS);
+        this.targetLatencyNanos = configuration.getOutputAdaptiveBatchTargetLatency().toNanoseconds();
+        this.targetBytes = new AtomicLong(minBytes);
+        this.rejections = metricRegistry.meter(name(AdaptiveBatchSizer.class, "rejections"));
+        metricRegistry.register(name(AdaptiveBatchSizer.class, "targetBatchBytes"), (Gauge<Long>) targetBytes::get);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the payload size in bytes at which the current batch should be flushed.
+     */
+    public long getTargetBatchBytes() {
+        return targetBytes.get();
+    }
+
+    /**
+     * Adjusts the target size after a batch has been indexed.
+     *
+     * @param batchBytes       the payload size of the batch
+     * @param latencyNanos     the time it took to index the batch, including retries
+     * @param rejectedRequests the number of bulk requests which have been rejected while indexing the batch
+     */
+    public void onBatchIndexed(long batchBytes, long latencyNanos, int rejectedRequests) {
+        final boolean rejected = rejectedRequests > 0;
+        rejections.mark(rejectedRequests);
+        final long previous = targetBytes.get();
+        final long updated = targetBytes.updateAndGet(current -> {
+            if (rejected) {
+                return Math.max(minBytes, (long) (current * REJECTION_DECREASE_FACTOR));
+            } else if (latencyNanos > targetLatencyNanos) {
+                return Math.max(minBytes, (long) (current * LATENCY_DECREASE_FACTOR));
+            } else if (batchBytes >= current * FULL_BATCH_RATIO) {
+                return Math.min(maxBytes, current + increaseBytes);
+            }
+            return current;
+        });
+        if (updated < previous) {
+            LOG.debug("Decreased output batch size from {} to {} bytes (rejected: {}, latency: {}ms)",
+                    previous, updated, rejected, latencyNanos / 1_000_000L);
+        }
+    }
+
+    /**
+     * Counts the rejected bulk requests of a single batch.
+     */
+    public static class RejectionCounter implements Messages.IndexingListener {
+        private final AtomicInteger rejections = new AtomicInteger();
+
+        @Override
+        public void onRetry(long attemptNumber) {
+        }
+
+        @Override
+        public void onSuccess(long delaySinceFirstAttempt) {
+        }
+
+        @Override
+        public void onRejected() {
+            rejections.incrementAndGet();
+        }
+
+        public int getRejections() {
+            return rejections.get();
+        }
+    }
+}
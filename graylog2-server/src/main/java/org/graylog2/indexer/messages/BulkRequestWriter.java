@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.messages;
+
+import com.codahale.metrics.Meter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes indexing requests in the newline delimited JSON format of the bulk API.
+ *
+ * Every document is streamed with {@link Indexable#writeElasticSearchObject} straight into a per-thread buffer which
+ * is reused for subsequent requests, so the request body is built without intermediate maps or per-document byte
+ * arrays. The buffer grows as needed, buffers which grew beyond {@link #MAX_RETAINED_BUFFER_SIZE} are dropped
+ * before the next request to not pin the memory of a single large batch.
+ */
+public class BulkRequestWriter {
+    static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    static final int MAX_RETAINED_BUFFER_SIZE = 16 * 1024 * 1024;
+
+    private static final SerializedString LINE_SEPARATOR = new SerializedString("\n");
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+    private final ObjectMapper objectMapper;
+    private final Meter invalidTimestampMeter;
+
+    public BulkRequestWriter(ObjectMapper objectMapper, @Nonnull Meter invalidTimestampMeter) {
+        this.objectMapper = objectMapper;
+        this.invalidTimestampMeter = invalidTimestampMeter;
+    }
+
+    /**
+     * Writes the given requests into the buffer of the calling thread.
+     * The returned buffer is only valid until the next call of this method on the same thread.
+     *
+     * @param requests the requests to write
+     * @return the buffer containing the request body
+     */
+    public Buffer write(List<IndexingRequest> requests) throws IOException {
+        Buffer buffer = BUFFERS.get();
+        if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+            buffer = new Buffer();
+            BUFFERS.set(buffer);
+        }
+        buffer.reset();
+
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(buffer)) {
+            generator.setRootValueSeparator(LINE_SEPARATOR);
+            for (IndexingRequest request : requests) {
+                writeAction(generator, request);
+                request.message().writeElasticSearchObject(objectMapper, generator, invalidTimestampMeter);
+            }
+            if (!requests.isEmpty()) {
+                // Every line of a bulk request, including the last one, has to be terminated by a newline.
+                generator.writeRaw('\n');
+            }
+        }
+        return buffer;
+    }
+
+    private static void writeAction(JsonGenerator generator, IndexingRequest request) throws IOException {
+        generator.writeStartObject();
+        generator.writeObjectFieldStart("index");
+        generator.writeStringField("_index", request.indexSet().getWriteIndexAlias());
+        generator.writeStringField("_id", request.message().getId());
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+    /**
+     * Growable byte buffer which exposes its backing array to avoid copying the request body.
+     */
+    public static class Buffer extends ByteArrayOutputStream {
+        private Buffer() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        /**
+         * Returns the backing array, only the first {@link #size()} bytes are valid.
+         */
+        public byte[] array() {
+            return buf;
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import org.graylog2.indexer.ElasticsearchException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
@@ -32,6 +33,10 @@ public class ChunkedBulkIndexer {
     }
 
     public List<Messages.IndexingError> index(List<IndexingRequest> messageList, BulkIndex bulkIndex) throws IOException {
+        return index(messageList, bulkIndex, null);
+    }
+
+    public List<Messages.IndexingError> index(List<IndexingRequest> messageList, BulkIndex bulkIndex, @Nullable Messages.IndexingListener indexingListener) throws IOException {
         if (messageList.isEmpty()) {
             return Collections.emptyList();
         }
@@ -42,6 +47,9 @@ public class ChunkedBulkIndexer {
             try {
                 return bulkIndex.apply(new Chunk(messageList, offset, chunkSize));
             } catch (EntityTooLargeException e) {
+                if (indexingListener != null) {
+                    indexingListener.onRejected();
+                }
                 if (e instanceof TooManyRequestsException) {
                     LOG.warn("Bulk index failed with 'Too many requests' error. Retrying by splitting up batch size <{}>.", chunkSize);
                 } else {
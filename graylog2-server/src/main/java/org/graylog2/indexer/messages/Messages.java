@@ -56,6 +56,13 @@ public class Messages {
     public interface IndexingListener {
         void onRetry(long attemptNumber);
         void onSuccess(long delaySinceFirstAttempt);
+
+        /**
+         * Called when a bulk request has been rejected with "429 Too Many Requests" or "413 Request Entity Too Large"
+         * and is retried in smaller chunks.
+         */
+        default void onRejected() {
+        }
     }
 
     private static final Logger LOG = LoggerFactory.getLogger(Messages.class);
@@ -120,7 +127,7 @@ public class Messages {
         return bulkIndex(messageList, false, null);
     }
 
-    public List<String> bulkIndex(final List<Map.Entry<IndexSet, Message>> messageList, IndexingListener indexingListener) {
+    public List<String> bulkIndex(final List<Map.Entry<IndexSet, Message>> messageList, @Nullable IndexingListener indexingListener) {
         return bulkIndex(messageList, false, indexingListener);
     }
 
@@ -222,7 +229,7 @@ public class Messages {
                 : createBulkRequestRetryerBuilder().withRetryListener(retryListenerFor(indexingListener)).build();
 
         try {
-            return bulkRequestRetryer.call(() -> messagesAdapter.bulkIndex(indexingRequestList));
+            return bulkRequestRetryer.call(() -> messagesAdapter.bulkIndex(indexingRequestList, indexingListener));
         } catch (ExecutionException | RetryException e) {
             if (e instanceof RetryException) {
                 LOG.error("Could not bulk index {} messages. Giving up after {} attempts.", count, ((RetryException) e).getNumberOfFailedAttempts());
@@ -18,6 +18,7 @@ package org.graylog2.indexer.messages;
 
 import org.graylog2.indexer.results.ResultMessage;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.util.List;
 
@@ -26,5 +27,9 @@ public interface MessagesAdapter {
 
     List<String> analyze(String toAnalyze, String index, String analyzer) throws IOException;
 
-    List<Messages.IndexingError> bulkIndex(final List<IndexingRequest> messageList) throws IOException;
+    default List<Messages.IndexingError> bulkIndex(final List<IndexingRequest> messageList) throws IOException {
+        return bulkIndex(messageList, null);
+    }
+
+    List<Messages.IndexingError> bulkIndex(List<IndexingRequest> messageList, @Nullable Messages.IndexingListener indexingListener) throws IOException;
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.ranges;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import org.joda.time.DateTime;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedSet;
+
+/**
+ * Immutable interval tree of {@link IndexRange index ranges}.
+ *
+ * The ranges are sorted by their begin and stored in an array which is used as an implicit balanced binary search
+ * tree: the root of every sub-array is its middle element. Every node is augmented with the maximum end of its
+ * subtree, so subtrees which end before the searched interval are skipped and a lookup takes
+ * {@code O(log n + k)} for {@code k} matching ranges.
+ *
+ * Updates create a new tree, so a tree can be shared between threads without synchronization.
+ */
+public class IndexRangeIntervalTree {
+    private static final Comparator<IndexRange> BY_BEGIN = Comparator
+            .comparingLong((IndexRange range) -> range.begin().getMillis())
+            .thenComparing(IndexRange::indexName);
+
+    private final ImmutableMap<String, IndexRange> rangesByIndex;
+    private final IndexRange[] ranges;
+    private final long[] begins;
+    private final long[] ends;
+    private final long[] maxEnds;
+
+    private IndexRangeIntervalTree(Map<String, IndexRange> rangesByIndex) {
+        this.rangesByIndex = ImmutableMap.copyOf(rangesByIndex);
+        this.ranges = rangesByIndex.values().toArray(new IndexRange[0]);
+        Arrays.sort(ranges, BY_BEGIN);
+
+        this.begins = new long[ranges.length];
+        this.ends = new long[ranges.length];
+        for (int i = 0; i < ranges.length; i++) {
+            begins[i] = ranges[i].begin().getMillis();
+            ends[i] = ranges[i].end().getMillis();
+        }
+        this.maxEnds = new long[ranges.length];
+        computeMaxEnds(0, ranges.length - 1);
+    }
+
+    /**
+     * Creates a tree of the given ranges. If there are multiple ranges of the same index, the last one wins.
+     */
+    public static IndexRangeIntervalTree create(Collection<? extends IndexRange> indexRanges) {
+        final Map<String, IndexRange> rangesByIndex = new HashMap<>(indexRanges.size());
+        for (IndexRange indexRange : indexRanges) {
+            rangesByIndex.put(indexRange.indexName(), indexRange);
+        }
+        return new IndexRangeIntervalTree(rangesByIndex);
+    }
+
+    /**
+     * Returns a new tree which contains the given range instead of the current range of its index.
+     */
+    public IndexRangeIntervalTree with(IndexRange indexRange) {
+        final Map<String, IndexRange> updated = new HashMap<>(rangesByIndex);
+        updated.put(indexRange.indexName(), indexRange);
+        return new IndexRangeIntervalTree(updated);
+    }
+
+    /**
+     * Returns a new tree without the range of the given index.
+     */
+    public IndexRangeIntervalTree without(String index) {
+        if (!rangesByIndex.containsKey(index)) {
+            return this;
+        }
+        final Map<String, IndexRange> updated = new HashMap<>(rangesByIndex);
+        updated.remove(index);
+        return new IndexRangeIntervalTree(updated);
+    }
+
+    public int size() {
+        return ranges.length;
+    }
+
+    /**
+     * Returns all ranges which overlap with the given interval (both ends inclusive). Just like the query which
+     * is used for MongoDB, this includes all ranges which contain the epoch, i. e. ranges of indices which have not
+     * been calculated yet.
+     *
+     * @param begin the begin of the interval
+     * @param end   the end of the interval
+     * @return the matching ranges, sorted by {@link IndexRange#COMPARATOR}
+     */
+    public SortedSet<IndexRange> find(DateTime begin, DateTime end) {
+        final ImmutableSortedSet.Builder<IndexRange> result = ImmutableSortedSet.orderedBy(IndexRange.COMPARATOR);
+        collect(0, ranges.length - 1, begin.getMillis(), end.getMillis(), result);
+        if (begin.getMillis() > 0L || end.getMillis() < 0L) {
+            collect(0, ranges.length - 1, 0L, 0L, result);
+        }
+        return result.build();
+    }
+
+    private long computeMaxEnds(int low, int high) {
+        if (low > high) {
+            return Long.MIN_VALUE;
+        }
+        final int mid = (low + high) >>> 1;
+        final long maxEnd = Math.max(ends[mid], Math.max(computeMaxEnds(low, mid - 1), computeMaxEnds(mid + 1, high)));
+        maxEnds[mid] = maxEnd;
+        return maxEnd;
+    }
+
+    private void collect(int low, int high, long begin, long end, ImmutableSortedSet.Builder<IndexRange> result) {
+        if (low > high) {
+            return;
+        }
+        final int mid = (low + high) >>> 1;
+        if (maxEnds[mid] < begin) {
+            // All ranges in this subtree end before the interval.
+            return;
+        }
+        collect(low, mid - 1, begin, end, result);
+        if (begins[mid] > end) {
+            // This range and all ranges in the right subtree begin after the interval.
+            return;
+        }
+        if (ends[mid] >= begin) {
+            result.add(ranges[mid]);
+        }
+        collect(mid + 1, high, begin, end, result);
+    }
+}
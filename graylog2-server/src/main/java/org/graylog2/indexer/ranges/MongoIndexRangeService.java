@@ -16,6 +16,7 @@
  */
 package org.graylog2.indexer.ranges;
 
+import com.github.joschi.jadconfig.util.Duration;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
@@ -31,11 +32,13 @@ import org.graylog2.audit.AuditEventSender;
 import org.graylog2.bindings.providers.MongoJackObjectMapperProvider;
 import org.graylog2.database.MongoConnection;
 import org.graylog2.database.NotFoundException;
+import org.graylog2.events.ClusterEventBus;
 import org.graylog2.indexer.IndexSetRegistry;
 import org.graylog2.indexer.indices.Indices;
 import org.graylog2.indexer.indices.events.IndicesClosedEvent;
 import org.graylog2.indexer.indices.events.IndicesDeletedEvent;
 import org.graylog2.indexer.indices.events.IndicesReopenedEvent;
+import org.graylog2.indexer.ranges.events.IndexRangesUpdatedEvent;
 import org.graylog2.indexer.searches.IndexRangeStats;
 import org.graylog2.plugin.system.NodeId;
 import org.joda.time.DateTime;
@@ -47,11 +50,14 @@ import org.mongojack.WriteResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import java.util.Iterator;
 import java.util.SortedSet;
 import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
 
 import static org.graylog2.audit.AuditEventTypes.ES_INDEX_RANGE_CREATE;
 import static org.graylog2.audit.AuditEventTypes.ES_INDEX_RANGE_DELETE;
@@ -67,6 +73,19 @@ public class MongoIndexRangeService implements IndexRangeService {
     private final AuditEventSender auditEventSender;
     private final NodeId nodeId;
     private final JacksonDBCollection<MongoIndexRange, ObjectId> collection;
+    private final ClusterEventBus clusterEventBus;
+
+    // In-memory copy of all index ranges which is used to answer find(). It's loaded lazily and updated on local
+    // changes, changes on other nodes are signalled by an IndexRangesUpdatedEvent and invalidate it. It is reloaded
+    // after the refresh interval in case such an event got lost.
+    private final Object cacheLock = new Object();
+    // Only one thread reloads the cache, concurrent callers wait for its result instead of loading all ranges as well.
+    private final Object cacheReloadLock = new Object();
+    private final long cacheRefreshIntervalNanos;
+    private volatile IndexRangeIntervalTree cachedRanges;
+    private volatile long cachedRangesLoadedAt;
+    // Incremented on every change, guarded by cacheLock. Prevents storing ranges which have been loaded concurrently.
+    private long cacheGeneration;
 
     @Inject
     public MongoIndexRangeService(MongoConnection mongoConnection,
@@ -75,11 +94,15 @@ public class MongoIndexRangeService implements IndexRangeService {
                                   IndexSetRegistry indexSetRegistry,
                                   AuditEventSender auditEventSender,
                                   NodeId nodeId,
-                                  EventBus eventBus) {
+                                  EventBus eventBus,
+                                  ClusterEventBus clusterEventBus,
+                                  @Named("index_ranges_cache_refresh_interval") Duration cacheRefreshInterval) {
         this.indices = indices;
         this.indexSetRegistry = indexSetRegistry;
         this.auditEventSender = auditEventSender;
         this.nodeId = nodeId;
+        this.clusterEventBus = clusterEventBus;
+        this.cacheRefreshIntervalNanos = cacheRefreshInterval.toNanoseconds();
         this.collection = JacksonDBCollection.wrap(
                 mongoConnection.getDatabase().getCollection(COLLECTION_NAME),
                 MongoIndexRange.class,
@@ -110,22 +133,7 @@ public class MongoIndexRangeService implements IndexRangeService {
 
     @Override
     public SortedSet<IndexRange> find(DateTime begin, DateTime end) {
-        final DBQuery.Query query = DBQuery.or(
-                DBQuery.and(
-                        DBQuery.notExists("start"),  // "start" has been used by the old index ranges in MongoDB
-                        DBQuery.lessThanEquals(IndexRange.FIELD_BEGIN, end.getMillis()),
-                        DBQuery.greaterThanEquals(IndexRange.FIELD_END, begin.getMillis())
-                ),
-                DBQuery.and(
-                        DBQuery.notExists("start"),  // "start" has been used by the old index ranges in MongoDB
-                        DBQuery.lessThanEquals(IndexRange.FIELD_BEGIN, 0L),
-                        DBQuery.greaterThanEquals(IndexRange.FIELD_END, 0L)
-                )
-        );
-
-        try (DBCursor<MongoIndexRange> indexRanges = collection.find(query)) {
-            return ImmutableSortedSet.copyOf(IndexRange.COMPARATOR, (Iterator<? extends IndexRange>) indexRanges);
-        }
+        return getCachedRanges().find(begin, end);
     }
 
     @Override
@@ -158,17 +166,89 @@ public class MongoIndexRangeService implements IndexRangeService {
 
     @Override
     public WriteResult<MongoIndexRange, ObjectId> save(IndexRange indexRange) {
-        remove(indexRange.indexName());
+        removeRange(indexRange.indexName());
         final WriteResult<MongoIndexRange, ObjectId> save = collection.save(MongoIndexRange.create(indexRange));
+        final MongoIndexRange savedRange = save.getSavedObject();
+        updateCachedRanges(ranges -> ranges.with(savedRange));
+        clusterEventBus.post(IndexRangesUpdatedEvent.create(nodeId.getNodeId(), indexRange.indexName()));
         return save;
     }
 
     @Override
     public boolean remove(String index) {
+        final boolean removed = removeRange(index);
+        if (removed) {
+            clusterEventBus.post(IndexRangesUpdatedEvent.create(nodeId.getNodeId(), index));
+        }
+        return removed;
+    }
+
+    private boolean removeRange(String index) {
         final WriteResult<MongoIndexRange, ObjectId> remove = collection.remove(DBQuery.in(IndexRange.FIELD_INDEX_NAME, index));
+        updateCachedRanges(ranges -> ranges.without(index));
         return remove.getN() > 0;
     }
 
+    private IndexRangeIntervalTree getCachedRanges() {
+        final IndexRangeIntervalTree ranges = freshCachedRanges();
+        if (ranges != null) {
+            return ranges;
+        }
+
+        synchronized (cacheReloadLock) {
+            // The cache might have been reloaded while waiting for the lock.
+            final IndexRangeIntervalTree reloadedRanges = freshCachedRanges();
+            if (reloadedRanges != null) {
+                return reloadedRanges;
+            }
+
+            final long generation;
+            synchronized (cacheLock) {
+                generation = cacheGeneration;
+            }
+            final long loadedAt = System.nanoTime();
+            final IndexRangeIntervalTree loadedRanges = IndexRangeIntervalTree.create(findAll());
+            synchronized (cacheLock) {
+                if (generation == cacheGeneration) {
+                    cachedRangesLoadedAt = loadedAt;
+                    cachedRanges = loadedRanges;
+                }
+            }
+            LOG.debug("Loaded {} index ranges into the cache.", loadedRanges.size());
+            return loadedRanges;
+        }
+    }
+
+    @Nullable
+    private IndexRangeIntervalTree freshCachedRanges() {
+        final IndexRangeIntervalTree ranges = cachedRanges;
+        if (ranges != null && System.nanoTime() - cachedRangesLoadedAt < cacheRefreshIntervalNanos) {
+            return ranges;
+        }
+        return null;
+    }
+
+    private void updateCachedRanges(UnaryOperator<IndexRangeIntervalTree> update) {
+        synchronized (cacheLock) {
+            cacheGeneration++;
+            final IndexRangeIntervalTree ranges = cachedRanges;
+            if (ranges != null) {
+                cachedRanges = update.apply(ranges);
+            }
+        }
+    }
+
+    @Subscribe
+    @AllowConcurrentEvents
+    public void handleIndexRangesUpdated(IndexRangesUpdatedEvent event) {
+        if (nodeId.getNodeId().equals(event.nodeId())) {
+            // The cache has already been updated by this node.
+            return;
+        }
+        LOG.debug("Index ranges of {} have been updated on node <{}>. Invalidating index range cache.", event.indices(), event.nodeId());
+        updateCachedRanges(ranges -> null);
+    }
+
     @Subscribe
     @AllowConcurrentEvents
     public void handleIndexDeletion(IndicesDeletedEvent event) {
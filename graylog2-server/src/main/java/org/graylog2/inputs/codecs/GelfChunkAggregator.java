@@ -86,17 +86,15 @@ public class GelfChunkAggregator implements CodecAggregator {
     @Nonnull
     @Override
     public Result addChunk(ByteBuf buffer) {
-        final byte[] readable = new byte[buffer.readableBytes()];
-        buffer.readBytes(readable, buffer.readerIndex(), buffer.readableBytes());
-
-        final GELFMessage msg = new GELFMessage(readable);
-
         final ByteBuf aggregatedBuffer;
-        switch (msg.getGELFType()) {
+        switch (GELFMessage.Type.determineType(buffer)) {
             case CHUNKED:
                 try {
                     chunkCounter.inc();
-                    aggregatedBuffer = checkForCompletion(msg);
+                    // chunks are kept until the message is complete, so they are copied out of the network buffer
+                    final byte[] readable = new byte[buffer.readableBytes()];
+                    buffer.getBytes(buffer.readerIndex(), readable);
+                    aggregatedBuffer = checkForCompletion(new GELFMessage(readable));
                     if (aggregatedBuffer == null) {
                         return VALID_EMPTY_RESULT;
                     }
@@ -108,7 +106,8 @@ public class GelfChunkAggregator implements CodecAggregator {
             case ZLIB:
             case GZIP:
             case UNCOMPRESSED:
-                aggregatedBuffer = Unpooled.wrappedBuffer(readable);
+                // single datagram messages are passed on without copying them, the handler releases the buffer
+                aggregatedBuffer = buffer.retainedSlice();
                 break;
             case UNSUPPORTED:
                 return INVALID_RESULT;
@@ -18,7 +18,6 @@ package org.graylog2.inputs.codecs;
 
 import com.eaio.uuid.UUID;
 import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.assistedinject.Assisted;
 import org.apache.commons.lang3.StringUtils;
@@ -35,6 +34,7 @@ import org.graylog2.plugin.inputs.annotations.Codec;
 import org.graylog2.plugin.inputs.annotations.ConfigClass;
 import org.graylog2.plugin.inputs.annotations.FactoryClass;
 import org.graylog2.plugin.inputs.codecs.AbstractCodec;
+import org.graylog2.plugin.inputs.codecs.BatchMessageCodec;
 import org.graylog2.plugin.inputs.codecs.CodecAggregator;
 import org.graylog2.plugin.inputs.transports.NettyTransport;
 import org.graylog2.plugin.journal.RawMessage;
@@ -46,11 +46,11 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.io.IOException;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.Map;
 
 @Codec(name = "gelf", displayName = "GELF")
-public class GelfCodec extends AbstractCodec {
+public class GelfCodec extends AbstractCodec implements BatchMessageCodec {
     private static final Logger log = LoggerFactory.getLogger(GelfCodec.class);
     private static final String CK_DECOMPRESS_SIZE_LIMIT = "decompress_size_limit";
     private static final int DEFAULT_DECOMPRESS_SIZE_LIMIT = 8388608;
@@ -69,67 +69,33 @@ public class GelfCodec extends AbstractCodec {
         this.decompressSizeLimit = configuration.getInt(CK_DECOMPRESS_SIZE_LIMIT, DEFAULT_DECOMPRESS_SIZE_LIMIT);
     }
 
-    private static String stringValue(final JsonNode json, final String fieldName) {
-        if (json != null) {
-            final JsonNode value = json.get(fieldName);
-
-            if (value != null) {
-                return value.asText();
-            }
-        }
-        return null;
-    }
-
-    private static long longValue(final JsonNode json, final String fieldName) {
-        if (json != null) {
-            final JsonNode value = json.get(fieldName);
-
-            if (value != null) {
-                return value.asLong(-1L);
-            }
-        }
-        return -1L;
-    }
-
-    private static int intValue(final JsonNode json, final String fieldName) {
-        if (json != null) {
-            final JsonNode value = json.get(fieldName);
-
-            if (value != null) {
-                return value.asInt(-1);
-            }
-        }
-        return -1;
+    @Nullable
+    @Override
+    public Message decode(@Nonnull final RawMessage rawMessage) {
+        return decode(rawMessage, new GelfFields());
     }
 
-    private static double timestampValue(final JsonNode json) {
-        final JsonNode value = json.path(Message.FIELD_TIMESTAMP);
-        if (value.isNumber()) {
-            return value.asDouble(-1.0);
-        } else if (value.isTextual()) {
-            try {
-                return Double.parseDouble(value.asText());
-            } catch (NumberFormatException e) {
-                log.debug("Unable to parse timestamp", e);
-                return -1.0;
-            }
-        } else {
-            return -1.0;
-        }
+    @Nonnull
+    @Override
+    public BatchDecoder openBatch() {
+        // The fields and their buffers are reused for every message of the batch.
+        final GelfFields fields = new GelfFields();
+        return rawMessage -> {
+            final Message message = decode(rawMessage, fields);
+            return message == null ? null : Collections.singletonList(message);
+        };
     }
 
-    @Nullable
-    @Override
-    public Message decode(@Nonnull final RawMessage rawMessage) {
+    private Message decode(final RawMessage rawMessage, final GelfFields fields) {
         final GELFMessage gelfMessage = new GELFMessage(rawMessage.getPayload(), rawMessage.getRemoteAddress());
         final String json = gelfMessage.getJSON(decompressSizeLimit, charset);
 
-        final JsonNode node;
-
         try {
-            node = objectMapper.readTree(json);
-            if (node == null) {
-                throw new IOException("null result");
+            if (!fields.read(objectMapper.getFactory(), json)) {
+                // Not a JSON object, which is invalid as well, but only if the JSON can be parsed.
+                if (objectMapper.readTree(json) == null) {
+                    throw new IOException("null result");
+                }
             }
         } catch (final Exception e) {
             log.error("Could not parse JSON, first 400 characters: " +
@@ -138,14 +104,14 @@ public class GelfCodec extends AbstractCodec {
         }
 
         try {
-            validateGELFMessage(node, rawMessage.getId(), rawMessage.getRemoteAddress());
+            validateGELFMessage(fields, rawMessage.getId(), rawMessage.getRemoteAddress());
         } catch (IllegalArgumentException e) {
-            log.trace("Invalid GELF message <{}>", node);
+            log.trace("Invalid GELF message <{}>", json);
             throw e;
         }
 
         // Timestamp.
-        final double messageTimestamp = timestampValue(node);
+        final double messageTimestamp = fields.timestampValue();
         final DateTime timestamp;
         if (messageTimestamp <= 0) {
             timestamp = rawMessage.getTimestamp();
@@ -155,42 +121,38 @@ public class GelfCodec extends AbstractCodec {
         }
 
         final Message message = new Message(
-                stringValue(node, "short_message"),
-                stringValue(node, "host"),
+                fields.stringValue("short_message"),
+                fields.stringValue("host"),
                 timestamp
         );
 
-        message.addField(Message.FIELD_FULL_MESSAGE, stringValue(node, "full_message"));
+        message.addField(Message.FIELD_FULL_MESSAGE, fields.stringValue("full_message"));
 
-        final String file = stringValue(node, "file");
+        final String file = fields.stringValue("file");
 
         if (file != null && !file.isEmpty()) {
             message.addField("file", file);
         }
 
-        final long line = longValue(node, "line");
+        final long line = fields.longValue("line");
         if (line > -1) {
             message.addField("line", line);
         }
 
         // Level is set by server if not specified by client.
-        final int level = intValue(node, "level");
+        final int level = fields.intValue("level");
         if (level > -1) {
             message.addField("level", level);
         }
 
         // Facility is set by server if not specified by client.
-        final String facility = stringValue(node, "facility");
+        final String facility = fields.stringValue("facility");
         if (facility != null && !facility.isEmpty()) {
             message.addField("facility", facility);
         }
 
         // Add additional data if there is some.
-        final Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
-
-        while (fields.hasNext()) {
-            final Map.Entry<String, JsonNode> entry = fields.next();
-
+        for (final Map.Entry<String, Object> entry : fields.entrySet()) {
             String key = entry.getKey();
             // Do not index useless GELF "version" field.
             if ("version".equals(key)) {
@@ -213,20 +175,20 @@ public class GelfCodec extends AbstractCodec {
             }
 
             // Convert JSON containers to Strings, and pick a suitable number representation.
-            final JsonNode value = entry.getValue();
+            final Object value = entry.getValue();
 
             final Object fieldValue;
-            if (value.isContainerNode()) {
+            if (value instanceof GelfFields.Container) {
                 fieldValue = value.toString();
-            } else if (value.isFloatingPointNumber()) {
-                fieldValue = value.asDouble();
-            } else if (value.isIntegralNumber()) {
-                fieldValue = value.asLong();
-            } else if (value.isNull()) {
+            } else if (value instanceof Double) {
+                fieldValue = value;
+            } else if (value instanceof Number) {
+                fieldValue = ((Number) value).longValue();
+            } else if (value == GelfFields.NULL) {
                 log.debug("Field [{}] is NULL. Skipping.", key);
                 continue;
-            } else if (value.isTextual()) {
-                fieldValue = value.asText();
+            } else if (value instanceof String) {
+                fieldValue = value;
             } else {
                 log.debug("Field [{}] has unknown value type. Skipping.", key);
                 continue;
@@ -238,44 +200,44 @@ public class GelfCodec extends AbstractCodec {
         return message;
     }
 
-    private void validateGELFMessage(JsonNode jsonNode, UUID id, ResolvableInetSocketAddress remoteAddress) {
+    private void validateGELFMessage(GelfFields fields, UUID id, ResolvableInetSocketAddress remoteAddress) {
         final String prefix = "GELF message <" + id + "> " + (remoteAddress == null ? "" : "(received from <" + remoteAddress + ">) ");
 
-        final JsonNode hostNode = jsonNode.path("host");
-        if (hostNode.isMissingNode()) {
+        final Object host = fields.get("host");
+        if (host == null) {
             log.warn(prefix + "is missing mandatory \"host\" field.");
         } else {
-            if (!hostNode.isTextual()) {
-                throw new IllegalArgumentException(prefix + "has invalid \"host\": " + hostNode.asText());
+            if (!(host instanceof String)) {
+                throw new IllegalArgumentException(prefix + "has invalid \"host\": " + GelfFields.asText(host));
             }
-            if (StringUtils.isBlank(hostNode.asText())) {
+            if (StringUtils.isBlank((String) host)) {
                 throw new IllegalArgumentException(prefix + "has empty mandatory \"host\" field.");
             }
         }
 
-        final JsonNode shortMessageNode = jsonNode.path("short_message");
-        final JsonNode messageNode = jsonNode.path("message");
-        if (!shortMessageNode.isMissingNode()) {
-            if (!shortMessageNode.isTextual()) {
-                throw new IllegalArgumentException(prefix + "has invalid \"short_message\": " + shortMessageNode.asText());
+        final Object shortMessage = fields.get("short_message");
+        final Object message = fields.get("message");
+        if (shortMessage != null) {
+            if (!(shortMessage instanceof String)) {
+                throw new IllegalArgumentException(prefix + "has invalid \"short_message\": " + GelfFields.asText(shortMessage));
             }
-            if (StringUtils.isBlank(shortMessageNode.asText()) && StringUtils.isBlank(messageNode.asText())) {
+            if (StringUtils.isBlank((String) shortMessage) && StringUtils.isBlank(message == null ? "" : GelfFields.asText(message))) {
                 throw new IllegalArgumentException(prefix + "has empty mandatory \"short_message\" field.");
             }
-        } else if (!messageNode.isMissingNode()) {
-            if (!messageNode.isTextual()) {
-                throw new IllegalArgumentException(prefix + "has invalid \"message\": " + messageNode.asText());
+        } else if (message != null) {
+            if (!(message instanceof String)) {
+                throw new IllegalArgumentException(prefix + "has invalid \"message\": " + GelfFields.asText(message));
             }
-            if (StringUtils.isBlank(messageNode.asText())) {
+            if (StringUtils.isBlank((String) message)) {
                 throw new IllegalArgumentException(prefix + "has empty mandatory \"message\" field.");
             }
         } else {
             throw new IllegalArgumentException(prefix + "is missing mandatory \"short_message\" or \"message\" field.");
         }
 
-        final JsonNode timestampNode = jsonNode.path("timestamp");
-        if (timestampNode.isValueNode() && !timestampNode.isNumber()) {
-            log.warn(prefix + "has invalid \"timestamp\": {}  (type: {})", timestampNode.asText(), timestampNode.getNodeType().name());
+        final Object timestamp = fields.get("timestamp");
+        if (timestamp != null && !(timestamp instanceof GelfFields.Container) && !(timestamp instanceof Number)) {
+            log.warn(prefix + "has invalid \"timestamp\": {}  (type: {})", GelfFields.asText(timestamp), GelfFields.typeName(timestamp));
         }
     }
 
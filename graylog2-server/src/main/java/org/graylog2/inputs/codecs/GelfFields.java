@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.inputs.codecs;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.NumberInput;
+import com.fasterxml.jackson.core.io.SegmentedStringWriter;
+import com.fasterxml.jackson.core.util.BufferRecycler;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The top-level fields of a GELF message, read with a streaming {@link JsonParser} instead of a {@link
+ * com.fasterxml.jackson.databind.JsonNode} tree.
+ * <p>
+ * Values are kept as {@link String}, {@link Number}, {@link Boolean}, {@link #NULL} or as a {@link Container} holding
+ * the serialized JSON of nested objects and arrays. The accessors convert the values like the corresponding
+ * {@code JsonNode} methods, so messages are decoded exactly as from a tree. An instance can be reused for any number
+ * of messages, but not concurrently.
+ */
+class GelfFields {
+    static final Object NULL = new Object() {
+        @Override
+        public String toString() {
+            return "null";
+        }
+    };
+
+    private final Map<String, Object> values = new LinkedHashMap<>();
+    private final BufferRecycler bufferRecycler = new BufferRecycler();
+
+    /**
+     * Reads the fields of the given JSON object, replacing the fields of the previous message.
+     *
+     * @return {@code true} if the JSON is an object, {@code false} otherwise
+     * @throws IOException if the JSON cannot be parsed
+     */
+    boolean read(JsonFactory jsonFactory, String json) throws IOException {
+        values.clear();
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                final String key = parser.getCurrentName();
+                // Like an object node, duplicate keys keep their first position but take the last value.
+                values.put(key, readValue(jsonFactory, parser, parser.nextToken()));
+            }
+            if (token != JsonToken.END_OBJECT) {
+                throw new JsonParseException(parser, "Unexpected end of JSON object");
+            }
+            return true;
+        }
+    }
+
+    private Object readValue(JsonFactory jsonFactory, JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                return parser.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return NULL;
+            case START_OBJECT:
+            case START_ARRAY:
+                final SegmentedStringWriter writer = new SegmentedStringWriter(bufferRecycler);
+                try (JsonGenerator generator = jsonFactory.createGenerator(writer)) {
+                    generator.copyCurrentStructure(parser);
+                }
+                return new Container(writer.getAndClear());
+            default:
+                throw new JsonParseException(parser, "Unexpected token " + token);
+        }
+    }
+
+    @Nullable
+    Object get(String key) {
+        return values.get(key);
+    }
+
+    Set<Map.Entry<String, Object>> entrySet() {
+        return values.entrySet();
+    }
+
+    @Nullable
+    String stringValue(String key) {
+        final Object value = values.get(key);
+        return value == null ? null : asText(value);
+    }
+
+    long longValue(String key) {
+        final Object value = values.get(key);
+        if (value == null || value instanceof Container) {
+            return -1L;
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+        } else if (value instanceof String) {
+            return NumberInput.parseAsLong((String) value, -1L);
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1L : 0L;
+        }
+        return 0L;
+    }
+
+    int intValue(String key) {
+        final Object value = values.get(key);
+        if (value == null || value instanceof Container) {
+            return -1;
+        } else if (value instanceof Number) {
+            return ((Number) value).intValue();
+        } else if (value instanceof String) {
+            return NumberInput.parseAsInt((String) value, -1);
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        return 0;
+    }
+
+    double timestampValue() {
+        final Object value = values.get("timestamp");
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof String) {
+            try {
+                return Double.parseDouble((String) value);
+            } catch (NumberFormatException e) {
+                return -1.0;
+            }
+        }
+        return -1.0;
+    }
+
+    static String asText(Object value) {
+        // Containers have no text value.
+        return value instanceof Container ? "" : value.toString();
+    }
+
+    static String typeName(Object value) {
+        if (value instanceof String) {
+            return "STRING";
+        } else if (value instanceof Boolean) {
+            return "BOOLEAN";
+        } else if (value instanceof Number) {
+            return "NUMBER";
+        } else if (value == NULL) {
+            return "NULL";
+        }
+        return value instanceof Container ? "OBJECT" : "UNKNOWN";
+    }
+
+    /**
+     * A nested object or array, kept as its JSON serialization.
+     */
+    static class Container {
+        private final String json;
+
+        Container(String json) {
+            this.json = json;
+        }
+
+        @Override
+        public String toString() {
+            return json;
+        }
+    }
+}
@@ -16,7 +16,10 @@
  */
 package org.graylog2.inputs.codecs;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
@@ -40,6 +43,7 @@ import org.graylog2.plugin.inputs.annotations.Codec;
 import org.graylog2.plugin.inputs.annotations.ConfigClass;
 import org.graylog2.plugin.inputs.annotations.FactoryClass;
 import org.graylog2.plugin.inputs.codecs.AbstractCodec;
+import org.graylog2.plugin.inputs.codecs.BatchMessageCodec;
 import org.graylog2.plugin.inputs.codecs.CodecAggregator;
 import org.graylog2.plugin.journal.RawMessage;
 import org.slf4j.Logger;
@@ -49,13 +53,16 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Iterator;
 
 @Codec(name = "jsonpath", displayName = "JSON Path")
-public class JsonPathCodec extends AbstractCodec {
+public class JsonPathCodec extends AbstractCodec implements BatchMessageCodec {
 
     private static final Logger LOG = LoggerFactory.getLogger(JsonPathCodec.class);
     public static final String CK_PATH = "path";
@@ -78,11 +85,26 @@ public class JsonPathCodec extends AbstractCodec {
     @Nullable
     @Override
     public Message decode(@Nonnull RawMessage rawMessage) {
+        return decode(rawMessage, new StringBuilder());
+    }
+
+    @Nonnull
+    @Override
+    public BatchDecoder openBatch() {
+        // The buffer for the flattened field names is reused for every message of the batch.
+        final StringBuilder path = new StringBuilder();
+        return rawMessage -> {
+            final Message message = decode(rawMessage, path);
+            return message == null ? null : Collections.singletonList(message);
+        };
+    }
+
+    private Message decode(RawMessage rawMessage, StringBuilder path) {
         Map<String, Object> fields = new HashMap<>();
         if (flatten) {
             final String json = new String(rawMessage.getPayload(), charset);
             try {
-                fields = flatten(json);
+                fields = flatten(json, path);
             } catch (JsonFlattenException e) {
                 LOG.warn("JSON contains type not supported by flatten method.", e);
             } catch (JsonProcessingException e) {
@@ -142,7 +164,84 @@ public class JsonPathCodec extends AbstractCodec {
     }
 
     public Map<String, Object> flatten(String json) throws JsonFlattenException, JsonProcessingException {
-        return flatten("", objectMapper.readTree(json));
+        return flatten(json, new StringBuilder());
+    }
+
+    /**
+     * Flattens the JSON with a streaming parser, without reading it into a tree first.
+     */
+    private Map<String, Object> flatten(String json, StringBuilder path) throws JsonFlattenException, JsonProcessingException {
+        final Map<String, Object> fields = new LinkedHashMap<>();
+        try (JsonParser parser = objectMapper.getFactory().createParser(json)) {
+            path.setLength(0);
+            final JsonToken token = parser.nextToken();
+            if (token == null) {
+                throw new JsonFlattenException("Warning: JSON contains type not supported by the flatten method. JsonNode: ");
+            }
+            flatten(parser, token, path, fields);
+        } catch (DuplicateFieldException e) {
+            // Duplicate keys in the JSON or flattened names which clash with other fields, the tree has to sort them out.
+            return flatten("", objectMapper.readTree(json));
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return ImmutableMap.copyOf(fields);
+    }
+
+    private void flatten(JsonParser parser, JsonToken token, StringBuilder path, Map<String, Object> fields) throws IOException, JsonFlattenException {
+        final int pathLength = path.length();
+        switch (token) {
+            case START_OBJECT:
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    path.setLength(pathLength);
+                    if (pathLength > 0) {
+                        path.append('.');
+                    }
+                    path.append(parser.getCurrentName());
+                    flatten(parser, parser.nextToken(), path, fields);
+                }
+                path.setLength(pathLength);
+                break;
+            case START_ARRAY:
+                JsonToken element;
+                for (int i = 0; (element = parser.nextToken()) != JsonToken.END_ARRAY; i++) {
+                    path.setLength(pathLength);
+                    path.append(i);
+                    flatten(parser, element, path, fields);
+                }
+                path.setLength(pathLength);
+                break;
+            case VALUE_STRING:
+                // Like TextNode#toString(), strings are quoted.
+                putField(fields, path, '"' + new String(JsonStringEncoder.getInstance().quoteAsString(parser.getText())) + '"');
+                break;
+            case VALUE_NUMBER_INT:
+                putField(fields, path, parser.getNumberValue());
+                break;
+            case VALUE_NUMBER_FLOAT:
+                putField(fields, path, parser.getDoubleValue());
+                break;
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+                putField(fields, path, parser.getBooleanValue());
+                break;
+            default:
+                throw new JsonFlattenException("Warning: JSON contains type not supported by the flatten method. JsonNode: " + parser.getText());
+        }
+    }
+
+    private static void putField(Map<String, Object> fields, StringBuilder path, Object value) {
+        if (fields.putIfAbsent(path.toString(), value) != null) {
+            throw new DuplicateFieldException();
+        }
+    }
+
+    private static class DuplicateFieldException extends RuntimeException {
+        DuplicateFieldException() {
+            super(null, null, false, false);
+        }
     }
 
     private Map<String, Object> flatten(String currentPath, JsonNode jsonNode) throws JsonFlattenException {
@@ -16,6 +16,7 @@
  */
 package org.graylog2.inputs.codecs.gelf;
 
+import io.netty.buffer.ByteBuf;
 import org.graylog2.plugin.ResolvableInetSocketAddress;
 import org.graylog2.plugin.Tools;
 
@@ -139,6 +140,18 @@ public class GELFMessage {
             this.second = second;
         }
 
+        /**
+         * Determines the type of the GELF message in the readable bytes of the given buffer without modifying it.
+         *
+         * @throws IllegalStateException if the buffer is too short to contain the type header
+         */
+        public static Type determineType(final ByteBuf buffer) {
+            if (buffer.readableBytes() < HEADER_SIZE) {
+                throw new IllegalStateException("GELF message is too short. Not even the type header would fit.");
+            }
+            return determineType(buffer.getByte(buffer.readerIndex()), buffer.getByte(buffer.readerIndex() + 1));
+        }
+
         static Type determineType(final byte first, final byte second) {
 
             if (first == ZLIB.first()) {
@@ -38,9 +38,7 @@ public class RawMessageHandler extends SimpleChannelInboundHandler<ByteBuf> {
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
-        final byte[] bytes = new byte[msg.readableBytes()];
-        msg.readBytes(bytes);
-        final RawMessage raw = new RawMessage(bytes, (InetSocketAddress) ctx.channel().remoteAddress());
+        final RawMessage raw = new RawMessage(msg, (InetSocketAddress) ctx.channel().remoteAddress());
         input.processRawMessage(raw);
     }
 
@@ -39,6 +39,7 @@ import org.graylog2.plugin.lookup.LookupDataAdapter;
 import org.graylog2.plugin.lookup.LookupDataAdapterConfiguration;
 import org.graylog2.plugin.lookup.LookupResult;
 import org.graylog2.plugin.utilities.FileInfo;
+import org.graylog2.utilities.IpPrefixTrie;
 import org.graylog2.utilities.IpSubnet;
 import org.graylog2.utilities.ReservedIpChecker;
 import org.joda.time.Duration;
@@ -85,6 +86,7 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
     private final Config config;
     private final AllowedAuxiliaryPathChecker pathChecker;
     private final AtomicReference<Map<String, String>> lookupRef = new AtomicReference<>(ImmutableMap.of());
+    private final AtomicReference<IpPrefixTrie<String>> cidrLookupRef = new AtomicReference<>(new IpPrefixTrie<>());
     private final String name;
 
     private FileInfo fileInfo = FileInfo.empty();
@@ -116,7 +118,7 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
 
         // Set file info before parsing the data for the first time
         fileInfo = getNewFileInfo();
-        lookupRef.set(parseCSVFile());
+        updateLookup(parseCSVFile());
     }
 
     @Override
@@ -150,7 +152,7 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
             }
 
             LOG.debug("CSV file {} has changed, updating data", config.path());
-            lookupRef.set(parseCSVFile());
+            updateLookup(parseCSVFile());
             cachePurge.purgeAll();
             // If the file has been moved, then moved back, the fileInfo might have been disconnected.
             // In this case, create a new fileInfo.
@@ -162,6 +164,25 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
         }
     }
 
+    private void updateLookup(Map<String, String> lookup) {
+        lookupRef.set(lookup);
+        if (config.isCidrLookup()) {
+            cidrLookupRef.set(buildCidrLookup(lookup));
+        }
+    }
+
+    private IpPrefixTrie<String> buildCidrLookup(Map<String, String> lookup) {
+        final IpPrefixTrie<String> cidrLookup = new IpPrefixTrie<>();
+        for (Map.Entry<String, String> entry : lookup.entrySet()) {
+            try {
+                cidrLookup.add(entry.getKey(), entry.getValue());
+            } catch (IllegalArgumentException e) {
+                LOG.debug("CIDR range '{}' in data adapter '{}' is not a valid subnet, skipping this key in lookup.", entry, name);
+            }
+        }
+        return cidrLookup;
+    }
+
     private Map<String, String> parseCSVFile() throws IOException {
         final InputStream inputStream = Files.newInputStream(Paths.get(config.path()));
         final InputStreamReader fileReader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
@@ -284,26 +305,20 @@ public class CSVFileDataAdapter extends LookupDataAdapter {
     }
 
     public LookupResult getResultForCIDRRange(Object ip) {
+        final String value;
         try {
             // Convert directly to InetAddress to avoid long timeouts using name service lookups
             InetAddress address = InetAddresses.forString(String.valueOf(ip));
-            for (Map.Entry<String, String> entry : lookupRef.get().entrySet()) {
-                String range = entry.getKey();
-                Optional<IpSubnet> subnet = ReservedIpChecker.stringToSubnet(range);
-                if (subnet.isEmpty()) {
-                    LOG.debug("CIDR range '{}' in data adapter '{}' is not a valid subnet, skipping this key in lookup.", entry, name);
-                } else {
-                    if (subnet.get().contains(address)) {
-                        return LookupResult.single(entry.getValue());
-                    }
-                }
-            }
+            value = cidrLookupRef.get().find(address);
         } catch (IllegalArgumentException e) {
             LOG.debug("Attempted to do a CIDR range lookup on invalid IP '{}'", ip);
             return getErrorResult();
         }
 
-        return getEmptyResult();
+        if (value == null) {
+            return getEmptyResult();
+        }
+        return LookupResult.single(value);
     }
 
     @Override
@@ -128,6 +128,11 @@ public class MessageFilterChainProcessor implements MessageProcessor {
         return messages;
     }
 
+    @Override
+    public boolean supportsBatches() {
+        return true;
+    }
+
     @VisibleForTesting
     protected List<MessageFilter> getFilterRegistry() {
         return filterRegistry;
@@ -84,4 +84,14 @@ public class StreamMatcherFilterProcessor implements MessageProcessor  {
         }
         return messages;
     }
+
+    @Override
+    public boolean supportsBatches() {
+        return true;
+    }
+
+    @Override
+    public boolean isIdempotent() {
+        return true;
+    }
 }
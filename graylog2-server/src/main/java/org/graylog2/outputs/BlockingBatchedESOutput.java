@@ -16,6 +16,7 @@
  */
 package org.graylog2.outputs;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
@@ -24,6 +25,7 @@ import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.graylog2.indexer.IndexSet;
 import org.graylog2.indexer.cluster.Cluster;
+import org.graylog2.indexer.messages.AdaptiveBatchSizer;
 import org.graylog2.indexer.messages.Messages;
 import org.graylog2.plugin.Message;
 import org.graylog2.shared.journal.Journal;
@@ -31,13 +33,20 @@ import org.graylog2.shared.messageq.MessageQueueAcknowledger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -58,19 +67,43 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
     private final Cluster cluster;
     private final int shutdownTimeoutMs;
 
-    private volatile List<Map.Entry<IndexSet, Message>> buffer;
+    private final AdaptiveBatchSizer adaptiveBatchSizer;
+
+    // Messages are accumulated in several buffers, so concurrent writers don't contend for a single lock. Every
+    // writing thread is assigned one of the shards when it writes for the first time.
+    private final Shard[] shards;
+    private final AtomicInteger nextShard = new AtomicInteger();
+    private final ThreadLocal<Shard> threadShard;
+
+    // The lowest journal offset of every batch which has been taken from a shard and hasn't been completed yet.
+    // Together with the lowest offsets of the shards this is the watermark below which messages can be acknowledged.
+    private final ConcurrentSkipListMap<Long, Integer> pendingBatchOffsets = new ConcurrentSkipListMap<>();
+    // Highest journal offset of indexed messages whose acknowledgement is held back by the watermark, -1 if none.
+    private long heldBackOffset = -1L;
+    private final Object acknowledgementLock = new Object();
 
     private static final AtomicInteger activeFlushThreads = new AtomicInteger(0);
     private final AtomicLong lastFlushTime = new AtomicLong();
     private final int outputFlushInterval;
 
+    // Only used if batches are indexed asynchronously, see "output_inflight_batches".
+    private final int inflightBatches;
+    @Nullable
+    private final ExecutorService indexingExecutor;
+    @Nullable
+    private final Semaphore inflightPermits;
+    @Nullable
+    private final InOrderAcknowledgements<Map.Entry<IndexSet, Message>> pendingAcknowledgements;
+    private final Meter inflightWindowFull;
+
     @Inject
     public BlockingBatchedESOutput(MetricRegistry metricRegistry,
                                    Messages messages,
                                    org.graylog2.Configuration serverConfiguration,
                                    Journal journal,
                                    MessageQueueAcknowledger acknowledger,
-                                   Cluster cluster) {
+                                   Cluster cluster,
+                                   AdaptiveBatchSizer adaptiveBatchSizer) {
         super(metricRegistry, messages, journal, acknowledger);
         this.maxBufferSize = serverConfiguration.getOutputBatchSize();
         outputFlushInterval = serverConfiguration.getOutputFlushInterval();
@@ -80,10 +113,36 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
         this.bufferFlushFailures = metricRegistry.meter(name(this.getClass(), "bufferFlushFailures"));
         this.bufferFlushesRequested = metricRegistry.meter(name(this.getClass(), "bufferFlushesRequested"));
         this.cluster = cluster;
+        this.adaptiveBatchSizer = adaptiveBatchSizer;
         this.shutdownTimeoutMs = serverConfiguration.getShutdownTimeout();
+        this.inflightBatches = serverConfiguration.getOutputInflightBatches();
+        this.inflightWindowFull = metricRegistry.meter(name(this.getClass(), "inflightWindowFull"));
 
-        buffer = new ArrayList<>(maxBufferSize);
+        if (inflightBatches > 0) {
+            this.indexingExecutor = Executors.newFixedThreadPool(inflightBatches,
+                    new ThreadFactoryBuilder().setNameFormat("es-output-indexer-%d").setDaemon(true).build());
+            this.inflightPermits = new Semaphore(inflightBatches);
+            this.pendingAcknowledgements = new InOrderAcknowledgements<>();
+            metricRegistry.register(name(this.getClass(), "inflightBatches"),
+                    (Gauge<Integer>) () -> inflightBatches - inflightPermits.availablePermits());
+            metricRegistry.register(name(this.getClass(), "pendingAcknowledgements"),
+                    (Gauge<Integer>) pendingAcknowledgements::pending);
+        } else {
+            this.indexingExecutor = null;
+            this.inflightPermits = null;
+            this.pendingAcknowledgements = null;
+        }
 
+        this.shards = new Shard[serverConfiguration.getOutputBufferProcessors()];
+        for (int i = 0; i < shards.length; i++) {
+            final Shard shard = new Shard();
+            shards[i] = shard;
+            metricRegistry.register(name(this.getClass(), "shard-" + i, "bufferedMessages"),
+                    (Gauge<Integer>) () -> shard.bufferedMessages);
+        }
+        this.threadShard = ThreadLocal.withInitial(() -> shards[Math.floorMod(nextShard.getAndIncrement(), shards.length)]);
+        metricRegistry.register(name(this.getClass(), "bufferedMessages"),
+                (Gauge<Integer>) () -> Arrays.stream(shards).mapToInt(shard -> shard.bufferedMessages).sum());
     }
 
     @Override
@@ -94,15 +153,7 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
     }
 
     public void writeMessageEntry(Map.Entry<IndexSet, Message> entry) throws Exception {
-        List<Map.Entry<IndexSet, Message>> flushBatch = null;
-        synchronized (this) {
-            buffer.add(entry);
-
-            if (buffer.size() >= maxBufferSize) {
-                flushBatch = buffer;
-                buffer = new ArrayList<>(maxBufferSize);
-            }
-        }
+        final Batch flushBatch = threadShard.get().add(entry);
         // if the current thread found it had to flush any messages, it does so but blocks.
         // this ensures we don't flush more than 'processorCount' in parallel.
         // TODO this will still be time limited by the OutputBufferProcessor and thus be called more often than it should
@@ -111,7 +162,21 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
         }
     }
 
-    private void flush(List<Map.Entry<IndexSet, Message>> messages) {
+    /**
+     * Reserves the acknowledgement position of a new batch. Must be called while holding the lock of the shard, so the
+     * order of the sequence numbers is the order in which batches have been taken from the shard.
+     */
+    private long registerBatch() {
+        return pendingAcknowledgements == null ? -1 : pendingAcknowledgements.register();
+    }
+
+    private void flush(Batch batch) {
+        if (indexingExecutor != null) {
+            flushAsync(batch);
+            return;
+        }
+
+        final List<Map.Entry<IndexSet, Message>> messages = batch.messages;
         // never try to flush an empty buffer
         if (messages.isEmpty()) {
             return;
@@ -124,19 +189,179 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
                     activeFlushThreads.get());
         }
 
+        boolean indexed = false;
         try (Timer.Context ignored = processTime.time()) {
             lastFlushTime.set(System.nanoTime());
-            writeMessageEntries(messages);
+            indexBatch(messages);
             batchSize.update(messages.size());
             bufferFlushes.mark();
+            indexed = true;
         } catch (Exception e) {
             log.error("Unable to flush message buffer", e);
             bufferFlushFailures.mark();
+        } finally {
+            activeFlushThreads.decrementAndGet();
+            completeBatch(batch);
+        }
+        if (indexed) {
+            acknowledgeBelowWatermark(messages);
         }
-        activeFlushThreads.decrementAndGet();
         log.debug("Flushing {} messages completed", messages.size());
     }
 
+    /**
+     * Hands the batch over to the indexing threads. Blocks while the configured number of batches is already being
+     * indexed, which pushes back on the output buffer. The batch is acknowledged once it and all batches registered
+     * before it have been indexed.
+     */
+    private void flushAsync(Batch batch) {
+        final List<Map.Entry<IndexSet, Message>> messages = batch.messages;
+        if (messages.isEmpty()) {
+            completeBatch(batch);
+            acknowledgeInOrder(batch.sequence, Collections.emptyList());
+            return;
+        }
+
+        lastFlushTime.set(System.nanoTime());
+        if (!inflightPermits.tryAcquire()) {
+            inflightWindowFull.mark();
+            try {
+                inflightPermits.acquire();
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while waiting to flush {} messages", messages.size());
+                bufferFlushFailures.mark();
+                completeBatch(batch);
+                acknowledgeInOrder(batch.sequence, Collections.emptyList());
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        try {
+            indexingExecutor.execute(() -> indexAsync(batch));
+        } catch (RejectedExecutionException e) {
+            log.error("Unable to flush message buffer, indexing threads have been stopped");
+            bufferFlushFailures.mark();
+            inflightPermits.release();
+            completeBatch(batch);
+            acknowledgeInOrder(batch.sequence, Collections.emptyList());
+        }
+    }
+
+    private void indexAsync(Batch batch) {
+        final List<Map.Entry<IndexSet, Message>> messages = batch.messages;
+        activeFlushThreads.incrementAndGet();
+        log.debug("Starting flushing {} messages, flush threads active {}", messages.size(), activeFlushThreads.get());
+
+        boolean indexed = false;
+        try (Timer.Context ignored = processTime.time()) {
+            indexBatch(messages);
+            batchSize.update(messages.size());
+            bufferFlushes.mark();
+            indexed = true;
+        } catch (Exception e) {
+            log.error("Unable to flush message buffer", e);
+            bufferFlushFailures.mark();
+        } finally {
+            activeFlushThreads.decrementAndGet();
+            try {
+                completeBatch(batch);
+                // Failed batches aren't acknowledged, just like in the synchronous mode, but they must not hold back
+                // the acknowledgement of later batches.
+                acknowledgeInOrder(batch.sequence, indexed ? messages : Collections.emptyList());
+            } finally {
+                inflightPermits.release();
+            }
+        }
+        log.debug("Flushing {} messages completed", messages.size());
+    }
+
+    private void indexBatch(List<Map.Entry<IndexSet, Message>> messages) {
+        if (!adaptiveBatchSizer.isEnabled()) {
+            indexMessageEntries(messages);
+            return;
+        }
+        final AdaptiveBatchSizer.RejectionCounter rejectionCounter = new AdaptiveBatchSizer.RejectionCounter();
+        final long start = System.nanoTime();
+        indexMessageEntries(messages, rejectionCounter);
+        final long latencyNanos = System.nanoTime() - start;
+        final long bytes = messages.stream().mapToLong(entry -> entry.getValue().getSize()).sum();
+        adaptiveBatchSizer.onBatchIndexed(bytes, latencyNanos, rejectionCounter.getRejections());
+    }
+
+    private void acknowledgeInOrder(long sequence, List<Map.Entry<IndexSet, Message>> messages) {
+        for (List<Map.Entry<IndexSet, Message>> batch : pendingAcknowledgements.complete(sequence, messages)) {
+            if (!batch.isEmpty()) {
+                acknowledgeBelowWatermark(batch);
+            }
+        }
+    }
+
+    /**
+     * Removes the batch from the pending batches, so it doesn't hold back the acknowledgement of other batches anymore.
+     */
+    private void completeBatch(Batch batch) {
+        if (batch.lowestOffset != Long.MAX_VALUE) {
+            pendingBatchOffsets.computeIfPresent(batch.lowestOffset, (offset, count) -> count == 1 ? null : count - 1);
+        }
+    }
+
+    /**
+     * Returns the lowest journal offset of the messages which are still buffered in a shard or being indexed.
+     * Messages from the journal can only be acknowledged below this offset, because the journal commits the
+     * highest acknowledged offset.
+     */
+    private long acknowledgementWatermark() {
+        // The shards have to be checked first: a batch is added to the pending batches before it's removed from its
+        // shard, so a concurrently taken batch is seen in at least one of both places.
+        long watermark = Long.MAX_VALUE;
+        for (Shard shard : shards) {
+            watermark = Math.min(watermark, shard.lowestOffset);
+        }
+        final Map.Entry<Long, Integer> pendingBatch = pendingBatchOffsets.firstEntry();
+        return pendingBatch == null ? watermark : Math.min(watermark, pendingBatch.getKey());
+    }
+
+    /**
+     * Acknowledges the indexed messages below the watermark. The acknowledgement of the other messages is held back
+     * and the highest held back offset is acknowledged once the watermark has passed it.
+     */
+    private void acknowledgeBelowWatermark(List<Map.Entry<IndexSet, Message>> messages) {
+        synchronized (acknowledgementLock) {
+            final long watermark = acknowledgementWatermark();
+            List<Map.Entry<IndexSet, Message>> acknowledgeable = messages;
+            for (int i = 0; i < messages.size(); i++) {
+                final long offset = offsetOf(messages.get(i));
+                if (offset != Long.MAX_VALUE && offset >= watermark) {
+                    if (acknowledgeable == messages) {
+                        acknowledgeable = new ArrayList<>(messages.subList(0, i));
+                    }
+                    heldBackOffset = Math.max(heldBackOffset, offset);
+                } else if (acknowledgeable != messages) {
+                    acknowledgeable.add(messages.get(i));
+                }
+            }
+            if (!acknowledgeable.isEmpty()) {
+                acknowledgeMessageEntries(acknowledgeable);
+            }
+            releaseHeldBackAcknowledgement(watermark);
+        }
+    }
+
+    private void releaseHeldBackAcknowledgement(long watermark) {
+        synchronized (acknowledgementLock) {
+            if (heldBackOffset >= 0 && heldBackOffset < watermark) {
+                acknowledgeMessageQueueId(heldBackOffset);
+                heldBackOffset = -1L;
+            }
+        }
+    }
+
+    private static long offsetOf(Map.Entry<IndexSet, Message> entry) {
+        final Object messageQueueId = entry.getValue().getMessageQueueId();
+        return messageQueueId instanceof Long ? (Long) messageQueueId : Long.MAX_VALUE;
+    }
+
     public void forceFlushIfTimedout() {
         // if we shouldn't flush at all based on the last flush time, no need to synchronize on this.
         if (lastFlushTime.get() != 0 &&
@@ -148,16 +373,23 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
     }
 
     private void forceFlush() {
-        // flip buffer quickly and initiate flush
-        final List<Map.Entry<IndexSet, Message>> flushBatch;
-        synchronized (this) {
-            flushBatch = buffer;
-            buffer = new ArrayList<>(maxBufferSize);
-        }
-        if (flushBatch != null) {
-            bufferFlushesRequested.mark();
-            flush(flushBatch);
+        // flip the buffers of all shards quickly and initiate flushes
+        for (Shard shard : shards) {
+            final Batch flushBatch = shard.takeIfNotEmpty();
+            if (flushBatch != null) {
+                bufferFlushesRequested.mark();
+                flush(flushBatch);
+            }
         }
+        releaseHeldBackAcknowledgement(acknowledgementWatermark());
+    }
+
+    /**
+     * Waits until all batches which are currently indexed in the background have been completed.
+     */
+    private void awaitInflightBatches() throws InterruptedException {
+        inflightPermits.acquire(inflightBatches);
+        inflightPermits.release(inflightBatches);
     }
 
     @Override
@@ -167,7 +399,13 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
             final ExecutorService executorService = Executors.newSingleThreadExecutor(
                     new ThreadFactoryBuilder().setNameFormat("es-output-shutdown-flush").build());
             try {
-                executorService.submit(this::forceFlush).get(shutdownTimeoutMs, TimeUnit.MILLISECONDS);
+                executorService.submit(() -> {
+                    forceFlush();
+                    if (indexingExecutor != null) {
+                        awaitInflightBatches();
+                    }
+                    return null;
+                }).get(shutdownTimeoutMs, TimeUnit.MILLISECONDS);
             } catch (InterruptedException e) {
                 // OK, we are shutting down anyway
             } catch (ExecutionException e) {
@@ -178,9 +416,113 @@ public class BlockingBatchedESOutput extends ElasticSearchOutput {
                 executorService.shutdownNow();
             }
         }
+        if (indexingExecutor != null) {
+            indexingExecutor.shutdownNow();
+        }
         super.stop();
     }
 
+    /**
+     * Buffers the messages of the threads which have been assigned to it. The lock of a shard is only contended if
+     * there are more writing threads than shards or while the buffer is flushed.
+     */
+    private class Shard {
+        private List<Map.Entry<IndexSet, Message>> buffer = new ArrayList<>(maxBufferSize);
+        // Payload size of the current buffer, only maintained if adaptive batch sizing is enabled.
+        private long bufferBytes = 0;
+        private volatile int bufferedMessages = 0;
+        private volatile long lowestOffset = Long.MAX_VALUE;
+
+        /**
+         * Adds the entry to the buffer.
+         *
+         * @return the batch which has to be flushed if the buffer is full, {@code null} otherwise
+         */
+        @Nullable
+        synchronized Batch add(Map.Entry<IndexSet, Message> entry) {
+            buffer.add(entry);
+            bufferedMessages = buffer.size();
+            final long offset = offsetOf(entry);
+            if (offset < lowestOffset) {
+                lowestOffset = offset;
+            }
+            return isBufferFull(entry) ? take() : null;
+        }
+
+        @Nullable
+        synchronized Batch takeIfNotEmpty() {
+            return buffer.isEmpty() ? null : take();
+        }
+
+        private boolean isBufferFull(Map.Entry<IndexSet, Message> entry) {
+            if (adaptiveBatchSizer.isEnabled()) {
+                bufferBytes += entry.getValue().getSize();
+                return bufferBytes >= adaptiveBatchSizer.getTargetBatchBytes();
+            }
+            return buffer.size() >= maxBufferSize;
+        }
+
+        private Batch take() {
+            final Batch batch = new Batch(buffer, lowestOffset, registerBatch());
+            if (lowestOffset != Long.MAX_VALUE) {
+                pendingBatchOffsets.merge(lowestOffset, 1, Integer::sum);
+            }
+            buffer = new ArrayList<>(maxBufferSize);
+            bufferBytes = 0;
+            bufferedMessages = 0;
+            lowestOffset = Long.MAX_VALUE;
+            return batch;
+        }
+    }
+
+    private static class Batch {
+        private final List<Map.Entry<IndexSet, Message>> messages;
+        // Long.MAX_VALUE if none of the messages has a journal offset
+        private final long lowestOffset;
+        private final long sequence;
+
+        private Batch(List<Map.Entry<IndexSet, Message>> messages, long lowestOffset, long sequence) {
+            this.messages = messages;
+            this.lowestOffset = lowestOffset;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Tracks the batches which are indexed concurrently and releases them for acknowledgement in the order in which
+     * they have been registered, so the committed journal offset never skips a batch which is still being indexed.
+     */
+    static class InOrderAcknowledgements<T> {
+        private final Map<Long, List<T>> completed = new HashMap<>();
+        private long nextSequence = 0;
+        private long nextAcknowledgement = 0;
+
+        synchronized long register() {
+            return nextSequence++;
+        }
+
+        /**
+         * Marks the batch with the given sequence number as completed.
+         *
+         * @return the batches which can be acknowledged now, in registration order
+         */
+        synchronized List<List<T>> complete(long sequence, List<T> batch) {
+            completed.put(sequence, batch);
+
+            final List<List<T>> acknowledgeable = new ArrayList<>();
+            List<T> next;
+            while ((next = completed.remove(nextAcknowledgement)) != null) {
+                acknowledgeable.add(next);
+                nextAcknowledgement++;
+            }
+            return acknowledgeable;
+        }
+
+        synchronized int pending() {
+            return Math.toIntExact(nextSequence - nextAcknowledgement);
+        }
+    }
+
     public interface Factory extends ElasticSearchOutput.Factory {
     }
 
@@ -31,6 +31,7 @@ import org.graylog2.shared.messageq.MessageQueueAcknowledger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.util.Collections;
 import java.util.Comparator;
@@ -97,17 +98,33 @@ public class ElasticSearchOutput implements MessageOutput {
             LOG.trace("Writing message ids to [{}]: <{}>", NAME, sortedIds);
         }
 
+        indexMessageEntries(messageList);
+
+        // This does not exclude failed messages, because we don't know if ES is ever gonna accept these messages.
+        acknowledgeMessageEntries(messageList);
+    }
+
+    protected void indexMessageEntries(List<Map.Entry<IndexSet, Message>> messageList) {
+        indexMessageEntries(messageList, null);
+    }
+
+    protected void indexMessageEntries(List<Map.Entry<IndexSet, Message>> messageList, @Nullable Messages.IndexingListener indexingListener) {
         writes.mark(messageList.size());
         final List<String> failedMessageIds;
         try (final Timer.Context ignored = processTime.time()) {
-            failedMessageIds = messages.bulkIndex(messageList);
+            failedMessageIds = messages.bulkIndex(messageList, indexingListener);
         }
         failures.mark(failedMessageIds.size());
+    }
 
-        // This does not exclude failedMessageIds, because we don't know if ES is ever gonna accept these messages.
+    protected void acknowledgeMessageEntries(List<Map.Entry<IndexSet, Message>> messageList) {
         acknowledger.acknowledge(messageList.stream().map(Map.Entry::getValue).collect(Collectors.toList()));
     }
 
+    protected void acknowledgeMessageQueueId(Object messageQueueId) {
+        acknowledger.acknowledge(messageQueueId);
+    }
+
     @Override
     public void stop() {
         // TODO: Move ES stop code here.
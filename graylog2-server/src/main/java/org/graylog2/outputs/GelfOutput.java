@@ -44,6 +44,7 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -184,10 +185,18 @@ public class GelfOutput implements MessageOutput {
         transport.send(toGELFMessage(message));
     }
 
+    /**
+     * Converts the whole batch before handing it over to the transport, so the sender thread of the transport can
+     * write the messages of a batch back to back instead of waiting for every single message to be converted.
+     */
     @Override
     public void write(final List<Message> messages) throws Exception {
+        final List<GelfMessage> gelfMessages = new ArrayList<>(messages.size());
         for (final Message message : messages) {
-            write(message);
+            gelfMessages.add(toGELFMessage(message));
+        }
+        for (final GelfMessage gelfMessage : gelfMessages) {
+            transport.send(gelfMessage);
         }
     }
 
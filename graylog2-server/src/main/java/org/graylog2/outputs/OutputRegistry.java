@@ -64,6 +64,7 @@ public class OutputRegistry {
     private final NotificationService notificationService;
     private final NodeId nodeId;
     private final MessageOutputFactory messageOutputFactory;
+    private final StreamOutputDispatcher streamOutputDispatcher;
     private final LoadingCache<String, AtomicInteger> faultCounters;
     private final StreamService streamService;
     private final long faultCountThreshold;
@@ -73,6 +74,7 @@ public class OutputRegistry {
     public OutputRegistry(@DefaultMessageOutput MessageOutput defaultMessageOutput,
                           OutputService outputService,
                           MessageOutputFactory messageOutputFactory,
+                          StreamOutputDispatcher streamOutputDispatcher,
                           NotificationService notificationService,
                           NodeId nodeId,
                           EventBus eventBus,
@@ -84,6 +86,7 @@ public class OutputRegistry {
         this.notificationService = notificationService;
         this.nodeId = nodeId;
         this.messageOutputFactory = messageOutputFactory;
+        this.streamOutputDispatcher = streamOutputDispatcher;
         this.streamService = streamService;
         this.runningMessageOutputs = CacheBuilder.newBuilder().build();
         this.faultCountThreshold = faultCountThreshold;
@@ -222,5 +225,6 @@ public class OutputRegistry {
 
         runningMessageOutputs.invalidate(outputId);
         faultCounters.invalidate(outputId);
+        streamOutputDispatcher.remove(outputId);
     }
 }
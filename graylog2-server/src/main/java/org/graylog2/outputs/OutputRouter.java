@@ -21,19 +21,29 @@ import org.graylog2.plugin.outputs.MessageOutput;
 import org.graylog2.plugin.streams.Output;
 import org.graylog2.plugin.streams.Stream;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import javax.inject.Inject;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 public class OutputRouter {
+    private static final Logger LOG = LoggerFactory.getLogger(OutputRouter.class);
+
     private final MessageOutput defaultMessageOutput;
     private final OutputRegistry outputRegistry;
+    private final StreamOutputDispatcher streamOutputDispatcher;
 
     @Inject
     public OutputRouter(@DefaultMessageOutput MessageOutput defaultMessageOutput,
-                        OutputRegistry outputRegistry) {
+                        OutputRegistry outputRegistry,
+                        StreamOutputDispatcher streamOutputDispatcher) {
         this.defaultMessageOutput = defaultMessageOutput;
         this.outputRegistry = outputRegistry;
+        this.streamOutputDispatcher = streamOutputDispatcher;
     }
 
     protected Set<MessageOutput> getMessageOutputsForStream(Stream stream) {
@@ -64,4 +74,32 @@ public class OutputRouter {
 
         return result;
     }
+
+    /**
+     * Queues the message for the running outputs of its streams. The outputs receive the message in batches, see
+     * {@link StreamOutputDispatcher}.
+     *
+     * @return the number of stream outputs the message has been routed to
+     */
+    public int dispatchToStreamOutputs(final Message msg) throws InterruptedException {
+        final Map<MessageOutput, String> outputIds = new HashMap<>();
+        for (Stream stream : msg.getStreams()) {
+            for (Output output : stream.getOutputs()) {
+                final MessageOutput messageOutput = outputRegistry.getOutputForIdAndStream(output.getId(), stream);
+                if (messageOutput != null) {
+                    outputIds.putIfAbsent(messageOutput, output.getId());
+                }
+            }
+        }
+
+        for (Map.Entry<MessageOutput, String> entry : outputIds.entrySet()) {
+            final MessageOutput messageOutput = entry.getKey();
+            if (!messageOutput.isRunning()) {
+                LOG.debug("Skipping stopped output {}", messageOutput.getClass().getName());
+                continue;
+            }
+            streamOutputDispatcher.dispatch(msg, messageOutput, entry.getValue());
+        }
+        return outputIds.size();
+    }
 }
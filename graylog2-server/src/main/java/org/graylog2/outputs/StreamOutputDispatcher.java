@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.outputs;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.InstrumentedExecutorService;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.graylog2.Configuration;
+import org.graylog2.buffers.processors.OutputBufferProcessor;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.outputs.MessageOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Writes messages to the outputs of streams in batches, see {@link OutputRouter#dispatchToStreamOutputs(Message)}.
+ * <p>
+ * Every stream output has a bounded queue, which is drained by the threads of a shared pool. At most one thread
+ * writes to an output at a time. It hands up to {@code output_stream_batch_size} messages to
+ * {@link MessageOutput#write(List)} at once, waiting up to {@code output_stream_linger_time} milliseconds for a
+ * batch to fill up. If the queue of an output is full, the output buffer processors wait up to
+ * {@code output_module_timeout} milliseconds for space in the queue and drop the message for that output afterwards.
+ * Until the output has made progress again, further messages for it are dropped without waiting, so a single stuck
+ * output doesn't stall the output buffer.
+ * <p>
+ * The queues are kept by output ID, so a restarted output continues with the queue of its previous instance. The
+ * {@link OutputRegistry} removes the queue of an output when it stops the output.
+ */
+@Singleton
+public class StreamOutputDispatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(StreamOutputDispatcher.class);
+
+    private final ExecutorService executor;
+    private final MetricRegistry metricRegistry;
+    private final int queueSize;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final long timeoutMs;
+    private final ConcurrentMap<String, OutputQueue> queues = new ConcurrentHashMap<>();
+
+    private final Timer processTime;
+
+    @Inject
+    public StreamOutputDispatcher(Configuration configuration, MetricRegistry metricRegistry) {
+        this(configuration, metricRegistry, executorService(metricRegistry,
+                // Every output buffer processor used to have its own pool of writer threads.
+                configuration.getOutputBufferProcessors() * configuration.getOutputBufferProcessorThreadsCorePoolSize()));
+    }
+
+    StreamOutputDispatcher(Configuration configuration, MetricRegistry metricRegistry, ExecutorService executor) {
+        this.executor = executor;
+        this.metricRegistry = metricRegistry;
+        this.queueSize = configuration.getOutputStreamQueueSize();
+        this.batchSize = configuration.getOutputStreamBatchSize();
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getOutputStreamLingerTime());
+        this.timeoutMs = configuration.getOutputModuleTimeout();
+        this.processTime = metricRegistry.timer(name(OutputBufferProcessor.class, "processTime"));
+    }
+
+    private static ExecutorService executorService(MetricRegistry metricRegistry, int poolSize) {
+        return new InstrumentedExecutorService(
+                Executors.newFixedThreadPool(poolSize,
+                        new ThreadFactoryBuilder().setNameFormat("outputbuffer-processor-executor-%d").build()),
+                metricRegistry,
+                name(OutputBufferProcessor.class, "executor-service"));
+    }
+
+    /**
+     * Queues the message for the given output. Blocks if the queue of the output is full.
+     *
+     * @param message  the message to write
+     * @param output   the stream output
+     * @param outputId the ID of the stream output, used for the metrics of its queue
+     * @return {@code true} if the message has been queued, {@code false} if it has been dropped
+     */
+    public boolean dispatch(Message message, MessageOutput output, String outputId) throws InterruptedException {
+        final OutputQueue queue = queues.computeIfAbsent(outputId, OutputQueue::new);
+        // Queued messages are written to the most recent instance of the output.
+        queue.output = output;
+
+        if (!queue.offer(message)) {
+            queue.droppedMessages.mark();
+            return false;
+        }
+        queue.schedule();
+        return true;
+    }
+
+    /**
+     * Removes the queue and the metrics of a stopped output. Messages which are still queued are discarded.
+     *
+     * @param outputId the ID of the stream output
+     */
+    public void remove(String outputId) {
+        // Removing the metrics within the map operation keeps them from being removed after a new queue for the
+        // same output has registered its metrics.
+        queues.computeIfPresent(outputId, (id, queue) -> {
+            queue.close();
+            return null;
+        });
+    }
+
+    /**
+     * The queue of an output.
+     */
+    private class OutputQueue {
+        private final BlockingQueue<Message> messages = new ArrayBlockingQueue<>(queueSize);
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private volatile boolean stalled = false;
+        private volatile MessageOutput output;
+
+        private final String metricPrefix;
+        private final Histogram batchSize;
+        private final Meter droppedMessages;
+        private final Timer writeTime;
+
+        private OutputQueue(String outputId) {
+            this.metricPrefix = name(StreamOutputDispatcher.class, outputId);
+            this.batchSize = metricRegistry.histogram(name(metricPrefix, "batchSize"));
+            this.droppedMessages = metricRegistry.meter(name(metricPrefix, "droppedMessages"));
+            this.writeTime = metricRegistry.timer(name(metricPrefix, "writeTime"));
+            metricRegistry.gauge(name(metricPrefix, "queueSize"), () -> (Gauge<Integer>) messages::size);
+        }
+
+        private void close() {
+            messages.clear();
+            metricRegistry.removeMatching((metricName, metric) -> metricName.startsWith(metricPrefix + "."));
+        }
+
+        private boolean offer(Message message) throws InterruptedException {
+            if (messages.offer(message)) {
+                return true;
+            }
+            if (stalled) {
+                return false;
+            }
+            if (messages.offer(message, timeoutMs, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+            stalled = true;
+            LOG.warn("Timeout reached. Dropping messages for stream output until it has written the {} queued messages.",
+                    queueSize);
+            return false;
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    LOG.error("Unable to write messages to output [{}], writer threads have been stopped.", output.getClass());
+                }
+            }
+        }
+
+        private void drain() {
+            final List<Message> batch = new ArrayList<>(Math.min(StreamOutputDispatcher.this.batchSize, queueSize));
+            try {
+                while (nextBatch(batch)) {
+                    stalled = false;
+                    write(output, batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                write(output, batch);
+                Thread.currentThread().interrupt();
+            } finally {
+                scheduled.set(false);
+            }
+            // A message might have been queued after the queue has been drained, but before the flag has been reset.
+            if (!messages.isEmpty()) {
+                schedule();
+            }
+        }
+
+        /**
+         * Takes the next batch from the queue, lingering for more messages if the batch isn't full yet.
+         *
+         * @return {@code false} if the queue is empty
+         */
+        private boolean nextBatch(List<Message> batch) throws InterruptedException {
+            final int maxBatchSize = StreamOutputDispatcher.this.batchSize;
+            if (messages.drainTo(batch, maxBatchSize) == 0) {
+                return false;
+            }
+            if (lingerNanos > 0) {
+                final long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < maxBatchSize) {
+                    final Message message = messages.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (message == null) {
+                        break;
+                    }
+                    batch.add(message);
+                    messages.drainTo(batch, maxBatchSize - batch.size());
+                }
+            }
+            return true;
+        }
+
+        private void write(MessageOutput output, List<Message> batch) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            if (!output.isRunning()) {
+                LOG.debug("Skipping stopped output {}", output.getClass().getName());
+                return;
+            }
+            LOG.debug("Writing {} messages to [{}].", batch.size(), output.getClass());
+            try (Timer.Context ignored = processTime.time(); Timer.Context ignored2 = writeTime.time()) {
+                output.write(batch);
+                batchSize.update(batch.size());
+            } catch (Exception e) {
+                LOG.error("Error in output [" + output.getClass() + "].", e);
+            }
+        }
+    }
+}
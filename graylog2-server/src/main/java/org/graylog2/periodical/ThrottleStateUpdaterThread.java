@@ -130,6 +130,14 @@ public class ThrottleStateUpdaterThread extends Periodical {
                                            return throttleState.journalSize;
                                        }
                                    });
+        final Gauge<Long> logicalSizeGauge = safelyRegister(metricRegistry,
+                                   GlobalMetricNames.JOURNAL_SIZE_LOGICAL,
+                                   new Gauge<Long>() {
+                                       @Override
+                                       public Long getValue() {
+                                           return throttleState.journalSizeLogical;
+                                       }
+                                   });
         final Gauge<Long> sizeLimitGauge = safelyRegister(metricRegistry,
                                         GlobalMetricNames.JOURNAL_SIZE_LIMIT,
                                         new Gauge<Long>() {
@@ -138,6 +146,15 @@ public class ThrottleStateUpdaterThread extends Periodical {
                                                 return throttleState.journalSizeLimit;
                                             }
                                         });
+        safelyRegister(metricRegistry,
+                       GlobalMetricNames.JOURNAL_COMPRESSION_RATIO,
+                       new RatioGauge() {
+                           @Override
+                           protected Ratio getRatio() {
+                               return Ratio.of(logicalSizeGauge.getValue(),
+                                               sizeGauge.getValue());
+                           }
+                       });
         safelyRegister(metricRegistry,
                        GlobalMetricNames.JOURNAL_UTILIZATION_RATIO,
                        new RatioGauge() {
@@ -217,6 +234,7 @@ public class ThrottleStateUpdaterThread extends Periodical {
         throttleState.readEventsPerSec = (long) Math.floor((currentReadOffset - previousReadOffset) / ((currentTs - prevTs) / 1.0E09));
 
         throttleState.journalSize = journal.size();
+        throttleState.journalSizeLogical = journal.logicalSize();
         throttleState.journalSizeLimit = retentionSize.toBytes();
 
         throttleState.processBufferCapacity = processBuffer.getRemainingCapacity();
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin;
+
+import org.graylog2.plugin.MessageFieldNames.FieldName;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * A compact map of message fields, keyed by {@link FieldName interned field names}.
+ * <p>
+ * The fields are stored in an open-addressed table with linear probing, which is indexed by the hash of the field
+ * name ID. Values of type {@link Long}, {@link Double} and {@link Boolean} are stored unboxed and are boxed again
+ * when they are read. Compared to a {@link java.util.HashMap}, this saves the entry object per field and the
+ * boxed numbers.
+ * <p>
+ * Iterators don't support removal and don't detect concurrent modifications. Like {@link Message}, this class is
+ * not thread-safe.
+ */
+final class CompactMessageFields extends AbstractMap<String, Object> {
+    private static final int INITIAL_CAPACITY = 32;
+
+    // Markers for values which are stored in the primitives table.
+    private static final Object LONG = new Object();
+    private static final Object DOUBLE = new Object();
+    private static final Object BOOLEAN = new Object();
+
+    private final MessageFieldNames fieldNames;
+    private FieldName[] names;
+    private Object[] values;
+    private long[] primitives;
+    private int shift;
+    private int size;
+    private Set<Entry<String, Object>> entrySet;
+
+    CompactMessageFields(MessageFieldNames fieldNames) {
+        this.fieldNames = fieldNames;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        names = new FieldName[capacity];
+        values = new Object[capacity];
+        primitives = new long[capacity];
+        shift = Integer.numberOfLeadingZeros(capacity) + 1;
+    }
+
+    private int home(FieldName name) {
+        return name.hash() >>> shift;
+    }
+
+    private int next(int slot) {
+        return (slot + 1) & (names.length - 1);
+    }
+
+    private int find(FieldName name) {
+        for (int slot = home(name); ; slot = next(slot)) {
+            final FieldName candidate = names[slot];
+            if (candidate == null) {
+                return -1;
+            }
+            if (candidate.sameAs(name)) {
+                return slot;
+            }
+        }
+    }
+
+    private int find(Object key) {
+        return key instanceof String ? find(fieldNames.lookup((String) key)) : -1;
+    }
+
+    private Object valueAt(int slot) {
+        final Object value = values[slot];
+        if (value == LONG) {
+            return primitives[slot];
+        } else if (value == DOUBLE) {
+            return Double.longBitsToDouble(primitives[slot]);
+        } else if (value == BOOLEAN) {
+            return primitives[slot] != 0L;
+        }
+        return value;
+    }
+
+    private void store(int slot, Object value) {
+        // Only the exact classes are unboxed, so the values keep their types when they are read
+        if (value != null) {
+            final Class<?> type = value.getClass();
+            if (type == Long.class) {
+                values[slot] = LONG;
+                primitives[slot] = (Long) value;
+                return;
+            } else if (type == Double.class) {
+                values[slot] = DOUBLE;
+                primitives[slot] = Double.doubleToRawLongBits((Double) value);
+                return;
+            } else if (type == Boolean.class) {
+                values[slot] = BOOLEAN;
+                primitives[slot] = (Boolean) value ? 1L : 0L;
+                return;
+            }
+        }
+        values[slot] = value;
+        primitives[slot] = 0L;
+    }
+
+    /**
+     * Associates the value with the field name.
+     *
+     * @return the previous value of the field, or {@code null} if there was none
+     */
+    Object put(FieldName name, Object value) {
+        int slot = home(name);
+        for (FieldName candidate = names[slot]; candidate != null; candidate = names[slot]) {
+            if (candidate.sameAs(name)) {
+                final Object previousValue = valueAt(slot);
+                store(slot, value);
+                return previousValue;
+            }
+            slot = next(slot);
+        }
+
+        names[slot] = name;
+        store(slot, value);
+        if (++size > names.length - (names.length >>> 2)) {
+            resize();
+        }
+        return null;
+    }
+
+    private void resize() {
+        final FieldName[] oldNames = names;
+        final Object[] oldValues = values;
+        final long[] oldPrimitives = primitives;
+        allocate(oldNames.length * 2);
+        for (int i = 0; i < oldNames.length; i++) {
+            final FieldName name = oldNames[i];
+            if (name != null) {
+                int slot = home(name);
+                while (names[slot] != null) {
+                    slot = next(slot);
+                }
+                names[slot] = name;
+                values[slot] = oldValues[i];
+                primitives[slot] = oldPrimitives[i];
+            }
+        }
+    }
+
+    /**
+     * Removes the field with the given name.
+     *
+     * @return the removed value of the field, or {@code null} if there was none
+     */
+    Object remove(FieldName name) {
+        final int slot = find(name);
+        if (slot < 0) {
+            return null;
+        }
+        final Object removedValue = valueAt(slot);
+        delete(slot);
+        return removedValue;
+    }
+
+    private void delete(int slot) {
+        // Backward shift deletion: move the following entries of the probe sequence into the gap, unless
+        // their home slot lies cyclically after the gap.
+        int gap = slot;
+        for (int i = next(gap); names[i] != null; i = next(i)) {
+            final int home = home(names[i]);
+            final boolean movable = gap <= i ? (home <= gap || home > i) : (home <= gap && home > i);
+            if (movable) {
+                names[gap] = names[i];
+                values[gap] = values[i];
+                primitives[gap] = primitives[i];
+                gap = i;
+            }
+        }
+        names[gap] = null;
+        values[gap] = null;
+        primitives[gap] = 0L;
+        size--;
+    }
+
+    @Override
+    public Object get(Object key) {
+        final int slot = find(key);
+        return slot < 0 ? null : valueAt(slot);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) >= 0;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        return put(fieldNames.intern(key), value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return key instanceof String ? remove(fieldNames.lookup((String) key)) : null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(names, null);
+        Arrays.fill(values, null);
+        Arrays.fill(primitives, 0L);
+        size = 0;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object> action) {
+        for (int slot = 0; slot < names.length; slot++) {
+            final FieldName name = names[slot];
+            if (name != null) {
+                action.accept(name.name(), valueAt(slot));
+            }
+        }
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<String, Object>> {
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Entry<String, Object>> {
+        private int slot = advance(0);
+
+        private int advance(int from) {
+            int i = from;
+            while (i < names.length && names[i] == null) {
+                i++;
+            }
+            return i;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return slot < names.length;
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Entry<String, Object> entry = new SimpleImmutableEntry<>(names[slot].name(), valueAt(slot));
+            slot = advance(slot + 1);
+            return entry;
+        }
+    }
+}
@@ -37,6 +37,9 @@ public final class GlobalMetricNames {
 
     public static final String INPUT_BUFFER_USAGE = "org.graylog2.buffers.input.usage";
     public static final String INPUT_BUFFER_SIZE = "org.graylog2.buffers.input.size";
+    public static final String INPUT_BUFFER_POOLED_PAYLOADS = "org.graylog2.buffers.input.pooled-payloads";
+    public static final String INPUT_BUFFER_POOLED_PAYLOADS_SIZE = name(INPUT_BUFFER_POOLED_PAYLOADS, "size");
+    public static final String INPUT_BUFFER_POOLED_PAYLOADS_LEAKED = name(INPUT_BUFFER_POOLED_PAYLOADS, "leaked");
 
     public static final String PROCESS_BUFFER_USAGE = "org.graylog2.buffers.process.usage";
     public static final String PROCESS_BUFFER_SIZE = "org.graylog2.buffers.process.size";
@@ -48,7 +51,10 @@ public final class GlobalMetricNames {
     public static final String JOURNAL_READ_RATE = name("org.graylog2.journal.read", RATE_SUFFIX);
     public static final String JOURNAL_SEGMENTS = "org.graylog2.journal.segments";
     public static final String JOURNAL_UNCOMMITTED_ENTRIES = "org.graylog2.journal.entries-uncommitted";
+    public static final String JOURNAL_BACKLOG_SECONDS = "org.graylog2.journal.backlog-seconds";
     public static final String JOURNAL_SIZE = "org.graylog2.journal.size";
+    public static final String JOURNAL_SIZE_LOGICAL = "org.graylog2.journal.size-logical";
+    public static final String JOURNAL_COMPRESSION_RATIO = "org.graylog2.journal.compression-ratio";
     public static final String JOURNAL_SIZE_LIMIT = "org.graylog2.journal.size-limit";
     public static final String JOURNAL_UTILIZATION_RATIO = "org.graylog2.journal.utilization-ratio";
     public static final String JOURNAL_OLDEST_SEGMENT = name("org.graylog2.journal", OLDEST_SEGMENT_SUFFIX);
@@ -19,6 +19,8 @@ package org.graylog2.plugin;
 import com.github.joschi.jadconfig.Parameter;
 import com.github.joschi.jadconfig.util.Size;
 import org.graylog2.configuration.PathConfiguration;
+import org.graylog2.shared.journal.JournalCompression;
+import org.graylog2.shared.journal.JournalDurability;
 import org.joda.time.Duration;
 
 import java.nio.file.Path;
@@ -48,6 +50,12 @@ public class KafkaJournalConfiguration extends PathConfiguration {
     @Parameter("message_journal_flush_age")
     private Duration messageJournalFlushAge = Duration.standardMinutes(1L);
 
+    @Parameter(value = "message_journal_durability", converter = JournalDurability.Converter.class)
+    private JournalDurability messageJournalDurability = JournalDurability.INTERVAL;
+
+    @Parameter(value = "message_journal_compression", converter = JournalCompression.Converter.class)
+    private JournalCompression messageJournalCompression = JournalCompression.NONE;
+
     public Path getMessageJournalDir() {
         return messageJournalDir;
     }
@@ -75,4 +83,12 @@ public class KafkaJournalConfiguration extends PathConfiguration {
     public Duration getMessageJournalFlushAge() {
         return messageJournalFlushAge;
     }
+
+    public JournalDurability getMessageJournalDurability() {
+        return messageJournalDurability;
+    }
+
+    public JournalCompression getMessageJournalCompression() {
+        return messageJournalCompression;
+    }
 }
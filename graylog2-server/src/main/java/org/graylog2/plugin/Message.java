@@ -18,6 +18,7 @@ package org.graylog2.plugin;
 
 import com.codahale.metrics.Meter;
 import com.eaio.uuid.UUID;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
@@ -36,6 +37,7 @@ import org.graylog.failure.FailureCause;
 import org.graylog.failure.ProcessingFailureCause;
 import org.graylog2.indexer.IndexSet;
 import org.graylog2.indexer.messages.Indexable;
+import org.graylog2.plugin.MessageFieldNames.FieldName;
 import org.graylog2.plugin.streams.Stream;
 import org.graylog2.plugin.utilities.date.DateTimeConverter;
 import org.graylog2.shared.utilities.ExceptionUtils;
@@ -46,6 +48,7 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
@@ -109,6 +112,12 @@ public class Message implements Messages, Indexable {
      */
     public static final String FIELD_GL2_ACCOUNTED_MESSAGE_SIZE = "gl2_accounted_message_size";
 
+    /**
+     * Will be set to the IDs of the event definitions which created an event for the message while it was processed.
+     * The scheduled execution of these event definitions skips the message.
+     */
+    public static final String FIELD_GL2_EVENT_DEFINITION_IDS = "gl2_event_definition_ids";
+
     /**
      * This is the message ID. It will be set to a {@link de.huxhorn.sulky.ulid.ULID} during processing.
      * <p></p>
@@ -197,6 +206,7 @@ public class Message implements Messages, Indexable {
 
     private static final ImmutableSet<String> GRAYLOG_FIELDS = ImmutableSet.of(
         FIELD_GL2_ACCOUNTED_MESSAGE_SIZE,
+        FIELD_GL2_EVENT_DEFINITION_IDS,
         FIELD_GL2_PROCESSING_ERROR,
         FIELD_GL2_PROCESSING_TIMESTAMP,
         FIELD_GL2_RECEIVE_TIMESTAMP,
@@ -267,7 +277,20 @@ public class Message implements Messages, Indexable {
     @Deprecated
     public static final Function<Message, String> ID_FUNCTION = new MessageIdFunction();
 
-    private final Map<String, Object> fields = Maps.newHashMap();
+    /**
+     * Caches the trimmed field names and the results of the key validation for all storages.
+     */
+    private static final MessageFieldNames FIELD_NAMES = new MessageFieldNames(
+            name -> !(RESERVED_FIELDS.contains(name) && !RESERVED_SETTABLE_FIELDS.contains(name)) && validKey(name),
+            name -> !GRAYLOG_FIELDS.contains(name) && !ILLUMINATE_FIELDS.contains(name));
+    private static final FieldName ID_FIELD_NAME = FIELD_NAMES.intern(FIELD_ID);
+    private static final FieldName SOURCE_FIELD_NAME = FIELD_NAMES.intern(FIELD_SOURCE);
+
+    private static volatile MessageFieldStorage fieldStorage = MessageFieldStorage.HASH_MAP;
+
+    // Only set if the compact storage is used, to put fields by their interned names.
+    private final CompactMessageFields compactFields = fieldStorage == MessageFieldStorage.COMPACT ? new CompactMessageFields(FIELD_NAMES) : null;
+    private final Map<String, Object> fields = compactFields != null ? compactFields : Maps.newHashMap();
     private Set<Stream> streams = Sets.newHashSet();
     private Set<IndexSet> indexSets = Sets.newHashSet();
     private String sourceInputId;
@@ -293,7 +316,7 @@ public class Message implements Messages, Indexable {
      */
     private Map<String, Object> metadata;
 
-    private com.codahale.metrics.Counter sizeCounter = new com.codahale.metrics.Counter();
+    private long size = 0L;
 
     private List<ProcessingError> processingErrors;
 
@@ -330,7 +353,7 @@ public class Message implements Messages, Indexable {
     }
 
     public Message(final String message, final String source, final DateTime timestamp) {
-        fields.put(FIELD_ID, new UUID().toString());
+        putField(ID_FIELD_NAME, new UUID().toString());
         addRequiredField(FIELD_MESSAGE, message);
         addRequiredField(FIELD_SOURCE, source);
         addRequiredField(FIELD_TIMESTAMP, timestamp);
@@ -342,10 +365,21 @@ public class Message implements Messages, Indexable {
 
     private Message(String id, Map<String, Object> newFields) {
         Preconditions.checkArgument(id != null, "message id cannot be null");
-        fields.put(FIELD_ID, id);
+        putField(ID_FIELD_NAME, id);
         addFields(newFields);
     }
 
+    /**
+     * Sets the storage of the fields of messages which are created afterwards.
+     */
+    public static void setFieldStorage(MessageFieldStorage storage) {
+        fieldStorage = Preconditions.checkNotNull(storage, "storage");
+    }
+
+    public static MessageFieldStorage getFieldStorage() {
+        return fieldStorage;
+    }
+
     public boolean isComplete() {
         for (final String key : REQUIRED_FIELDS) {
             final Object field = getField(key);
@@ -452,6 +486,107 @@ public class Message implements Messages, Indexable {
         return obj;
     }
 
+    /**
+     * Streams the same document as {@link #toElasticSearchObject(ObjectMapper, Meter)} into the given generator,
+     * without building an intermediate map.
+     */
+    @Override
+    public void writeElasticSearchObject(ObjectMapper objectMapper, JsonGenerator generator, @Nonnull final Meter invalidTimestampMeter) throws IOException {
+        // Resolve the timestamp first, replacing an invalid timestamp adds a processing error.
+        final Object timestampValue = getField(FIELD_TIMESTAMP);
+        final DateTime dateTime = timestampValue == null ? fallbackForNullTimestamp() : convertToDateTime(timestampValue);
+        final boolean hasProcessingErrors = processingErrors != null && !processingErrors.isEmpty();
+        // Only allocated if the message contains keys with a "." character.
+        Map<String, Object> replacedKeys = null;
+
+        generator.writeStartObject();
+        for (Map.Entry<String, Object> entry : fields.entrySet()) {
+            final String key = entry.getKey();
+            if (key.equals(FIELD_ID) || isWrittenSeparately(key, hasProcessingErrors)) {
+                continue;
+            }
+
+            final Object value = entry.getValue();
+            if (key.indexOf('.') >= 0) {
+                final String newKey = key.replace('.', KEY_REPLACEMENT_CHAR);
+                if (isWrittenSeparately(newKey, hasProcessingErrors)) {
+                    continue;
+                }
+
+                final Object conflictingValue;
+                if (fields.containsKey(newKey)) {
+                    conflictingValue = fields.get(newKey);
+                } else {
+                    if (replacedKeys == null) {
+                        replacedKeys = new HashMap<>();
+                    }
+                    conflictingValue = replacedKeys.putIfAbsent(newKey, value);
+                }
+                if (conflictingValue != null) {
+                    LOG.warn("Keys must not contain a \".\" character! Ignoring field \"{}\"=\"{}\" in message [{}] - Unable to replace \".\" with a \"{}\" because of key conflict: \"{}\"=\"{}\"",
+                            key, value, getId(), KEY_REPLACEMENT_CHAR, newKey, conflictingValue);
+                    LOG.debug("Full message with \".\" in message key: {}", this);
+                    continue;
+                }
+                generator.writeFieldName(newKey);
+            } else {
+                generator.writeFieldName(key);
+            }
+            writeElasticSearchValue(objectMapper, generator, value);
+        }
+
+        generator.writeStringField(FIELD_MESSAGE, getMessage());
+        generator.writeStringField(FIELD_SOURCE, getSource());
+        generator.writeArrayFieldStart(FIELD_STREAMS);
+        for (String streamId : getStreamIds()) {
+            generator.writeString(streamId);
+        }
+        generator.writeEndArray();
+        generator.writeNumberField(FIELD_GL2_ACCOUNTED_MESSAGE_SIZE, getSize());
+        generator.writeStringField(FIELD_TIMESTAMP, buildElasticSearchTimeFormat(dateTime.withZone(UTC)));
+
+        if (hasProcessingErrors) {
+            if (processingErrors.stream().anyMatch(processingError -> processingError.getCause().equals(ProcessingFailureCause.InvalidTimestampException))) {
+                invalidTimestampMeter.mark();
+            }
+            generator.writeStringField(FIELD_GL2_PROCESSING_ERROR,
+                    processingErrors.stream()
+                            .map(pe -> pe.getMessage() + " - " + pe.getDetails())
+                            .collect(Collectors.joining(", ")));
+        }
+        generator.writeEndObject();
+    }
+
+    private static boolean isWrittenSeparately(String key, boolean hasProcessingErrors) {
+        switch (key) {
+            case FIELD_MESSAGE:
+            case FIELD_SOURCE:
+            case FIELD_STREAMS:
+            case FIELD_GL2_ACCOUNTED_MESSAGE_SIZE:
+            case FIELD_TIMESTAMP:
+                return true;
+            case FIELD_GL2_PROCESSING_ERROR:
+                return hasProcessingErrors;
+            default:
+                return false;
+        }
+    }
+
+    private static void writeElasticSearchValue(ObjectMapper objectMapper, JsonGenerator generator, Object value) throws IOException {
+        // Shortcuts for the most common field types, everything else goes through the object mapper.
+        if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Long || value instanceof Integer) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Double) {
+            generator.writeNumber((Double) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else {
+            objectMapper.writeValue(generator, value);
+        }
+    }
+
     public void ensureValidTimestamp() {
         final Object timestampValue = getField(FIELD_TIMESTAMP);
         if (timestampValue instanceof DateTime) {
@@ -533,8 +668,8 @@ public class Message implements Messages, Indexable {
     }
 
     public void setSource(final String source) {
-        final Object previousSource = fields.put(FIELD_SOURCE, source);
-        updateSize(FIELD_SOURCE, source, previousSource);
+        final Object previousSource = putField(SOURCE_FIELD_NAME, source);
+        updateSize(SOURCE_FIELD_NAME, source, previousSource);
     }
 
     public void addField(final String key, final Object value) {
@@ -546,10 +681,11 @@ public class Message implements Messages, Indexable {
     }
 
     private void addField(final String key, final Object value, final boolean isRequiredField) {
-        final String trimmedKey = key.trim();
+        final FieldName fieldName = FIELD_NAMES.forKey(key);
+        final String trimmedKey = fieldName.name();
 
         // Don't accept protected keys. (some are allowed though lol)
-        if ((RESERVED_FIELDS.contains(trimmedKey) && !RESERVED_SETTABLE_FIELDS.contains(trimmedKey)) || !validKey(trimmedKey)) {
+        if (!fieldName.isAccepted()) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Ignoring invalid or reserved key {} for message {}", trimmedKey, getId());
             }
@@ -561,49 +697,52 @@ public class Message implements Messages, Indexable {
             final String str = ((String) value).trim();
 
             if (isRequiredField || !str.isEmpty()) {
-                final Object previousValue = fields.put(trimmedKey, str);
-                updateSize(trimmedKey, str, previousValue);
+                final Object previousValue = putField(fieldName, str);
+                updateSize(fieldName, str, previousValue);
             }
         } else if (isTimestamp && value != null) {
             try {
                 final DateTime timeStamp = DateTimeConverter.convertToDateTime(value);
-                final Object previousValue = fields.put(FIELD_TIMESTAMP, timeStamp);
-                updateSize(trimmedKey, timeStamp, previousValue);
+                final Object previousValue = putField(fieldName, timeStamp);
+                updateSize(fieldName, timeStamp, previousValue);
             } catch (IllegalArgumentException ignored) {
             }
         } else if (value != null) {
-            final Object previousValue = fields.put(trimmedKey, value);
-            updateSize(trimmedKey, value, previousValue);
+            final Object previousValue = putField(fieldName, value);
+            updateSize(fieldName, value, previousValue);
         }
     }
 
-    private void updateSize(String fieldName, Object newValue, Object previousValue) {
+    private Object putField(FieldName fieldName, Object value) {
+        return compactFields != null ? compactFields.put(fieldName, value) : fields.put(fieldName.name(), value);
+    }
+
+    private void updateSize(FieldName fieldName, Object newValue, Object previousValue) {
         // don't count internal fields
-        if (GRAYLOG_FIELDS.contains(fieldName) || ILLUMINATE_FIELDS.contains(fieldName)) {
+        if (!fieldName.isCounted()) {
             return;
         }
         long newValueSize = 0;
         long oldValueSize = 0;
-        final long oldSize = sizeCounter.getCount();
-        final int keyLength = fieldName.length();
+        final long oldSize = size;
+        final int keyLength = fieldName.name().length();
         // if the field is being removed, also subtract the name's length
         if (newValue == null) {
-            sizeCounter.dec(keyLength);
+            size -= keyLength;
         } else {
             newValueSize = sizeForValue(newValue);
-            sizeCounter.inc(newValueSize);
+            size += newValueSize;
         }
         // if the field is new, also count its name's length
         if (previousValue == null) {
-            sizeCounter.inc(keyLength);
+            size += keyLength;
         } else {
             oldValueSize = sizeForValue(previousValue);
-            sizeCounter.dec(oldValueSize);
+            size -= oldValueSize;
         }
         if (LOG.isTraceEnabled()) {
-            final long newSize = sizeCounter.getCount();
             LOG.trace("[Message size update][{}] key {}/{}, new/old/change: {}/{}/{} total: {}",
-                    getId(), fieldName, keyLength, newValueSize, oldValueSize, newSize - oldSize, newSize);
+                    getId(), fieldName, keyLength, newValueSize, oldValueSize, size - oldSize, size);
         }
     }
 
@@ -620,7 +759,7 @@ public class Message implements Messages, Indexable {
 
     @Override
     public long getSize() {
-        return sizeCounter.getCount();
+        return size;
     }
 
     public static boolean validKey(final String key) {
@@ -672,8 +811,9 @@ public class Message implements Messages, Indexable {
 
     public void removeField(final String key) {
         if (!RESERVED_FIELDS.contains(key)) {
-            final Object removedValue = fields.remove(key);
-            updateSize(key, null, removedValue);
+            final FieldName fieldName = FIELD_NAMES.lookup(key);
+            final Object removedValue = compactFields != null ? compactFields.remove(fieldName) : fields.remove(key);
+            updateSize(fieldName, null, removedValue);
         }
     }
 
@@ -686,7 +826,9 @@ public class Message implements Messages, Indexable {
     }
 
     public Map<String, Object> getFields() {
-        return ImmutableMap.copyOf(fields);
+        final ImmutableMap.Builder<String, Object> builder = ImmutableMap.builderWithExpectedSize(fields.size());
+        fields.forEach(builder::put);
+        return builder.build();
     }
 
     public Iterable<Map.Entry<String, Object>> getFieldsEntries() {
@@ -726,9 +868,9 @@ public class Message implements Messages, Indexable {
     public void addStream(Stream stream) {
         indexSets.add(stream.getIndexSet());
         if (streams.add(stream)) {
-            sizeCounter.inc(8);
+            size += 8;
             if (LOG.isTraceEnabled()) {
-                LOG.trace("[Message size update][{}] stream added: {}", getId(), sizeCounter.getCount());
+                LOG.trace("[Message size update][{}] stream added: {}", getId(), size);
             }
         }
     }
@@ -756,9 +898,9 @@ public class Message implements Messages, Indexable {
             for (Stream s : streams) {
                 indexSets.add(s.getIndexSet());
             }
-            sizeCounter.dec(8);
+            size -= 8;
             if (LOG.isTraceEnabled()) {
-                LOG.trace("[Message size update][{}] stream removed: {}", getId(), sizeCounter.getCount());
+                LOG.trace("[Message size update][{}] stream removed: {}", getId(), size);
             }
         }
 
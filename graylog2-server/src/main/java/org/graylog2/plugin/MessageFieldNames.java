@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * A global dictionary of message field names.
+ * <p>
+ * Every distinct field name is interned once and gets a numeric ID, together with the results of the key
+ * validation of {@link Message#addField(String, Object)}. The keys passed to {@code addField} are cached as well, so
+ * the same key is only trimmed and validated once. Field names are never removed, so the dictionary is bounded: once
+ * {@link #MAX_NAMES} names have been interned, new names are validated every time and stored by their name.
+ */
+final class MessageFieldNames {
+    static final int MAX_NAMES = 65_536;
+
+    private final ConcurrentHashMap<String, FieldName> names = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, FieldName> keys = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Predicate<String> acceptedName;
+    private final Predicate<String> countedName;
+
+    /**
+     * @param acceptedName whether a (trimmed) name can be added to a message
+     * @param countedName  whether a field counts towards the size of a message
+     */
+    MessageFieldNames(Predicate<String> acceptedName, Predicate<String> countedName) {
+        this.acceptedName = acceptedName;
+        this.countedName = countedName;
+    }
+
+    /**
+     * Returns the field name for a key which is added to a message, i. e. the trimmed key.
+     */
+    FieldName forKey(String key) {
+        final FieldName cached = keys.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        final FieldName fieldName = intern(key.trim());
+        if (fieldName.isInterned() && keys.size() < MAX_NAMES) {
+            keys.putIfAbsent(key, fieldName);
+        }
+        return fieldName;
+    }
+
+    /**
+     * Returns the field name with exactly the given name, interning it if the dictionary isn't full yet.
+     */
+    FieldName intern(String name) {
+        final FieldName fieldName = names.get(name);
+        if (fieldName != null) {
+            return fieldName;
+        }
+        // The ID is assigned while holding the lock of the name, so a name which hasn't been interned because the
+        // dictionary is full will never be interned later and is always stored by its name.
+        final FieldName interned = names.computeIfAbsent(name,
+                key -> nextId.get() < MAX_NAMES ? newFieldName(key, nextId.getAndIncrement()) : null);
+        return interned != null ? interned : newFieldName(name, -1);
+    }
+
+    /**
+     * Returns the field name with exactly the given name without interning it, e. g. to look up a field.
+     * Names which haven't been interned are not validated and never {@link FieldName#isAccepted() accepted}.
+     */
+    FieldName lookup(String name) {
+        final FieldName fieldName = names.get(name);
+        return fieldName != null ? fieldName : new FieldName(name, -1, false, countedName.test(name));
+    }
+
+    int size() {
+        return names.size();
+    }
+
+    private FieldName newFieldName(String name, int id) {
+        return new FieldName(name, id, acceptedName.test(name), countedName.test(name));
+    }
+
+    static final class FieldName {
+        private final String name;
+        private final int id;
+        private final int hash;
+        private final boolean accepted;
+        private final boolean counted;
+
+        private FieldName(String name, int id, boolean accepted, boolean counted) {
+            this.name = name;
+            this.id = id;
+            this.hash = id >= 0 ? id * 0x9E3779B9 : name.hashCode() * 0x9E3779B9;
+            this.accepted = accepted;
+            this.counted = counted;
+        }
+
+        String name() {
+            return name;
+        }
+
+        int id() {
+            return id;
+        }
+
+        boolean isInterned() {
+            return id >= 0;
+        }
+
+        /**
+         * @return whether the field can be added to a message, i. e. it's valid and not reserved
+         */
+        boolean isAccepted() {
+            return accepted;
+        }
+
+        /**
+         * @return whether the field counts towards the size of a message
+         */
+        boolean isCounted() {
+            return counted;
+        }
+
+        /**
+         * A well-distributed hash, which is based on the ID of interned names.
+         */
+        int hash() {
+            return hash;
+        }
+
+        boolean sameAs(FieldName other) {
+            return this == other || (id < 0 && other.id < 0 && name.equals(other.name));
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin;
+
+import com.github.joschi.jadconfig.ParameterException;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * The storage of the fields of new {@link Message messages}.
+ *
+ * @see Message#setFieldStorage(MessageFieldStorage)
+ */
+public enum MessageFieldStorage {
+    /**
+     * Fields are stored in a {@link java.util.HashMap}.
+     */
+    HASH_MAP,
+    /**
+     * Field names are interned in a global dictionary and fields are stored in a compact open-addressed table with
+     * unboxed {@code long}, {@code double} and {@code boolean} values.
+     */
+    COMPACT;
+
+    @Override
+    public String toString() {
+        return super.toString().toLowerCase(Locale.ROOT);
+    }
+
+    public static class Converter implements com.github.joschi.jadconfig.Converter<MessageFieldStorage> {
+        @Override
+        public MessageFieldStorage convertFrom(String value) {
+            try {
+                return MessageFieldStorage.valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new ParameterException("Unable to parse message field storage <" + value + ">. Valid values are: " +
+                        Arrays.stream(MessageFieldStorage.values()).map(MessageFieldStorage::toString)
+                                .collect(Collectors.toList()) + ".");
+            }
+        }
+
+        @Override
+        public String convertTo(MessageFieldStorage value) {
+            return value.toString();
+        }
+    }
+}
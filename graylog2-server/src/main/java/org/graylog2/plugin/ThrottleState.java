@@ -22,6 +22,7 @@ public class ThrottleState {
     public long uncommittedJournalEntries;
     public long appendEventsPerSec;
     public long journalSize;
+    public long journalSizeLogical;
     public long journalSizeLimit;
     public long readEventsPerSec;
     public long processBufferCapacity;
@@ -33,6 +34,7 @@ public class ThrottleState {
         this.uncommittedJournalEntries = o.uncommittedJournalEntries;
         this.appendEventsPerSec = o.appendEventsPerSec;
         this.journalSize = o.journalSize;
+        this.journalSizeLogical = o.journalSizeLogical;
         this.journalSizeLimit = o.journalSizeLimit;
         this.readEventsPerSec = o.readEventsPerSec;
         this.processBufferCapacity = o.processBufferCapacity;
@@ -46,6 +48,7 @@ public class ThrottleState {
                 .add("appendEventsPerSec", appendEventsPerSec)
                 .add("readEventsPerSec", readEventsPerSec)
                 .add("journalSize", journalSize)
+                .add("journalSizeLogical", journalSizeLogical)
                 .add("journalSizeLimit", journalSizeLimit)
                 .add("pbCapacity", processBufferCapacity)
                 .toString();
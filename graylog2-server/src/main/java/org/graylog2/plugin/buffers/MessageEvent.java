@@ -39,6 +39,8 @@ public class MessageEvent {
     };
 
     private RawMessage raw;
+    private byte[] encodedRaw;
+    private long encodedRawOffset;
     private Message msg;
     private Collection<Message> messages;
 
@@ -79,11 +81,40 @@ public class MessageEvent {
      */
     public void setRaw(@Nonnull RawMessage raw) {
         this.raw = raw;
+        this.encodedRaw = null;
         clearMessages();
     }
 
+    /**
+     * Sets the serialized raw message as read from the journal, so it can be decoded by the processing threads
+     * instead of the journal reader. Clears out the raw message and the {@link #getMessage() message} and
+     * {@link #getMessages() messages} references, see {@link #setRaw(RawMessage)}.
+     *
+     * @param encodedRaw the serialized raw message
+     * @param offset     the journal offset of the raw message
+     */
+    public void setEncodedRaw(@Nonnull byte[] encodedRaw, long offset) {
+        this.encodedRaw = encodedRaw;
+        this.encodedRawOffset = offset;
+        this.raw = null;
+        clearMessages();
+    }
+
+    /**
+     * Returns the serialized raw message if it hasn't been decoded yet.
+     */
+    @Nullable
+    public byte[] getEncodedRaw() {
+        return encodedRaw;
+    }
+
+    public long getEncodedRawOffset() {
+        return encodedRawOffset;
+    }
+
     public void clearRaw() {
         this.raw = null;
+        this.encodedRaw = null;
     }
 
     @Nonnull
@@ -95,6 +126,7 @@ public class MessageEvent {
     public String toString() {
         return MoreObjects.toStringHelper(this)
                 .add("raw", raw)
+                .add("encodedRawOffset", encodedRaw == null ? null : encodedRawOffset)
                 .add("message", msg)
                 .add("messages", messages)
                 .toString();
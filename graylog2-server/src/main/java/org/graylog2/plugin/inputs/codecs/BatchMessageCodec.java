@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin.inputs.codecs;
+
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.journal.RawMessage;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A codec which decodes batches of raw messages, reusing parsers and buffers for all messages of a batch.
+ * <p>
+ * The process buffer decodes all raw messages of a processing batch which belong to the same codec instance with a
+ * single {@link BatchDecoder}. Codecs which don't implement this interface decode one raw message at a time.
+ */
+public interface BatchMessageCodec extends Codec {
+    /**
+     * Opens a decoder for a batch of raw messages. The decoder is used by a single thread and closed after the batch
+     * has been decoded.
+     *
+     * @return a new batch decoder
+     */
+    @Nonnull
+    BatchDecoder openBatch();
+
+    /**
+     * Decodes the given raw messages with a single batch decoder.
+     *
+     * @param rawMessages the raw messages to decode
+     * @return the decoded messages for every raw message, in the same order
+     * @throws RuntimeException if a raw message cannot be decoded
+     */
+    @Nonnull
+    default List<Collection<Message>> decodeBatch(@Nonnull List<RawMessage> rawMessages) {
+        final List<Collection<Message>> result = new ArrayList<>(rawMessages.size());
+        try (BatchDecoder decoder = openBatch()) {
+            for (final RawMessage rawMessage : rawMessages) {
+                result.add(decoder.decode(rawMessage));
+            }
+        }
+        return result;
+    }
+
+    interface BatchDecoder extends AutoCloseable {
+        /**
+         * Decodes a single raw message of the batch.
+         *
+         * @param rawMessage the raw message
+         * @return the decoded messages or {@code null} if the raw message didn't result in a message
+         * @throws RuntimeException if the raw message cannot be decoded
+         */
+        @Nullable
+        Collection<Message> decode(@Nonnull RawMessage rawMessage);
+
+        @Override
+        default void close() {
+        }
+    }
+}
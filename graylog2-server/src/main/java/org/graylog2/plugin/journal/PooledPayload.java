@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin.journal;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.Cleaner;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The payload of a {@link RawMessage} which is kept in a pooled, reference counted buffer instead of a byte array.
+ * <p>
+ * The payload is copied once from the network buffer into a right-sized buffer of a pooled heap allocator, so
+ * receiving a message neither allocates the payload on the heap nor pins the (much larger) receive buffer of the
+ * transport. The raw message wraps the pooled buffer without copying it and has to
+ * {@link RawMessage#releasePayload() release} it after it has been written to the journal or decoded.
+ * <p>
+ * Payloads which are never released are detected when their raw message is garbage collected. Their buffer is
+ * returned to the pool and they are counted as {@link #leaked() leaked}.
+ */
+public final class PooledPayload {
+    private static final Logger LOG = LoggerFactory.getLogger(PooledPayload.class);
+
+    private static final ByteBufAllocator ALLOCATOR = PooledByteBufAllocator.DEFAULT;
+    private static final Cleaner CLEANER = Cleaner.create(new ThreadFactoryBuilder()
+            .setNameFormat("raw-message-payload-cleaner-%d")
+            .setDaemon(true)
+            .build());
+
+    private static final LongAdder ALLOCATED = new LongAdder();
+    private static final LongAdder RELEASED = new LongAdder();
+    private static final LongAdder LEAKED = new LongAdder();
+    private static final LongAdder OUTSTANDING_BYTES = new LongAdder();
+    private static final AtomicBoolean LEAK_LOGGED = new AtomicBoolean(false);
+
+    private final Release release;
+    private final Cleaner.Cleanable cleanable;
+
+    private PooledPayload(Object owner, ByteBuf buffer) {
+        this.release = new Release(buffer);
+        this.cleanable = CLEANER.register(owner, release);
+        ALLOCATED.increment();
+        OUTSTANDING_BYTES.add(buffer.readableBytes());
+    }
+
+    /**
+     * Copies the readable bytes of the given buffer into a pooled buffer which is released at the latest when the
+     * owner is garbage collected. The reader index of the source buffer is not modified.
+     */
+    static PooledPayload copyOf(Object owner, ByteBuf source) {
+        final int length = source.readableBytes();
+        final ByteBuf buffer = ALLOCATOR.heapBuffer(length, length);
+        buffer.writeBytes(source, source.readerIndex(), length);
+        return new PooledPayload(owner, buffer);
+    }
+
+    /**
+     * Wraps the pooled buffer without copying it. The returned byte string must not be used after the payload has
+     * been released.
+     */
+    ByteString asByteString() {
+        final ByteBuf buffer = release.buffer;
+        return UnsafeByteOperations.unsafeWrap(buffer.array(), buffer.arrayOffset() + buffer.readerIndex(), buffer.readableBytes());
+    }
+
+    void release() {
+        release.explicit = true;
+        cleanable.clean();
+    }
+
+    /**
+     * @return the number of payloads which have been allocated and not been released yet
+     */
+    public static long outstanding() {
+        return ALLOCATED.sum() - RELEASED.sum();
+    }
+
+    /**
+     * @return the size in bytes of the payloads which have been allocated and not been released yet
+     */
+    public static long outstandingBytes() {
+        return OUTSTANDING_BYTES.sum();
+    }
+
+    /**
+     * @return the number of payloads which had to be released because their raw message has been garbage collected
+     */
+    public static long leaked() {
+        return LEAKED.sum();
+    }
+
+    // Must not reference the owner of the payload, otherwise it would never become phantom reachable.
+    private static class Release implements Runnable {
+        private final ByteBuf buffer;
+        private volatile boolean explicit = false;
+
+        private Release(ByteBuf buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void run() {
+            if (!explicit) {
+                LEAKED.increment();
+                if (LEAK_LOGGED.compareAndSet(false, true)) {
+                    LOG.warn("Raw message payload has been garbage collected without being released. This is a bug, further leaks are only counted.");
+                }
+            }
+            OUTSTANDING_BYTES.add(-buffer.readableBytes());
+            RELEASED.increment();
+            buffer.release();
+        }
+    }
+}
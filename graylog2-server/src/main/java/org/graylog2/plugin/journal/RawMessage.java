@@ -20,7 +20,9 @@ import com.eaio.uuid.UUID;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.Lists;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.UninitializedMessageException;
+import io.netty.buffer.ByteBuf;
 import org.graylog2.plugin.ResolvableInetSocketAddress;
 import org.graylog2.plugin.Tools;
 import org.graylog2.plugin.configuration.Configuration;
@@ -40,6 +42,7 @@ import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -69,6 +72,8 @@ public class RawMessage implements Serializable {
     private Object messageQueueId;
     private int sequenceNr;
     private Configuration codecConfig;
+    @Nullable
+    private transient PooledPayload pooledPayload;
 
     public RawMessage(@Nonnull byte[] payload) {
         this(payload, (ResolvableInetSocketAddress)null);
@@ -82,15 +87,37 @@ public class RawMessage implements Serializable {
         this(Long.MIN_VALUE, new UUID(), Tools.nowUTC(), remoteAddress, payload);
     }
 
+    /**
+     * Creates a raw message whose payload is kept in a {@link PooledPayload pooled buffer}, which has to be released
+     * with {@link #releasePayload()} once the message has been written to the journal or decoded.
+     *
+     * @param payload       the payload, its readable bytes are copied into the pooled buffer
+     * @param remoteAddress the address the payload has been received from
+     */
+    public RawMessage(@Nonnull ByteBuf payload, @Nullable InetSocketAddress remoteAddress) {
+        this(Long.MIN_VALUE, new UUID(), Tools.nowUTC(), ResolvableInetSocketAddress.wrap(remoteAddress),
+                checkNotNull(payload, "The message payload must not be null!").readableBytes());
+        pooledPayload = PooledPayload.copyOf(this, payload);
+        msgBuilder.setPayload(pooledPayload.asByteString());
+    }
+
     public RawMessage(long journalOffset,
                       @Nonnull UUID id,
                       DateTime timestamp,
                       @Nullable ResolvableInetSocketAddress remoteAddress,
                       @Nonnull byte[] payload) {
+        this(journalOffset, id, timestamp, remoteAddress, checkNotNull(payload, "The message payload must not be null!").length);
+        msgBuilder.setPayload(ByteString.copyFrom(payload));
+    }
+
+    private RawMessage(long journalOffset,
+                       @Nonnull UUID id,
+                       DateTime timestamp,
+                       @Nullable ResolvableInetSocketAddress remoteAddress,
+                       int payloadLength) {
         checkNotNull(id, "The message id must not be null!");
-        checkNotNull(payload, "The message payload must not be null!");
         sequenceNr = 0;
-        if (payload.length == 0 && log.isTraceEnabled()) {
+        if (payloadLength == 0 && log.isTraceEnabled()) {
             log.trace("The message payload should not be empty, message {} from {} will be discarded.",
                       id,
                       remoteAddress == null ? "unknown" : remoteAddress,
@@ -110,8 +137,6 @@ public class RawMessage implements Serializable {
         if (null != remoteAddress) {
             setRemoteAddress(remoteAddress);
         }
-
-        msgBuilder.setPayload(ByteString.copyFrom(payload));
     }
 
     public void addSourceNode(String sourceInputId, NodeId nodeId) {
@@ -123,11 +148,15 @@ public class RawMessage implements Serializable {
     }
 
     public RawMessage(JournalMessage journalMessage, Object messageQueueId) {
+        this(journalMessage, messageQueueId, Configuration.deserializeFromJson(journalMessage.getCodec().getConfig()));
+    }
+
+    private RawMessage(JournalMessage journalMessage, Object messageQueueId, Configuration codecConfig) {
         this.messageQueueId = messageQueueId;
         sequenceNr = journalMessage.getSequenceNr();
         id = new UUID(journalMessage.getUuidTime(), journalMessage.getUuidClockseq());
         msgBuilder = JournalMessage.newBuilder(journalMessage);
-        codecConfig = Configuration.deserializeFromJson(journalMessage.getCodec().getConfig());
+        this.codecConfig = codecConfig;
     }
 
     @Nullable
@@ -137,7 +166,7 @@ public class RawMessage implements Serializable {
             return null;
         }
         try {
-            final JournalMessage journalMessage = JournalMessage.parseFrom(buffer);
+            final JournalMessage journalMessage = parse(buffer);
 
             // TODO validate message based on field contents and version number
 
@@ -151,7 +180,7 @@ public class RawMessage implements Serializable {
     @Nullable
     public static RawMessage decode(final byte[] buffer, final long journalOffset) {
         try {
-            final JournalMessage journalMessage = JournalMessage.parseFrom(buffer);
+            final JournalMessage journalMessage = parse(buffer);
 
             // TODO validate message based on field contents and version number
 
@@ -162,14 +191,65 @@ public class RawMessage implements Serializable {
         }
     }
 
+    /**
+     * Decodes a journal entry whose codec configuration is resolved by the given function, e.g. from the
+     * {@link org.graylog2.shared.journal.CodecConfigDictionary codec configuration dictionary} of the journal.
+     *
+     * @param buffer              the encoded journal entry
+     * @param journalOffset       the offset of the journal entry
+     * @param codecConfigResolver resolves the codec configuration of the entry, returns {@code null} if it is unknown
+     * @return the decoded message, or {@code null} if the entry or its codec configuration cannot be read
+     */
+    @Nullable
+    public static RawMessage decode(final byte[] buffer,
+                                    final long journalOffset,
+                                    final Function<JournalMessages.CodecInfo, Configuration> codecConfigResolver) {
+        try {
+            final JournalMessage journalMessage = parse(buffer);
+            final Configuration codecConfig = codecConfigResolver.apply(journalMessage.getCodec());
+            if (codecConfig == null) {
+                log.error("Cannot resolve codec configuration of raw message {} from journal, ignoring this message.", journalOffset);
+                return null;
+            }
+
+            return new RawMessage(journalMessage, journalOffset, codecConfig);
+        } catch (IOException e) {
+            log.error("Cannot read raw message from journal, ignoring this message.", e);
+            return null;
+        }
+    }
+
+    // The payload of the parsed message references the buffer instead of copying it, journal entries are not re-used.
+    private static JournalMessage parse(byte[] buffer) throws IOException {
+        final CodedInputStream input = CodedInputStream.newInstance(buffer);
+        input.enableAliasing(true);
+        return JournalMessage.parseFrom(input);
+    }
+
     public byte[] encode() {
+        return encode(0);
+    }
+
+    /**
+     * Encodes this message for the journal.
+     *
+     * @param codecConfigId the ID of the codec configuration in the codec configuration dictionary of the journal,
+     *                      or {@code 0} to embed the JSON serialized codec configuration into the journal entry
+     * @return the encoded message, or {@code null} if required fields are missing
+     */
+    public byte[] encode(int codecConfigId) {
         try {
             final JournalMessages.CodecInfo codec = msgBuilder.getCodec();
             final JournalMessages.CodecInfo.Builder builder = JournalMessages.CodecInfo.newBuilder(codec);
 
-            final String codecConfigJson = codecConfig.serializeToJson();
-            if (codecConfigJson != null) {
-                builder.setConfig(codecConfigJson);
+            if (codecConfigId > 0) {
+                builder.clearConfig().setConfigId(codecConfigId);
+            } else {
+                final String codecConfigJson = codecConfig.serializeToJson();
+                if (codecConfigJson != null) {
+                    builder.setConfig(codecConfigJson);
+                }
+                builder.clearConfigId();
             }
             msgBuilder.setCodec(builder.build());
 
@@ -195,6 +275,22 @@ public class RawMessage implements Serializable {
         return msgBuilder.getPayload().toByteArray(); // TODO PERFORMANCE array copy
     }
 
+    public int getPayloadSize() {
+        return msgBuilder.getPayload().size();
+    }
+
+    /**
+     * Releases the pooled buffer of the payload, if the payload has been received into one. The payload of this
+     * message is empty afterwards.
+     */
+    public void releasePayload() {
+        if (pooledPayload != null) {
+            msgBuilder.setPayload(ByteString.EMPTY);
+            pooledPayload.release();
+            pooledPayload = null;
+        }
+    }
+
     public UUID getId() {
         return id;
     }
@@ -281,7 +377,7 @@ public class RawMessage implements Serializable {
         helper.add("id", getId())
                 .add("messageQueueId", getMessageQueueId())
                 .add("codec", getCodecName())
-                .add("payloadSize", getPayload().length)
+                .add("payloadSize", getPayloadSize())
                 .add("timestamp", getTimestamp())
                 .add("seqenceNr", getSequenceNr());
         if (getRemoteAddress() != null) {
@@ -25,4 +25,32 @@ public interface MessageProcessor {
     }
 
     Messages process(Messages messages);
+
+    /**
+     * Returns {@code true} if the processor can handle a {@link Messages} instance containing more than one message.
+     * <p>
+     * Processors which don't override this are called with one message at a time, even if the process buffer is
+     * configured to process messages in batches.
+     *
+     * @return {@code true} if the processor supports batches of messages, {@code false} otherwise
+     */
+    default boolean supportsBatches() {
+        return false;
+    }
+
+    /**
+     * Returns {@code true} if processing a message which the processor has already modified yields the same result as
+     * processing it once.
+     * <p>
+     * If a batch of messages fails, the messages of idempotent processors are processed again one by one, so only the
+     * failing messages get dropped. For all other processors every message of the failed batch is dropped, because
+     * some of them might already have been modified. Such processors should handle failures of single messages
+     * themselves, e. g. by adding a {@link org.graylog2.plugin.Message.ProcessingError processing error} to the
+     * message, so one failing message doesn't take the rest of the batch with it.
+     *
+     * @return {@code true} if the processor can process a message again, {@code false} otherwise
+     */
+    default boolean isIdempotent() {
+        return false;
+    }
 }
@@ -27,6 +27,7 @@ import com.lmax.disruptor.dsl.ProducerType;
 import org.graylog2.plugin.BaseConfiguration;
 import org.graylog2.plugin.GlobalMetricNames;
 import org.graylog2.plugin.buffers.InputBuffer;
+import org.graylog2.plugin.journal.PooledPayload;
 import org.graylog2.plugin.journal.RawMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -89,6 +90,9 @@ public class InputBufferImpl implements InputBuffer {
             }
         });
         safelyRegister(metricRegistry, GlobalMetricNames.INPUT_BUFFER_SIZE, constantGauge(ringBuffer.getBufferSize()));
+        safelyRegister(metricRegistry, GlobalMetricNames.INPUT_BUFFER_POOLED_PAYLOADS, (Gauge<Long>) PooledPayload::outstanding);
+        safelyRegister(metricRegistry, GlobalMetricNames.INPUT_BUFFER_POOLED_PAYLOADS_SIZE, (Gauge<Long>) PooledPayload::outstandingBytes);
+        safelyRegister(metricRegistry, GlobalMetricNames.INPUT_BUFFER_POOLED_PAYLOADS_LEAKED, (Gauge<Long>) PooledPayload::leaked);
 
         LOG.info("Initialized {} with ring size <{}> and wait strategy <{}>, running {} parallel message handlers.",
                 this.getClass().getSimpleName(),
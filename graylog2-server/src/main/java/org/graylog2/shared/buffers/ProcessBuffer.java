@@ -31,8 +31,10 @@ import org.graylog2.plugin.Message;
 import org.graylog2.plugin.buffers.Buffer;
 import org.graylog2.plugin.buffers.MessageEvent;
 import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.shared.buffers.processors.BatchingProcessBufferHandler;
 import org.graylog2.shared.buffers.processors.DecodingProcessor;
 import org.graylog2.shared.buffers.processors.ProcessBufferProcessor;
+import org.graylog2.shared.journal.Journal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,6 +42,7 @@ import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import java.util.List;
 import java.util.concurrent.ThreadFactory;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -58,6 +61,7 @@ public class ProcessBuffer extends Buffer {
                          DecodingProcessor.Factory decodingProcessorFactory,
                          ProcessBufferProcessor.Factory bufferProcessorFactory,
                          @Named("processbuffer_processors") int processorCount,
+                         @Named("processbuffer_batch_size") int batchSize,
                          @Named("ring_size") int ringSize,
                          @Named("processor_wait_strategy") String waitStrategyName) {
         this.ringBufferSize = ringSize;
@@ -83,14 +87,24 @@ public class ProcessBuffer extends Buffer {
         );
         disruptor.setDefaultExceptionHandler(new LoggingExceptionHandler(LOG));
 
-        LOG.info("Initialized ProcessBuffer with ring size <{}> and wait strategy <{}>.",
-                ringBufferSize, waitStrategy.getClass().getSimpleName());
+        LOG.info("Initialized ProcessBuffer with ring size <{}>, batch size <{}> and wait strategy <{}>.",
+                ringBufferSize, batchSize, waitStrategy.getClass().getSimpleName());
 
         processors = new ProcessBufferProcessor[processorCount];
         for (int i = 0; i < processorCount; i++) {
             processors[i] = bufferProcessorFactory.create(decodingProcessorFactory.create(decodeTime, parseTime));
         }
-        disruptor.handleEventsWithWorkerPool(processors);
+
+        if (batchSize > 1) {
+            // Worker pools hand out one event at a time, so batches are collected by sharded event handlers instead.
+            final BatchingProcessBufferHandler[] handlers = new BatchingProcessBufferHandler[processorCount];
+            for (int i = 0; i < processorCount; i++) {
+                handlers[i] = new BatchingProcessBufferHandler(processors[i], i, processorCount, batchSize);
+            }
+            disruptor.handleEventsWith(handlers);
+        } else {
+            disruptor.handleEventsWithWorkerPool(processors);
+        }
 
         ringBuffer = disruptor.start();
     }
@@ -111,6 +125,27 @@ public class ProcessBuffer extends Buffer {
         afterInsert(1);
     }
 
+    /**
+     * Inserts the given journal entries without decoding them, the raw messages are decoded by the processors.
+     * Ring buffer slots are claimed for as many entries as possible at once instead of one slot per entry.
+     *
+     * @param entries the entries read from the journal
+     */
+    public void insertBlocking(@Nonnull List<Journal.JournalReadEntry> entries) {
+        int inserted = 0;
+        while (inserted < entries.size()) {
+            final int n = Math.min(entries.size() - inserted, ringBufferSize);
+            final long hi = ringBuffer.next(n);
+            final long lo = hi - (n - 1);
+            for (long sequence = lo; sequence <= hi; sequence++) {
+                final Journal.JournalReadEntry entry = entries.get(inserted++);
+                ringBuffer.get(sequence).setEncodedRaw(entry.getPayload(), entry.getOffset());
+            }
+            ringBuffer.publish(lo, hi);
+            afterInsert(n);
+        }
+    }
+
     @Override
     protected void afterInsert(int n) {
         incomingMessages.mark(n);
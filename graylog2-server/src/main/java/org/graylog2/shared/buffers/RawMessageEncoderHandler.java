@@ -19,9 +19,13 @@ package org.graylog2.shared.buffers;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.lmax.disruptor.WorkHandler;
+import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.shared.journal.CodecConfigDictionary;
+import org.graylog2.shared.journal.Journal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 import static com.codahale.metrics.MetricRegistry.name;
@@ -29,16 +33,26 @@ import static com.codahale.metrics.MetricRegistry.name;
 public class RawMessageEncoderHandler implements WorkHandler<RawMessageEvent> {
     private static final Logger log = LoggerFactory.getLogger(RawMessageEncoderHandler.class);
     private final Meter incomingMessages;
+    @Nullable
+    private final CodecConfigDictionary codecConfigDictionary;
 
     @Inject
-    public RawMessageEncoderHandler(MetricRegistry metricRegistry) {
+    public RawMessageEncoderHandler(MetricRegistry metricRegistry, Journal journal) {
         incomingMessages = metricRegistry.meter(name(RawMessageEncoderHandler.class, "incomingMessages"));
+        codecConfigDictionary = journal.getCodecConfigDictionary();
     }
 
     @Override
     public void onEvent(RawMessageEvent event) throws Exception {
         incomingMessages.mark();
-        event.setEncodedRawMessage(event.getRawMessage().encode());
+        final RawMessage rawMessage = event.getRawMessage();
+        if (codecConfigDictionary != null) {
+            event.setEncodedRawMessage(rawMessage.encode(codecConfigDictionary.idFor(rawMessage.getCodecConfig())));
+        } else {
+            event.setEncodedRawMessage(rawMessage.encode());
+        }
+        // the payload has been copied into the encoded message
+        rawMessage.releasePayload();
         event.setMessageIdBytes(event.getRawMessage().getIdBytes());
         
         if (log.isTraceEnabled()) {
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers.processors;
+
+import com.lmax.disruptor.EventHandler;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.buffers.MessageEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process buffer event handler which collects up to {@code batchSize} messages before running them through the
+ * {@link ProcessBufferProcessor} as one batch.
+ *
+ * Every handler sees all ring buffer events but only handles the sequences of its own shard
+ * ({@code sequence % numberOfHandlers == ordinal}). A pending batch is flushed when it is full or when the
+ * ring buffer has no more events available, so messages are never held back while the buffer is idle.
+ *
+ * The events of a batch are decoded together when the batch is flushed. Holding on to the events until then is safe,
+ * because the disruptor only releases the ring buffer slots of a handler after the end of its batch of events.
+ */
+public class BatchingProcessBufferHandler implements EventHandler<MessageEvent> {
+    private final ProcessBufferProcessor processor;
+    private final int ordinal;
+    private final int numberOfHandlers;
+    private final int batchSize;
+    private final List<MessageEvent> events;
+    private final List<Message> batch;
+
+    public BatchingProcessBufferHandler(ProcessBufferProcessor processor, int ordinal, int numberOfHandlers, int batchSize) {
+        this.processor = processor;
+        this.ordinal = ordinal;
+        this.numberOfHandlers = numberOfHandlers;
+        this.batchSize = batchSize;
+        this.events = new ArrayList<>(batchSize);
+        this.batch = new ArrayList<>(batchSize);
+    }
+
+    @Override
+    public void onEvent(MessageEvent event, long sequence, boolean endOfBatch) throws Exception {
+        try {
+            if (sequence % numberOfHandlers == ordinal) {
+                events.add(event);
+            }
+        } finally {
+            if (events.size() >= batchSize || (endOfBatch && !events.isEmpty())) {
+                flush();
+            }
+        }
+    }
+
+    private void flush() {
+        try {
+            processor.decodeInto(events, batch);
+            processor.dispatchBatch(batch);
+        } finally {
+            events.clear();
+            batch.clear();
+        }
+    }
+
+    public ProcessBufferProcessor getProcessor() {
+        return processor;
+    }
+}
@@ -31,9 +31,12 @@ import org.graylog2.plugin.Message;
 import org.graylog2.plugin.ResolvableInetSocketAddress;
 import org.graylog2.plugin.ServerStatus;
 import org.graylog2.plugin.buffers.MessageEvent;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.inputs.codecs.BatchMessageCodec;
 import org.graylog2.plugin.inputs.codecs.Codec;
 import org.graylog2.plugin.inputs.codecs.MultiMessageCodec;
 import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.shared.journal.CodecConfigDictionary;
 import org.graylog2.shared.journal.Journal;
 import org.graylog2.shared.messageq.MessageQueueAcknowledger;
 import org.graylog2.shared.utilities.ExceptionUtils;
@@ -42,14 +45,13 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
-import static com.codahale.metrics.MetricRegistry.name;
-
 public class DecodingProcessor implements EventHandler<MessageEvent> {
     private static final Logger LOG = LoggerFactory.getLogger(DecodingProcessor.class);
 
@@ -60,9 +62,8 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
         DecodingProcessor create(@Assisted("decodeTime") Timer decodeTime, @Assisted("parseTime") Timer parseTime);
     }
 
-    private final Map<String, Codec.Factory<? extends Codec>> codecFactory;
+    private final InputCodecCache.ProcessorCodecs codecs;
     private final ServerStatus serverStatus;
-    private final MetricRegistry metricRegistry;
     private final Journal journal;
     private final MessageQueueAcknowledger acknowledger;
     private final Timer parseTime;
@@ -73,11 +74,11 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
                              final MetricRegistry metricRegistry,
                              final Journal journal,
                              MessageQueueAcknowledger acknowledger,
+                             InputCodecCache inputCodecCache,
                              @Assisted("decodeTime") Timer decodeTime,
                              @Assisted("parseTime") Timer parseTime) {
-        this.codecFactory = codecFactory;
+        this.codecs = inputCodecCache.newProcessorCodecs(codecFactory, metricRegistry);
         this.serverStatus = serverStatus;
-        this.metricRegistry = metricRegistry;
         this.journal = journal;
         this.acknowledger = acknowledger;
 
@@ -89,9 +90,40 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
 
     @Override
     public void onEvent(MessageEvent event, long sequence, boolean endOfBatch) throws Exception {
+        decodeEvent(event, null);
+    }
+
+    /**
+     * Decodes the raw messages of the given events. The raw messages of codecs which implement
+     * {@link BatchMessageCodec} are decoded with one batch decoder per codec, the others one at a time.
+     *
+     * @param events the events to decode
+     */
+    public void onEvents(List<MessageEvent> events) {
+        final Map<Codec, BatchMessageCodec.BatchDecoder> batchDecoders = new IdentityHashMap<>();
+        try {
+            for (final MessageEvent event : events) {
+                decodeEvent(event, batchDecoders);
+            }
+        } finally {
+            for (final BatchMessageCodec.BatchDecoder batchDecoder : batchDecoders.values()) {
+                try {
+                    batchDecoder.close();
+                } catch (RuntimeException e) {
+                    LOG.warn("Unable to close batch decoder", e);
+                }
+            }
+        }
+    }
+
+    private void decodeEvent(MessageEvent event, @Nullable Map<Codec, BatchMessageCodec.BatchDecoder> batchDecoders) {
+        if (event.getEncodedRaw() != null && !decodeJournalEntry(event)) {
+            return;
+        }
+
         final Timer.Context context = decodeTime.time();
         try {
-            processMessage(event);
+            processMessage(event, batchDecoders);
         } catch (Exception e) {
             final RawMessage rawMessage = event.getRaw();
             LOG.error("Error processing message " + rawMessage, ExceptionUtils.getRootCause(e));
@@ -113,12 +145,37 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
                 // Acknowledge null messages
                 acknowledger.acknowledge(event.getRaw().getMessageQueueId());
             }
+            // the payload isn't referenced by the decoded messages, return its buffer to the pool if it has one.
+            event.getRaw().releasePayload();
             // aid garbage collection to collect the raw message early (to avoid promoting it to later generations).
             event.clearRaw();
         }
     }
 
-    private void processMessage(final MessageEvent event) throws ExecutionException {
+    /**
+     * Decodes the raw message of an event which has been inserted straight from the journal. Deserializing the raw
+     * messages here instead of in the journal reader spreads the work over all processing threads.
+     *
+     * @return {@code true} if the raw message has been decoded, {@code false} if it had to be skipped
+     */
+    private boolean decodeJournalEntry(MessageEvent event) {
+        final long offset = event.getEncodedRawOffset();
+        final CodecConfigDictionary codecConfigDictionary = journal.getCodecConfigDictionary();
+        final RawMessage rawMessage = codecConfigDictionary != null
+                ? RawMessage.decode(event.getEncodedRaw(), offset, codecConfigDictionary::resolve)
+                : RawMessage.decode(event.getEncodedRaw(), offset);
+        if (rawMessage == null) {
+            LOG.error("Found null raw message at journal offset <{}>!", offset);
+            // Mark message as processed to avoid keeping it in the journal.
+            acknowledger.acknowledge(offset);
+            event.clearRaw();
+            return false;
+        }
+        event.setRaw(rawMessage);
+        return true;
+    }
+
+    private void processMessage(final MessageEvent event, @Nullable Map<Codec, BatchMessageCodec.BatchDecoder> batchDecoders) throws ExecutionException {
         final RawMessage raw = event.getRaw();
 
         // for backwards compatibility: the last source node should contain the input we use.
@@ -132,15 +189,13 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
             inputIdOnCurrentNode = null;
         }
 
-        final Codec.Factory<? extends Codec> factory = codecFactory.get(raw.getCodecName());
-        if (factory == null) {
+        final InputCodecCache.CachedCodec cachedCodec = codecs.get(inputIdOnCurrentNode, raw.getCodecName(), raw.getCodecConfig());
+        if (cachedCodec == null) {
             LOG.warn("Couldn't find factory for codec <{}>, skipping message {} on input <{}>.",
                     raw.getCodecName(), raw, inputIdOnCurrentNode);
             return;
         }
-
-        final Codec codec = factory.create(raw.getCodecConfig());
-        final String baseMetricName = name(codec.getClass(), inputIdOnCurrentNode);
+        final Codec codec = cachedCodec.getCodec();
 
         Message message = null;
         Collection<Message> messages = null;
@@ -150,26 +205,32 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
         try {
             // This is ugly but needed for backwards compatibility of the Codec interface in 1.x.
             // TODO The Codec interface should be changed for 2.0 to support collections of messages so we can remove this hack.
-            if (codec instanceof MultiMessageCodec) {
+            if (batchDecoders != null && codec instanceof BatchMessageCodec) {
+                messages = batchDecoders.computeIfAbsent(codec, c -> ((BatchMessageCodec) c).openBatch()).decode(raw);
+                if (messages != null && messages.size() == 1 && !(codec instanceof MultiMessageCodec)) {
+                    message = Iterables.getOnlyElement(messages);
+                    messages = null;
+                }
+            } else if (codec instanceof MultiMessageCodec) {
                 messages = ((MultiMessageCodec) codec).decodeMessages(raw);
             } else {
                 message = codec.decode(raw);
             }
         } catch (RuntimeException e) {
             LOG.error("Unable to decode raw message {} on input <{}>.", raw, inputIdOnCurrentNode);
-            metricRegistry.meter(name(baseMetricName, "failures")).mark();
+            cachedCodec.getFailures().mark();
             throw e;
         } finally {
             decodeTime = decodeTimeCtx.stop();
         }
 
         if (message != null) {
-            event.setMessage(postProcessMessage(raw, codec, inputIdOnCurrentNode, baseMetricName, message, decodeTime));
+            event.setMessage(postProcessMessage(raw, cachedCodec, inputIdOnCurrentNode, message, decodeTime));
         } else if (messages != null && !messages.isEmpty()) {
             final List<Message> processedMessages = Lists.newArrayListWithCapacity(messages.size());
 
             for (final Message msg : messages) {
-                final Message processedMessage = postProcessMessage(raw, codec, inputIdOnCurrentNode, baseMetricName, msg, decodeTime);
+                final Message processedMessage = postProcessMessage(raw, cachedCodec, inputIdOnCurrentNode, msg, decodeTime);
 
                 if (processedMessage != null) {
                     processedMessages.add(processedMessage);
@@ -181,13 +242,13 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
     }
 
     @Nullable
-    private Message postProcessMessage(RawMessage raw, Codec codec, String inputIdOnCurrentNode, String baseMetricName, Message message, long decodeTime) {
+    private Message postProcessMessage(RawMessage raw, InputCodecCache.CachedCodec cachedCodec, String inputIdOnCurrentNode, Message message, long decodeTime) {
         if (message == null) {
-            metricRegistry.meter(name(baseMetricName, "failures")).mark();
+            cachedCodec.getFailures().mark();
             return null;
         }
         if (!message.isComplete()) {
-            metricRegistry.meter(name(baseMetricName, "incomplete")).mark();
+            cachedCodec.getIncomplete().mark();
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Dropping incomplete message {} on input <{}>. Parsed fields: [{}]",
                         raw, inputIdOnCurrentNode, message.getFields());
@@ -201,7 +262,7 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
             message.setSequenceNr(raw.getSequenceNr());
         }
         message.recordTiming(serverStatus, "parse", decodeTime);
-        metricRegistry.timer(name(baseMetricName, "parseTime")).update(decodeTime, TimeUnit.NANOSECONDS);
+        cachedCodec.getParseTime().update(decodeTime, TimeUnit.NANOSECONDS);
 
         for (final RawMessage.SourceNode node : raw.getSourceNodes()) {
             switch (node.type) {
@@ -250,8 +311,9 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
             }
         }
 
-        if (codec.getConfiguration() != null && codec.getConfiguration().stringIsSet(Codec.Config.CK_OVERRIDE_SOURCE)) {
-            message.setSource(codec.getConfiguration().getString(Codec.Config.CK_OVERRIDE_SOURCE));
+        final Configuration codecConfiguration = cachedCodec.getCodec().getConfiguration();
+        if (codecConfiguration != null && codecConfiguration.stringIsSet(Codec.Config.CK_OVERRIDE_SOURCE)) {
+            message.setSource(codecConfiguration.getString(Codec.Config.CK_OVERRIDE_SOURCE));
         }
 
         // Make sure that there is a value for the source field.
@@ -263,7 +325,7 @@ public class DecodingProcessor implements EventHandler<MessageEvent> {
         // message to the journal.
         message.setReceiveTime(raw.getTimestamp());
 
-        metricRegistry.meter(name(baseMetricName, "processedMessages")).mark();
+        cachedCodec.getProcessedMessages().mark();
         decodedTrafficCounter.inc(message.getSize());
         return message;
     }
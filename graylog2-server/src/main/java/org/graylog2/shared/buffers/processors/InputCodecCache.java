@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers.processors;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.events.inputs.IOStateChangedEvent;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.inputs.codecs.Codec;
+import org.graylog2.rest.models.system.inputs.responses.InputDeleted;
+import org.graylog2.rest.models.system.inputs.responses.InputUpdated;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Caches the codec instances which are used to decode the raw messages of inputs.
+ * <p>
+ * Codecs are not required to be thread-safe, so every {@link DecodingProcessor} keeps its own
+ * {@link ProcessorCodecs codecs} per input, together with the metrics of the codec. A cached codec is re-used as
+ * long as the codec configuration of the raw messages doesn't change. All cached codecs are discarded when an input
+ * is updated, deleted or changes its state, e.g. when it is stopped.
+ */
+@Singleton
+public class InputCodecCache {
+    private static final Logger LOG = LoggerFactory.getLogger(InputCodecCache.class);
+
+    private final AtomicLong generation = new AtomicLong();
+
+    @Inject
+    public InputCodecCache(EventBus eventBus) {
+        eventBus.register(this);
+    }
+
+    @Subscribe
+    public void inputUpdated(InputUpdated inputUpdatedEvent) {
+        invalidate(inputUpdatedEvent.id());
+    }
+
+    @Subscribe
+    public void inputDeleted(InputDeleted inputDeletedEvent) {
+        invalidate(inputDeletedEvent.id());
+    }
+
+    @Subscribe
+    public void inputStateChanged(IOStateChangedEvent<?> event) {
+        if (event.changedState().getStoppable() instanceof MessageInput) {
+            invalidate(((MessageInput) event.changedState().getStoppable()).getId());
+        }
+    }
+
+    private void invalidate(String inputId) {
+        LOG.debug("Invalidating cached codecs after change of input <{}>", inputId);
+        generation.incrementAndGet();
+    }
+
+    public ProcessorCodecs newProcessorCodecs(Map<String, Codec.Factory<? extends Codec>> codecFactory,
+                                              MetricRegistry metricRegistry) {
+        return new ProcessorCodecs(codecFactory, metricRegistry);
+    }
+
+    /**
+     * The codecs of a single {@link DecodingProcessor}. Must only be used by the thread of the processor.
+     */
+    public class ProcessorCodecs {
+        private final Map<String, Codec.Factory<? extends Codec>> codecFactory;
+        private final MetricRegistry metricRegistry;
+        private final Map<String, CachedCodec> codecsByInput = new HashMap<>();
+        private long cachedGeneration = generation.get();
+
+        private ProcessorCodecs(Map<String, Codec.Factory<? extends Codec>> codecFactory, MetricRegistry metricRegistry) {
+            this.codecFactory = codecFactory;
+            this.metricRegistry = metricRegistry;
+        }
+
+        /**
+         * Returns the codec for the raw messages of the given input.
+         *
+         * @param inputId     the ID of the input, may be {@code null} for messages without a source input
+         * @param codecName   the name of the codec of the raw message
+         * @param codecConfig the codec configuration of the raw message
+         * @return the cached codec, or {@code null} if there is no codec with the given name
+         */
+        @Nullable
+        public CachedCodec get(@Nullable String inputId, String codecName, Configuration codecConfig) {
+            final long currentGeneration = generation.get();
+            if (currentGeneration != cachedGeneration) {
+                codecsByInput.clear();
+                cachedGeneration = currentGeneration;
+            }
+
+            final CachedCodec cachedCodec = codecsByInput.get(inputId);
+            if (cachedCodec != null && cachedCodec.matches(codecName, codecConfig)) {
+                return cachedCodec;
+            }
+
+            final Codec.Factory<? extends Codec> factory = codecFactory.get(codecName);
+            if (factory == null) {
+                return null;
+            }
+            final CachedCodec newCodec = new CachedCodec(codecName, codecConfig, factory.create(codecConfig), inputId, metricRegistry);
+            codecsByInput.put(inputId, newCodec);
+            return newCodec;
+        }
+
+        int size() {
+            return codecsByInput.size();
+        }
+    }
+
+    /**
+     * A codec instance together with its pre-resolved metrics.
+     */
+    public static class CachedCodec {
+        private final String codecName;
+        private final Map<String, Object> configFingerprint;
+        private Configuration codecConfig;
+
+        private final Codec codec;
+        private final Meter failures;
+        private final Meter incomplete;
+        private final Meter processedMessages;
+        private final Timer parseTime;
+
+        private CachedCodec(String codecName, Configuration codecConfig, Codec codec, @Nullable String inputId, MetricRegistry metricRegistry) {
+            this.codecName = codecName;
+            this.codecConfig = codecConfig;
+            this.configFingerprint = new HashMap<>(codecConfig.getSource());
+            this.codec = codec;
+            final String baseMetricName = name(codec.getClass(), inputId);
+            this.failures = metricRegistry.meter(name(baseMetricName, "failures"));
+            this.incomplete = metricRegistry.meter(name(baseMetricName, "incomplete"));
+            this.processedMessages = metricRegistry.meter(name(baseMetricName, "processedMessages"));
+            this.parseTime = metricRegistry.timer(name(baseMetricName, "parseTime"));
+        }
+
+        private boolean matches(String codecName, Configuration codecConfig) {
+            if (!this.codecName.equals(codecName)) {
+                return false;
+            }
+            // Inputs and the journal share configuration instances, so the fingerprint is only compared if they differ.
+            if (this.codecConfig == codecConfig) {
+                return true;
+            }
+            if (Objects.equals(configFingerprint, codecConfig.getSource())) {
+                this.codecConfig = codecConfig;
+                return true;
+            }
+            return false;
+        }
+
+        public Codec getCodec() {
+            return codec;
+        }
+
+
+        public Meter getFailures() {
+            return failures;
+        }
+
+        public Meter getIncomplete() {
+            return incomplete;
+        }
+
+        public Meter getProcessedMessages() {
+            return processedMessages;
+        }
+
+        public Timer getParseTime() {
+            return parseTime;
+        }
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.graylog2.shared.buffers.processors;
 
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
@@ -28,6 +29,7 @@ import org.graylog.failure.FailureSubmissionService;
 import org.graylog2.buffers.OutputBuffer;
 import org.graylog2.messageprocessors.OrderedMessageProcessors;
 import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageCollection;
 import org.graylog2.plugin.Messages;
 import org.graylog2.plugin.Tools;
 import org.graylog2.plugin.buffers.MessageEvent;
@@ -39,7 +41,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
 
@@ -52,6 +57,8 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
     private final Meter incomingMessages;
 
     private final Timer processTime;
+    private final Timer batchProcessTime;
+    private final Histogram batchSize;
     private final Meter outgoingMessages;
     private final OrderedMessageProcessors orderedMessageProcessors;
 
@@ -86,6 +93,8 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
         incomingMessages = metricRegistry.meter(name(ProcessBufferProcessor.class, "incomingMessages"));
         outgoingMessages = metricRegistry.meter(name(ProcessBufferProcessor.class, "outgoingMessages"));
         processTime = metricRegistry.timer(name(ProcessBufferProcessor.class, "processTime"));
+        batchProcessTime = metricRegistry.timer(name(ProcessBufferProcessor.class, "batchProcessTime"));
+        batchSize = metricRegistry.histogram(name(ProcessBufferProcessor.class, "batchSize"));
         currentMessage = null;
     }
 
@@ -115,6 +124,115 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
         }
     }
 
+    /**
+     * Decodes the raw messages of the given events and adds the resulting messages to the given batch. Codecs which
+     * support it decode all of their raw messages with a single batch decoder.
+     * The messages are then processed with {@link #dispatchBatch(List)}.
+     *
+     * @param events the events containing the raw messages
+     * @param batch  the batch to add the decoded messages to
+     */
+    public void decodeInto(List<MessageEvent> events, List<Message> batch) {
+        try {
+            decodingProcessor.onEvents(events);
+
+            for (final MessageEvent event : events) {
+                if (event.isSingleMessage()) {
+                    batch.add(event.getMessage());
+                } else if (event.getMessages() != null) {
+                    batch.addAll(event.getMessages());
+                }
+            }
+        } finally {
+            for (final MessageEvent event : events) {
+                event.clearMessages();
+            }
+        }
+    }
+
+    /**
+     * Runs the given batch of decoded messages through the message processors and writes the results to the
+     * output buffer with a single insert.
+     *
+     * Message processors which don't {@link MessageProcessor#supportsBatches() support batches} are called with one
+     * message at a time.
+     *
+     * @param batch the decoded messages
+     */
+    public void dispatchBatch(List<Message> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        currentMessage = batch.get(0);
+        incomingMessages.mark(batch.size());
+        batchSize.update(batch.size());
+
+        try (final Timer.Context ignored = batchProcessTime.time()) {
+            final Stream defaultStream = defaultStreamProvider.get();
+            for (final Message msg : batch) {
+                msg.addStream(defaultStream);
+            }
+
+            Messages messages = new MessageCollection(batch);
+            for (MessageProcessor messageProcessor : orderedMessageProcessors) {
+                messages = processBatch(messageProcessor, messages);
+            }
+
+            final List<Message> processedMessages = new ArrayList<>(batch.size());
+            for (Message message : messages) {
+                try {
+                    if (finishMessage(message)) {
+                        processedMessages.add(message);
+                    }
+                } catch (Exception e) {
+                    handleProcessingError(message, e);
+                }
+            }
+            try {
+                outputBuffer.insertBlocking(processedMessages);
+            } catch (Exception e) {
+                for (Message message : processedMessages) {
+                    handleProcessingError(message, e);
+                }
+            }
+        } finally {
+            currentMessage = null;
+            outgoingMessages.mark(batch.size());
+        }
+    }
+
+    private Messages processBatch(MessageProcessor messageProcessor, Messages messages) {
+        if (messageProcessor.supportsBatches()) {
+            try {
+                return messageProcessor.process(messages);
+            } catch (Exception e) {
+                if (!messageProcessor.isIdempotent()) {
+                    // Some messages might have been modified already, processing them again could corrupt them.
+                    for (Message message : messages) {
+                        handleProcessingError(message, e);
+                    }
+                    return new MessageCollection(Collections.emptyList());
+                }
+                // Retry the messages one by one so only the failing messages get dropped.
+                LOG.warn("Message processor <{}> failed to process a batch of messages, processing them one by one: {}",
+                        messageProcessor.getClass().getName(), e.toString());
+            }
+        }
+
+        final List<Message> result = new ArrayList<>();
+        for (Message message : messages) {
+            try {
+                for (Message processed : messageProcessor.process(message)) {
+                    result.add(processed);
+                }
+            } catch (Exception e) {
+                handleProcessingError(message, e);
+            }
+        }
+        return new MessageCollection(result);
+    }
+
     public Optional<Message> getCurrentMessage() {
         return Optional.ofNullable(currentMessage);
     }
@@ -133,26 +251,29 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
                 LOG.trace("Finished processing message <{}>. Writing to output buffer.", msg.getId());
             }
         } catch (Exception e) {
-            if (LOG.isDebugEnabled()) {
-                // Log warning including the stacktrace
-                LOG.warn("Unable to process message <{}>:", msg.getId(), e);
-                // Log full message content to aid debugging
-                LOG.debug("Failed message <{}>: {}", msg.getId(), msg.toDumpString());
-            } else {
-                // Only logs a single line warning without stacktrace
-                LOG.warn("Unable to process message <{}>: {}", msg.getId(), e);
-            }
-
-            failureSubmissionService.submitUnknownProcessingError(msg, String.format(Locale.ENGLISH,
-                    "Unable to process message <%s>: %s",
-                    msg.getId(), e));
-
+            handleProcessingError(msg, e);
         } finally {
             currentMessage = null;
             outgoingMessages.mark();
         }
     }
 
+    private void handleProcessingError(Message msg, Exception e) {
+        if (LOG.isDebugEnabled()) {
+            // Log warning including the stacktrace
+            LOG.warn("Unable to process message <{}>:", msg.getId(), e);
+            // Log full message content to aid debugging
+            LOG.debug("Failed message <{}>: {}", msg.getId(), msg.toDumpString());
+        } else {
+            // Only logs a single line warning without stacktrace
+            LOG.warn("Unable to process message <{}>: {}", msg.getId(), e);
+        }
+
+        failureSubmissionService.submitUnknownProcessingError(msg, String.format(Locale.ENGLISH,
+                "Unable to process message <%s>: %s",
+                msg.getId(), e));
+    }
+
     private void handleMessage(@Nonnull Message msg) {
         msg.addStream(defaultStreamProvider.get());
         Messages messages = msg;
@@ -162,23 +283,32 @@ public class ProcessBufferProcessor implements WorkHandler<MessageEvent> {
         }
 
         for (Message message : messages) {
-            message.ensureValidTimestamp();
-
-            // If a message is received via the Cluster-to-Cluster Forwarder, it already has this field set
-            if (!message.hasField(Message.FIELD_GL2_MESSAGE_ID) || isNullOrEmpty(message.getFieldAs(String.class, Message.FIELD_GL2_MESSAGE_ID))) {
-                // Set the message ID once all message processors have finished
-                // See documentation of Message.FIELD_GL2_MESSAGE_ID for details
-                message.addField(Message.FIELD_GL2_MESSAGE_ID, messageULIDGenerator.createULID(message));
+            if (finishMessage(message)) {
+                outputBuffer.insertBlocking(message);
             }
+        }
+    }
 
-            // The processing time should only be set once all message processors have finished
-            message.setProcessingTime(Tools.nowUTC());
-            processingStatusRecorder.updatePostProcessingReceiveTime(message.getReceiveTime());
+    /**
+     * Finalizes a message after all message processors have finished.
+     *
+     * @return {@code true} if the message should be written to the output buffer, {@code false} otherwise
+     */
+    private boolean finishMessage(Message message) {
+        message.ensureValidTimestamp();
 
-            if(failureSubmissionService.submitProcessingErrors(message)) {
-                outputBuffer.insertBlocking(message);
-            }
+        // If a message is received via the Cluster-to-Cluster Forwarder, it already has this field set
+        if (!message.hasField(Message.FIELD_GL2_MESSAGE_ID) || isNullOrEmpty(message.getFieldAs(String.class, Message.FIELD_GL2_MESSAGE_ID))) {
+            // Set the message ID once all message processors have finished
+            // See documentation of Message.FIELD_GL2_MESSAGE_ID for details
+            message.addField(Message.FIELD_GL2_MESSAGE_ID, messageULIDGenerator.createULID(message));
         }
+
+        // The processing time should only be set once all message processors have finished
+        message.setProcessingTime(Tools.nowUTC());
+        processingStatusRecorder.updatePostProcessingReceiveTime(message.getReceiveTime());
+
+        return failureSubmissionService.submitProcessingErrors(message);
     }
 
     public interface Factory {
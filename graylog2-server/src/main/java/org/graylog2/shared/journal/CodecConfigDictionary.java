@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.journal.JournalMessages;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+/**
+ * Dictionary of the codec configurations referenced by the entries of a journal.
+ * <p>
+ * Instead of embedding the JSON serialized codec configuration in every journal entry, entries only carry the ID of
+ * the configuration in this dictionary. Readers resolve the ID to a single, shared {@link Configuration} instance,
+ * so neither writing nor reading an entry has to (de-)serialize its codec configuration.
+ * <p>
+ * The dictionary is stored in a versioned side file in the journal directory. New configurations are written to the
+ * file before their ID is handed out, so every ID in the journal can be resolved after a restart. Entries without a
+ * configuration ID embed their configuration and are still decoded from the embedded JSON.
+ * <p>
+ * The journal {@link #checkResolvable(long, byte[]) checks} on startup that its unprocessed entries can be resolved
+ * and {@link #compact() compacts} the dictionary when there are no unprocessed entries. IDs are never reused.
+ */
+public class CodecConfigDictionary {
+    private static final Logger LOG = LoggerFactory.getLogger(CodecConfigDictionary.class);
+
+    public static final String FILE_NAME = "graylog2-codec-configs.json";
+    static final int FORMAT_VERSION = 1;
+    // Embedded configurations of old entries are interned as well, there usually are only a few distinct ones.
+    private static final int MAX_EMBEDDED_CONFIGS = 1000;
+
+    private static final String FIELD_VERSION = "version";
+    private static final String FIELD_CONFIGS = "configs";
+    private static final String FIELD_NEXT_ID = "next_id";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    @Nullable
+    private final Path file;
+    private final Map<String, Integer> idsByJson = new ConcurrentHashMap<>();
+    private final Map<Integer, Configuration> configsById = new ConcurrentHashMap<>();
+    private final Map<Integer, String> jsonById = new HashMap<>();
+    // Inputs share a single configuration instance for all of their messages, so the weak keys (which are compared
+    // by identity) avoid serializing the configuration of every message to look up its ID.
+    private final Cache<Configuration, Integer> idsByInstance = CacheBuilder.newBuilder().weakKeys().build();
+    private final Cache<String, Configuration> embeddedConfigs = CacheBuilder.newBuilder()
+            .maximumSize(MAX_EMBEDDED_CONFIGS)
+            .build();
+    private int nextId = 1;
+
+    /**
+     * Creates a dictionary which is only kept in memory.
+     */
+    public CodecConfigDictionary() {
+        this.file = null;
+    }
+
+    /**
+     * Creates a dictionary which is stored in {@link #FILE_NAME} in the given journal directory and loads its
+     * existing entries.
+     *
+     * @param journalDirectory the journal directory
+     * @throws UncheckedIOException  if the existing dictionary cannot be read
+     * @throws IllegalStateException if the existing dictionary has been written by a newer version
+     */
+    public CodecConfigDictionary(Path journalDirectory) {
+        this.file = journalDirectory.resolve(FILE_NAME);
+        if (Files.exists(file)) {
+            load(file);
+        }
+    }
+
+    private void load(Path file) {
+        final JsonNode root;
+        try {
+            root = objectMapper.readTree(file.toFile());
+        } catch (IOException e) {
+            LOG.error("Cannot read codec configuration dictionary {}: {}", file, e.getMessage());
+            throw new UncheckedIOException(e);
+        }
+        final int version = root.path(FIELD_VERSION).asInt(-1);
+        if (version < 1 || version > FORMAT_VERSION) {
+            throw new IllegalStateException("Unsupported version <" + version + "> of codec configuration dictionary " + file);
+        }
+
+        final Iterator<Map.Entry<String, JsonNode>> configs = root.path(FIELD_CONFIGS).fields();
+        while (configs.hasNext()) {
+            final Map.Entry<String, JsonNode> entry = configs.next();
+            final int id = Integer.parseInt(entry.getKey());
+            final String json = entry.getValue().asText();
+            register(id, json);
+            nextId = Math.max(nextId, id + 1);
+        }
+        // The next ID is stored separately, because compacting the dictionary may have removed the highest IDs.
+        nextId = Math.max(nextId, root.path(FIELD_NEXT_ID).asInt(1));
+        LOG.debug("Loaded {} codec configurations from {}", jsonById.size(), file);
+    }
+
+    private void register(int id, String json) {
+        jsonById.put(id, json);
+        configsById.put(id, Configuration.deserializeFromJson(json));
+        idsByJson.put(json, id);
+    }
+
+    /**
+     * Returns the ID of the given codec configuration, adding it to the dictionary if necessary.
+     *
+     * @param configuration the codec configuration of a raw message
+     * @return the ID of the configuration, or {@code 0} if the configuration is empty or cannot be added to the
+     * dictionary and has to be embedded into the journal entry
+     */
+    public int idFor(@Nullable Configuration configuration) {
+        if (configuration == null) {
+            return 0;
+        }
+        try {
+            return idsByInstance.get(configuration, () -> idForJson(configuration.serializeToJson()));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            LOG.error("Unable to look up codec configuration ID, embedding the configuration.", e);
+            return 0;
+        }
+    }
+
+    private int idForJson(@Nullable String json) {
+        if (isNullOrEmpty(json)) {
+            return 0;
+        }
+        final Integer id = idsByJson.get(json);
+        if (id != null) {
+            return id;
+        }
+        return addConfig(json);
+    }
+
+    private synchronized int addConfig(String json) {
+        final Integer existingId = idsByJson.get(json);
+        if (existingId != null) {
+            return existingId;
+        }
+
+        final int id = nextId;
+        jsonById.put(id, json);
+        nextId++;
+        if (file != null) {
+            try {
+                store(file);
+            } catch (IOException e) {
+                jsonById.remove(id);
+                nextId--;
+                LOG.error("Cannot write codec configuration dictionary {}, embedding the configuration: {}", file, e.getMessage());
+                return 0;
+            }
+        }
+        register(id, json);
+        return id;
+    }
+
+    private void store(Path file) throws IOException {
+        final ObjectNode root = objectMapper.createObjectNode();
+        root.put(FIELD_VERSION, FORMAT_VERSION);
+        root.put(FIELD_NEXT_ID, nextId);
+        final ObjectNode configs = root.putObject(FIELD_CONFIGS);
+        jsonById.forEach((id, json) -> configs.put(String.valueOf(id), json));
+
+        // Replace the file atomically, so a crash never leaves a partially written dictionary behind.
+        final Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tempFile, objectMapper.writeValueAsBytes(root));
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Removes all configurations from the dictionary. Must only be called while the journal has no unprocessed
+     * entries, the IDs of the removed configurations are not handed out again.
+     */
+    public synchronized void compact() {
+        if (jsonById.isEmpty()) {
+            return;
+        }
+        final Map<Integer, String> removed = new HashMap<>(jsonById);
+        jsonById.clear();
+        if (file != null) {
+            try {
+                store(file);
+            } catch (IOException e) {
+                jsonById.putAll(removed);
+                LOG.warn("Cannot compact codec configuration dictionary {}: {}", file, e.getMessage());
+                return;
+            }
+        }
+        configsById.clear();
+        idsByJson.clear();
+        idsByInstance.invalidateAll();
+        LOG.debug("Removed {} unused codec configurations from {}", removed.size(), file);
+    }
+
+    /**
+     * Checks that the codec configuration of the given journal entry can be resolved. Unreadable entries are
+     * ignored, they are skipped when the journal is read.
+     *
+     * @param offset  the offset of the journal entry
+     * @param payload the encoded journal entry
+     * @throws IllegalStateException if the entry references a configuration ID which is missing from the dictionary
+     */
+    public void checkResolvable(long offset, byte[] payload) {
+        final JournalMessages.CodecInfo codecInfo;
+        try {
+            codecInfo = JournalMessages.JournalMessage.parseFrom(payload).getCodec();
+        } catch (IOException e) {
+            return;
+        }
+        if (codecInfo.hasConfigId() && !configsById.containsKey(codecInfo.getConfigId())) {
+            throw new IllegalStateException("Journal entry at offset <" + offset + "> references codec configuration <"
+                    + codecInfo.getConfigId() + ">, which is missing from " + (file == null ? "the dictionary" : file)
+                    + ". The dictionary has been lost or replaced by an older copy. Restore the dictionary or remove the"
+                    + " journal directory to discard the unprocessed messages.");
+        }
+    }
+
+    /**
+     * Returns the codec configuration of a journal entry, either from the dictionary or from the embedded JSON.
+     *
+     * @param codecInfo the codec information of the journal entry
+     * @return the configuration, or {@code null} if the entry references an unknown configuration ID
+     */
+    @Nullable
+    public Configuration resolve(JournalMessages.CodecInfo codecInfo) {
+        if (codecInfo.hasConfigId()) {
+            final Configuration configuration = configsById.get(codecInfo.getConfigId());
+            if (configuration == null) {
+                LOG.error("Unknown codec configuration ID <{}> in journal entry.", codecInfo.getConfigId());
+            }
+            return configuration;
+        }
+
+        final String json = codecInfo.getConfig();
+        if (isNullOrEmpty(json)) {
+            return Configuration.EMPTY_CONFIGURATION;
+        }
+        try {
+            return embeddedConfigs.get(json, () -> Configuration.deserializeFromJson(json));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            return Configuration.deserializeFromJson(json);
+        }
+    }
+
+    public int size() {
+        return configsById.size();
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.graylog2.shared.journal;
 
+import javax.annotation.Nullable;
 import java.util.List;
 
 public interface Journal {
@@ -31,6 +32,16 @@ public interface Journal {
 
     void flush();
 
+    /**
+     * Returns the dictionary of the codec configurations referenced by the entries of this journal.
+     *
+     * @return the dictionary, or {@code null} if the entries have to embed their codec configuration
+     */
+    @Nullable
+    default CodecConfigDictionary getCodecConfigDictionary() {
+        return null;
+    }
+
     class Entry {
         private final byte[] idBytes;
         private final byte[] messageBytes;
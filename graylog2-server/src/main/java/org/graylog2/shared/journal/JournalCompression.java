@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import com.github.joschi.jadconfig.ParameterException;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * The compression of the message batches written to the {@link LocalKafkaJournal}.
+ * <p>
+ * Every batch written to the journal is stored as a single compressed Kafka message set. The setting only applies to
+ * new batches, journals with a mix of compressed and uncompressed batches can always be read.
+ * <p>
+ * LZ4 is not offered, because the LZ4 codec of the Kafka 0.9 log is incompatible with the LZ4 library in use.
+ */
+public enum JournalCompression {
+    NONE("uncompressed"),
+    GZIP("gzip"),
+    SNAPPY("snappy");
+
+    private final String kafkaCompressionType;
+
+    JournalCompression(String kafkaCompressionType) {
+        this.kafkaCompressionType = kafkaCompressionType;
+    }
+
+    /**
+     * @return the value of the Kafka {@code compression.type} log setting
+     */
+    public String getKafkaCompressionType() {
+        return kafkaCompressionType;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString().toLowerCase(Locale.ROOT);
+    }
+
+    public static class Converter implements com.github.joschi.jadconfig.Converter<JournalCompression> {
+        @Override
+        public JournalCompression convertFrom(String value) {
+            try {
+                return JournalCompression.valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new ParameterException("Unable to parse journal compression <" + value + ">. Valid values are: " +
+                        Arrays.stream(JournalCompression.values()).map(JournalCompression::toString)
+                                .collect(Collectors.toList()) + ".");
+            }
+        }
+
+        @Override
+        public String convertTo(JournalCompression value) {
+            return value.toString();
+        }
+    }
+}
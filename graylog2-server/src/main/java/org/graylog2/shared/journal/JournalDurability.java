@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import com.github.joschi.jadconfig.ParameterException;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Determines when the entries written to the {@link LocalKafkaJournal} are forced to disk.
+ */
+public enum JournalDurability {
+    /**
+     * Entries are never forced to disk explicitly, the operating system writes them back on its own schedule.
+     */
+    NONE,
+    /**
+     * Entries are forced to disk after the configured number of entries has been written or the configured time has
+     * passed since the last flush.
+     */
+    INTERVAL,
+    /**
+     * Every batch of entries is forced to disk before the write returns. Batches of concurrent writers are committed
+     * with a single flush.
+     */
+    EVERY_BATCH;
+
+    @Override
+    public String toString() {
+        return super.toString().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+
+    public static class Converter implements com.github.joschi.jadconfig.Converter<JournalDurability> {
+        @Override
+        public JournalDurability convertFrom(String value) {
+            try {
+                return JournalDurability.valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                throw new ParameterException("Unable to parse journal durability <" + value + ">. Valid values are: " +
+                        Arrays.stream(JournalDurability.values()).map(JournalDurability::toString)
+                                .collect(Collectors.toList()) + ".");
+            }
+        }
+
+        @Override
+        public String convertTo(JournalDurability value) {
+            return value.toString();
+        }
+    }
+}
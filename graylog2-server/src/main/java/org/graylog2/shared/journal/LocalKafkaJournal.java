@@ -43,6 +43,7 @@ import org.graylog.shaded.kafka09.message.ByteBufferMessageSet;
 import org.graylog.shaded.kafka09.message.Message;
 import org.graylog.shaded.kafka09.message.MessageAndOffset;
 import org.graylog.shaded.kafka09.message.MessageSet;
+import org.graylog.shaded.kafka09.message.NoCompressionCodec$;
 import org.graylog.shaded.kafka09.scala.Option;
 import org.graylog.shaded.kafka09.scala.collection.Iterator;
 import org.graylog.shaded.kafka09.scala.collection.JavaConversions;
@@ -86,10 +87,12 @@ import java.util.Set;
 import java.util.SortedMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static java.util.concurrent.TimeUnit.DAYS;
@@ -110,6 +113,9 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
     public static final long DEFAULT_COMMITTED_OFFSET = Long.MIN_VALUE;
     public static final int NOTIFY_ON_UTILIZATION_PERCENTAGE = 95;
     public static final int THRESHOLD_THROTTLING_DISABLED = -1;
+    // Compressed batches are read as a whole, so they have to fit into a single read of the journal.
+    private static final long MAX_COMPRESSED_BATCH_SIZE = Size.megabytes(1L).toBytes();
+    private static final int MAX_READ_SIZE = Ints.saturatedCast(Size.megabytes(5L).toBytes());
 
     // Metric names, which should be used twice (once in metric startup and once in metric teardown).
     public static final String METER_WRITTEN_MESSAGES = "writtenMessages";
@@ -118,7 +124,11 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
     public static final String GAUGE_UNCOMMITTED_MESSAGES = "uncommittedMessages";
     private static final String TIMER_WRITE_TIME = "writeTime";
     private static final String TIMER_READ_TIME = "readTime";
+    private static final String TIMER_APPEND_TIME = "appendTime";
+    private static final String TIMER_FLUSH_TIME = "flushTime";
     private static final String METRIC_NAME_SIZE = "size";
+    private static final String METRIC_NAME_SIZE_LOGICAL = "sizeLogical";
+    private static final String METRIC_NAME_COMPRESSION_RATIO = "compressionRatio";
     private static final String METRIC_NAME_LOG_END_OFFSET = "logEndOffset";
     private static final String METRIC_NAME_NUMBER_OF_SEGMENTS = "numberOfSegments";
     private static final String METRIC_NAME_UNFLUSHED_MESSAGES = "unflushedMessages";
@@ -147,11 +157,14 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
     private final LogManager logManager;
     private final Log kafkaLog;
     private final File committedReadOffsetFile;
+    private final CodecConfigDictionary codecConfigDictionary;
     private final AtomicLong committedOffset = new AtomicLong(DEFAULT_COMMITTED_OFFSET);
     private final MetricRegistry metricRegistry;
     private final ScheduledExecutorService scheduler;
     private final ServerStatus serverStatus;
     private final Timer writeTime;
+    private final Timer appendTime;
+    private final Timer flushTime;
 
     private final Timer readTime;
     private final KafkaScheduler kafkaScheduler;
@@ -166,6 +179,12 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
     private final long maxSegmentSize;
     private final int maxMessageSize;
     private final String metricPrefix;
+    private final JournalDurability durability;
+    private final JournalCompression compression;
+    private final long maxBatchSize;
+    private final Object groupCommitLock = new Object();
+    // Uncompressed size of the batches written to each segment since startup, keyed by the base offset of the segment.
+    private final ConcurrentSkipListMap<Long, LongAdder> logicalSegmentSizes = new ConcurrentSkipListMap<>();
 
     private long nextReadOffset = 0L;
     private ScheduledFuture<?> checkpointFlusherFuture;
@@ -187,15 +206,77 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
                              @Named("message_journal_max_age") Duration retentionAge,
                              @Named("message_journal_flush_interval") long flushInterval,
                              @Named("message_journal_flush_age") Duration flushAge,
+                             @Named("message_journal_durability") JournalDurability durability,
+                             @Named("message_journal_compression") JournalCompression compression,
                              @Named("lb_throttle_threshold_percentage") int throttleThresholdPercentage,
                              MetricRegistry metricRegistry,
                              ServerStatus serverStatus) {
 
         this(journalDirectory, scheduler, segmentSize, segmentAge, retentionSize, retentionAge, flushInterval, flushAge,
-             throttleThresholdPercentage, metricRegistry, serverStatus, LocalKafkaJournal.class.getName());
+             durability, compression, throttleThresholdPercentage, metricRegistry, serverStatus, LocalKafkaJournal.class.getName());
+    }
+
+    public LocalKafkaJournal(Path journalDirectory,
+                             ScheduledExecutorService scheduler,
+                             Size segmentSize,
+                             Duration segmentAge,
+                             Size retentionSize,
+                             Duration retentionAge,
+                             long flushInterval,
+                             Duration flushAge,
+                             int throttleThresholdPercentage,
+                             MetricRegistry metricRegistry,
+                             ServerStatus serverStatus) {
+
+        this(journalDirectory, scheduler, segmentSize, segmentAge, retentionSize, retentionAge, flushInterval, flushAge,
+             JournalDurability.INTERVAL, JournalCompression.NONE, throttleThresholdPercentage, metricRegistry, serverStatus,
+             LocalKafkaJournal.class.getName());
+    }
+
+    public LocalKafkaJournal(Path journalDirectory,
+                             ScheduledExecutorService scheduler,
+                             Size segmentSize,
+                             Duration segmentAge,
+                             Size retentionSize,
+                             Duration retentionAge,
+                             long flushInterval,
+                             Duration flushAge,
+                             int throttleThresholdPercentage,
+                             MetricRegistry metricRegistry,
+                             ServerStatus serverStatus,
+                             String metricPrefix) {
+
+        this(journalDirectory, scheduler, segmentSize, segmentAge, retentionSize, retentionAge, flushInterval, flushAge,
+             JournalDurability.INTERVAL, JournalCompression.NONE, throttleThresholdPercentage, metricRegistry, serverStatus,
+             metricPrefix);
+    }
+
+    public LocalKafkaJournal(Path journalDirectory,
+                             ScheduledExecutorService scheduler,
+                             Size segmentSize,
+                             Duration segmentAge,
+                             Size retentionSize,
+                             Duration retentionAge,
+                             long flushInterval,
+                             Duration flushAge,
+                             JournalDurability durability,
+                             int throttleThresholdPercentage,
+                             MetricRegistry metricRegistry,
+                             ServerStatus serverStatus,
+                             String metricPrefix) {
+
+        this(journalDirectory, scheduler, segmentSize, segmentAge, retentionSize, retentionAge, flushInterval, flushAge,
+             durability, JournalCompression.NONE, throttleThresholdPercentage, metricRegistry, serverStatus, metricPrefix);
     }
 
     /**
+     * @param flushInterval               The number of messages after which the journal is flushed, only used with
+     *                                    {@link JournalDurability#INTERVAL}.
+     * @param flushAge                    The maximum time the journal can have unflushed messages, only used with
+     *                                    {@link JournalDurability#INTERVAL}.
+     * @param durability                  When the written messages are forced to disk.
+     * @param compression                 The compression of newly written message batches. Retention and throttling
+     *                                    are based on the compressed size on disk.
      * @param throttleThresholdPercentage The journal utilization percent at which throttling will be triggered.
      *                                    Expressed as an integer between 1 and 100. The value -1 disables throttling.
      */
@@ -207,6 +288,8 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
                              Duration retentionAge,
                              long flushInterval,
                              Duration flushAge,
+                             JournalDurability durability,
+                             JournalCompression compression,
                              int throttleThresholdPercentage,
                              MetricRegistry metricRegistry,
                              ServerStatus serverStatus,
@@ -226,6 +309,9 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         this.maxMessageSize = Ints.saturatedCast(maxSegmentSize);
         this.metricPrefix = metricPrefix;
         this.metricRegistry = metricRegistry;
+        this.durability = durability;
+        this.compression = compression;
+        this.maxBatchSize = compression == JournalCompression.NONE ? maxSegmentSize : Math.min(maxSegmentSize, MAX_COMPRESSED_BATCH_SIZE);
 
         // Set up metrics
         this.writtenMessages = metricRegistry.meter(name(this.metricPrefix, METER_WRITTEN_MESSAGES));
@@ -234,6 +320,11 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         registerUncommittedGauge(metricRegistry, name(this.metricPrefix, GAUGE_UNCOMMITTED_MESSAGES));
         this.writeTime = registerHdrTimer(metricRegistry, name(this.metricPrefix, TIMER_WRITE_TIME)); // the registerHdrTimer helper doesn't throw on existing metrics
         this.readTime = registerHdrTimer(metricRegistry, name(this.metricPrefix, TIMER_READ_TIME)); // the registerHdrTimer helper doesn't throw on existing metrics
+        this.appendTime = registerHdrTimer(metricRegistry, name(this.metricPrefix, TIMER_APPEND_TIME));
+        this.flushTime = registerHdrTimer(metricRegistry, name(this.metricPrefix, TIMER_FLUSH_TIME));
+
+        // Only the interval durability lets Kafka flush the log on its own, the others never flush or flush explicitly.
+        final boolean flushOnInterval = durability == JournalDurability.INTERVAL;
 
         final Map<String, Object> config = ImmutableMap.<String, Object>builder()
                 // segmentSize: The soft maximum for the size of a segment file in the log
@@ -243,9 +334,9 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
                 // segmentJitterMs The maximum random jitter subtracted from segmentMs to avoid thundering herds of segment rolling
                 .put(LogConfig.SegmentJitterMsProp(), 0)
                 // flushInterval: The number of messages that can be written to the log before a flush is forced
-                .put(LogConfig.FlushMessagesProp(), flushInterval)
+                .put(LogConfig.FlushMessagesProp(), flushOnInterval ? flushInterval : Long.MAX_VALUE)
                 // flushMs: The amount of time the log can have dirty data before a flush is forced
-                .put(LogConfig.FlushMsProp(), flushAge.getMillis())
+                .put(LogConfig.FlushMsProp(), flushOnInterval ? flushAge.getMillis() : Long.MAX_VALUE)
                 // retentionSize: The approximate total number of bytes this log can use
                 .put(LogConfig.RetentionBytesProp(), retentionSize.toBytes())
                 // retentionMs: The age approximate maximum age of the last segment that is retained
@@ -267,6 +358,8 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
                 // uncleanLeaderElectionEnable Indicates whether unclean leader election is enabled; actually a controller-level property
                 //                             but included here for topic-specific configuration validation purposes
                 .put(LogConfig.UncleanLeaderElectionEnableProp(), true)
+                // compressionType: Kafka compresses every appended message set into a single message with this codec
+                .put(LogConfig.CompressionTypeProp(), compression.getKafkaCompressionType())
                 // minInSyncReplicas If number of insync replicas drops below this number, we stop accepting writes with -1 (or all) required acks
                 .put(LogConfig.MinInSyncReplicasProp(), 1)
                 .build();
@@ -296,6 +389,8 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
             }
         }
 
+        codecConfigDictionary = new CodecConfigDictionary(journalDirectory);
+
         // TODO add check for directory, etc
         committedReadOffsetFile = new File(journalDirectory.toFile(), "graylog2-committed-read-offset");
         try {
@@ -338,9 +433,19 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
             } else {
                 kafkaLog = messageLog.get();
             }
+            try {
+                checkCodecConfigDictionary();
+            } catch (IllegalStateException e) {
+                // release the journal directory lock, the journal cannot be used
+                kafkaScheduler.shutdown();
+                logManager.shutdown();
+                throw e;
+            }
 
             // Set up more metrics
             this.metricRegistry.register(name(metricPrefix, METRIC_NAME_SIZE), (Gauge<Long>) kafkaLog::size);
+            this.metricRegistry.register(name(metricPrefix, METRIC_NAME_SIZE_LOGICAL), (Gauge<Long>) this::logicalSize);
+            this.metricRegistry.register(name(metricPrefix, METRIC_NAME_COMPRESSION_RATIO), (Gauge<Double>) this::compressionRatio);
             this.metricRegistry.register(name(metricPrefix, METRIC_NAME_LOG_END_OFFSET), (Gauge<Long>) kafkaLog::logEndOffset);
             this.metricRegistry.register(name(metricPrefix, METRIC_NAME_NUMBER_OF_SEGMENTS), (Gauge<Integer>) kafkaLog::numberOfSegments);
             this.metricRegistry.register(name(metricPrefix, METRIC_NAME_UNFLUSHED_MESSAGES), (Gauge<Long>) kafkaLog::unflushedMessages);
@@ -377,6 +482,50 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         }
     }
 
+    /**
+     * Fails if unprocessed entries reference codec configurations which are missing from the dictionary, instead of
+     * dropping these entries while they are being processed. Reading every entry would take too long, so the first
+     * unprocessed entry and the last entry of every segment with unprocessed entries are checked. The dictionary is
+     * compacted if there are no unprocessed entries.
+     */
+    private void checkCodecConfigDictionary() {
+        if (getUncommittedMessages() == 0) {
+            codecConfigDictionary.compact();
+            return;
+        }
+        final long firstUnprocessedOffset = Math.max(committedOffset.get() + 1, getLogStartOffset());
+        final List<Long> offsets = new ArrayList<>();
+        offsets.add(firstUnprocessedOffset);
+        final List<Long> segmentBoundaries = new ArrayList<>();
+        for (final LogSegment segment : getSegments()) {
+            segmentBoundaries.add(segment.baseOffset());
+        }
+        segmentBoundaries.add(getLogEndOffset());
+        for (int i = 1; i < segmentBoundaries.size(); i++) {
+            final long lastOffset = segmentBoundaries.get(i) - 1;
+            if (lastOffset > firstUnprocessedOffset) {
+                offsets.add(lastOffset);
+            }
+        }
+
+        // Reading moves the read offset, it has to start at the first unprocessed entry afterwards.
+        final long readOffset = nextReadOffset;
+        try {
+            for (final long offset : offsets) {
+                for (final JournalReadEntry entry : read(offset, 1)) {
+                    codecConfigDictionary.checkResolvable(entry.getOffset(), entry.getPayload());
+                }
+            }
+        } finally {
+            nextReadOffset = readOffset;
+        }
+    }
+
+    @Override
+    public CodecConfigDictionary getCodecConfigDictionary() {
+        return codecConfigDictionary;
+    }
+
     @Override
     public void flush() {
         offsetFlusher.run();
@@ -426,16 +575,7 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
 
     private void registerUncommittedGauge(MetricRegistry metricRegistry, String name) {
         try {
-            metricRegistry.register(name,
-                    (Gauge<Long>) () -> {
-                        if (size() == 0) {
-                            return 0L;
-                        }
-                        if (committedOffset.get() == DEFAULT_COMMITTED_OFFSET) {
-                            return getLogEndOffset() - getLogStartOffset();
-                        }
-                        return Math.max(0, getLogEndOffset() - 1 - committedOffset.get());
-                    });
+            metricRegistry.register(name, (Gauge<Long>) this::getUncommittedMessages);
         } catch (IllegalArgumentException ignored) {
             // already registered, we'll ignore that.
         }
@@ -458,7 +598,11 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         this.metricRegistry.remove(name(metricPrefix, GAUGE_UNCOMMITTED_MESSAGES));
         this.metricRegistry.remove(name(metricPrefix, TIMER_WRITE_TIME));
         this.metricRegistry.remove(name(metricPrefix, TIMER_READ_TIME));
+        this.metricRegistry.remove(name(metricPrefix, TIMER_APPEND_TIME));
+        this.metricRegistry.remove(name(metricPrefix, TIMER_FLUSH_TIME));
         this.metricRegistry.remove(name(metricPrefix, METRIC_NAME_SIZE));
+        this.metricRegistry.remove(name(metricPrefix, METRIC_NAME_SIZE_LOGICAL));
+        this.metricRegistry.remove(name(metricPrefix, METRIC_NAME_COMPRESSION_RATIO));
         this.metricRegistry.remove(name(metricPrefix, METRIC_NAME_LOG_END_OFFSET));
         this.metricRegistry.remove(name(metricPrefix, METRIC_NAME_NUMBER_OF_SEGMENTS));
         this.metricRegistry.remove(name(metricPrefix, METRIC_NAME_UNFLUSHED_MESSAGES));
@@ -529,14 +673,14 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
                     continue;
                 }
 
-                // If adding the new message to the message set would overflow the max segment size, flush the current
-                // list of message to avoid a MessageSetSizeTooLargeException.
-                if ((messageSetSize + newMessageSize) > maxSegmentSize) {
+                // If adding the new message to the message set would overflow the max segment size (or the max size of
+                // a compressed batch), flush the current list of message to avoid a MessageSetSizeTooLargeException.
+                if ((messageSetSize + newMessageSize) > maxBatchSize && !messages.isEmpty()) {
                     if (LOG.isDebugEnabled()) {
-                        LOG.debug("Flushing {} bytes message set with {} messages to avoid overflowing segment with max size of {} bytes",
-                                messageSetSize, messages.size(), maxSegmentSize);
+                        LOG.debug("Flushing {} bytes message set with {} messages to avoid overflowing batch with max size of {} bytes",
+                                messageSetSize, messages.size(), maxBatchSize);
                     }
-                    lastWriteOffset = flushMessages(messages, payloadSize);
+                    lastWriteOffset = flushMessages(messages, messageSetSize, payloadSize);
                     // Reset the messages list and size counters to start a new batch.
                     messages.clear();
                     messageSetSize = 0;
@@ -552,14 +696,18 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
 
             // Flush the rest of the messages.
             if (messages.size() > 0) {
-                lastWriteOffset = flushMessages(messages, payloadSize);
+                lastWriteOffset = flushMessages(messages, messageSetSize, payloadSize);
+            }
+
+            if (durability == JournalDurability.EVERY_BATCH && lastWriteOffset >= 0) {
+                groupCommit(lastWriteOffset);
             }
 
             return lastWriteOffset;
         }
     }
 
-    private long flushMessages(List<Message> messages, long payloadSize) {
+    private long flushMessages(List<Message> messages, long messageSetSize, long payloadSize) {
         if (messages.isEmpty()) {
             LOG.debug("No messages to flush, not trying to write an empty message set.");
             return -1L;
@@ -571,8 +719,14 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
             LOG.debug("Trying to write ByteBufferMessageSet with size of {} bytes to journal", messageSet.sizeInBytes());
         }
 
-        final LogAppendInfo appendInfo = kafkaLog.append(messageSet, true);
+        final LogAppendInfo appendInfo;
+        try (Timer.Context ignored = appendTime.time()) {
+            appendInfo = kafkaLog.append(messageSet, true);
+        }
         long lastWriteOffset = appendInfo.lastOffset();
+        // The log only rolls segments while appending, so the active segment contains the appended batch.
+        logicalSegmentSizes.computeIfAbsent(kafkaLog.activeSegment().baseOffset(), baseOffset -> new LongAdder())
+                .add(messageSetSize);
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("Wrote {} messages to journal: {} bytes (payload {} bytes), log position {} to {}",
@@ -583,6 +737,31 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         return lastWriteOffset;
     }
 
+    /**
+     * Forces the log to disk up to and including the given offset.
+     * <p>
+     * Writers which wait for the lock while another writer flushes the log usually find their entries to be flushed
+     * already, so the batches of concurrent writers are committed with a single flush.
+     *
+     * @param offset the last offset written by the caller
+     */
+    private void groupCommit(long offset) {
+        // The recovery point is the offset of the first entry which has not been flushed yet.
+        if (kafkaLog.recoveryPoint() > offset) {
+            return;
+        }
+        synchronized (groupCommitLock) {
+            if (kafkaLog.recoveryPoint() > offset) {
+                return;
+            }
+            // Flush everything appended so far, including the entries of writers which are waiting for the lock.
+            final long logEndOffset = kafkaLog.logEndOffset();
+            try (Timer.Context ignored = flushTime.time()) {
+                kafkaLog.flush(logEndOffset);
+            }
+        }
+    }
+
     /**
      * Writes a single message to the journal and returns the new write position
      *
@@ -676,16 +855,26 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
                     maximumCount, readOffset, maxOffset);
 
             // TODO benchmark and make read-ahead strategy configurable for performance tuning
-            final MessageSet messageSet = kafkaLog.read(readOffset,
-                    5 * 1024 * 1024,
-                    Option.<Object>apply(maxOffset)).messageSet();
+            MessageSet messageSet = kafkaLog.read(readOffset, MAX_READ_SIZE, Option.<Object>apply(maxOffset)).messageSet();
+            if (messageSet.sizeInBytes() == 0 && readOffset < getLogEndOffset()) {
+                // A compressed batch is only returned if it ends before the maximum offset. Read the batch anyway
+                // and skip the messages beyond the maximum offset below.
+                messageSet = kafkaLog.read(readOffset, MAX_READ_SIZE, Option.<Object>empty()).messageSet();
+            }
 
-            final Iterator<MessageAndOffset> iterator = messageSet.iterator();
+            final java.util.Iterator<MessageAndOffset> iterator = deepIterator(messageSet);
             long firstOffset = Long.MIN_VALUE;
             long lastOffset = Long.MIN_VALUE;
             long totalBytes = 0;
             while (iterator.hasNext()) {
                 final MessageAndOffset messageAndOffset = iterator.next();
+                // Compressed batches are read as a whole and may contain messages outside of the requested interval.
+                if (messageAndOffset.offset() < readOffset) {
+                    continue;
+                }
+                if (messageAndOffset.offset() >= maxOffset) {
+                    break;
+                }
 
                 if (firstOffset == Long.MIN_VALUE) {
                     firstOffset = messageAndOffset.offset();
@@ -737,6 +926,35 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         return messages;
     }
 
+    /**
+     * Iterates over the messages of the message set and the messages contained in its compressed batches.
+     */
+    private static java.util.Iterator<MessageAndOffset> deepIterator(MessageSet messageSet) {
+        final Iterator<MessageAndOffset> shallowIterator = messageSet.iterator();
+        return new java.util.Iterator<MessageAndOffset>() {
+            private Iterator<MessageAndOffset> batchIterator = null;
+
+            @Override
+            public boolean hasNext() {
+                return (batchIterator != null && batchIterator.hasNext()) || shallowIterator.hasNext();
+            }
+
+            @Override
+            public MessageAndOffset next() {
+                if (batchIterator != null && batchIterator.hasNext()) {
+                    return batchIterator.next();
+                }
+                final MessageAndOffset messageAndOffset = shallowIterator.next();
+                if (messageAndOffset.message().compressionCodec() == NoCompressionCodec$.MODULE$) {
+                    batchIterator = null;
+                    return messageAndOffset;
+                }
+                batchIterator = ByteBufferMessageSet.deepIterator(messageAndOffset.message());
+                return next();
+            }
+        };
+    }
+
     /**
      * Upon fully processing, and persistently storing, a batch of messages, the system should mark the message with the
      * highest offset as committed. A background job will write the last position to disk periodically.
@@ -778,7 +996,9 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
                         kafkaLog.lastFlushTime(),
                         timeSinceLastFlush);
                 if (timeSinceLastFlush >= kafkaLog.config().flushMs()) {
-                    kafkaLog.flush();
+                    try (Timer.Context ignored = flushTime.time()) {
+                        kafkaLog.flush();
+                    }
                 }
             } catch (Exception e) {
                 LOG.error("Error flushing topic " + topicAndPartition.topic(), e);
@@ -786,6 +1006,19 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         }
     }
 
+    /**
+     * @return the number of messages in the journal which have not been committed yet
+     */
+    public long getUncommittedMessages() {
+        if (size() == 0) {
+            return 0L;
+        }
+        if (committedOffset.get() == DEFAULT_COMMITTED_OFFSET) {
+            return getLogEndOffset() - getLogStartOffset();
+        }
+        return Math.max(0, getLogEndOffset() - 1 - committedOffset.get());
+    }
+
     public long getCommittedOffset() {
         return committedOffset.get();
     }
@@ -866,6 +1099,41 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
         return kafkaLog.size();
     }
 
+    /**
+     * Returns the uncompressed journal size in bytes, i. e. the size the journal would have without compression.
+     * <p>
+     * Segments which have been written before the journal was started are counted with their size on disk.
+     *
+     * @return logical journal size in bytes
+     */
+    public long logicalSize() {
+        long size = 0L;
+        for (final LogSegment segment : getSegments()) {
+            final LongAdder logicalSegmentSize = logicalSegmentSizes.get(segment.baseOffset());
+            size += logicalSegmentSize == null ? segment.size() : logicalSegmentSize.sum();
+        }
+        return size;
+    }
+
+    /**
+     * Forgets the logical sizes of the segments which have been deleted from the journal.
+     */
+    private void pruneLogicalSegmentSizes() {
+        final Set<Long> baseOffsets = new HashSet<>();
+        for (final LogSegment segment : getSegments()) {
+            baseOffsets.add(segment.baseOffset());
+        }
+        logicalSegmentSizes.keySet().retainAll(baseOffsets);
+    }
+
+    /**
+     * @return the ratio between the logical and the on-disk size of the journal, {@code 1.0} for an empty journal
+     */
+    public double compressionRatio() {
+        final long size = size();
+        return size == 0 ? 1.0d : (double) logicalSize() / size;
+    }
+
     /**
      * Returns the number of segments this journal consists of.
      *
@@ -895,7 +1163,12 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
      * @param offset offset to truncate to, so that no offset in the journal is larger than this.
      */
     public void truncateTo(long offset) {
+        final boolean truncates = offset < kafkaLog.logEndOffset();
         kafkaLog.truncateTo(offset);
+        if (truncates) {
+            // The truncated segment is the active one now, its logical size is unknown.
+            logicalSegmentSizes.tailMap(kafkaLog.activeSegment().baseOffset(), true).clear();
+        }
     }
 
     /**
@@ -987,6 +1260,7 @@ public class LocalKafkaJournal extends AbstractIdleService implements Journal {
                         cleanupSegmentsToMaintainSize(kafkaLog) +
                         cleanupSegmentsToRemoveCommitted(kafkaLog);
             }
+            pruneLogicalSegmentSizes();
 
             loggerForCleaner.debug("Log cleanup completed. {} files deleted in {} seconds",
                     total,
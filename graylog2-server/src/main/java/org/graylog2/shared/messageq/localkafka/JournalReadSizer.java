@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.messageq.localkafka;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Derives the number of entries to read from the journal from the measured processing rate.
+ * <p>
+ * The processing rate is the number of entries handed to the process buffer per wall-clock interval of
+ * {@code sampleIntervalNanos}, smoothed with a moving average. Every read is sized to cover {@code targetReadNanos} of
+ * processing, clamped between the configured minimum and maximum read size. Until the first interval has completed,
+ * reads use the maximum read size.
+ * <p>
+ * Only the {@link #recordInsert(long, long) recording} thread updates the rate; other threads may read it.
+ */
+class JournalReadSizer {
+    // Weight of the latest sample in the moving average of the processing rate.
+    private static final double ALPHA = 0.2;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final long minReadSize;
+    private final long maxReadSize;
+    private final long targetReadNanos;
+    private final long sampleIntervalNanos;
+    private volatile double messagesPerSecond = 0;
+
+    private boolean intervalStarted = false;
+    private long intervalStartNanos;
+    private long intervalMessages;
+
+    JournalReadSizer(long minReadSize, long maxReadSize, long targetReadNanos, long sampleIntervalNanos) {
+        checkArgument(minReadSize > 0, "minReadSize must be positive");
+        checkArgument(maxReadSize >= minReadSize, "maxReadSize must not be smaller than minReadSize");
+        checkArgument(targetReadNanos > 0, "targetReadNanos must be positive");
+        checkArgument(sampleIntervalNanos > 0, "sampleIntervalNanos must be positive");
+        this.minReadSize = minReadSize;
+        this.maxReadSize = maxReadSize;
+        this.targetReadNanos = targetReadNanos;
+        this.sampleIntervalNanos = sampleIntervalNanos;
+    }
+
+    /**
+     * Records that {@code messages} entries have been handed to the process buffer at {@code nowNanos}.
+     * <p>
+     * The first call only starts the measurement. Once a sample interval has passed, the entries inserted since its
+     * start are divided by the elapsed wall-clock time, including the time spent waiting for the journal.
+     *
+     * @param messages the number of inserted entries
+     * @param nowNanos the current {@link System#nanoTime()}
+     */
+    void recordInsert(long messages, long nowNanos) {
+        if (!intervalStarted) {
+            intervalStarted = true;
+            intervalStartNanos = nowNanos;
+            intervalMessages = 0;
+            return;
+        }
+        intervalMessages += messages;
+        final long elapsedNanos = nowNanos - intervalStartNanos;
+        if (elapsedNanos < sampleIntervalNanos) {
+            return;
+        }
+        final double sample = intervalMessages * (double) NANOS_PER_SECOND / elapsedNanos;
+        final double current = messagesPerSecond;
+        messagesPerSecond = current == 0 ? sample : ALPHA * sample + (1 - ALPHA) * current;
+        intervalStartNanos = nowNanos;
+        intervalMessages = 0;
+    }
+
+    /**
+     * @return the number of entries to request with the next journal read
+     */
+    long nextReadSize() {
+        final double rate = messagesPerSecond;
+        if (rate == 0) {
+            return maxReadSize;
+        }
+        final long readSize = (long) Math.ceil(rate * targetReadNanos / NANOS_PER_SECOND);
+        return Math.max(minReadSize, Math.min(maxReadSize, readSize));
+    }
+
+    /**
+     * @param uncommittedMessages the number of journal entries which have not been processed yet
+     * @param messagesPerSecond   the rate at which journal entries are being processed
+     * @return the estimated number of seconds to process the backlog, or {@code -1} if nothing is being processed
+     */
+    static double backlogSeconds(long uncommittedMessages, double messagesPerSecond) {
+        if (uncommittedMessages <= 0) {
+            return 0;
+        }
+        if (messagesPerSecond <= 0) {
+            return -1;
+        }
+        return uncommittedMessages / messagesPerSecond;
+    }
+
+    double getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+}
@@ -17,14 +17,16 @@
 package org.graylog2.shared.messageq.localkafka;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.google.common.eventbus.EventBus;
 import com.google.common.util.concurrent.Uninterruptibles;
-import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.plugin.GlobalMetricNames;
 import org.graylog2.shared.buffers.ProcessBuffer;
 import org.graylog2.shared.journal.Journal;
+import org.graylog2.shared.journal.LocalKafkaJournal;
 import org.graylog2.shared.messageq.AbstractMessageQueueReader;
 import org.graylog2.shared.messageq.MessageQueueReader;
 import org.graylog2.shared.metrics.HdrHistogram;
@@ -35,14 +37,36 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Semaphore;
+import java.util.function.LongSupplier;
 
 import static com.codahale.metrics.MetricRegistry.name;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.graylog2.shared.metrics.MetricUtils.safelyRegister;
 
+/**
+ * Reads the journal ahead of the process buffer.
+ * <p>
+ * A prefetch thread reads chunks of journal entries into a bounded queue, from which they are inserted into the
+ * process buffer. This way the next chunk is already available when the process buffer frees up capacity, instead of
+ * the journal being read only after the previous chunk has been inserted. The size of every read is derived from the
+ * rate at which the process buffer accepts messages, so the reads follow the processing speed during catch-up rather
+ * than alternating between full and empty reads.
+ */
 @Singleton
 public class LocalKafkaMessageQueueReader extends AbstractMessageQueueReader {
     private static final Logger log = LoggerFactory.getLogger(LocalKafkaMessageQueueReader.class);
+    // Number of chunks read ahead of the process buffer.
+    private static final int PREFETCH_CHUNKS = 4;
+    private static final long MIN_READ_SIZE = 64;
+    // Every read covers roughly this much processing time.
+    private static final long TARGET_READ_NANOS = MILLISECONDS.toNanos(250);
+    // Length of the wall-clock interval over which the processing rate is measured.
+    private static final long RATE_SAMPLE_INTERVAL_NANOS = SECONDS.toNanos(1);
+
     private final Journal journal;
     private final ProcessBuffer processBuffer;
     private final Semaphore journalFilled;
@@ -51,7 +75,12 @@ public class LocalKafkaMessageQueueReader extends AbstractMessageQueueReader {
     private final Metrics readerMetrics;
     private Histogram requestedReadCount;
     private final Counter readBlocked;
+    private final BlockingQueue<List<Journal.JournalReadEntry>> prefetchQueue = new ArrayBlockingQueue<>(PREFETCH_CHUNKS);
+    private final JournalReadSizer readSizer;
+    private final LongSupplier uncommittedMessages;
     private Thread executionThread;
+    private Thread prefetchThread;
+    private volatile RuntimeException prefetchFailure;
 
     @Inject
     public LocalKafkaMessageQueueReader(Journal journal,
@@ -70,6 +99,16 @@ public class LocalKafkaMessageQueueReader extends AbstractMessageQueueReader {
         readBlocked = metricRegistry.counter(name(this.getClass(), "readBlocked"));
         readMessages = metricRegistry.meter(name(this.getClass(), "readMessages"));
         this.readerMetrics = readerMetrics;
+
+        // The prefetched chunks together hold at most as many entries as the ring buffer of the process buffer.
+        final long maxReadSize = Math.max(1L, processBuffer.getRingBufferSize() / PREFETCH_CHUNKS);
+        this.readSizer = new JournalReadSizer(Math.min(MIN_READ_SIZE, maxReadSize), maxReadSize, TARGET_READ_NANOS,
+                RATE_SAMPLE_INTERVAL_NANOS);
+        if (journal instanceof LocalKafkaJournal) {
+            this.uncommittedMessages = ((LocalKafkaJournal) journal)::getUncommittedMessages;
+        } else {
+            this.uncommittedMessages = () -> 0L;
+        }
     }
 
     @Override
@@ -85,6 +124,9 @@ public class LocalKafkaMessageQueueReader extends AbstractMessageQueueReader {
 
     @Override
     protected void triggerShutdown() {
+        if (prefetchThread != null) {
+            prefetchThread.interrupt();
+        }
         executionThread.interrupt();
     }
 
@@ -96,18 +138,73 @@ public class LocalKafkaMessageQueueReader extends AbstractMessageQueueReader {
             log.warn("Metric already exists", e);
             throw e;
         }
+        // Estimated time to process the uncommitted journal entries at the current processing rate.
+        safelyRegister(metricRegistry, GlobalMetricNames.JOURNAL_BACKLOG_SECONDS,
+                (Gauge<Double>) () -> JournalReadSizer.backlogSeconds(uncommittedMessages.getAsLong(), readMessages.getOneMinuteRate()));
+        safelyRegister(metricRegistry, name(this.getClass(), "prefetchedChunks"), (Gauge<Integer>) prefetchQueue::size);
+        safelyRegister(metricRegistry, name(this.getClass(), "processingRate"), (Gauge<Double>) readSizer::getMessagesPerSecond);
 
-        while (isRunning()) {
+        prefetchThread = new Thread(this::prefetch, "journal-prefetcher");
+        prefetchThread.setDaemon(true);
+        prefetchThread.start();
+
+        try {
+            while (isRunning()) {
+                if (!shouldBeReading()) {
+                    Uninterruptibles.sleepUninterruptibly(100, MILLISECONDS);
+                    // don't insert immediately, but check if we should be shutting down.
+                    continue;
+                }
+                final List<Journal.JournalReadEntry> encodedRawMessages;
+                try {
+                    encodedRawMessages = prefetchQueue.poll(100, MILLISECONDS);
+                } catch (InterruptedException ignored) {
+                    // the system wants to shut down, isRunning() takes care of that.
+                    continue;
+                }
+                if (encodedRawMessages == null) {
+                    final RuntimeException failure = prefetchFailure;
+                    if (failure != null) {
+                        throw new IllegalStateException("Reading from the journal failed", failure);
+                    }
+                    continue;
+                }
+                log.debug("Processing {} messages from journal.", encodedRawMessages.size());
+                // The raw messages are decoded by the process buffer processors.
+                processBuffer.insertBlocking(encodedRawMessages);
+                readSizer.recordInsert(encodedRawMessages.size(), System.nanoTime());
+            }
+        } finally {
+            prefetchThread.interrupt();
+            Uninterruptibles.joinUninterruptibly(prefetchThread, 5, SECONDS);
+        }
+        // Prefetched entries have not been committed and are read again after a restart.
+        prefetchQueue.clear();
+        log.info("Stopping.");
+    }
+
+    private void prefetch() {
+        try {
+            readAhead();
+        } catch (RuntimeException e) {
+            // Stops the reader once the already prefetched chunks have been inserted, see #run
+            log.error("Unable to read from the journal", e);
+            prefetchFailure = e;
+        }
+    }
+
+    private void readAhead() {
+        while (isRunning() && !Thread.currentThread().isInterrupted()) {
             // TODO interfere with reading if we are not 100% certain we should be reading, see #listenForLifecycleChanges
             if (!shouldBeReading()) {
                 Uninterruptibles.sleepUninterruptibly(100, MILLISECONDS);
                 // don't read immediately, but check if we should be shutting down.
                 continue;
             }
-            // approximate count to read from the journal to backfill the processing chain
-            final long remainingCapacity = processBuffer.getRemainingCapacity();
-            requestedReadCount.update(remainingCapacity);
-            final List<Journal.JournalReadEntry> encodedRawMessages = journal.read(remainingCapacity);
+            // approximate count to read from the journal to keep up with the processing chain
+            final long readSize = readSizer.nextReadSize();
+            requestedReadCount.update(readSize);
+            final List<Journal.JournalReadEntry> encodedRawMessages = journal.read(readSize);
             if (encodedRawMessages.isEmpty()) {
                 log.debug("No messages to read from Journal, waiting until the writer adds more messages.");
                 // block until something is written to the journal again
@@ -115,8 +212,8 @@ public class LocalKafkaMessageQueueReader extends AbstractMessageQueueReader {
                     readBlocked.inc();
                     journalFilled.acquire();
                 } catch (InterruptedException ignored) {
-                    // this can happen when we are blocked but the system wants to shut down. We don't have to do anything in that case.
-                    continue;
+                    // this can happen when we are blocked but the system wants to shut down.
+                    return;
                 }
                 log.debug("Messages have been written to Journal, continuing to read.");
                 // we don't care how many messages were inserted in the meantime, we'll read all of them eventually
@@ -124,23 +221,17 @@ public class LocalKafkaMessageQueueReader extends AbstractMessageQueueReader {
             } else {
                 readMessages.mark(encodedRawMessages.size());
                 readerMetrics.readMessages().mark(encodedRawMessages.size());
-                log.debug("Processing {} messages from journal.", encodedRawMessages.size());
+                long readBytes = 0L;
                 for (final Journal.JournalReadEntry encodedRawMessage : encodedRawMessages) {
-                    final RawMessage rawMessage = RawMessage.decode(encodedRawMessage.getPayload(),
-                                                                    encodedRawMessage.getOffset());
-                    readerMetrics.readBytes().mark(encodedRawMessage.getPayload().length);
-                    if (rawMessage == null) {
-                        // never insert null objects into the ringbuffer, as that is useless
-                        log.error("Found null raw message!");
-                        journal.markJournalOffsetCommitted(encodedRawMessage.getOffset());
-                        continue;
-                    }
-                    processBuffer.insertBlocking(rawMessage);
+                    readBytes += encodedRawMessage.getPayload().length;
+                }
+                readerMetrics.readBytes().mark(readBytes);
+                try {
+                    prefetchQueue.put(encodedRawMessages);
+                } catch (InterruptedException ignored) {
+                    return;
                 }
             }
         }
-        log.info("Stopping.");
     }
-
-
 }
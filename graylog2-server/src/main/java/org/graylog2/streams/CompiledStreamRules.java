@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.streams;
+
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.plugin.streams.StreamRule;
+import org.graylog2.plugin.streams.StreamRuleType;
+import org.graylog2.utilities.AhoCorasickAutomaton;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Pre-compiled representation of the stream rules of a list of streams.
+ *
+ * EXACT and MATCH_INPUT rules are resolved with per-field hash lookups, CONTAINS rules and REGEX rules which are plain
+ * literals are resolved with one {@link AhoCorasickAutomaton} per field. All other rules are evaluated one by one,
+ * but only for streams which haven't been decided by the indexed rules yet.
+ *
+ * Rule IDs are assigned contiguously per stream, indexed rules first, so that the AND/OR result of a stream can be
+ * computed with {@link BitSet} range operations.
+ *
+ * The execution timers of indexed rules are updated with the duration of the lookup in the index of their field, and
+ * a failing lookup marks the exception meters of the streams of the rules in that index, just like a failing rule
+ * in the regular evaluation.
+ *
+ * This class is thread-safe.
+ */
+class CompiledStreamRules {
+    private static final Pattern REGEX_META_CHARS = Pattern.compile("[\\\\^$.|?*+()\\[\\]{}]");
+
+    private final List<Stream> streams;
+    private final boolean[] andMatching;
+    private final int[] ruleStart;
+    private final int[] indexedEnd;
+    private final int[] ruleEnd;
+    private final int ruleCount;
+    private final BitSet invertedRules;
+    private final Map<String, Map<String, int[]>> exactIndex;
+    private final Map<String, int[]> inputIndex;
+    private final Map<String, AhoCorasickAutomaton> containsAutomata;
+    private final Map<String, int[]> exactIndexRules;
+    private final int[] inputIndexRules;
+    private final Map<String, int[]> containsAutomataRules;
+    private final List<Predicate<Message>> evaluators;
+    private final List<Timer> indexedRuleTimers;
+    private final List<String> indexedRuleStreamIds;
+    private final StreamMetrics streamMetrics;
+
+    /**
+     * @param streams          the streams to compile
+     * @param evaluatorFactory creates the evaluator for rules which cannot be indexed, returns {@code null} for
+     *                         invalid rules which should be skipped
+     * @param streamMetrics    the metrics to update for indexed rules
+     */
+    CompiledStreamRules(List<Stream> streams,
+                        BiFunction<Stream, StreamRule, Predicate<Message>> evaluatorFactory,
+                        StreamMetrics streamMetrics) {
+        this.streams = ImmutableList.copyOf(streams);
+        this.streamMetrics = streamMetrics;
+        this.andMatching = new boolean[streams.size()];
+        this.ruleStart = new int[streams.size()];
+        this.indexedEnd = new int[streams.size()];
+        this.ruleEnd = new int[streams.size()];
+        this.invertedRules = new BitSet();
+        this.evaluators = new ArrayList<>();
+        this.indexedRuleTimers = new ArrayList<>();
+        this.indexedRuleStreamIds = new ArrayList<>();
+
+        final Map<String, Map<String, List<Integer>>> exactRules = new HashMap<>();
+        final Map<String, List<Integer>> inputRules = new HashMap<>();
+        final Map<String, AhoCorasickAutomaton.Builder> containsRules = new HashMap<>();
+        final Map<String, List<Integer>> exactFieldRules = new HashMap<>();
+        final List<Integer> allInputRules = new ArrayList<>();
+        final Map<String, List<Integer>> containsFieldRules = new HashMap<>();
+
+        int ruleId = 0;
+        for (int i = 0; i < streams.size(); i++) {
+            final Stream stream = streams.get(i);
+            andMatching[i] = stream.getMatchingType() == Stream.MatchingType.AND;
+            ruleStart[i] = ruleId;
+
+            final List<Predicate<Message>> streamEvaluators = new ArrayList<>();
+            for (StreamRule streamRule : stream.getStreamRules()) {
+                if (!isIndexable(streamRule)) {
+                    final Predicate<Message> evaluator = evaluatorFactory.apply(stream, streamRule);
+                    if (evaluator != null) {
+                        streamEvaluators.add(evaluator);
+                    }
+                    continue;
+                }
+
+                final String field = streamRule.getField();
+                final String value = streamRule.getValue();
+                switch (streamRule.getType()) {
+                    case EXACT:
+                        if (value != null) {
+                            exactRules.computeIfAbsent(field, k -> new HashMap<>())
+                                    .computeIfAbsent(value, k -> new ArrayList<>())
+                                    .add(ruleId);
+                        }
+                        exactFieldRules.computeIfAbsent(field, k -> new ArrayList<>()).add(ruleId);
+                        break;
+                    case MATCH_INPUT:
+                        if (value != null) {
+                            inputRules.computeIfAbsent(value.toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(ruleId);
+                        }
+                        allInputRules.add(ruleId);
+                        break;
+                    case CONTAINS:
+                    case REGEX:
+                        containsRules.computeIfAbsent(field, k -> AhoCorasickAutomaton.builder()).add(value, ruleId);
+                        containsFieldRules.computeIfAbsent(field, k -> new ArrayList<>()).add(ruleId);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unexpected indexed rule type: " + streamRule.getType());
+                }
+                if (streamRule.getInverted()) {
+                    invertedRules.set(ruleId);
+                }
+                evaluators.add(null);
+                indexedRuleTimers.add(streamMetrics.getExecutionTimer(stream.getId(), streamRule.getId()));
+                indexedRuleStreamIds.add(stream.getId());
+                ruleId++;
+            }
+
+            indexedEnd[i] = ruleId;
+            evaluators.addAll(streamEvaluators);
+            for (int j = 0; j < streamEvaluators.size(); j++) {
+                // The regular evaluator updates the metrics of the rule itself
+                indexedRuleTimers.add(null);
+                indexedRuleStreamIds.add(null);
+            }
+            ruleId += streamEvaluators.size();
+            ruleEnd[i] = ruleId;
+        }
+
+        this.ruleCount = ruleId;
+        this.exactIndex = new HashMap<>(exactRules.size());
+        exactRules.forEach((field, values) -> {
+            final Map<String, int[]> index = new HashMap<>(values.size());
+            values.forEach((value, ids) -> index.put(value, toArray(ids)));
+            exactIndex.put(field, index);
+        });
+        this.inputIndex = new HashMap<>(inputRules.size());
+        inputRules.forEach((value, ids) -> inputIndex.put(value, toArray(ids)));
+        this.containsAutomata = new HashMap<>(containsRules.size());
+        containsRules.forEach((field, builder) -> containsAutomata.put(field, builder.build()));
+
+        this.exactIndexRules = new HashMap<>(exactFieldRules.size());
+        exactFieldRules.forEach((field, ids) -> exactIndexRules.put(field, toArray(ids)));
+        this.inputIndexRules = toArray(allInputRules);
+        this.containsAutomataRules = new HashMap<>(containsFieldRules.size());
+        containsFieldRules.forEach((field, ids) -> containsAutomataRules.put(field, toArray(ids)));
+    }
+
+    private static boolean isIndexable(StreamRule streamRule) {
+        final StreamRuleType type = streamRule.getType();
+        if (type == StreamRuleType.MATCH_INPUT) {
+            return true;
+        }
+        if (streamRule.getField() == null) {
+            return false;
+        }
+        switch (type) {
+            case EXACT:
+                return true;
+            case CONTAINS:
+                // A null value makes the matcher fail with an exception, keep that behavior in the regular evaluator.
+                return streamRule.getValue() != null;
+            case REGEX:
+                // A regular expression without any meta characters is a plain substring search.
+                return streamRule.getValue() != null && !REGEX_META_CHARS.matcher(streamRule.getValue()).find();
+            default:
+                return false;
+        }
+    }
+
+    private static int[] toArray(List<Integer> ids) {
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    int getRuleCount() {
+        return ruleCount;
+    }
+
+    /**
+     * Returns the list of matching streams for the given message, in the order of the compiled streams.
+     */
+    List<Stream> match(Message message) {
+        final BitSet satisfied = new BitSet(ruleCount);
+        final BitSet failed = new BitSet(ruleCount);
+
+        for (Map.Entry<String, Map<String, int[]>> entry : exactIndex.entrySet()) {
+            final int[] ruleIds = exactIndexRules.get(entry.getKey());
+            final long start = System.nanoTime();
+            try {
+                final Object value = message.getField(entry.getKey());
+                if (value != null) {
+                    setAll(satisfied, entry.getValue().get(value.toString().trim()));
+                }
+            } catch (Exception e) {
+                markFailed(failed, ruleIds);
+            } finally {
+                recordTiming(ruleIds, System.nanoTime() - start);
+            }
+        }
+
+        if (!inputIndex.isEmpty()) {
+            final long start = System.nanoTime();
+            try {
+                final Object input = message.getField(Message.FIELD_GL2_SOURCE_INPUT);
+                if (input != null) {
+                    setAll(satisfied, inputIndex.get(input.toString().trim().toLowerCase(Locale.ROOT)));
+                }
+            } catch (Exception e) {
+                markFailed(failed, inputIndexRules);
+            } finally {
+                recordTiming(inputIndexRules, System.nanoTime() - start);
+            }
+        }
+
+        for (Map.Entry<String, AhoCorasickAutomaton> entry : containsAutomata.entrySet()) {
+            final int[] ruleIds = containsAutomataRules.get(entry.getKey());
+            final long start = System.nanoTime();
+            try {
+                final Object value = message.getField(entry.getKey());
+                if (value != null) {
+                    entry.getValue().search(value.toString(), satisfied::set);
+                }
+            } catch (Exception e) {
+                markFailed(failed, ruleIds);
+            } finally {
+                recordTiming(ruleIds, System.nanoTime() - start);
+            }
+        }
+
+        // An inverted rule is satisfied if its positive condition didn't hit, including a missing field.
+        satisfied.xor(invertedRules);
+        // Like in the regular evaluation, a rule which failed with an exception doesn't match, even if it's inverted.
+        satisfied.andNot(failed);
+
+        final ImmutableList.Builder<Stream> result = ImmutableList.builder();
+        for (int i = 0; i < streams.size(); i++) {
+            if (matches(i, message, satisfied)) {
+                result.add(streams.get(i));
+            }
+        }
+        return result.build();
+    }
+
+    private boolean matches(int streamIdx, Message message, BitSet satisfied) {
+        final int start = ruleStart[streamIdx];
+        final int indexed = indexedEnd[streamIdx];
+        final int end = ruleEnd[streamIdx];
+
+        if (start == end) {
+            // Streams without any valid rules never match.
+            return false;
+        }
+
+        if (andMatching[streamIdx]) {
+            if (satisfied.nextClearBit(start) < indexed) {
+                return false;
+            }
+            for (int ruleId = indexed; ruleId < end; ruleId++) {
+                if (!evaluators.get(ruleId).test(message)) {
+                    return false;
+                }
+            }
+            return true;
+        } else {
+            final int firstSatisfied = satisfied.nextSetBit(start);
+            if (firstSatisfied >= 0 && firstSatisfied < indexed) {
+                return true;
+            }
+            for (int ruleId = indexed; ruleId < end; ruleId++) {
+                if (evaluators.get(ruleId).test(message)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private void recordTiming(int[] ruleIds, long elapsedNanos) {
+        for (int ruleId : ruleIds) {
+            indexedRuleTimers.get(ruleId).update(elapsedNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void markFailed(BitSet failed, int[] ruleIds) {
+        for (int ruleId : ruleIds) {
+            failed.set(ruleId);
+            streamMetrics.markExceptionMeter(indexedRuleStreamIds.get(ruleId));
+        }
+    }
+
+    private static void setAll(BitSet bitSet, @Nullable int[] ids) {
+        if (ids != null) {
+            for (int id : ids) {
+                bitSet.set(id);
+            }
+        }
+    }
+}
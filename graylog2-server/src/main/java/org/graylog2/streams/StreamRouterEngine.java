@@ -38,7 +38,9 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Provider;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
@@ -46,6 +48,7 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
@@ -68,6 +71,7 @@ public class StreamRouterEngine {
     private final Provider<Stream> defaultStreamProvider;
 
     private final List<Rule> rulesList;
+    private final CompiledStreamRules compiledRules;
     private final Counter cannotRemoveDefaultMeter;
 
     public interface Factory {
@@ -80,7 +84,8 @@ public class StreamRouterEngine {
                               StreamFaultManager streamFaultManager,
                               StreamMetrics streamMetrics,
                               @DefaultStream Provider<Stream> defaultStreamProvider,
-                              MetricRegistry metricRegistry) {
+                              MetricRegistry metricRegistry,
+                              @Named("stream_router_compiled") boolean compiled) {
         this.streams = streams;
         this.streamFaultManager = streamFaultManager;
         this.streamMetrics = streamMetrics;
@@ -147,6 +152,36 @@ public class StreamRouterEngine {
         this.rulesList.addAll(smallerRules);
         this.rulesList.addAll(containsRules);
         this.rulesList.addAll(regexRules);
+
+        this.compiledRules = compiled ? new CompiledStreamRules(streams, this::createRuleEvaluator, streamMetrics) : null;
+    }
+
+    @Nullable
+    private Predicate<Message> createRuleEvaluator(Stream stream, StreamRule streamRule) {
+        final Rule rule;
+        try {
+            rule = new Rule(stream, streamRule, stream.getMatchingType());
+        } catch (InvalidStreamRuleTypeException e) {
+            LOG.warn("Invalid stream rule type. Skipping matching for this rule. " + e.getMessage(), e);
+            return null;
+        }
+
+        final StreamRuleType streamRuleType = streamRule.getType();
+        final boolean needsFieldPresence = !ruleTypesNotNeedingFieldPresence.contains(streamRuleType);
+        if (streamRuleType == StreamRuleType.REGEX) {
+            return message -> rule.matchWithTimeOut(message, streamProcessingTimeout, TimeUnit.MILLISECONDS) != null;
+        } else if (needsFieldPresence) {
+            return message -> message.hasField(streamRule.getField()) && rule.match(message) != null;
+        } else {
+            return message -> rule.match(message) != null;
+        }
+    }
+
+    /**
+     * Returns {@code true} if the engine uses the compiled, index-driven rule evaluation.
+     */
+    public boolean isCompiled() {
+        return compiledRules != null;
     }
 
     /**
@@ -174,6 +209,43 @@ public class StreamRouterEngine {
      * @return the list of matching streams
      */
     public List<Stream> match(Message message) {
+        final Collection<Stream> result = compiledRules != null ? compiledRules.match(message) : matchRules(message);
+
+        final Stream defaultStream = defaultStreamProvider.get();
+        boolean alreadyRemovedDefaultStream = false;
+        for (Stream stream : result) {
+            streamMetrics.markIncomingMeter(stream.getId());
+            if (stream.getRemoveMatchesFromDefaultStream()) {
+                if (alreadyRemovedDefaultStream || message.removeStream(defaultStream)) {
+                    alreadyRemovedDefaultStream = true;
+                    if (LOG.isTraceEnabled()) {
+                        LOG.trace("Successfully removed default stream <{}> from message <{}>", defaultStream.getId(), message.getId());
+                    }
+                } else {
+                    // A previously executed message processor (or Illuminate) has likely already removed the
+                    // default stream from the message. Now, the message has matched a stream in the Graylog
+                    // MessageFilterChain, and the matching stream is also set to remove the default stream.
+                    // This is usually from user-defined stream rules, and is generally not a problem.
+                    cannotRemoveDefaultMeter.inc();
+                    if (LOG.isTraceEnabled()) {
+                        LOG.trace("Couldn't remove default stream <{}> from message <{}>", defaultStream.getId(), message.getId());
+                    }
+                }
+            }
+        }
+        // either the message stayed on the default stream, in which case we mark that stream's throughput,
+        // or someone removed it, in which case we don't mark it.
+        if (!alreadyRemovedDefaultStream) {
+            streamMetrics.markIncomingMeter(defaultStream.getId());
+        }
+
+        return ImmutableList.copyOf(result);
+    }
+
+    /**
+     * Evaluates the rules one by one and returns the matching streams.
+     */
+    private Set<Stream> matchRules(Message message) {
         final Set<Stream> result = Sets.newHashSet();
         final Set<String> blackList = Sets.newHashSet();
 
@@ -218,35 +290,7 @@ public class StreamRouterEngine {
             }
         }
 
-        final Stream defaultStream = defaultStreamProvider.get();
-        boolean alreadyRemovedDefaultStream = false;
-        for (Stream stream : result) {
-            streamMetrics.markIncomingMeter(stream.getId());
-            if (stream.getRemoveMatchesFromDefaultStream()) {
-                if (alreadyRemovedDefaultStream || message.removeStream(defaultStream)) {
-                    alreadyRemovedDefaultStream = true;
-                    if (LOG.isTraceEnabled()) {
-                        LOG.trace("Successfully removed default stream <{}> from message <{}>", defaultStream.getId(), message.getId());
-                    }
-                } else {
-                    // A previously executed message processor (or Illuminate) has likely already removed the
-                    // default stream from the message. Now, the message has matched a stream in the Graylog
-                    // MessageFilterChain, and the matching stream is also set to remove the default stream.
-                    // This is usually from user-defined stream rules, and is generally not a problem.
-                    cannotRemoveDefaultMeter.inc();
-                    if (LOG.isTraceEnabled()) {
-                        LOG.trace("Couldn't remove default stream <{}> from message <{}>", defaultStream.getId(), message.getId());
-                    }
-                }
-            }
-        }
-        // either the message stayed on the default stream, in which case we mark that stream's throughput,
-        // or someone removed it, in which case we don't mark it.
-        if (!alreadyRemovedDefaultStream) {
-            streamMetrics.markIncomingMeter(defaultStream.getId());
-        }
-
-        return ImmutableList.copyOf(result);
+        return result;
     }
 
     /**
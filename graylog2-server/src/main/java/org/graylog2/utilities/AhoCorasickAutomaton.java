@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.utilities;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Multi-pattern substring matcher based on the Aho-Corasick algorithm.
+ *
+ * Every pattern is registered with an integer ID. {@link #search(CharSequence, IntConsumer)} reports the ID of every
+ * pattern that occurs in the given text with a single pass over the text, independent of the number of patterns.
+ * IDs can be reported more than once if a pattern occurs multiple times.
+ *
+ * Instances are immutable and thread-safe.
+ */
+public class AhoCorasickAutomaton {
+    private static final int[] NO_OUTPUT = new int[0];
+
+    // Transitions of every node, sorted by character to allow a binary search.
+    private final char[][] transitionChars;
+    private final int[][] transitionTargets;
+    private final int[] failure;
+    private final int[][] output;
+    private final int[] emptyPatternIds;
+
+    private AhoCorasickAutomaton(char[][] transitionChars,
+                                 int[][] transitionTargets,
+                                 int[] failure,
+                                 int[][] output,
+                                 int[] emptyPatternIds) {
+        this.transitionChars = transitionChars;
+        this.transitionTargets = transitionTargets;
+        this.failure = failure;
+        this.output = output;
+        this.emptyPatternIds = emptyPatternIds;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Reports the IDs of all patterns contained in the given text to the consumer.
+     *
+     * @param text     the text to search in
+     * @param consumer receives the ID of every matching pattern
+     */
+    public void search(CharSequence text, IntConsumer consumer) {
+        for (int id : emptyPatternIds) {
+            consumer.accept(id);
+        }
+
+        int state = 0;
+        final int length = text.length();
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            int next = transition(state, c);
+            while (next < 0 && state != 0) {
+                state = failure[state];
+                next = transition(state, c);
+            }
+            state = next < 0 ? 0 : next;
+
+            for (int id : output[state]) {
+                consumer.accept(id);
+            }
+        }
+    }
+
+    private int transition(int state, char c) {
+        final int idx = Arrays.binarySearch(transitionChars[state], c);
+        return idx < 0 ? -1 : transitionTargets[state][idx];
+    }
+
+    public static class Builder {
+        private final List<Map<Character, Integer>> trie = new ArrayList<>();
+        private final List<List<Integer>> outputs = new ArrayList<>();
+        private final List<Integer> emptyPatternIds = new ArrayList<>();
+
+        private Builder() {
+            addNode();
+        }
+
+        /**
+         * Registers a pattern with the given ID. The same pattern can be added multiple times with different IDs.
+         */
+        public Builder add(String pattern, int id) {
+            requireNonNull(pattern, "pattern cannot be null");
+            if (pattern.isEmpty()) {
+                // The empty string is contained in every text.
+                emptyPatternIds.add(id);
+                return this;
+            }
+
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                final char c = pattern.charAt(i);
+                final Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    final int newState = addNode();
+                    trie.get(state).put(c, newState);
+                    state = newState;
+                } else {
+                    state = next;
+                }
+            }
+            outputs.get(state).add(id);
+            return this;
+        }
+
+        private int addNode() {
+            trie.add(new TreeMap<>());
+            outputs.add(new ArrayList<>());
+            return trie.size() - 1;
+        }
+
+        public AhoCorasickAutomaton build() {
+            final int size = trie.size();
+            final char[][] transitionChars = new char[size][];
+            final int[][] transitionTargets = new int[size][];
+            final int[] failure = new int[size];
+            final int[][] output = new int[size][];
+
+            for (int node = 0; node < size; node++) {
+                final Map<Character, Integer> transitions = trie.get(node);
+                final char[] chars = new char[transitions.size()];
+                final int[] targets = new int[transitions.size()];
+                int i = 0;
+                // TreeMap iteration order keeps the characters sorted.
+                for (Map.Entry<Character, Integer> entry : transitions.entrySet()) {
+                    chars[i] = entry.getKey();
+                    targets[i] = entry.getValue();
+                    i++;
+                }
+                transitionChars[node] = chars;
+                transitionTargets[node] = targets;
+            }
+
+            // Breadth-first traversal guarantees that the failure target of a node has been completed before the node.
+            final Deque<Integer> queue = new ArrayDeque<>();
+            output[0] = NO_OUTPUT;
+            for (int child : transitionTargets[0]) {
+                failure[child] = 0;
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                final int node = queue.poll();
+                output[node] = mergeOutputs(outputs.get(node), output[failure[node]]);
+
+                final char[] chars = transitionChars[node];
+                final int[] targets = transitionTargets[node];
+                for (int i = 0; i < chars.length; i++) {
+                    final int child = targets[i];
+                    int fallback = failure[node];
+                    int candidate = findTransition(transitionChars, transitionTargets, fallback, chars[i]);
+                    while (candidate < 0 && fallback != 0) {
+                        fallback = failure[fallback];
+                        candidate = findTransition(transitionChars, transitionTargets, fallback, chars[i]);
+                    }
+                    failure[child] = candidate < 0 ? 0 : candidate;
+                    queue.add(child);
+                }
+            }
+
+            return new AhoCorasickAutomaton(transitionChars, transitionTargets, failure, output,
+                    emptyPatternIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        private static int findTransition(char[][] transitionChars, int[][] transitionTargets, int state, char c) {
+            final int idx = Arrays.binarySearch(transitionChars[state], c);
+            return idx < 0 ? -1 : transitionTargets[state][idx];
+        }
+
+        private static int[] mergeOutputs(List<Integer> own, int[] inherited) {
+            if (own.isEmpty()) {
+                return inherited;
+            }
+            final int[] merged = new int[own.size() + inherited.length];
+            for (int i = 0; i < own.size(); i++) {
+                merged[i] = own.get(i);
+            }
+            System.arraycopy(inherited, 0, merged, own.size(), inherited.length);
+            return merged;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.utilities;
+
+import com.google.common.net.InetAddresses;
+
+import javax.annotation.Nullable;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+
+/**
+ * Longest-prefix-match lookup table for IPv4 and IPv6 CIDR ranges.
+ *
+ * The ranges are stored in a path-compressed binary radix trie per address family. Every node covers a prefix of
+ * the address bits, nodes with a single child are merged into their parent, so a lookup visits at most one node
+ * per distinct prefix length on the path to the address instead of one node per bit. Addresses are kept in two
+ * {@code long}s, so matching a node against an address is a couple of bit operations without any allocation.
+ *
+ * Ranges are added while building the table, it must not be modified anymore after it has been published to other
+ * threads. Lookups are thread-safe.
+ *
+ * @param <V> the type of the values associated with the ranges
+ */
+public class IpPrefixTrie<V> {
+    private static final int IPV4_BITS = 32;
+    private static final int IPV6_BITS = 128;
+
+    private Node<V> ipv4Root;
+    private Node<V> ipv6Root;
+    private int size;
+
+    /**
+     * Adds a range in CIDR notation, e. g. {@code 192.168.0.0/16} or {@code 2001:db8::/32}. A single IP address
+     * is added as a range containing only this address. Host bits of the address are ignored.
+     * If the table already contains a value for the range, the existing value is kept.
+     *
+     * @param cidr  the range in CIDR notation or a single IP address
+     * @param value the value of the range
+     * @return {@code true} if the range has been added, {@code false} if it already existed
+     * @throws IllegalArgumentException if the range isn't valid
+     */
+    public boolean add(String cidr, V value) {
+        final int separator = cidr.indexOf('/');
+        final InetAddress address = InetAddresses.forString(separator < 0 ? cidr : cidr.substring(0, separator));
+        final int bits = bitsOf(address);
+        final int prefixLength;
+        if (separator < 0) {
+            prefixLength = bits;
+        } else {
+            try {
+                prefixLength = Integer.parseInt(cidr.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid prefix length in CIDR range <" + cidr + ">", e);
+            }
+        }
+        return add(address, prefixLength, value);
+    }
+
+    /**
+     * Adds the range of the given network address and prefix length.
+     *
+     * @see #add(String, Object)
+     */
+    public boolean add(InetAddress address, int prefixLength, V value) {
+        final int bits = bitsOf(address);
+        if (prefixLength < 0 || prefixLength > bits) {
+            throw new IllegalArgumentException("Invalid prefix length <" + prefixLength + "> for address <" + address.getHostAddress() + ">");
+        }
+        final byte[] bytes = address.getAddress();
+        final long hi = high(bytes);
+        final long lo = low(bytes);
+
+        final Node<V> root = bits == IPV4_BITS ? ipv4Root : ipv6Root;
+        final Node<V> newRoot = insert(root, hi & highMask(prefixLength), lo & lowMask(prefixLength), prefixLength, value);
+        if (newRoot == null) {
+            return false;
+        }
+        if (bits == IPV4_BITS) {
+            ipv4Root = newRoot;
+        } else {
+            ipv6Root = newRoot;
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * Returns the value of the most specific range containing the given address.
+     *
+     * @param address the IP address to look up
+     * @return the value of the longest matching prefix or {@code null} if no range contains the address
+     */
+    @Nullable
+    public V find(InetAddress address) {
+        final byte[] bytes = address.getAddress();
+        final long hi = high(bytes);
+        final long lo = low(bytes);
+
+        Node<V> node = bytes.length == 4 ? ipv4Root : ipv6Root;
+        V match = null;
+        while (node != null && node.matches(hi, lo)) {
+            if (node.hasValue) {
+                match = node.value;
+            }
+            if (node.prefixLength == bytes.length * 8) {
+                break;
+            }
+            node = bit(hi, lo, node.prefixLength) == 0 ? node.left : node.right;
+        }
+        return match;
+    }
+
+    /**
+     * Returns the value of the most specific range containing the given IP address.
+     *
+     * @param address the textual representation of an IP address, host names are not resolved
+     * @return the value of the longest matching prefix or {@code null} if no range contains the address
+     * @throws IllegalArgumentException if the given string isn't an IP address
+     */
+    @Nullable
+    public V find(String address) {
+        return find(InetAddresses.forString(address));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Inserts the prefix into the subtree of the given node.
+     *
+     * @return the (new) root of the subtree or {@code null} if the prefix already exists
+     */
+    @Nullable
+    private static <V> Node<V> insert(@Nullable Node<V> root, long hi, long lo, int prefixLength, V value) {
+        if (root == null) {
+            return new Node<>(hi, lo, prefixLength, value);
+        }
+
+        Node<V> parent = null;
+        Node<V> node = root;
+        while (true) {
+            final int common = commonPrefixLength(node.hi, node.lo, hi, lo, Math.min(node.prefixLength, prefixLength));
+            if (common < node.prefixLength) {
+                // The new prefix diverges from the node or is a prefix of it, split the path above the node.
+                final Node<V> split;
+                if (common == prefixLength) {
+                    split = new Node<>(hi, lo, prefixLength, value);
+                } else {
+                    split = new Node<>(hi & highMask(common), lo & lowMask(common), common);
+                    split.setChild(bit(hi, lo, common), new Node<>(hi, lo, prefixLength, value));
+                }
+                split.setChild(bit(node.hi, node.lo, common), node);
+                if (parent == null) {
+                    return split;
+                }
+                parent.setChild(bit(hi, lo, parent.prefixLength), split);
+                return root;
+            }
+
+            if (node.prefixLength == prefixLength) {
+                if (node.hasValue) {
+                    return null;
+                }
+                node.setValue(value);
+                return root;
+            }
+
+            final int direction = bit(hi, lo, node.prefixLength);
+            final Node<V> child = direction == 0 ? node.left : node.right;
+            if (child == null) {
+                node.setChild(direction, new Node<>(hi, lo, prefixLength, value));
+                return root;
+            }
+            parent = node;
+            node = child;
+        }
+    }
+
+    private static int bitsOf(InetAddress address) {
+        return address instanceof Inet4Address ? IPV4_BITS : IPV6_BITS;
+    }
+
+    // IPv4 addresses are stored in the upper 32 bits of the high word.
+    private static long high(byte[] bytes) {
+        long result = 0L;
+        for (int i = 0; i < 8; i++) {
+            result <<= 8;
+            if (i < bytes.length) {
+                result |= bytes[i] & 0xFFL;
+            }
+        }
+        return result;
+    }
+
+    private static long low(byte[] bytes) {
+        long result = 0L;
+        for (int i = 8; i < bytes.length; i++) {
+            result = (result << 8) | (bytes[i] & 0xFFL);
+        }
+        return result;
+    }
+
+    private static long highMask(int prefixLength) {
+        if (prefixLength >= 64) {
+            return -1L;
+        }
+        return prefixLength == 0 ? 0L : -1L << (64 - prefixLength);
+    }
+
+    private static long lowMask(int prefixLength) {
+        if (prefixLength <= 64) {
+            return 0L;
+        }
+        return prefixLength >= 128 ? -1L : -1L << (128 - prefixLength);
+    }
+
+    private static int bit(long hi, long lo, int index) {
+        return (int) (index < 64 ? hi >>> (63 - index) : lo >>> (127 - index)) & 1;
+    }
+
+    private static int commonPrefixLength(long hi1, long lo1, long hi2, long lo2, int max) {
+        final long high = hi1 ^ hi2;
+        final int common = high != 0L ? Long.numberOfLeadingZeros(high) : 64 + Long.numberOfLeadingZeros(lo1 ^ lo2);
+        return Math.min(common, max);
+    }
+
+    private static class Node<V> {
+        private final long hi;
+        private final long lo;
+        private final long highMask;
+        private final long lowMask;
+        private final int prefixLength;
+        private boolean hasValue;
+        private V value;
+        private Node<V> left;
+        private Node<V> right;
+
+        private Node(long hi, long lo, int prefixLength) {
+            this.hi = hi;
+            this.lo = lo;
+            this.prefixLength = prefixLength;
+            this.highMask = highMask(prefixLength);
+            this.lowMask = lowMask(prefixLength);
+        }
+
+        private Node(long hi, long lo, int prefixLength, V value) {
+            this(hi, lo, prefixLength);
+            setValue(value);
+        }
+
+        private boolean matches(long hi, long lo) {
+            return ((hi ^ this.hi) & highMask) == 0L && ((lo ^ this.lo) & lowMask) == 0L;
+        }
+
+        private void setValue(V value) {
+            this.value = value;
+            this.hasValue = true;
+        }
+
+        private void setChild(int direction, Node<V> child) {
+            if (direction == 0) {
+                left = child;
+            } else {
+                right = child;
+            }
+        }
+    }
+}
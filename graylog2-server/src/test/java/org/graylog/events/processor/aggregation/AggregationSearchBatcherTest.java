@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.aggregation;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.events.EventsConfigurationTestProvider;
+import org.graylog.events.JobSchedulerTestClock;
+import org.graylog.events.notifications.EventNotificationSettings;
+import org.graylog.events.processor.DBEventDefinitionService;
+import org.graylog.events.processor.EventDefinitionDto;
+import org.graylog.events.processor.EventProcessorException;
+import org.graylog.events.processor.EventProcessorExecutionJob;
+import org.graylog.events.search.MoreSearch;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.QueryResult;
+import org.graylog.plugins.views.search.SearchJob;
+import org.graylog.plugins.views.search.SearchType;
+import org.graylog.plugins.views.search.db.SearchJobService;
+import org.graylog.plugins.views.search.engine.QueryEngine;
+import org.graylog.plugins.views.search.errors.SearchTypeError;
+import org.graylog.plugins.views.search.rest.PermittedStreams;
+import org.graylog.plugins.views.search.searchtypes.pivot.PivotResult;
+import org.graylog.scheduler.DBJobDefinitionService;
+import org.graylog.scheduler.DBJobTriggerService;
+import org.graylog.scheduler.JobDefinitionDto;
+import org.graylog.scheduler.JobTriggerDto;
+import org.graylog.scheduler.JobTriggerStatus;
+import org.graylog.scheduler.schedule.IntervalJobSchedule;
+import org.graylog2.notifications.NotificationImpl;
+import org.graylog2.notifications.NotificationService;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.graylog2.plugin.streams.Stream;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AggregationSearchBatcherTest {
+    private static final long WINDOW_LENGTH = 60000;
+
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private DBJobTriggerService jobTriggerService;
+    @Mock
+    private DBJobDefinitionService jobDefinitionService;
+    @Mock
+    private DBEventDefinitionService eventDefinitionService;
+    @Mock
+    private SearchJobService searchJobService;
+    @Mock
+    private QueryEngine queryEngine;
+    @Mock
+    private MoreSearch moreSearch;
+    @Mock
+    private NotificationService notificationService;
+
+    private final DateTime now = DateTime.now(DateTimeZone.UTC);
+    private final AbsoluteRange timerange = AbsoluteRange.create(now.minus(WINDOW_LENGTH), now);
+    private final PermittedStreams permittedStreams = new PermittedStreams(java.util.stream.Stream::of);
+    private final List<JobTriggerDto> triggers = new ArrayList<>();
+    private final List<JobDefinitionDto> jobDefinitions = new ArrayList<>();
+    private final List<EventDefinitionDto> eventDefinitions = new ArrayList<>();
+
+    private MetricRegistry metricRegistry;
+    private AggregationSearchBatcher batcher;
+
+    @Before
+    public void setUp() {
+        final Map<String, Stream> streams = ImmutableSet.of("stream-a", "stream-b").stream()
+                .collect(Collectors.toMap(Function.identity(), id -> {
+                    final Stream stream = mock(Stream.class);
+                    when(stream.getId()).thenReturn(id);
+                    return stream;
+                }));
+        when(moreSearch.loadStreams(anySet())).thenAnswer(invocation -> ((Set<String>) invocation.getArgument(0)).stream()
+                .map(streams::get)
+                .collect(Collectors.toSet()));
+        when(searchJobService.create(any(), anyString())).thenAnswer(invocation ->
+                new SearchJob("job-" + triggers.size(), invocation.getArgument(0), invocation.getArgument(1)));
+        when(queryEngine.execute(any(), anySet())).thenAnswer(invocation -> completedSearchJob(invocation.getArgument(0)));
+        when(notificationService.buildNow()).thenAnswer(invocation -> new NotificationImpl());
+
+        when(jobTriggerService.findDueTriggers(EventProcessorExecutionJob.TYPE_NAME)).thenReturn(triggers);
+        when(jobDefinitionService.streamByIds(anySet())).thenAnswer(invocation -> jobDefinitions.stream());
+        when(eventDefinitionService.streamByIds(anySet())).thenAnswer(invocation -> eventDefinitions.stream());
+
+        metricRegistry = new MetricRegistry();
+        batcher = new AggregationSearchBatcher(10,
+                jobTriggerService,
+                jobDefinitionService,
+                eventDefinitionService,
+                (config, parameters, searchOwner, eventDefinition) -> new PivotAggregationSearch(config, parameters,
+                        searchOwner, eventDefinition, searchJobService, queryEngine, EventsConfigurationTestProvider.create(),
+                        moreSearch, permittedStreams, notificationService, batcher),
+                searchJobService,
+                queryEngine,
+                permittedStreams,
+                EventsConfigurationTestProvider.create(),
+                new JobSchedulerTestClock(now),
+                metricRegistry);
+    }
+
+    @Test
+    public void batchesDueSearchesInTheSameStreams() throws Exception {
+        final EventDefinitionDto definition = eventDefinition("def-1", "stream-a");
+        addDueTrigger(eventDefinition("def-2", "stream-a"), timerange);
+        addDueTrigger(eventDefinition("def-3", "stream-b"), timerange);
+        // The indexing of the messages hasn't been checked for a timerange which ends later
+        addDueTrigger(eventDefinition("def-4", "stream-a"), AbsoluteRange.create(timerange.getFrom().plusSeconds(1), timerange.getTo().plusSeconds(1)));
+
+        final AggregationResult result = search(definition).doSearch();
+
+        final ArgumentCaptor<SearchJob> searchJob = ArgumentCaptor.forClass(SearchJob.class);
+        verify(queryEngine).execute(searchJob.capture(), anySet());
+        final Query query = searchJob.getValue().getSearch().queries().iterator().next();
+        assertThat(query.searchTypes()).extracting(SearchType::id).containsExactlyInAnyOrder(
+                "def-1-pivot-1", "def-1-streams-pivot-1", "def-2-pivot-1", "def-2-streams-pivot-1");
+        assertThat(query.usedStreamIds()).containsExactly("stream-a");
+        assertThat(result.totalAggregatedMessages()).isEqualTo(1);
+
+        // The search of the batched event definition uses the batched result
+        search(eventDefinitions.get(0)).doSearch();
+        verify(queryEngine, times(1)).execute(any(), anySet());
+        assertThat(metricRegistry.counter("org.graylog.events.processor.aggregation.AggregationSearchBatcher.searchesSaved").getCount()).isEqualTo(1);
+        assertThat(metricRegistry.histogram("org.graylog.events.processor.aggregation.AggregationSearchBatcher.batchSize").getSnapshot().getMax()).isEqualTo(2);
+
+        // The other event definitions run their own searches
+        search(eventDefinitions.get(1)).doSearch();
+        verify(queryEngine, times(2)).execute(any(), anySet());
+    }
+
+    @Test
+    public void doesNotUseBatchedResultsForChangedEventDefinitions() throws Exception {
+        final EventDefinitionDto definition = eventDefinition("def-2", "stream-a");
+        addDueTrigger(definition, timerange);
+        search(eventDefinition("def-1", "stream-a")).doSearch();
+
+        final EventDefinitionDto changedDefinition = definition.toBuilder()
+                .config(((AggregationEventProcessorConfig) definition.config()).toBuilder().query("changed").build())
+                .build();
+        search(changedDefinition).doSearch();
+
+        verify(queryEngine, times(2)).execute(any(), anySet());
+        assertThat(metricRegistry.counter("org.graylog.events.processor.aggregation.AggregationSearchBatcher.searchesSaved").getCount()).isZero();
+    }
+
+    @Test
+    public void searchTypeErrorsOnlyAffectTheirEventDefinition() throws Exception {
+        final PivotAggregationSearch search = search(eventDefinition("def-1", "stream-a"));
+        final PivotAggregationSearch otherSearch = search(eventDefinition("def-2", "stream-a"));
+        final Query query = Query.builder()
+                .id("batch-query-1")
+                .searchTypes(ImmutableSet.<SearchType>builder()
+                        .addAll(search.batchSearchTypes())
+                        .addAll(otherSearch.batchSearchTypes())
+                        .build())
+                .timerange(timerange)
+                .build();
+        final QueryResult queryResult = queryResult(query).toBuilder()
+                .errors(Collections.singleton(new SearchTypeError(query, "def-2-pivot-1", "Search failed")))
+                .build();
+
+        assertThat(search.batchedResult(queryResult).totalAggregatedMessages()).isEqualTo(1);
+        assertThatThrownBy(() -> otherSearch.batchedResult(queryResult))
+                .isInstanceOf(EventProcessorException.class)
+                .hasMessage("Search failed");
+    }
+
+    private PivotAggregationSearch search(EventDefinitionDto eventDefinition) {
+        return new PivotAggregationSearch((AggregationEventProcessorConfig) eventDefinition.config(),
+                parameters(timerange), "test", eventDefinition, searchJobService, queryEngine,
+                EventsConfigurationTestProvider.create(), moreSearch, permittedStreams, notificationService, batcher);
+    }
+
+    private void addDueTrigger(EventDefinitionDto eventDefinition, AbsoluteRange triggerTimerange) {
+        final JobDefinitionDto jobDefinition = JobDefinitionDto.builder()
+                .id("job-" + eventDefinition.id())
+                .title(eventDefinition.title())
+                .description(eventDefinition.description())
+                .config(EventProcessorExecutionJob.Config.builder()
+                        .eventDefinitionId(eventDefinition.id())
+                        .processingWindowSize(WINDOW_LENGTH)
+                        .processingHopSize(WINDOW_LENGTH)
+                        .parameters(parameters(triggerTimerange))
+                        .build())
+                .build();
+        final JobTriggerDto trigger = JobTriggerDto.builderWithClock(new JobSchedulerTestClock(now))
+                .id("trigger-" + eventDefinition.id())
+                .jobDefinitionId(jobDefinition.id())
+                .jobDefinitionType(EventProcessorExecutionJob.TYPE_NAME)
+                .startTime(now)
+                .nextTime(now)
+                .status(JobTriggerStatus.RUNNABLE)
+                .schedule(IntervalJobSchedule.builder()
+                        .interval(WINDOW_LENGTH)
+                        .unit(TimeUnit.MILLISECONDS)
+                        .build())
+                .data(EventProcessorExecutionJob.Data.create(triggerTimerange.getFrom(), triggerTimerange.getTo()))
+                .build();
+
+        eventDefinitions.add(eventDefinition);
+        jobDefinitions.add(jobDefinition);
+        triggers.add(trigger);
+    }
+
+    private AggregationEventProcessorParameters parameters(AbsoluteRange parametersTimerange) {
+        return AggregationEventProcessorParameters.builder()
+                .timerange(parametersTimerange)
+                .build();
+    }
+
+    private EventDefinitionDto eventDefinition(String id, String streamId) {
+        return EventDefinitionDto.builder()
+                .id(id)
+                .title("Test " + id)
+                .description("A test aggregation event definition")
+                .priority(1)
+                .alert(false)
+                .notificationSettings(EventNotificationSettings.withGracePeriod(60000))
+                .config(AggregationEventProcessorConfig.builder()
+                        .query("source:" + id)
+                        .streams(ImmutableSet.of(streamId))
+                        .groupBy(ImmutableList.of())
+                        .series(ImmutableList.of(AggregationSeries.create("abc123", AggregationFunction.COUNT, "source")))
+                        .conditions(null)
+                        .searchWithinMs(WINDOW_LENGTH)
+                        .executeEveryMs(WINDOW_LENGTH)
+                        .build())
+                .keySpec(ImmutableList.of())
+                .build();
+    }
+
+    private SearchJob completedSearchJob(SearchJob searchJob) {
+        final Query query = searchJob.getSearch().queries().iterator().next();
+        searchJob.addQueryResultFuture(query.id(), CompletableFuture.completedFuture(queryResult(query)));
+        return searchJob.seal();
+    }
+
+    private QueryResult queryResult(Query query) {
+        final Map<String, SearchType.Result> results = query.searchTypes().stream()
+                .collect(Collectors.toMap(SearchType::id, searchType -> PivotResult.builder()
+                        .id(searchType.id())
+                        .effectiveTimerange(timerange)
+                        .total(1)
+                        .build()));
+        return QueryResult.builder()
+                .query(query)
+                .searchTypes(results)
+                .build();
+    }
+}
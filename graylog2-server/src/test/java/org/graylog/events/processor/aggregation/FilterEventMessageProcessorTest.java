@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.aggregation;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.graylog.events.event.EventProcessorEventFactory;
+import org.graylog.events.event.EventWithContext;
+import org.graylog.events.event.TestEvent;
+import org.graylog.events.notifications.EventNotificationSettings;
+import org.graylog.events.processor.EventDefinitionDto;
+import org.graylog.events.processor.EventProcessorEngine;
+import org.graylog.events.processor.EventProcessorException;
+import org.graylog.events.processor.EventStreamService;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageCollection;
+import org.graylog2.plugin.streams.Stream;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FilterEventMessageProcessorTest {
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private FilterEventDefinitionRegistry registry;
+    @Mock
+    private EventProcessorEngine eventProcessorEngine;
+    @Mock
+    private EventStreamService eventStreamService;
+    @Mock
+    private EventProcessorEventFactory eventFactory;
+
+    private final DateTime now = DateTime.now(DateTimeZone.UTC);
+    private Stream stream;
+    private FilterEventMessageProcessor processor;
+
+    @Before
+    public void setUp() {
+        final IndexSet indexSet = mock(IndexSet.class);
+        when(indexSet.getWriteIndexAlias()).thenReturn("graylog_deflector");
+        stream = mock(Stream.class);
+        when(stream.getId()).thenReturn("stream-1");
+        when(stream.getIndexSet()).thenReturn(indexSet);
+
+        when(eventFactory.createEvent(any(), any(), anyString())).thenAnswer(invocation -> new TestEvent(invocation.getArgument(1)));
+        when(eventStreamService.buildEventSourceStreams(anySet(), anySet())).thenReturn(ImmutableSet.of("stream-1"));
+
+        processor = new FilterEventMessageProcessor(registry, eventProcessorEngine, eventStreamService, () -> eventFactory, new MetricRegistry());
+    }
+
+    @Test
+    public void createsEventsForMatchingMessages() throws Exception {
+        final EventDefinitionDto eventDefinition = eventDefinition("def-1", "action:login AND NOT user:admin");
+        when(registry.definitions()).thenReturn(ImmutableList.of(FilterEventDefinitionRegistry.compile(eventDefinition).orElseThrow()));
+
+        final Message matching = message("login", "jane");
+        final Message otherUser = message("login", "admin");
+        final Message otherStream = message("login", "john");
+        otherStream.removeStream(stream);
+
+        processor.process(new MessageCollection(ImmutableList.of(matching, otherUser, otherStream)));
+
+        @SuppressWarnings("unchecked")
+        final ArgumentCaptor<List<EventWithContext>> events = ArgumentCaptor.forClass(List.class);
+        verify(eventProcessorEngine).emitEvents(eq(eventDefinition), events.capture());
+        assertThat(events.getValue()).hasOnlyOneElementSatisfying(eventWithContext -> {
+            assertThat(eventWithContext.messageContext()).hasValue(matching);
+            assertThat(eventWithContext.event().getEventTimestamp()).isEqualTo(now);
+            assertThat(eventWithContext.event().getSourceStreams()).containsOnly("stream-1");
+            assertThat(eventWithContext.event().getOriginContext())
+                    .isEqualTo("urn:graylog:message:es:graylog_deflector:" + matching.getId());
+        });
+
+        assertThat(matching.getField(Message.FIELD_GL2_EVENT_DEFINITION_IDS)).isEqualTo(ImmutableList.of("def-1"));
+        assertThat(otherUser.hasField(Message.FIELD_GL2_EVENT_DEFINITION_IDS)).isFalse();
+        assertThat(otherStream.hasField(Message.FIELD_GL2_EVENT_DEFINITION_IDS)).isFalse();
+    }
+
+    @Test
+    public void leavesMessagesToTheScheduledExecutionIfEventsCannotBeEmitted() throws Exception {
+        final EventDefinitionDto eventDefinition = eventDefinition("def-1", "action:login");
+        final EventDefinitionDto otherEventDefinition = eventDefinition("def-2", "user:jane");
+        when(registry.definitions()).thenReturn(ImmutableList.of(
+                FilterEventDefinitionRegistry.compile(eventDefinition).orElseThrow(),
+                FilterEventDefinitionRegistry.compile(otherEventDefinition).orElseThrow()));
+        doThrow(new EventProcessorException("Storage failed", false, eventDefinition))
+                .when(eventProcessorEngine).emitEvents(eq(eventDefinition), any());
+
+        final Message message = message("login", "jane");
+        processor.process(message);
+
+        verify(eventProcessorEngine).emitEvents(eq(otherEventDefinition), any());
+        assertThat(message.getField(Message.FIELD_GL2_EVENT_DEFINITION_IDS)).isEqualTo(ImmutableList.of("def-2"));
+    }
+
+    @Test
+    public void createsEventsForOtherMessagesIfEventOfOneMessageFails() throws Exception {
+        final EventDefinitionDto eventDefinition = eventDefinition("def-1", "action:login");
+        when(registry.definitions()).thenReturn(ImmutableList.of(FilterEventDefinitionRegistry.compile(eventDefinition).orElseThrow()));
+
+        final Message message = message("login", "jane");
+        final Message broken = message("login", "john");
+        broken.addField(Message.FIELD_TIMESTAMP, now.minusMinutes(1));
+        when(eventFactory.createEvent(any(), eq(broken.getTimestamp()), anyString())).thenThrow(new IllegalStateException("broken"));
+
+        processor.process(new MessageCollection(ImmutableList.of(broken, message)));
+
+        @SuppressWarnings("unchecked")
+        final ArgumentCaptor<List<EventWithContext>> events = ArgumentCaptor.forClass(List.class);
+        verify(eventProcessorEngine).emitEvents(eq(eventDefinition), events.capture());
+        assertThat(events.getValue()).hasOnlyOneElementSatisfying(eventWithContext ->
+                assertThat(eventWithContext.messageContext()).hasValue(message));
+        assertThat(message.getField(Message.FIELD_GL2_EVENT_DEFINITION_IDS)).isEqualTo(ImmutableList.of("def-1"));
+        assertThat(broken.hasField(Message.FIELD_GL2_EVENT_DEFINITION_IDS)).isFalse();
+    }
+
+    @Test
+    public void ignoresFilteredOutMessages() throws Exception {
+        when(registry.definitions()).thenReturn(ImmutableList.of(
+                FilterEventDefinitionRegistry.compile(eventDefinition("def-1", "action:login")).orElseThrow()));
+
+        final Message message = message("login", "jane");
+        message.setFilterOut(true);
+        processor.process(message);
+
+        verify(eventProcessorEngine, never()).emitEvents(any(), any());
+    }
+
+    @Test
+    public void onlyCompilesSupportedFilterDefinitions() {
+        assertThat(FilterEventDefinitionRegistry.compile(eventDefinition("def-1", "action:login"))).isPresent();
+        assertThat(FilterEventDefinitionRegistry.compile(eventDefinition("def-1", "login"))).isEmpty();
+
+        final EventDefinitionDto aggregation = eventDefinition("def-1", "action:login");
+        assertThat(FilterEventDefinitionRegistry.compile(aggregation.toBuilder()
+                .config(((AggregationEventProcessorConfig) aggregation.config()).toBuilder()
+                        .series(ImmutableList.of(AggregationSeries.create("count-1", AggregationFunction.COUNT, null)))
+                        .build())
+                .build())).isEmpty();
+    }
+
+    private Message message(String action, String user) {
+        final Message message = new Message("A message", "source", now);
+        message.addField("action", action);
+        message.addField("user", user);
+        message.addStream(stream);
+        return message;
+    }
+
+    private EventDefinitionDto eventDefinition(String id, String query) {
+        return EventDefinitionDto.builder()
+                .id(id)
+                .title("Test " + id)
+                .description("A test filter event definition")
+                .priority(1)
+                .alert(false)
+                .notificationSettings(EventNotificationSettings.withGracePeriod(60000))
+                .config(AggregationEventProcessorConfig.builder()
+                        .query(query)
+                        .streams(ImmutableSet.of("stream-1"))
+                        .groupBy(ImmutableList.of())
+                        .series(ImmutableList.of())
+                        .conditions(null)
+                        .searchWithinMs(60000)
+                        .executeEveryMs(60000)
+                        .build())
+                .keySpec(ImmutableList.of())
+                .build();
+    }
+}
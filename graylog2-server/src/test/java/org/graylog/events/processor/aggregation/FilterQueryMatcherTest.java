@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.events.processor.aggregation;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog.events.processor.aggregation.FilterQueryMatcher.Result;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.streams.Stream;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FilterQueryMatcherTest {
+    private Message message;
+
+    @Before
+    public void setUp() {
+        message = new Message("Login failed for user jane", "Web-01", DateTime.now(DateTimeZone.UTC));
+        message.addField("action", "login failed");
+        message.addField("user", "jane");
+        message.addField("status", 500L);
+        message.addField("code", "0401");
+        message.addField("admin", false);
+        message.addField("tags", ImmutableList.of("auth", "web"));
+        message.addField("http.method", "POST");
+        message.addField("created", DateTime.now(DateTimeZone.UTC));
+
+        final Stream stream = mock(Stream.class);
+        when(stream.getId()).thenReturn("stream-1");
+        message.addStream(stream);
+    }
+
+    private Result match(String query) {
+        return FilterQueryMatcher.compile(query).orElseThrow(() -> new AssertionError("Couldn't compile " + query)).match(message);
+    }
+
+    @Test
+    public void matchesAllMessagesForEmptyQueries() {
+        assertThat(match("")).isEqualTo(Result.MATCH);
+        assertThat(match(" * ")).isEqualTo(Result.MATCH);
+        assertThat(match("*:*")).isEqualTo(Result.MATCH);
+    }
+
+    @Test
+    public void matchesExactValues() {
+        assertThat(match("user:jane")).isEqualTo(Result.MATCH);
+        assertThat(match("user:Jane")).isEqualTo(Result.NO_MATCH);
+        assertThat(match("action:\"login failed\"")).isEqualTo(Result.MATCH);
+        assertThat(match("action:login")).isEqualTo(Result.NO_MATCH);
+        assertThat(match("admin:false")).isEqualTo(Result.MATCH);
+        assertThat(match("tags:web")).isEqualTo(Result.MATCH);
+        assertThat(match("missing:value")).isEqualTo(Result.NO_MATCH);
+        assertThat(match("streams:stream-1")).isEqualTo(Result.MATCH);
+        assertThat(match("streams:stream-2")).isEqualTo(Result.NO_MATCH);
+    }
+
+    @Test
+    public void matchesSourceCaseInsensitive() {
+        assertThat(match("source:web-01")).isEqualTo(Result.MATCH);
+        assertThat(match("source:WEB-01")).isEqualTo(Result.MATCH);
+        assertThat(match("source:web-02")).isEqualTo(Result.NO_MATCH);
+    }
+
+    @Test
+    public void usesIndexedNamesOfFieldsWithDots() {
+        assertThat(match("http_method:POST")).isEqualTo(Result.MATCH);
+    }
+
+    @Test
+    public void matchesExistingFields() {
+        assertThat(match("_exists_:user")).isEqualTo(Result.MATCH);
+        assertThat(match("_exists_:missing")).isEqualTo(Result.NO_MATCH);
+        assertThat(match("NOT _exists_:missing")).isEqualTo(Result.MATCH);
+    }
+
+    @Test
+    public void combinesConditions() {
+        assertThat(match("user:jane AND status:500")).isEqualTo(Result.MATCH);
+        assertThat(match("user:jane AND status:404")).isEqualTo(Result.NO_MATCH);
+        assertThat(match("user:john OR status:500")).isEqualTo(Result.MATCH);
+        assertThat(match("user:john OR status:404")).isEqualTo(Result.NO_MATCH);
+        assertThat(match("user:jane AND NOT admin:true")).isEqualTo(Result.MATCH);
+        assertThat(match("NOT user:jane")).isEqualTo(Result.NO_MATCH);
+        assertThat(match("user:jane AND (status:404 OR tags:auth)")).isEqualTo(Result.MATCH);
+        assertThat(match("+user:jane -tags:web")).isEqualTo(Result.NO_MATCH);
+    }
+
+    @Test
+    public void returnsUnknownIfTheResultDependsOnTheFieldMapping() {
+        assertThat(match("status:500.0")).isEqualTo(Result.UNKNOWN);
+        assertThat(match("code:401")).isEqualTo(Result.UNKNOWN);
+        assertThat(match("created:2020")).isEqualTo(Result.UNKNOWN);
+        assertThat(match("NOT status:500.0")).isEqualTo(Result.UNKNOWN);
+        assertThat(match("status:500.0 AND user:john")).isEqualTo(Result.NO_MATCH);
+        assertThat(match("status:500.0 OR user:jane")).isEqualTo(Result.MATCH);
+        assertThat(match("status:abc")).isEqualTo(Result.NO_MATCH);
+    }
+
+    @Test
+    public void rejectsUnsupportedQueries() {
+        assertThat(FilterQueryMatcher.compile("failed")).isEmpty();
+        assertThat(FilterQueryMatcher.compile("message:failed")).isEmpty();
+        assertThat(FilterQueryMatcher.compile("full_message:failed")).isEmpty();
+        assertThat(FilterQueryMatcher.compile("user:ja*")).isEmpty();
+        assertThat(FilterQueryMatcher.compile("status:[400 TO 500]")).isEmpty();
+        assertThat(FilterQueryMatcher.compile("user:jane~")).isEmpty();
+        assertThat(FilterQueryMatcher.compile("user:/ja.e/")).isEmpty();
+        assertThat(FilterQueryMatcher.compile("http.method:POST")).isEmpty();
+        assertThat(FilterQueryMatcher.compile("_id:abc")).isEmpty();
+        assertThat(FilterQueryMatcher.compile("user:jane OR (NOT status:500)")).isEmpty();
+        assertThat(FilterQueryMatcher.compile("user:(jane")).isEmpty();
+    }
+}
@@ -57,6 +57,8 @@ public class PivotAggregationSearchTest {
     private MoreSearch moreSearch;
     @Mock
     private NotificationService notificationService;
+    @Mock
+    private AggregationSearchBatcher searchBatcher;
 
     private final PermittedStreams permittedStreams = new PermittedStreams(Stream::of);
 
@@ -91,7 +93,8 @@ public class PivotAggregationSearchTest {
                 EventsConfigurationTestProvider.create(),
                 moreSearch,
                 permittedStreams,
-                notificationService);
+                notificationService,
+                searchBatcher);
 
         final String toString = timerange.getTo().toString();
         final PivotResult pivotResult = PivotResult.builder()
@@ -189,7 +192,8 @@ public class PivotAggregationSearchTest {
                 EventsConfigurationTestProvider.create(),
                 moreSearch,
                 permittedStreams,
-                notificationService);
+                notificationService,
+                searchBatcher);
 
         final PivotResult pivotResult = PivotResult.builder()
                 .id("test")
@@ -262,7 +266,8 @@ public class PivotAggregationSearchTest {
                 EventsConfigurationTestProvider.create(),
                 moreSearch,
                 permittedStreams,
-                notificationService);
+                notificationService,
+                searchBatcher);
 
         final PivotResult pivotResult = PivotResult.builder()
                 .id("test")
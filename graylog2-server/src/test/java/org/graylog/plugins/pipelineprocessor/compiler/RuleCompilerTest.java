@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.pipelineprocessor.compiler;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog.plugins.pipelineprocessor.BaseParserTest;
+import org.graylog.plugins.pipelineprocessor.EvaluationContext;
+import org.graylog.plugins.pipelineprocessor.ast.Rule;
+import org.graylog.plugins.pipelineprocessor.ast.functions.AbstractFunction;
+import org.graylog.plugins.pipelineprocessor.ast.functions.Function;
+import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionArgs;
+import org.graylog.plugins.pipelineprocessor.ast.functions.FunctionDescriptor;
+import org.graylog.plugins.pipelineprocessor.ast.statements.Statement;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.LongConversion;
+import org.graylog.plugins.pipelineprocessor.functions.conversion.StringConversion;
+import org.graylog.plugins.pipelineprocessor.functions.messages.HasField;
+import org.graylog.plugins.pipelineprocessor.functions.messages.SetField;
+import org.graylog.plugins.pipelineprocessor.parser.FunctionRegistry;
+import org.graylog.plugins.pipelineprocessor.parser.PipelineRuleParser;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Tools;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RuleCompilerTest extends BaseParserTest {
+
+    @BeforeClass
+    public static void registerFunctions() {
+        final Map<String, Function<?>> functions = commonFunctions();
+        functions.put(StringConversion.NAME, new StringConversion());
+        functions.put(LongConversion.NAME, new LongConversion());
+        functions.put(HasField.NAME, new HasField());
+        functions.put(SetField.NAME, new SetField());
+        functions.put("fail_test", new AbstractFunction<Object>() {
+            @Override
+            public Object evaluate(FunctionArgs args, EvaluationContext context) {
+                throw new IllegalStateException("failed");
+            }
+
+            @Override
+            public FunctionDescriptor<Object> descriptor() {
+                return FunctionDescriptor.builder()
+                        .name("fail_test")
+                        .returnType(Object.class)
+                        .params(ImmutableList.of())
+                        .build();
+            }
+        });
+        functionRegistry = new FunctionRegistry(functions);
+    }
+
+    @Test
+    public void compiledConditionsMatchInterpretedConditions() {
+        final String[] conditions = {
+                "true",
+                "false",
+                "1 + 2 == 3",
+                "NOT (1 > 2)",
+                "has_field(\"source\")",
+                "has_field(\"missing\") OR to_string($message.source) == \"web-01\"",
+                "has_field(\"source\") AND to_string($message.source) != \"web-01\"",
+                "to_long($message.status) >= 500 AND to_long($message.status) < 600",
+                "false AND has_field(\"source\")",
+                "true OR has_field(\"missing\")",
+                "has_field(\"source\") AND true",
+                "NOT has_field(\"missing\") AND NOT false",
+        };
+
+        for (String condition : conditions) {
+            for (Message message : new Message[]{message("web-01", 503), message("web-02", 200)}) {
+                final Rule rule = parseCondition(condition);
+                final boolean interpreted = rule.when().evaluateBool(new EvaluationContext(message));
+
+                assertThat(RuleCompiler.compile(rule)).isTrue();
+                assertThat(rule.isCompiled()).isTrue();
+                assertThat(rule.evaluateCondition(new EvaluationContext(message)))
+                        .as("condition <%s> on message %s", condition, message.getSource())
+                        .isEqualTo(interpreted);
+            }
+        }
+    }
+
+    @Test
+    public void constantConditionsAreFolded() {
+        final Rule rule = parseCondition("true AND (1 + 1 == 2 OR has_field(\"source\"))");
+
+        final CompiledCondition condition = RuleCompiler.compileCondition(rule.when());
+
+        // A constant condition doesn't touch the context at all.
+        assertThat(condition.evaluate(null)).isTrue();
+    }
+
+    @Test
+    public void missingFieldsBehaveLikeTheInterpreter() {
+        final Rule rule = parseCondition("to_long($message.status) > 1 AND $message.missing == \"x\"");
+        RuleCompiler.compile(rule);
+
+        final Message message = message("web-01", 200);
+        message.addField("status", "not-a-number");
+
+        // to_long returns its default for non-numeric values and a missing left side of an equality check is false
+        assertThat(rule.evaluateCondition(new EvaluationContext(message))).isFalse();
+        assertThat(rule.when().evaluateBool(new EvaluationContext(message))).isFalse();
+    }
+
+    @Test
+    public void compiledActionsMatchInterpretedActions() {
+        final PipelineRuleParser parser = new PipelineRuleParser(functionRegistry);
+        final Rule rule = parser.parseRule("rule \"test\" when true then " +
+                "let status = to_long($message.status) + 1; " +
+                "set_field(\"next_status\", status); " +
+                "set_field(\"origin\", to_string($message.source)); " +
+                "set_field(\"copy\", $message.missing); " +
+                "end", true);
+        final Message interpreted = message("web-01", 503);
+        final Message compiled = message("web-01", 503);
+
+        final EvaluationContext interpretedContext = new EvaluationContext(interpreted);
+        for (Statement statement : rule.actions()) {
+            statement.evaluate(interpretedContext);
+        }
+        assertThat(RuleCompiler.compile(rule)).isTrue();
+        final EvaluationContext compiledContext = new EvaluationContext(compiled);
+        for (Statement statement : rule.actions()) {
+            assertThat(statement).isInstanceOf(CompiledStatement.class);
+            statement.evaluate(compiledContext);
+        }
+
+        assertThat(compiled.getField("next_status")).isEqualTo(504L);
+        assertThat(compiled.getField("origin")).isEqualTo("web-01");
+        for (String field : new String[]{"next_status", "origin", "copy"}) {
+            assertThat(compiled.getField(field)).isEqualTo(interpreted.getField(field));
+        }
+        assertThat(compiledContext.hasEvaluationErrors()).isEqualTo(interpretedContext.hasEvaluationErrors());
+    }
+
+    @Test
+    public void compiledActionsRecordEvaluationErrors() {
+        final PipelineRuleParser parser = new PipelineRuleParser(functionRegistry);
+        final Rule rule = parser.parseRule("rule \"test\" when true then let x = fail_test(); set_field(\"x\", x); end", true);
+        RuleCompiler.compile(rule);
+
+        final EvaluationContext context = new EvaluationContext(message("web-01", 200));
+        for (Statement statement : rule.actions()) {
+            statement.evaluate(context);
+        }
+
+        assertThat(context.hasEvaluationErrors()).isTrue();
+        assertThat(context.currentMessage().hasField("x")).isFalse();
+    }
+
+    private static Message message(String source, long status) {
+        final Message message = new Message("hello", source, Tools.nowUTC());
+        message.addField("status", status);
+        return message;
+    }
+
+    private static Rule parseCondition(String condition) {
+        final PipelineRuleParser parser = new PipelineRuleParser(functionRegistry);
+        return parser.parseRule("rule \"test\" when " + condition + " then end", true);
+    }
+}
@@ -393,6 +393,39 @@ public class PipelineInterpreterTest {
         assertThat(actualMessage.getField("2-b")).isNull();
     }
 
+    @Test
+    public void processesOtherMessagesOfBatchIfOneMessageFails() {
+        final RuleService ruleService = mock(MongoDbRuleService.class);
+        when(ruleService.loadAll()).thenReturn(ImmutableList.of(RULE_ADD_FOOBAR));
+
+        final PipelineService pipelineService = mock(MongoDbPipelineService.class);
+        when(pipelineService.loadAll()).thenReturn(Collections.singleton(
+                PipelineDao.create("p1", "title", "description",
+                        "pipeline \"pipeline\"\n" +
+                                "stage 0 match either\n" +
+                                "    rule \"add_foobar\";\n" +
+                                "end\n",
+                        Tools.nowUTC(),
+                        null)
+        ));
+
+        final Map<String, Function<?>> functions = ImmutableMap.of(SetField.NAME, new SetField());
+        final PipelineInterpreter interpreter = createPipelineInterpreter(ruleService, pipelineService, functions);
+
+        final Message broken = new Message("broken", "test", Tools.nowUTC());
+        final Stream brokenStream = mock(Stream.class);
+        when(brokenStream.getId()).thenThrow(new IllegalStateException("broken stream"));
+        broken.addStream(brokenStream);
+        final Message message = messageInDefaultStream("message", "test");
+
+        final List<Message> processed = extractMessagesFromMessageCollection(
+                interpreter.process(new MessageCollection(ImmutableList.of(broken, message))));
+
+        assertThat(processed).containsExactly(broken, message);
+        assertThat(broken.processingErrors()).hasSize(1);
+        assertThat(message.getFieldAs(String.class, "foobar")).isEqualTo("covfefe");
+    }
+
     @SuppressForbidden("Allow using default thread factory")
     private PipelineInterpreter createPipelineInterpreter(RuleService ruleService, PipelineService pipelineService, Map<String, Function<?>> functions) {
         final RuleMetricsConfigService ruleMetricsConfigService = mock(RuleMetricsConfigService.class);
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.engine;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.EventBus;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.QueryResult;
+import org.graylog.plugins.views.search.Search;
+import org.graylog.plugins.views.search.SearchJob;
+import org.graylog.plugins.views.search.errors.QueryError;
+import org.graylog.plugins.views.search.errors.SearchError;
+import org.graylog.plugins.views.search.filter.StreamFilter;
+import org.graylog2.shared.SuppressForbidden;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressForbidden("Allow using default thread factory")
+class QueryEngineTest {
+    private final CountDownLatch backendRelease = new CountDownLatch(1);
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    private QueryBackend<GeneratedQueryContext> backend;
+    private GeneratedQueryContext generatedQueryContext;
+    private MetricRegistry metricRegistry;
+    private QueryEngine queryEngine;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        backend = mock(QueryBackend.class);
+        generatedQueryContext = mock(GeneratedQueryContext.class);
+        when(backend.generate(any(), any())).thenReturn(generatedQueryContext);
+        when(backend.run(any(), any(), any())).thenAnswer(invocation -> {
+            backendRelease.await(10, TimeUnit.SECONDS);
+            return QueryResult.builder()
+                    .query(invocation.getArgument(1))
+                    .searchTypes(Map.of())
+                    .build();
+        });
+        metricRegistry = new MetricRegistry();
+        final SearchTypeResultCache searchTypeResultCache = new SearchTypeResultCache(0, Duration.minutes(5),
+                Duration.minutes(1), metricRegistry, new EventBus());
+        queryEngine = new QueryEngine(backend, Set.of(), mock(QueryParser.class), searchTypeResultCache, metricRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        backendRelease.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentJobsForIdenticalQueryShareExecution() throws Exception {
+        final Query query = Query.builder().id("query").build();
+        final SearchError error = new QueryError(query, "Something went wrong");
+        when(generatedQueryContext.errors()).thenReturn(List.of(error));
+
+        final Future<SearchJob> first = executor.submit(() -> execute("job-1", query));
+        await().until(() -> meterCount("executions") == 1);
+        final Future<SearchJob> second = executor.submit(() -> execute("job-2", query));
+        await().until(() -> meterCount("coalesced-executions") == 1);
+        backendRelease.countDown();
+
+        final QueryResult firstResult = first.get(10, TimeUnit.SECONDS).getQueryResultFuture("query").join();
+        final QueryResult secondResult = second.get(10, TimeUnit.SECONDS).getQueryResultFuture("query").join();
+        assertThat(secondResult).isSameAs(firstResult);
+        assertThat(second.get().getErrors()).containsExactly(error);
+        verify(backend, times(1)).run(any(), any(), any());
+    }
+
+    @Test
+    void differentQueriesRunSeparately() throws Exception {
+        final Future<SearchJob> first = executor.submit(() -> execute("job-1", Query.builder().id("query").build()));
+        await().until(() -> meterCount("executions") == 1);
+        final Future<SearchJob> second = executor.submit(() -> execute("job-2", Query.builder().id("query")
+                .filter(StreamFilter.ofId("stream-id"))
+                .build()));
+        await().until(() -> meterCount("executions") == 2);
+        backendRelease.countDown();
+
+        first.get(10, TimeUnit.SECONDS);
+        second.get(10, TimeUnit.SECONDS);
+        assertThat(meterCount("coalesced-executions")).isZero();
+        verify(backend, times(2)).run(any(), any(), any());
+    }
+
+    @Test
+    void sequentialJobsRunSeparately() {
+        backendRelease.countDown();
+        final Query query = Query.builder().id("query").build();
+
+        execute("job-1", query);
+        execute("job-2", query);
+
+        assertThat(meterCount("executions")).isEqualTo(2);
+        verify(backend, times(2)).run(any(), any(), any());
+    }
+
+    private SearchJob execute(String jobId, Query query) {
+        final Search search = Search.builder().id("search").queries(ImmutableSet.of(query)).build();
+        return queryEngine.execute(new SearchJob(jobId, search, "admin"), Set.of());
+    }
+
+    private long meterCount(String name) {
+        return metricRegistry.meter(MetricRegistry.name(QueryEngine.class, name)).getCount();
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog.plugins.views.search.engine;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.google.common.collect.ImmutableList;
+import com.google.common.eventbus.EventBus;
+import org.graylog.plugins.views.search.Query;
+import org.graylog.plugins.views.search.QueryResult;
+import org.graylog.plugins.views.search.SearchType;
+import org.graylog.plugins.views.search.elasticsearch.ElasticsearchQueryString;
+import org.graylog.plugins.views.search.searchtypes.pivot.Pivot;
+import org.graylog.plugins.views.search.searchtypes.pivot.PivotResult;
+import org.graylog.plugins.views.search.searchtypes.pivot.PivotSort;
+import org.graylog.plugins.views.search.searchtypes.pivot.SeriesSpec;
+import org.graylog.plugins.views.search.searchtypes.pivot.SortSpec;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.Time;
+import org.graylog.plugins.views.search.searchtypes.pivot.buckets.TimeUnitInterval;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Count;
+import org.graylog.plugins.views.search.searchtypes.pivot.series.Max;
+import org.graylog2.indexer.ranges.events.IndexRangesUpdatedEvent;
+import org.graylog2.plugin.indexer.searches.timeranges.AbsoluteRange;
+import org.graylog2.plugin.indexer.searches.timeranges.RelativeRange;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.DateTimeZone;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SearchTypeResultCacheTest {
+    private static final DateTime NOW = new DateTime(2023, 5, 1, 12, 0, 30, DateTimeZone.UTC);
+
+    private MetricRegistry metricRegistry;
+    private SearchTypeResultCache cache;
+
+    @BeforeEach
+    void setUp() {
+        DateTimeUtils.setCurrentMillisFixed(NOW.getMillis());
+        metricRegistry = new MetricRegistry();
+        cache = createCache(100);
+    }
+
+    @AfterEach
+    void tearDown() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    void reusesClosedBucketsOfPreviousExecution() throws Exception {
+        final Query query = query(pivot(true, Count.builder().build()));
+
+        final SearchTypeResultCache.Execution first = cache.prepare(query);
+        final Pivot firstPivot = searchType(first.query());
+        assertThat(firstPivot.query()).isEmpty();
+        assertThat(firstPivot.timerange()).hasValueSatisfying(timerange ->
+                assertThat(timerange.effectiveTimeRange(query, firstPivot))
+                        .isEqualTo(AbsoluteRange.create(NOW.minusHours(1), NOW)));
+        first.complete(result(first.query(), countRows(NOW.minusHours(1).withSecondOfMinute(0), 61, 1L), 61L));
+
+        DateTimeUtils.setCurrentMillisFixed(NOW.plusMinutes(1).getMillis());
+        final SearchTypeResultCache.Execution second = cache.prepare(query);
+        final Pivot secondPivot = searchType(second.query());
+        assertThat(secondPivot.query()).hasValue(ElasticsearchQueryString.of(
+                "timestamp:{* TO \"2023-05-01 11:02:00.000\"} OR timestamp:[\"2023-05-01 11:59:00.000\" TO *]"));
+
+        // the excluded buckets are returned empty by the backend
+        final List<PivotResult.Row> rows = ImmutableList.<PivotResult.Row>builder()
+                .addAll(countRows(NOW.minusMinutes(59).withSecondOfMinute(0), 1, 1L))
+                .addAll(countRows(NOW.minusMinutes(58).withSecondOfMinute(0), 57, 0L))
+                .addAll(countRows(NOW.minusMinutes(1).withSecondOfMinute(0), 3, 2L))
+                .build();
+        final QueryResult result = second.complete(result(second.query(), rows, 7L));
+
+        assertThat(result.query()).isSameAs(query);
+        final PivotResult pivotResult = (PivotResult) result.searchTypes().get("pivot");
+        assertThat(pivotResult.total()).isEqualTo(64L);
+        assertThat(pivotResult.rows()).hasSize(62);
+        assertThat(pivotResult.rows().get(1)).isEqualTo(countRow(NOW.minusMinutes(58).withSecondOfMinute(0), 1L));
+        assertThat(pivotResult.rows().get(60)).isEqualTo(countRow(NOW.plusMinutes(1).withSecondOfMinute(0), 2L));
+        assertThat(pivotResult.rows().get(61).values())
+                .containsExactly(PivotResult.Value.create(List.of("count()"), 64L, true, "row-inner"));
+        assertThat(metricRegistry.meter("org.graylog.plugins.views.search.engine.SearchTypeResultCache.hits").getCount()).isEqualTo(1);
+        assertThat(metricRegistry.meter("org.graylog.plugins.views.search.engine.SearchTypeResultCache.misses").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void addsAndRemovesBucketCountForPivotsWithoutCount() throws Exception {
+        final Query query = query(pivot(false, Max.builder().field("took_ms").build()));
+
+        final SearchTypeResultCache.Execution execution = cache.prepare(query);
+        assertThat(searchType(execution.query()).series())
+                .extracting(SeriesSpec::id)
+                .containsExactly("max(took_ms)", SearchTypeResultCache.BUCKET_COUNT_SERIES_ID);
+
+        final PivotResult.Row row = PivotResult.Row.builder()
+                .key(ImmutableList.of("2023-05-01T11:00:00.000Z"))
+                .source("leaf")
+                .addValue(PivotResult.Value.create(List.of("max(took_ms)"), 42.0, true, "row-leaf"))
+                .addValue(PivotResult.Value.create(List.of(SearchTypeResultCache.BUCKET_COUNT_SERIES_ID), 3L, true, "row-leaf"))
+                .build();
+        final PivotResult pivotResult = (PivotResult) execution.complete(result(execution.query(), List.of(row), 3L))
+                .searchTypes().get("pivot");
+
+        assertThat(pivotResult.rows()).hasSize(1);
+        assertThat(pivotResult.rows().get(0).values())
+                .containsExactly(PivotResult.Value.create(List.of("max(took_ms)"), 42.0, true, "row-leaf"));
+    }
+
+    @Test
+    void dropsCachedBucketsWhenIndexRangesAreUpdated() throws Exception {
+        final Query query = query(pivot(true, Count.builder().build()));
+        final SearchTypeResultCache.Execution first = cache.prepare(query);
+        first.complete(result(first.query(), countRows(NOW.minusHours(1).withSecondOfMinute(0), 61, 1L), 61L));
+
+        cache.handleIndexRangesUpdated(IndexRangesUpdatedEvent.create("node-id", "graylog_0"));
+
+        assertThat(searchType(cache.prepare(query).query()).query()).isEmpty();
+    }
+
+    @Test
+    void doesNotCacheSortedPivots() throws Exception {
+        final Pivot pivot = pivot(true, Count.builder().build()).toBuilder()
+                .sort(PivotSort.create("timestamp", SortSpec.Direction.Descending))
+                .build();
+        final Query query = query(pivot);
+
+        assertThat(cache.prepare(query).query()).isSameAs(query);
+    }
+
+    @Test
+    void doesNothingWhenDisabled() throws Exception {
+        final Query query = query(pivot(true, Count.builder().build()));
+
+        assertThat(createCache(0).prepare(query).query()).isSameAs(query);
+    }
+
+    @Test
+    void combinesValuesOfMergeableSeries() {
+        assertThat(SearchTypeResultCache.combine("count", List.of(1L, 2L))).isEqualTo(3L);
+        assertThat(SearchTypeResultCache.combine("sum", List.of(1.5, 2L))).isEqualTo(3.5);
+        assertThat(SearchTypeResultCache.combine("min", List.of(3.0, Double.POSITIVE_INFINITY, 1.0))).isEqualTo(1.0);
+        assertThat(SearchTypeResultCache.combine("max", List.of(3.0, Double.NEGATIVE_INFINITY, 1.0))).isEqualTo(3.0);
+    }
+
+    private SearchTypeResultCache createCache(int size) {
+        return new SearchTypeResultCache(size, Duration.minutes(5), Duration.minutes(1), metricRegistry, new EventBus());
+    }
+
+    private static Pivot pivot(boolean rollup, SeriesSpec series) {
+        return Pivot.builder()
+                .id("pivot")
+                .rowGroups(Time.builder().field("timestamp").interval(TimeUnitInterval.Builder.builder().timeunit("1m").build()).build())
+                .series(series)
+                .rollup(rollup)
+                .build();
+    }
+
+    private static Query query(Pivot pivot) throws Exception {
+        return Query.builder()
+                .id("query")
+                .query(ElasticsearchQueryString.of("source:example.org"))
+                .timerange(RelativeRange.create(3600))
+                .searchTypes(Set.of(pivot))
+                .build();
+    }
+
+    private static Pivot searchType(Query query) {
+        return (Pivot) query.searchTypes().iterator().next();
+    }
+
+    private static List<PivotResult.Row> countRows(DateTime start, int buckets, long count) {
+        final ImmutableList.Builder<PivotResult.Row> rows = ImmutableList.builder();
+        for (int i = 0; i < buckets; i++) {
+            rows.add(countRow(start.plusMinutes(i), count));
+        }
+        return rows.build();
+    }
+
+    private static PivotResult.Row countRow(DateTime bucket, long count) {
+        return PivotResult.Row.builder()
+                .key(ImmutableList.of(bucket.toString()))
+                .source("leaf")
+                .addValue(PivotResult.Value.create(List.of("count()"), count, true, "row-leaf"))
+                .build();
+    }
+
+    private static QueryResult result(Query query, List<PivotResult.Row> rows, long total) {
+        final SearchType pivot = query.searchTypes().iterator().next();
+        final PivotResult.Builder result = PivotResult.builder()
+                .id(pivot.id())
+                .effectiveTimerange(AbsoluteRange.create(NOW.minusHours(1), NOW))
+                .total(total)
+                .addAllRows(rows);
+        if (((Pivot) pivot).rollup()) {
+            result.addRow(PivotResult.Row.builder()
+                    .key(ImmutableList.of())
+                    .source("non-leaf")
+                    .addValue(PivotResult.Value.create(List.of("count()"), total, true, "row-inner"))
+                    .build());
+        }
+        return QueryResult.builder()
+                .query(query)
+                .searchTypes(Map.of(pivot.id(), result.build()))
+                .build();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.messages;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Duration;
+import com.github.joschi.jadconfig.util.Size;
+import org.graylog2.Configuration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdaptiveBatchSizerTest {
+    private static final long MIN_BYTES = 1024L;
+    private static final long MAX_BYTES = MIN_BYTES + 32 * 100L;
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(5);
+
+    private MetricRegistry metricRegistry;
+    private AdaptiveBatchSizer sizer;
+
+    @Before
+    public void setUp() {
+        metricRegistry = new MetricRegistry();
+        sizer = new AdaptiveBatchSizer(new Configuration() {
+            @Override
+            public boolean isOutputAdaptiveBatchSize() {
+                return true;
+            }
+
+            @Override
+            public Size getOutputAdaptiveBatchMinSize() {
+                return Size.bytes(MIN_BYTES);
+            }
+
+            @Override
+            public Size getOutputAdaptiveBatchMaxSize() {
+                return Size.bytes(MAX_BYTES);
+            }
+
+            @Override
+            public Duration getOutputAdaptiveBatchTargetLatency() {
+                return Duration.seconds(1L);
+            }
+        }, metricRegistry);
+    }
+
+    @Test
+    public void startsWithMinimumSize() {
+        assertThat(sizer.isEnabled()).isTrue();
+        assertThat(sizer.getTargetBatchBytes()).isEqualTo(MIN_BYTES);
+        assertThat(metricRegistry.getGauges().get(name(AdaptiveBatchSizer.class, "targetBatchBytes")).getValue())
+                .isEqualTo(MIN_BYTES);
+    }
+
+    @Test
+    public void growsAdditivelyAfterFastFullBatchesUpToMaximum() {
+        sizer.onBatchIndexed(MIN_BYTES, FAST, 0);
+        assertThat(sizer.getTargetBatchBytes()).isEqualTo(MIN_BYTES + 100L);
+
+        for (int i = 0; i < 100; i++) {
+            sizer.onBatchIndexed(sizer.getTargetBatchBytes(), FAST, 0);
+        }
+        assertThat(sizer.getTargetBatchBytes()).isEqualTo(MAX_BYTES);
+    }
+
+    @Test
+    public void doesNotGrowAfterPartialBatches() {
+        sizer.onBatchIndexed(MIN_BYTES / 2, FAST, 0);
+
+        assertThat(sizer.getTargetBatchBytes()).isEqualTo(MIN_BYTES);
+    }
+
+    @Test
+    public void shrinksMultiplicativelyOnHighLatencyAndRejections() {
+        for (int i = 0; i < 32; i++) {
+            sizer.onBatchIndexed(sizer.getTargetBatchBytes(), FAST, 0);
+        }
+        assertThat(sizer.getTargetBatchBytes()).isEqualTo(MAX_BYTES);
+
+        sizer.onBatchIndexed(MAX_BYTES, SLOW, 0);
+        final long afterSlowBatch = (long) (MAX_BYTES * AdaptiveBatchSizer.LATENCY_DECREASE_FACTOR);
+        assertThat(sizer.getTargetBatchBytes()).isEqualTo(afterSlowBatch);
+
+        sizer.onBatchIndexed(afterSlowBatch, FAST, 1);
+        assertThat(sizer.getTargetBatchBytes()).isEqualTo(Math.max(MIN_BYTES, (long) (afterSlowBatch * AdaptiveBatchSizer.REJECTION_DECREASE_FACTOR)));
+        assertThat(metricRegistry.meter(name(AdaptiveBatchSizer.class, "rejections")).getCount()).isEqualTo(1L);
+
+        // Rejections only affect the batch during which they happened.
+        sizer.onBatchIndexed(sizer.getTargetBatchBytes(), FAST, 0);
+        assertThat(sizer.getTargetBatchBytes()).isGreaterThan(MIN_BYTES);
+    }
+
+    @Test
+    public void neverShrinksBelowMinimum() {
+        for (int i = 0; i < 10; i++) {
+            sizer.onBatchIndexed(MIN_BYTES, SLOW, 2);
+        }
+
+        assertThat(sizer.getTargetBatchBytes()).isEqualTo(MIN_BYTES);
+    }
+
+    @Test
+    public void rejectionCounterCountsRejectedRequests() {
+        final AdaptiveBatchSizer.RejectionCounter counter = new AdaptiveBatchSizer.RejectionCounter();
+        counter.onRetry(1L);
+        counter.onRejected();
+        counter.onRejected();
+        counter.onSuccess(1L);
+
+        assertThat(counter.getRejections()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.messages;
+
+import com.codahale.metrics.Meter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import org.graylog2.indexer.IndexSet;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Tools;
+import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BulkRequestWriterTest {
+    private final ObjectMapper objectMapper = new ObjectMapperProvider().get();
+    private BulkRequestWriter writer;
+    private IndexSet indexSet;
+
+    @Before
+    public void setUp() {
+        writer = new BulkRequestWriter(objectMapper, new Meter());
+        indexSet = mock(IndexSet.class);
+        when(indexSet.getWriteIndexAlias()).thenReturn("graylog_deflector");
+    }
+
+    @Test
+    public void writesActionAndSourceLinePerRequest() throws Exception {
+        final Message first = new Message("first", "source", Tools.nowUTC());
+        first.addField("field.with.dots", "value");
+        final Message second = new Message("second", "source", Tools.nowUTC());
+
+        final List<String> lines = lines(writer.write(ImmutableList.of(
+                IndexingRequest.create(indexSet, first),
+                IndexingRequest.create(indexSet, second))));
+
+        assertThat(lines).hasSize(4);
+        assertThat(objectMapper.readTree(lines.get(0)))
+                .isEqualTo(objectMapper.readTree("{\"index\":{\"_index\":\"graylog_deflector\",\"_id\":\"" + first.getId() + "\"}}"));
+        final JsonNode firstSource = objectMapper.readTree(lines.get(1));
+        assertThat(firstSource.path("message").asText()).isEqualTo("first");
+        assertThat(firstSource.path("field_with_dots").asText()).isEqualTo("value");
+        assertThat(firstSource.has(Message.FIELD_ID)).isFalse();
+        assertThat(objectMapper.readTree(lines.get(2)).path("index").path("_id").asText()).isEqualTo(second.getId());
+        assertThat(objectMapper.readTree(lines.get(3)).path("message").asText()).isEqualTo("second");
+    }
+
+    @Test
+    public void reusesBufferOfCurrentThread() throws Exception {
+        final Message message = new Message("message", "source", Tools.nowUTC());
+
+        final BulkRequestWriter.Buffer first = writer.write(ImmutableList.of(IndexingRequest.create(indexSet, message)));
+        final int size = first.size();
+        final BulkRequestWriter.Buffer second = writer.write(ImmutableList.of(IndexingRequest.create(indexSet, message)));
+
+        assertThat(second).isSameAs(first);
+        assertThat(second.size()).isEqualTo(size);
+    }
+
+    @Test
+    public void writesEmptyBodyForNoRequests() throws Exception {
+        assertThat(writer.write(Collections.emptyList()).size()).isZero();
+    }
+
+    private static List<String> lines(BulkRequestWriter.Buffer buffer) {
+        final String body = new String(buffer.array(), 0, buffer.size(), StandardCharsets.UTF_8);
+        assertThat(body).endsWith("\n");
+        return ImmutableList.copyOf(body.substring(0, body.length() - 1).split("\n", -1));
+    }
+}
@@ -65,7 +65,7 @@ class MessagesBulkIndexRetryingTest {
         assertThat(result).isNotNull()
                 .isEmpty();
 
-        verify(messagesAdapter, never()).bulkIndex(any());
+        verify(messagesAdapter, never()).bulkIndex(any(), any());
     }
 
     @Test
@@ -76,7 +76,7 @@ class MessagesBulkIndexRetryingTest {
                 errorResultItem(messageId, Messages.IndexingError.ErrorType.MappingError, "failed to parse [http_response_code]")
         );
 
-        when(messagesAdapter.bulkIndex(any()))
+        when(messagesAdapter.bulkIndex(any(), any()))
                 .thenReturn(errorResult)
                 .thenThrow(new IllegalStateException("JestResult#execute should not be called twice."));
 
@@ -90,12 +90,12 @@ class MessagesBulkIndexRetryingTest {
 
         assertThat(result).hasSize(1);
 
-        verify(messagesAdapter, times(1)).bulkIndex(any());
+        verify(messagesAdapter, times(1)).bulkIndex(any(), any());
     }
 
     @Test
     public void bulkIndexingShouldRetry() throws Exception {
-        when(messagesAdapter.bulkIndex(any()))
+        when(messagesAdapter.bulkIndex(any(), any()))
                 .thenThrow(new IOException("Boom!"))
                 .thenReturn(Collections.emptyList());
 
@@ -105,7 +105,7 @@ class MessagesBulkIndexRetryingTest {
 
         assertThat(result).isNotNull().isEmpty();
 
-        verify(messagesAdapter, times(2)).bulkIndex(any());
+        verify(messagesAdapter, times(2)).bulkIndex(any(), any());
     }
 
     @Test
@@ -115,13 +115,13 @@ class MessagesBulkIndexRetryingTest {
         );
         final List<Messages.IndexingError> successResult = Collections.emptyList();
 
-        when(messagesAdapter.bulkIndex(any()))
+        when(messagesAdapter.bulkIndex(any(), any()))
                 .thenReturn(errorResult)
                 .thenReturn(successResult);
 
         final List<String> result = messages.bulkIndex(messagesWithIds("blocked-id"));
 
-        verify(messagesAdapter, times(2)).bulkIndex(any());
+        verify(messagesAdapter, times(2)).bulkIndex(any(), any());
         assertThat(result).isNotNull().isEmpty();
     }
 
@@ -133,13 +133,13 @@ class MessagesBulkIndexRetryingTest {
         );
         final List<Messages.IndexingError> successResult = Collections.emptyList();
 
-        when(messagesAdapter.bulkIndex(any()))
+        when(messagesAdapter.bulkIndex(any(), any()))
                 .thenReturn(errorResult)
                 .thenReturn(successResult);
 
         final List<String> result = messages.bulkIndex(messagesWithIds("blocked-id", "other-error-id"));
 
-        verify(messagesAdapter, times(2)).bulkIndex(any());
+        verify(messagesAdapter, times(2)).bulkIndex(any(), any());
         assertThat(result).containsOnly("other-error-id");
     }
 
@@ -153,13 +153,13 @@ class MessagesBulkIndexRetryingTest {
                 errorResultItem("other-error-id", Messages.IndexingError.ErrorType.Unknown, "Some other error")
         );
 
-        when(messagesAdapter.bulkIndex(any()))
+        when(messagesAdapter.bulkIndex(any(), any()))
                 .thenReturn(errorResult)
                 .thenReturn(secondErrorResult);
 
         final List<String> result = messages.bulkIndex(messagesWithIds("blocked-id", "other-error-id"));
 
-        verify(messagesAdapter, times(2)).bulkIndex(any());
+        verify(messagesAdapter, times(2)).bulkIndex(any(), any());
         assertThat(result).containsOnly("other-error-id");
     }
 
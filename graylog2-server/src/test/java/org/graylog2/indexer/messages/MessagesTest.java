@@ -44,6 +44,7 @@ import java.util.stream.Collectors;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -81,12 +82,12 @@ public class MessagesTest {
         assertThat(result).isNotNull()
                 .isEmpty();
 
-        verify(messagesAdapter, never()).bulkIndex(any());
+        verify(messagesAdapter, never()).bulkIndex(any(), any());
     }
 
     @Test
     public void bulkIndexingShouldAccountMessageSizes() throws IOException {
-        when(messagesAdapter.bulkIndex(any())).thenReturn(Collections.emptyList());
+        when(messagesAdapter.bulkIndex(any(), any())).thenReturn(Collections.emptyList());
         final IndexSet indexSet = mock(IndexSet.class);
         final List<Map.Entry<IndexSet, Message>> messageList = ImmutableList.of(
                 createMessageListEntry(indexSet, messageWithSize(17)),
@@ -102,7 +103,7 @@ public class MessagesTest {
 
     @Test
     public void bulkIndexingShouldAccountMessageSizesForSystemTrafficSeparately() throws IOException {
-        when(messagesAdapter.bulkIndex(any())).thenReturn(Collections.emptyList());
+        when(messagesAdapter.bulkIndex(any(), any())).thenReturn(Collections.emptyList());
         final IndexSet indexSet = mock(IndexSet.class);
         final List<Map.Entry<IndexSet, Message>> messageList = ImmutableList.of(
                 createMessageListEntry(indexSet, messageWithSize(17)),
@@ -131,7 +132,7 @@ public class MessagesTest {
                 IndexingRequest.create(indexSet, message2),
                 IndexingRequest.create(indexSet, message3));
 
-        when(messagesAdapter.bulkIndex(indexingRequest)).thenReturn(
+        when(messagesAdapter.bulkIndex(eq(indexingRequest), any())).thenReturn(
                 ImmutableList.of(
                         Messages.IndexingError.create(message2, "msg-index", Messages.IndexingError.ErrorType.MappingError, "Some error message"),
                         Messages.IndexingError.create(message3, "msg-index", Messages.IndexingError.ErrorType.MappingError, "Some error message"),
@@ -177,7 +178,7 @@ public class MessagesTest {
                 IndexingRequest.create(indexSet, message1),
                 IndexingRequest.create(indexSet, message2));
 
-        when(messagesAdapter.bulkIndex(indexingRequest)).thenReturn(ImmutableList.of());
+        when(messagesAdapter.bulkIndex(eq(indexingRequest), any())).thenReturn(ImmutableList.of());
 
         // when
         final List<String> failureIds = messages.bulkIndexRequests(indexingRequest, false);
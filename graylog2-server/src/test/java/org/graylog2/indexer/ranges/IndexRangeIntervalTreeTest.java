@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.indexer.ranges;
+
+import com.google.common.collect.ImmutableList;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IndexRangeIntervalTreeTest {
+    private static final DateTime EPOCH = new DateTime(0L, DateTimeZone.UTC);
+
+    @Test
+    public void findReturnsOverlappingRanges() {
+        final IndexRangeIntervalTree tree = IndexRangeIntervalTree.create(ImmutableList.of(
+                range("graylog_1", 1, 2),
+                range("graylog_2", 2, 3),
+                range("graylog_3", 3, 4),
+                range("graylog_4", 4, 5),
+                range("graylog_5", 5, 6)));
+
+        assertThat(indexNames(tree.find(day(2).plusHours(12), day(4).plusHours(12)))).containsExactly("graylog_2", "graylog_3", "graylog_4");
+        assertThat(indexNames(tree.find(day(3), day(3)))).containsExactly("graylog_2", "graylog_3");
+        assertThat(tree.find(day(7), day(8))).isEmpty();
+    }
+
+    @Test
+    public void findAlwaysReturnsUnknownRanges() {
+        final IndexRangeIntervalTree tree = IndexRangeIntervalTree.create(ImmutableList.of(
+                range("graylog_1", 1, 2),
+                MongoIndexRange.create("graylog_2", EPOCH, EPOCH, EPOCH, 0)));
+
+        assertThat(indexNames(tree.find(day(1), day(2)))).containsExactly("graylog_2", "graylog_1");
+        assertThat(indexNames(tree.find(day(10), day(11)))).containsExactly("graylog_2");
+    }
+
+    @Test
+    public void withReplacesAndWithoutRemovesRangeOfIndex() {
+        final IndexRangeIntervalTree tree = IndexRangeIntervalTree.create(ImmutableList.of(
+                range("graylog_1", 1, 2),
+                range("graylog_2", 2, 3)));
+
+        final IndexRangeIntervalTree updated = tree.with(range("graylog_2", 5, 6)).without("graylog_1");
+
+        assertThat(updated.size()).isEqualTo(1);
+        assertThat(updated.find(day(1), day(3))).isEmpty();
+        assertThat(indexNames(updated.find(day(5), day(5)))).containsExactly("graylog_2");
+        assertThat(updated.without("graylog_1")).isSameAs(updated);
+        // The original tree is unchanged.
+        assertThat(tree.find(day(1), day(3))).hasSize(2);
+    }
+
+    @Test
+    public void findMatchesLinearScan() {
+        final Random random = new Random(42L);
+        final List<IndexRange> ranges = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            final int begin = 1 + random.nextInt(1000);
+            ranges.add(range("graylog_" + i, begin, begin + random.nextInt(50)));
+        }
+        final IndexRangeIntervalTree tree = IndexRangeIntervalTree.create(ranges);
+
+        for (int i = 0; i < 200; i++) {
+            final int begin = 1 + random.nextInt(1000);
+            final DateTime from = day(begin);
+            final DateTime to = day(begin + random.nextInt(100));
+            final List<IndexRange> expected = ranges.stream()
+                    .filter(range -> !range.begin().isAfter(to) && !range.end().isBefore(from))
+                    .sorted(IndexRange.COMPARATOR)
+                    .collect(Collectors.toList());
+
+            final SortedSet<IndexRange> result = tree.find(from, to);
+
+            assertThat(result).containsExactlyElementsOf(expected);
+        }
+    }
+
+    private static DateTime day(int day) {
+        return EPOCH.plusDays(day);
+    }
+
+    private static IndexRange range(String index, int beginDay, int endDay) {
+        return MongoIndexRange.create(index, day(beginDay), day(endDay), day(endDay), 42);
+    }
+
+    private static List<String> indexNames(SortedSet<IndexRange> indexRanges) {
+        return indexRanges.stream().map(IndexRange::indexName).collect(Collectors.toList());
+    }
+}
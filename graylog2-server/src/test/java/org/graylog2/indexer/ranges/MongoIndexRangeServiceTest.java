@@ -17,6 +17,7 @@
 package org.graylog2.indexer.ranges;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.joschi.jadconfig.util.Duration;
 import com.google.common.eventbus.EventBus;
 import org.assertj.jodatime.api.Assertions;
 import org.bson.types.ObjectId;
@@ -25,6 +26,7 @@ import org.graylog.testing.mongodb.MongoDBInstance;
 import org.graylog2.audit.NullAuditEventSender;
 import org.graylog2.bindings.providers.MongoJackObjectMapperProvider;
 import org.graylog2.database.NotFoundException;
+import org.graylog2.events.ClusterEventBus;
 import org.graylog2.indexer.ElasticsearchException;
 import org.graylog2.indexer.IndexSetRegistry;
 import org.graylog2.indexer.indices.HealthStatus;
@@ -32,6 +34,7 @@ import org.graylog2.indexer.indices.Indices;
 import org.graylog2.indexer.indices.events.IndicesClosedEvent;
 import org.graylog2.indexer.indices.events.IndicesDeletedEvent;
 import org.graylog2.indexer.indices.events.IndicesReopenedEvent;
+import org.graylog2.indexer.ranges.events.IndexRangesUpdatedEvent;
 import org.graylog2.indexer.searches.IndexRangeStats;
 import org.graylog2.plugin.Tools;
 import org.graylog2.plugin.system.SimpleNodeId;
@@ -45,15 +48,24 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class MongoIndexRangeServiceTest {
+    private static final String NODE_ID = "5ca1ab1e-0000-4000-a000-000000000000";
+
     @Rule
     public final MongoDBInstance mongodb = MongoDBInstance.createForClass();
 
@@ -67,13 +79,15 @@ public class MongoIndexRangeServiceTest {
     private Indices indices;
     @Mock
     private IndexSetRegistry indexSetRegistry;
+    @Mock
+    private ClusterEventBus clusterEventBus;
     private EventBus localEventBus;
     private MongoIndexRangeService indexRangeService;
 
     @Before
     public void setUp() throws Exception {
         localEventBus = new EventBus("local-event-bus");
-        indexRangeService = new MongoIndexRangeService(mongodb.mongoConnection(), objectMapperProvider, indices, indexSetRegistry, new NullAuditEventSender(), new SimpleNodeId("5ca1ab1e-0000-4000-a000-000000000000"), localEventBus);
+        indexRangeService = new MongoIndexRangeService(mongodb.mongoConnection(), objectMapperProvider, indices, indexSetRegistry, new NullAuditEventSender(), new SimpleNodeId(NODE_ID), localEventBus, clusterEventBus, Duration.minutes(1L));
     }
 
     @Test
@@ -309,4 +323,85 @@ public class MongoIndexRangeServiceTest {
         final SortedSet<IndexRange> indexRanges = indexRangeService.find(begin, end);
         assertThat(indexRanges).isEmpty();
     }
+
+    @Test
+    @MongoDBFixtures("MongoIndexRangeServiceTest-distinct.json")
+    public void findReflectsSavedAndRemovedIndexRanges() throws Exception {
+        final DateTime begin = new DateTime(2015, 1, 2, 12, 0, DateTimeZone.UTC);
+        final DateTime end = new DateTime(2015, 1, 3, 12, 0, DateTimeZone.UTC);
+        assertThat(indexNames(indexRangeService.find(begin, end))).containsExactly("graylog_2", "graylog_3");
+
+        indexRangeService.save(MongoIndexRange.create("graylog_6", begin, end, DateTime.now(DateTimeZone.UTC), 42));
+        assertThat(indexRangeService.remove("graylog_2")).isTrue();
+
+        assertThat(indexNames(indexRangeService.find(begin, end))).containsExactly("graylog_6", "graylog_3");
+        verify(clusterEventBus).post(IndexRangesUpdatedEvent.create(NODE_ID, "graylog_6"));
+        verify(clusterEventBus).post(IndexRangesUpdatedEvent.create(NODE_ID, "graylog_2"));
+    }
+
+    @Test
+    @MongoDBFixtures("MongoIndexRangeServiceTest-distinct.json")
+    public void findReflectsIndexRangesUpdatedOnOtherNodes() throws Exception {
+        final String otherNodeId = "5ca1ab1e-0000-4000-a000-000000000001";
+        final MongoIndexRangeService otherNodeService = new MongoIndexRangeService(mongodb.mongoConnection(), objectMapperProvider, indices, indexSetRegistry, new NullAuditEventSender(), new SimpleNodeId(otherNodeId), new EventBus(), new ClusterEventBus(), Duration.minutes(1L));
+        final DateTime begin = new DateTime(2015, 1, 2, 12, 0, DateTimeZone.UTC);
+        final DateTime end = new DateTime(2015, 1, 3, 12, 0, DateTimeZone.UTC);
+        assertThat(indexRangeService.find(begin, end)).hasSize(2);
+
+        otherNodeService.remove("graylog_2");
+        // Not visible until the cluster event has been received.
+        assertThat(indexRangeService.find(begin, end)).hasSize(2);
+
+        localEventBus.post(IndexRangesUpdatedEvent.create(otherNodeId, "graylog_2"));
+
+        assertThat(indexNames(indexRangeService.find(begin, end))).containsExactly("graylog_3");
+    }
+
+    @Test
+    @MongoDBFixtures("MongoIndexRangeServiceTest-distinct.json")
+    public void findReloadsIndexRangesAfterRefreshInterval() throws Exception {
+        final MongoIndexRangeService service = new MongoIndexRangeService(mongodb.mongoConnection(), objectMapperProvider, indices, indexSetRegistry, new NullAuditEventSender(), new SimpleNodeId(NODE_ID), new EventBus(), new ClusterEventBus(), Duration.milliseconds(1L));
+        final String otherNodeId = "5ca1ab1e-0000-4000-a000-000000000001";
+        final MongoIndexRangeService otherNodeService = new MongoIndexRangeService(mongodb.mongoConnection(), objectMapperProvider, indices, indexSetRegistry, new NullAuditEventSender(), new SimpleNodeId(otherNodeId), new EventBus(), new ClusterEventBus(), Duration.minutes(1L));
+        final DateTime begin = new DateTime(2015, 1, 2, 12, 0, DateTimeZone.UTC);
+        final DateTime end = new DateTime(2015, 1, 3, 12, 0, DateTimeZone.UTC);
+        assertThat(service.find(begin, end)).hasSize(2);
+
+        // The cluster event of the other node is never received.
+        otherNodeService.remove("graylog_2");
+        Thread.sleep(5L);
+
+        assertThat(indexNames(service.find(begin, end))).containsExactly("graylog_3");
+    }
+
+    @Test
+    @MongoDBFixtures("MongoIndexRangeServiceTest-distinct.json")
+    public void concurrentFindsLoadIndexRangesOnce() throws Exception {
+        final MongoIndexRangeService service = spy(indexRangeService);
+        doAnswer(invocation -> {
+            // Give the other threads time to wait for the reload in progress
+            Thread.sleep(100L);
+            return invocation.callRealMethod();
+        }).when(service).findAll();
+        final DateTime begin = new DateTime(2015, 1, 2, 12, 0, DateTimeZone.UTC);
+        final DateTime end = new DateTime(2015, 1, 3, 12, 0, DateTimeZone.UTC);
+
+        final List<Thread> threads = new ArrayList<>();
+        final List<SortedSet<IndexRange>> results = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 4; i++) {
+            final Thread thread = new Thread(() -> results.add(service.find(begin, end)), "index-range-find-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(results).hasSize(4).allSatisfy(ranges -> assertThat(ranges).hasSize(2));
+        verify(service, times(1)).findAll();
+    }
+
+    private static List<String> indexNames(SortedSet<IndexRange> indexRanges) {
+        return indexRanges.stream().map(IndexRange::indexName).collect(Collectors.toList());
+    }
 }
@@ -34,6 +34,7 @@ import org.junit.Test;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 
@@ -91,6 +92,23 @@ public class GelfChunkAggregatorTest {
         assertEquals(0, counterValueNamed(metricRegistry, DUPLICATE_CHUNKS));
     }
 
+    @Test
+    public void unchunkedMessageIsNotCopied() {
+        final ByteBuf message = Unpooled.copiedBuffer("{\"version\":\"1.1\"}", StandardCharsets.UTF_8);
+
+        final ByteBuf result = aggregator.addChunk(message).getMessage();
+
+        assertNotNull("message should be complete", result);
+        assertThat(result.toString(StandardCharsets.UTF_8)).isEqualTo("{\"version\":\"1.1\"}");
+        assertThat(result.hasArray()).isTrue();
+        assertThat(result.array()).isSameAs(message.array());
+        assertThat(message.refCnt()).isEqualTo(2);
+        assertThat(message.readerIndex()).isZero();
+
+        result.release();
+        assertThat(message.refCnt()).isEqualTo(1);
+    }
+
     @Test
     public void manyChunks() {
         final ByteBuf[] chunks = createChunkedMessage(4096 + 512, 1024); // creates 5 chunks
@@ -17,11 +17,15 @@
 package org.graylog2.inputs.codecs;
 
 import com.fasterxml.jackson.core.JsonParseException;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import org.graylog2.inputs.TestHelper;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.inputs.codecs.BatchMessageCodec;
 import org.graylog2.plugin.journal.RawMessage;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -33,10 +37,14 @@ import org.mockito.junit.MockitoRule;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.time.DateTimeException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
 import static org.hamcrest.Matchers.isA;
 import static org.junit.Assume.assumeTrue;
 
@@ -414,4 +422,55 @@ public class GelfCodecTest {
         assertThat(message).isNotNull();
         assertThat(message.getTimestamp()).isEqualTo(DateTime.parse("2017-07-21T14:23:00.661Z"));
     }
+
+    @Test
+    public void decodeBatchDecodesLikeSingleMessages() throws Exception {
+        final List<RawMessage> rawMessages = new ArrayList<>();
+        for (String json : new String[]{
+                "{\"host\": \"example.org\", \"short_message\": \"one\", \"_nested\": {\"a\": [1, 2.5, \"x\", null, true]}, \"_empty\": null}",
+                "{\"host\": \"example.org\", \"message\": \"two\", \"level\": \"3\", \"line\": 12.9, \"_flag\": false, \"_big\": 123456789012345678901234567890}",
+                "{\"host\": \"example.org\", \"short_message\": \"three\", \"_dup\": 1, \"_dup\": 2, \"timestamp\": \"1385053862.3072\",}"}) {
+            rawMessages.add(new RawMessage(json.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        final List<Collection<Message>> batch = codec.decodeBatch(rawMessages);
+
+        assertThat(batch).hasSize(3);
+        for (int i = 0; i < rawMessages.size(); i++) {
+            final Message expected = codec.decode(rawMessages.get(i));
+            final Message actual = Iterables.getOnlyElement(batch.get(i));
+            assertThat(Maps.filterKeys(actual.getFields(), key -> !Message.FIELD_ID.equals(key)))
+                    .isEqualTo(Maps.filterKeys(expected.getFields(), key -> !Message.FIELD_ID.equals(key)));
+        }
+
+        final Message first = Iterables.getOnlyElement(batch.get(0));
+        assertThat(first.getField("nested")).isEqualTo("{\"a\":[1,2.5,\"x\",null,true]}");
+        assertThat(first.hasField("empty")).isFalse();
+        final Message second = Iterables.getOnlyElement(batch.get(1));
+        assertThat(second.getField("level")).isEqualTo(3);
+        assertThat(second.getField("line")).isEqualTo(12L);
+        assertThat(second.hasField("flag")).isFalse();
+        final Message third = Iterables.getOnlyElement(batch.get(2));
+        assertThat(third.getField("dup")).isEqualTo(2L);
+        assertThat(third.getTimestamp()).isEqualTo(new DateTime(1385053862307L, DateTimeZone.UTC));
+    }
+
+    @Test
+    public void decodeBatchRejectsInvalidMessages() throws Exception {
+        try (BatchMessageCodec.BatchDecoder decoder = codec.openBatch()) {
+            assertThatIllegalArgumentException().isThrownBy(() -> decoder.decode(
+                    new RawMessage("{\"host\": 42, \"short_message\": \"foo\"}".getBytes(StandardCharsets.UTF_8))))
+                    .withMessageContaining("has invalid \"host\": 42");
+            assertThatIllegalArgumentException().isThrownBy(() -> decoder.decode(
+                    new RawMessage("[{\"host\": \"example.org\", \"short_message\": \"foo\"}]".getBytes(StandardCharsets.UTF_8))))
+                    .withMessageContaining("is missing mandatory \"short_message\" or \"message\" field.");
+            assertThatIllegalStateException().isThrownBy(() -> decoder.decode(
+                    new RawMessage("{\"host\": \"example.org\", \"short_message\": \"foo\"".getBytes(StandardCharsets.UTF_8))));
+
+            // The decoder is still usable after invalid messages.
+            final Collection<Message> messages = decoder.decode(
+                    new RawMessage("{\"host\": \"example.org\", \"short_message\": \"foo\"}".getBytes(StandardCharsets.UTF_8)));
+            assertThat(messages).extracting(Message::getMessage).containsExactly("foo");
+        }
+    }
 }
@@ -24,11 +24,14 @@ import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
 import org.junit.Test;
 
 import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 import static org.graylog2.inputs.codecs.JsonPathCodec.CK_FLATTEN;
 import static org.graylog2.inputs.codecs.JsonPathCodec.CK_PATH;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 // TODO migrate test to use codec instead
 public class JsonPathCodecTest {
@@ -162,4 +165,43 @@ public class JsonPathCodecTest {
         assertThat(selector.buildShortMessage(fields)).isEqualTo("JSON API poll result:  -> {baz=9001, foo=bargggdzrtdfgfdgldfsjgkfdlgjdflkjgl[...]");
     }
 
+    @Test
+    public void testFlattenStreamsNestedValues() throws Exception {
+        final String json = "{\"a\": {\"b\": [1, {\"c\": \"x\\\"y\"}], \"d\": 2.5}, \"e\": true, \"f\": 12345678901}";
+        final JsonPathCodec codec = new JsonPathCodec(configOf(CK_PATH, "$", CK_FLATTEN, true), objectMapperProvider.get());
+
+        assertThat(codec.flatten(json)).containsExactly(
+                Map.entry("a.b0", 1),
+                Map.entry("a.b1.c", "\"x\\\"y\""),
+                Map.entry("a.d", 2.5),
+                Map.entry("e", true),
+                Map.entry("f", 12345678901L));
+    }
+
+    @Test
+    public void testFlattenDuplicateKeysKeepLastValue() throws Exception {
+        final JsonPathCodec codec = new JsonPathCodec(configOf(CK_PATH, "$", CK_FLATTEN, true), objectMapperProvider.get());
+
+        assertThat(codec.flatten("{\"a\": 1, \"b\": 2, \"a\": 3}")).containsExactly(Map.entry("a", 3), Map.entry("b", 2));
+    }
+
+    @Test
+    public void testFlattenRejectsNull() {
+        final JsonPathCodec codec = new JsonPathCodec(configOf(CK_PATH, "$", CK_FLATTEN, true), objectMapperProvider.get());
+
+        assertThatThrownBy(() -> codec.flatten("{\"a\": null}")).isInstanceOf(JsonPathCodec.JsonFlattenException.class);
+    }
+
+    @Test
+    public void testDecodeBatch() throws Exception {
+        final JsonPathCodec codec = new JsonPathCodec(configOf(CK_PATH, "$", CK_FLATTEN, true), objectMapperProvider.get());
+
+        final List<Collection<Message>> messages = codec.decodeBatch(List.of(
+                new RawMessage("{\"a\": 1}".getBytes(StandardCharsets.UTF_8)),
+                new RawMessage("{\"b\": [\"x\"]}".getBytes(StandardCharsets.UTF_8))));
+
+        assertThat(messages).hasSize(2);
+        assertThat(messages.get(0)).extracting(message -> message.getField("a")).containsExactly(1);
+        assertThat(messages.get(1)).extracting(message -> message.getField("b0")).containsExactly("\"x\"");
+    }
 }
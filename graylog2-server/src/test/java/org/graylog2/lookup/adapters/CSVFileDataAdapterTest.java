@@ -216,6 +216,8 @@ public class CSVFileDataAdapterTest {
         csvFileDataAdapter.doStart();
 
         assertThat(csvFileDataAdapter.doGet("10.10.64.128")).isEqualTo(LookupResult.single("Corporate"));
+        // The most specific range wins
+        assertThat(csvFileDataAdapter.doGet("10.10.1.5")).isEqualTo(LookupResult.single("Corporate Lab"));
         assertThat(csvFileDataAdapter.doGet("192.168.100.112")).isEqualTo(LookupResult.single("Finance"));
         assertThat(csvFileDataAdapter.doGet("192.168.101.66")).isEqualTo(LookupResult.single("IT"));
         assertThat(csvFileDataAdapter.doGet("192.168.102.205")).isEqualTo(LookupResult.single("HR"));
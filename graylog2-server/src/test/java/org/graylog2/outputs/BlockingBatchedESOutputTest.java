@@ -17,30 +17,45 @@
 package org.graylog2.outputs;
 
 import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.util.Size;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import org.graylog2.Configuration;
 import org.graylog2.indexer.IndexSet;
 import org.graylog2.indexer.cluster.Cluster;
+import org.graylog2.indexer.messages.AdaptiveBatchSizer;
 import org.graylog2.indexer.messages.Messages;
 import org.graylog2.plugin.Message;
 import org.graylog2.plugin.Tools;
+import org.graylog2.shared.SuppressForbidden;
 import org.graylog2.shared.journal.NoopJournal;
 import org.graylog2.shared.messageq.MessageQueueAcknowledger;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.assertj.core.api.Assertions.assertThat;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
@@ -78,14 +93,15 @@ public class BlockingBatchedESOutputTest {
             }
         };
 
-        output = new BlockingBatchedESOutput(metricRegistry, messages, config, journal, acknowledger, cluster);
+        output = new BlockingBatchedESOutput(metricRegistry, messages, config, journal, acknowledger, cluster,
+                new AdaptiveBatchSizer(config, metricRegistry));
     }
 
     @Test
     public void write() throws Exception {
         final List<Map.Entry<IndexSet, Message>> messageList = sendMessages(output, config.getOutputBatchSize());
 
-        verify(messages, times(1)).bulkIndex(eq(messageList));
+        verify(messages, times(1)).bulkIndex(eq(messageList), isNull());
     }
 
     @Test
@@ -95,7 +111,7 @@ public class BlockingBatchedESOutputTest {
         // Should flush the buffer even though the batch size is not reached yet
         output.forceFlushIfTimedout();
 
-        verify(messages, times(1)).bulkIndex(eq(messageList));
+        verify(messages, times(1)).bulkIndex(eq(messageList), isNull());
     }
 
     @Test
@@ -107,7 +123,7 @@ public class BlockingBatchedESOutputTest {
 
         output.stop();
 
-        verify(messages, times(1)).bulkIndex(eq(messageList));
+        verify(messages, times(1)).bulkIndex(eq(messageList), isNull());
     }
 
     @Test
@@ -130,7 +146,7 @@ public class BlockingBatchedESOutputTest {
         when(cluster.isConnected()).thenReturn(true);
         when(cluster.isDeflectorHealthy()).thenReturn(true);
 
-        when(messages.bulkIndex(any())).thenAnswer(invocation -> {
+        when(messages.bulkIndex(any(), isNull())).thenAnswer(invocation -> {
             // this will block until interrupted
             new CountDownLatch(1).await();
             return null;
@@ -141,7 +157,243 @@ public class BlockingBatchedESOutputTest {
         // shutdown timeout is < test timeout
         output.stop();
 
-        verify(messages, times(1)).bulkIndex(eq(messageList));
+        verify(messages, times(1)).bulkIndex(eq(messageList), isNull());
+    }
+
+    @Test
+    @Timeout(5)
+    public void asyncWriteAcknowledgesBatchesInOrder() throws Exception {
+        final BlockingBatchedESOutput asyncOutput = createAsyncOutput(2);
+        final CountDownLatch firstBatchBlocked = new CountDownLatch(1);
+        final CountDownLatch releaseFirstBatch = new CountDownLatch(1);
+        final List<Map.Entry<IndexSet, Message>> firstBatch = buildMessages(config.getOutputBatchSize());
+        final List<Map.Entry<IndexSet, Message>> secondBatch = buildMessages(config.getOutputBatchSize());
+
+        when(messages.bulkIndex(any(), isNull())).thenAnswer(invocation -> {
+            if (invocation.getArgument(0).equals(firstBatch)) {
+                firstBatchBlocked.countDown();
+                releaseFirstBatch.await();
+            }
+            return Collections.emptyList();
+        });
+
+        writeEntries(asyncOutput, firstBatch);
+        firstBatchBlocked.await();
+        writeEntries(asyncOutput, secondBatch);
+
+        // The second batch is indexed while the first one is still in flight, but not acknowledged before it.
+        verify(messages, timeout(1000)).bulkIndex(eq(secondBatch), isNull());
+        verifyNoInteractions(acknowledger);
+
+        releaseFirstBatch.countDown();
+
+        final InOrder inOrder = inOrder(acknowledger);
+        inOrder.verify(acknowledger, timeout(1000)).acknowledge(eq(valuesOf(firstBatch)));
+        inOrder.verify(acknowledger, timeout(1000)).acknowledge(eq(valuesOf(secondBatch)));
+    }
+
+    @Test
+    @Timeout(5)
+    public void asyncWriteDoesNotAcknowledgeFailedBatches() throws Exception {
+        final BlockingBatchedESOutput asyncOutput = createAsyncOutput(1);
+        final List<Map.Entry<IndexSet, Message>> failingBatch = buildMessages(config.getOutputBatchSize());
+        final List<Map.Entry<IndexSet, Message>> secondBatch = buildMessages(config.getOutputBatchSize());
+
+        when(messages.bulkIndex(any(), isNull())).thenAnswer(invocation -> {
+            if (invocation.getArgument(0).equals(failingBatch)) {
+                throw new IllegalStateException("indexing failed");
+            }
+            return Collections.emptyList();
+        });
+
+        writeEntries(asyncOutput, failingBatch);
+        writeEntries(asyncOutput, secondBatch);
+
+        verify(acknowledger, timeout(1000)).acknowledge(eq(valuesOf(secondBatch)));
+        verify(acknowledger, never()).acknowledge(eq(valuesOf(failingBatch)));
+    }
+
+    @Test
+    public void asyncStopWaitsForInflightBatches() throws Exception {
+        when(cluster.isConnected()).thenReturn(true);
+        when(cluster.isDeflectorHealthy()).thenReturn(true);
+        final BlockingBatchedESOutput asyncOutput = createAsyncOutput(2);
+
+        final List<Map.Entry<IndexSet, Message>> messageList = sendMessages(asyncOutput, config.getOutputBatchSize() - 1);
+        asyncOutput.stop();
+
+        verify(messages, times(1)).bulkIndex(eq(messageList), isNull());
+        verify(acknowledger, times(1)).acknowledge(eq(valuesOf(messageList)));
+    }
+
+    @Test
+    public void inOrderAcknowledgementsReleaseCompletedPrefix() {
+        final BlockingBatchedESOutput.InOrderAcknowledgements<String> acknowledgements = new BlockingBatchedESOutput.InOrderAcknowledgements<>();
+        final long first = acknowledgements.register();
+        final long second = acknowledgements.register();
+        final long third = acknowledgements.register();
+
+        assertThat(acknowledgements.complete(third, ImmutableList.of("c"))).isEmpty();
+        assertThat(acknowledgements.complete(second, ImmutableList.of("b"))).isEmpty();
+        assertThat(acknowledgements.pending()).isEqualTo(3);
+        assertThat(acknowledgements.complete(first, ImmutableList.of("a")))
+                .containsExactly(ImmutableList.of("a"), ImmutableList.of("b"), ImmutableList.of("c"));
+        assertThat(acknowledgements.pending()).isZero();
+    }
+
+    @Test
+    public void forceFlushDrainsBuffersOfAllThreads() throws Exception {
+        final List<Map.Entry<IndexSet, Message>> firstThreadMessages = buildMessages(config.getOutputBatchSize() - 1);
+        final List<Map.Entry<IndexSet, Message>> secondThreadMessages = buildMessages(config.getOutputBatchSize() - 1);
+
+        writeEntriesInNewThread(output, firstThreadMessages);
+        writeEntriesInNewThread(output, secondThreadMessages);
+        verifyNoInteractions(messages);
+
+        output.forceFlushIfTimedout();
+
+        verify(messages, times(1)).bulkIndex(eq(firstThreadMessages), isNull());
+        verify(messages, times(1)).bulkIndex(eq(secondThreadMessages), isNull());
+    }
+
+    @Test
+    public void acknowledgementIsHeldBackByMessagesBufferedInOtherThreads() throws Exception {
+        when(cluster.isConnected()).thenReturn(true);
+        when(cluster.isDeflectorHealthy()).thenReturn(true);
+        final List<Map.Entry<IndexSet, Message>> olderMessages = buildMessages(1, 0L);
+        final List<Map.Entry<IndexSet, Message>> newerMessages = buildMessages(config.getOutputBatchSize(), 1L);
+
+        writeEntriesInNewThread(output, olderMessages);
+        writeEntriesInNewThread(output, newerMessages);
+
+        // The newer messages have been indexed, but the journal offset must not be committed past the older message.
+        verify(messages, times(1)).bulkIndex(eq(newerMessages), isNull());
+        verifyNoInteractions(acknowledger);
+
+        output.stop();
+
+        final InOrder inOrder = inOrder(acknowledger);
+        inOrder.verify(acknowledger).acknowledge(eq(valuesOf(olderMessages)));
+        inOrder.verify(acknowledger).acknowledge((Object) 3L);
+    }
+
+    @Test
+    public void adaptiveBatchSizeFlushesByPayloadSize() throws Exception {
+        final Configuration adaptiveConfig = new Configuration() {
+            @Override
+            public int getOutputBatchSize() {
+                return 3;
+            }
+
+            @Override
+            public boolean isOutputAdaptiveBatchSize() {
+                return true;
+            }
+
+            @Override
+            public Size getOutputAdaptiveBatchMinSize() {
+                return Size.bytes(200L);
+            }
+
+            @Override
+            public Size getOutputAdaptiveBatchMaxSize() {
+                return Size.bytes(2000L);
+            }
+        };
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final AdaptiveBatchSizer adaptiveBatchSizer = new AdaptiveBatchSizer(adaptiveConfig, metricRegistry);
+        final BlockingBatchedESOutput adaptiveOutput = new BlockingBatchedESOutput(metricRegistry, messages, adaptiveConfig,
+                new NoopJournal(), acknowledger, cluster, adaptiveBatchSizer);
+
+        // Every message is much smaller than 200 bytes, so more than output_batch_size messages are buffered.
+        final List<Map.Entry<IndexSet, Message>> messageList = buildMessages(10);
+        long bytes = 0;
+        int flushAfter = 0;
+        while (bytes < 200L) {
+            bytes += messageList.get(flushAfter++).getValue().getSize();
+        }
+        assertThat(flushAfter).isGreaterThan(adaptiveConfig.getOutputBatchSize());
+
+        writeEntries(adaptiveOutput, messageList.subList(0, flushAfter - 1));
+        verifyNoInteractions(messages);
+
+        writeEntries(adaptiveOutput, messageList.subList(flushAfter - 1, flushAfter));
+        verify(messages, times(1)).bulkIndex(eq(messageList.subList(0, flushAfter)), any(AdaptiveBatchSizer.RejectionCounter.class));
+        assertThat(adaptiveBatchSizer.getTargetBatchBytes()).isGreaterThan(200L);
+    }
+
+    @Test
+    public void adaptiveBatchSizeCountsRejectionsOfEachBatch() throws Exception {
+        final Configuration adaptiveConfig = new Configuration() {
+            @Override
+            public boolean isOutputAdaptiveBatchSize() {
+                return true;
+            }
+
+            @Override
+            public Size getOutputAdaptiveBatchMinSize() {
+                return Size.bytes(1L);
+            }
+        };
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final AdaptiveBatchSizer adaptiveBatchSizer = new AdaptiveBatchSizer(adaptiveConfig, metricRegistry);
+        final BlockingBatchedESOutput adaptiveOutput = new BlockingBatchedESOutput(metricRegistry, messages, adaptiveConfig,
+                new NoopJournal(), acknowledger, cluster, adaptiveBatchSizer);
+        when(messages.bulkIndex(any(), any(Messages.IndexingListener.class))).thenAnswer(invocation -> {
+            final Messages.IndexingListener listener = invocation.getArgument(1);
+            listener.onRejected();
+            listener.onRejected();
+            return Collections.emptyList();
+        });
+
+        writeEntries(adaptiveOutput, buildMessages(1));
+
+        assertThat(metricRegistry.meter(name(AdaptiveBatchSizer.class, "rejections")).getCount()).isEqualTo(2L);
+    }
+
+    private BlockingBatchedESOutput createAsyncOutput(int inflightBatches) {
+        final Configuration asyncConfig = new Configuration() {
+            @Override
+            public int getOutputBatchSize() {
+                return config.getOutputBatchSize();
+            }
+
+            @Override
+            public int getShutdownTimeout() {
+                return 1000;
+            }
+
+            @Override
+            public int getOutputInflightBatches() {
+                return inflightBatches;
+            }
+        };
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        return new BlockingBatchedESOutput(metricRegistry, messages, asyncConfig, new NoopJournal(), acknowledger, cluster,
+                new AdaptiveBatchSizer(asyncConfig, metricRegistry));
+    }
+
+    private static void writeEntries(BlockingBatchedESOutput output, List<Map.Entry<IndexSet, Message>> entries) throws Exception {
+        for (Map.Entry<IndexSet, Message> entry : entries) {
+            output.writeMessageEntry(entry);
+        }
+    }
+
+    private static List<Message> valuesOf(List<Map.Entry<IndexSet, Message>> entries) {
+        return entries.stream().map(Map.Entry::getValue).collect(Collectors.toList());
+    }
+
+    @SuppressForbidden("Using Executors.newSingleThreadExecutor() is okay in tests")
+    private static void writeEntriesInNewThread(BlockingBatchedESOutput output, List<Map.Entry<IndexSet, Message>> entries) throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> {
+                writeEntries(output, entries);
+                return null;
+            }).get();
+        } finally {
+            executor.shutdown();
+        }
     }
 
     private List<Map.Entry<IndexSet, Message>> buildMessages(final int count) {
@@ -153,6 +405,14 @@ public class BlockingBatchedESOutputTest {
         return builder.build();
     }
 
+    private List<Map.Entry<IndexSet, Message>> buildMessages(final int count, final long firstOffset) {
+        final List<Map.Entry<IndexSet, Message>> entries = buildMessages(count);
+        for (int i = 0; i < count; i++) {
+            entries.get(i).getValue().setMessageQueueId(firstOffset + i);
+        }
+        return entries;
+    }
+
     private List<Map.Entry<IndexSet, Message>> sendMessages(BlockingBatchedESOutput output, int count) throws Exception {
         final List<Map.Entry<IndexSet, Message>> messageList = buildMessages(count);
 
@@ -16,6 +16,7 @@
  */
 package org.graylog2.outputs;
 
+import com.google.common.collect.ImmutableList;
 import org.graylog2.gelfclient.GelfMessage;
 import org.graylog2.gelfclient.GelfMessageLevel;
 import org.graylog2.gelfclient.transport.GelfTransport;
@@ -24,12 +25,14 @@ import org.graylog2.plugin.configuration.ConfigurationRequest;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 
@@ -47,6 +50,24 @@ public class GelfOutputTest {
         verify(transport).send(eq(gelfMessage));
     }
 
+    @Test
+    public void testWriteBatch() throws Exception {
+        final GelfTransport transport = mock(GelfTransport.class);
+        final Message message1 = mock(Message.class);
+        final Message message2 = mock(Message.class);
+        final GelfMessage gelfMessage1 = new GelfMessage("Test 1");
+        final GelfMessage gelfMessage2 = new GelfMessage("Test 2");
+        final GelfOutput gelfOutput = Mockito.spy(new GelfOutput(transport));
+        doReturn(gelfMessage1).when(gelfOutput).toGELFMessage(message1);
+        doReturn(gelfMessage2).when(gelfOutput).toGELFMessage(message2);
+
+        gelfOutput.write(ImmutableList.of(message1, message2));
+
+        final InOrder inOrder = inOrder(transport);
+        inOrder.verify(transport).send(eq(gelfMessage1));
+        inOrder.verify(transport).send(eq(gelfMessage2));
+    }
+
     @Test
     public void testGetRequestedConfiguration() throws Exception {
         final GelfOutput.Config gelfOutputConfig = new GelfOutput.Config();
@@ -51,6 +51,7 @@ import static org.junit.Assert.assertSame;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class OutputRegistryTest {
@@ -72,12 +73,14 @@ public class OutputRegistryTest {
     private EventBus eventBus;
     @Mock
     private StreamService streamService;
+    @Mock
+    private StreamOutputDispatcher streamOutputDispatcher;
 
     private OutputRegistry registry;
 
     @Before
     public void setUp() throws Exception {
-        registry = new OutputRegistry(messageOutput, outputService, messageOutputFactory, null,
+        registry = new OutputRegistry(messageOutput, outputService, messageOutputFactory, streamOutputDispatcher, null,
                 null, eventBus, streamService, FAULT_COUNT_THRESHOLD, FAULT_PENALTY_SECONDS);
     }
 
@@ -143,6 +146,7 @@ public class OutputRegistryTest {
         registry.handleOutputChanged(OutputChangedEvent.create("output-1"));
 
         assertThat(registry.getRunningMessageOutputs()).containsOnlyKeys("output-2");
+        verify(streamOutputDispatcher).remove("output-1");
     }
 
     @Test
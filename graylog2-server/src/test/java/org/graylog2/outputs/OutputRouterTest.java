@@ -33,9 +33,12 @@ import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 public class OutputRouterTest {
@@ -46,11 +49,13 @@ public class OutputRouterTest {
     private MessageOutput defaultMessageOutput;
     @Mock
     private OutputRegistry outputRegistry;
+    @Mock
+    private StreamOutputDispatcher streamOutputDispatcher;
 
     @Test
     public void testAlwaysIncludeDefaultOutput() throws Exception {
         final Message message = mock(Message.class);
-        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry);
+        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry, streamOutputDispatcher);
 
         final Collection<MessageOutput> messageOutputs = outputRouter.getOutputsForMessage(message);
 
@@ -61,7 +66,7 @@ public class OutputRouterTest {
     @Test
     public void testGetMessageOutputsForEmptyStream() throws Exception {
         final Stream stream = mock(Stream.class);
-        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry);
+        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry, streamOutputDispatcher);
 
         final Collection<MessageOutput> messageOutputs = outputRouter.getMessageOutputsForStream(stream);
 
@@ -78,7 +83,7 @@ public class OutputRouterTest {
         when(stream.getOutputs()).thenReturn(outputSet);
         when(output.getId()).thenReturn(outputId);
         when(outputRegistry.getOutputForIdAndStream(eq(outputId), eq(stream))).thenReturn(messageOutput);
-        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry);
+        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry, streamOutputDispatcher);
 
         final Collection<MessageOutput> messageOutputs = outputRouter.getMessageOutputsForStream(stream);
 
@@ -101,7 +106,7 @@ public class OutputRouterTest {
         when(output2.getId()).thenReturn(output2Id);
         when(outputRegistry.getOutputForIdAndStream(eq(output1Id), eq(stream))).thenReturn(messageOutput1);
         when(outputRegistry.getOutputForIdAndStream(eq(output2Id), eq(stream))).thenReturn(messageOutput2);
-        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry);
+        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry, streamOutputDispatcher);
 
         final Collection<MessageOutput> messageOutputs = outputRouter.getMessageOutputsForStream(stream);
 
@@ -119,7 +124,7 @@ public class OutputRouterTest {
         final MessageOutput messageOutput = mock(MessageOutput.class);
         final Set<MessageOutput> messageOutputList = ImmutableSet.of(messageOutput);
 
-        final OutputRouter outputRouter = Mockito.spy(new OutputRouter(defaultMessageOutput, outputRegistry));
+        final OutputRouter outputRouter = Mockito.spy(new OutputRouter(defaultMessageOutput, outputRegistry, streamOutputDispatcher));
         doReturn(messageOutputList).when(outputRouter).getMessageOutputsForStream(eq(stream));
 
         // Call to test
@@ -142,7 +147,7 @@ public class OutputRouterTest {
         final Message message = mock(Message.class);
         when(message.getStreams()).thenReturn(ImmutableSet.of(stream1, stream2));
 
-        OutputRouter outputRouter = Mockito.spy(new OutputRouter(defaultMessageOutput, outputRegistry));
+        OutputRouter outputRouter = Mockito.spy(new OutputRouter(defaultMessageOutput, outputRegistry, streamOutputDispatcher));
         doReturn(messageOutputSet1).when(outputRouter).getMessageOutputsForStream(eq(stream1));
         doReturn(messageOutputSet2).when(outputRouter).getMessageOutputsForStream(eq(stream2));
 
@@ -163,7 +168,7 @@ public class OutputRouterTest {
         final Message message = mock(Message.class);
         when(message.getStreams()).thenReturn(ImmutableSet.of(stream1, stream2));
 
-        OutputRouter outputRouter = Mockito.spy(new OutputRouter(defaultMessageOutput, outputRegistry));
+        OutputRouter outputRouter = Mockito.spy(new OutputRouter(defaultMessageOutput, outputRegistry, streamOutputDispatcher));
         doReturn(messageOutputSet).when(outputRouter).getMessageOutputsForStream(eq(stream1));
         doReturn(messageOutputSet).when(outputRouter).getMessageOutputsForStream(eq(stream2));
 
@@ -173,4 +178,31 @@ public class OutputRouterTest {
         assertTrue(result.contains(defaultMessageOutput));
         assertTrue(result.contains(messageOutput));
     }
+
+    @Test
+    public void testDispatchToStreamOutputs() throws Exception {
+        final Stream stream1 = mock(Stream.class);
+        final Stream stream2 = mock(Stream.class);
+        final Output output1 = mock(Output.class);
+        final Output output2 = mock(Output.class);
+        final MessageOutput messageOutput = mock(MessageOutput.class);
+        final MessageOutput stoppedMessageOutput = mock(MessageOutput.class);
+        final Message message = mock(Message.class);
+        when(message.getStreams()).thenReturn(ImmutableSet.of(stream1, stream2));
+        when(stream1.getOutputs()).thenReturn(ImmutableSet.of(output1));
+        when(stream2.getOutputs()).thenReturn(ImmutableSet.of(output1, output2));
+        when(output1.getId()).thenReturn("output1");
+        when(output2.getId()).thenReturn("output2");
+        when(outputRegistry.getOutputForIdAndStream(eq("output1"), any(Stream.class))).thenReturn(messageOutput);
+        when(outputRegistry.getOutputForIdAndStream(eq("output2"), eq(stream2))).thenReturn(stoppedMessageOutput);
+        when(messageOutput.isRunning()).thenReturn(true);
+        when(stoppedMessageOutput.isRunning()).thenReturn(false);
+        final OutputRouter outputRouter = new OutputRouter(defaultMessageOutput, outputRegistry, streamOutputDispatcher);
+
+        assertEquals(2, outputRouter.dispatchToStreamOutputs(message));
+
+        // The output of both streams only receives the message once
+        verify(streamOutputDispatcher).dispatch(message, messageOutput, "output1");
+        verifyNoMoreInteractions(streamOutputDispatcher);
+    }
 }
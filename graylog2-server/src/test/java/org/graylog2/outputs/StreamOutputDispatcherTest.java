@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.outputs;
+
+import com.codahale.metrics.MetricRegistry;
+import org.graylog2.Configuration;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.outputs.MessageOutput;
+import org.graylog2.shared.SuppressForbidden;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Timeout(5)
+public class StreamOutputDispatcherTest {
+    private MetricRegistry metricRegistry;
+    private ExecutorService executor;
+    private StreamOutputDispatcher dispatcher;
+
+    @BeforeEach
+    @SuppressForbidden("Allow using default thread factory")
+    public void setUp() {
+        final Configuration configuration = new Configuration() {
+            @Override
+            public int getOutputStreamBatchSize() {
+                return 3;
+            }
+
+            @Override
+            public int getOutputStreamQueueSize() {
+                return 4;
+            }
+
+            @Override
+            public long getOutputModuleTimeout() {
+                return 10L;
+            }
+        };
+        metricRegistry = new MetricRegistry();
+        executor = Executors.newFixedThreadPool(2);
+        dispatcher = new StreamOutputDispatcher(configuration, metricRegistry, executor);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void writesQueuedMessagesInBatches() throws Exception {
+        final BlockingOutput output = new BlockingOutput();
+        final List<Message> messages = buildMessages(5);
+
+        assertThat(dispatcher.dispatch(messages.get(0), output, "output")).isTrue();
+        output.awaitBlocked();
+        for (Message message : messages.subList(1, 5)) {
+            assertThat(dispatcher.dispatch(message, output, "output")).isTrue();
+        }
+        output.release();
+
+        assertThat(output.batches.take()).containsExactly(messages.get(0));
+        assertThat(output.batches.take()).containsExactlyElementsOf(messages.subList(1, 4));
+        assertThat(output.batches.take()).containsExactly(messages.get(4));
+    }
+
+    @Test
+    public void dropsMessagesOfStuckOutputs() throws Exception {
+        final BlockingOutput stuckOutput = new BlockingOutput();
+        final BlockingOutput otherOutput = new BlockingOutput();
+        otherOutput.release();
+        final List<Message> messages = buildMessages(7);
+
+        assertThat(dispatcher.dispatch(messages.get(0), stuckOutput, "stuckOutput")).isTrue();
+        stuckOutput.awaitBlocked();
+        for (Message message : messages.subList(1, 5)) {
+            assertThat(dispatcher.dispatch(message, stuckOutput, "stuckOutput")).isTrue();
+        }
+
+        // The queue is full, so the message is dropped after the timeout and the next one without waiting.
+        assertThat(dispatcher.dispatch(messages.get(5), stuckOutput, "stuckOutput")).isFalse();
+        assertThat(dispatcher.dispatch(messages.get(6), stuckOutput, "stuckOutput")).isFalse();
+        assertThat(metricRegistry.meter(MetricRegistry.name(StreamOutputDispatcher.class, "stuckOutput", "droppedMessages")).getCount())
+                .isEqualTo(2);
+
+        // Other outputs are not affected.
+        assertThat(dispatcher.dispatch(messages.get(5), otherOutput, "otherOutput")).isTrue();
+        assertThat(otherOutput.batches.take()).containsExactly(messages.get(5));
+
+        stuckOutput.release();
+        assertThat(stuckOutput.batches.take()).containsExactly(messages.get(0));
+        assertThat(stuckOutput.batches.take()).containsExactlyElementsOf(messages.subList(1, 4));
+        assertThat(stuckOutput.batches.take()).containsExactly(messages.get(4));
+
+        // The output made progress, so messages are queued again.
+        assertThat(dispatcher.dispatch(messages.get(6), stuckOutput, "stuckOutput")).isTrue();
+        assertThat(stuckOutput.batches.take()).containsExactly(messages.get(6));
+    }
+
+    @Test
+    public void lingersForFullBatches() throws Exception {
+        final StreamOutputDispatcher lingeringDispatcher = new StreamOutputDispatcher(new Configuration() {
+            @Override
+            public int getOutputStreamBatchSize() {
+                return 3;
+            }
+
+            @Override
+            public long getOutputStreamLingerTime() {
+                return 10_000L;
+            }
+        }, metricRegistry, executor);
+        final BlockingOutput output = new BlockingOutput();
+        output.release();
+        final List<Message> messages = buildMessages(4);
+
+        for (Message message : messages) {
+            assertThat(lingeringDispatcher.dispatch(message, output, "output")).isTrue();
+        }
+
+        assertThat(output.batches.take()).containsExactlyElementsOf(messages.subList(0, 3));
+        assertThat(output.batches.poll(100, TimeUnit.MILLISECONDS)).isNull();
+        assertThat(metricRegistry.getGauges()).containsKey(MetricRegistry.name(StreamOutputDispatcher.class, "output", "queueSize"));
+    }
+
+    @Test
+    public void writesQueuedMessagesToRestartedOutput() throws Exception {
+        final BlockingOutput output = new BlockingOutput();
+        final BlockingOutput restartedOutput = new BlockingOutput();
+        restartedOutput.release();
+        final List<Message> messages = buildMessages(3);
+
+        assertThat(dispatcher.dispatch(messages.get(0), output, "output")).isTrue();
+        output.awaitBlocked();
+        assertThat(dispatcher.dispatch(messages.get(1), output, "output")).isTrue();
+        assertThat(dispatcher.dispatch(messages.get(2), restartedOutput, "output")).isTrue();
+        output.release();
+
+        assertThat(output.batches.take()).containsExactly(messages.get(0));
+        assertThat(restartedOutput.batches.take()).containsExactlyElementsOf(messages.subList(1, 3));
+    }
+
+    @Test
+    public void removesQueueAndMetricsOfRemovedOutput() throws Exception {
+        final BlockingOutput output = new BlockingOutput();
+        output.release();
+        final List<Message> messages = buildMessages(2);
+        final String queueSizeMetric = MetricRegistry.name(StreamOutputDispatcher.class, "output", "queueSize");
+
+        assertThat(dispatcher.dispatch(messages.get(0), output, "output")).isTrue();
+        assertThat(output.batches.take()).containsExactly(messages.get(0));
+        dispatcher.remove("output");
+        assertThat(metricRegistry.getGauges()).doesNotContainKey(queueSizeMetric);
+
+        final BlockingOutput newOutput = new BlockingOutput();
+        newOutput.release();
+        assertThat(dispatcher.dispatch(messages.get(1), newOutput, "output")).isTrue();
+        assertThat(newOutput.batches.take()).containsExactly(messages.get(1));
+        assertThat(metricRegistry.getGauges()).containsKey(queueSizeMetric);
+    }
+
+    private static List<Message> buildMessages(int count) {
+        final List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(new Message("message" + i, "test", Tools.nowUTC()));
+        }
+        return messages;
+    }
+
+    private static class BlockingOutput implements MessageOutput {
+        private final BlockingQueue<List<Message>> batches = new LinkedBlockingQueue<>();
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        void awaitBlocked() throws InterruptedException {
+            assertThat(blocked.await(1, TimeUnit.SECONDS)).isTrue();
+        }
+
+        void release() {
+            released.countDown();
+        }
+
+        @Override
+        public boolean isRunning() {
+            return true;
+        }
+
+        @Override
+        public void write(Message message) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void write(List<Message> messages) throws Exception {
+            blocked.countDown();
+            released.await();
+            batches.add(new ArrayList<>(messages));
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompactMessageFieldsTest {
+    private MessageFieldNames fieldNames;
+    private CompactMessageFields fields;
+
+    @Before
+    public void setUp() {
+        fieldNames = new MessageFieldNames(name -> !name.startsWith("_"), name -> true);
+        fields = new CompactMessageFields(fieldNames);
+    }
+
+    @Test
+    public void putGetAndRemove() {
+        assertThat(fields.put("foo", "bar")).isNull();
+        assertThat(fields.put("foo", "baz")).isEqualTo("bar");
+        assertThat(fields.get("foo")).isEqualTo("baz");
+        assertThat(fields.containsKey("foo")).isTrue();
+        assertThat(fields.containsKey("unknown")).isFalse();
+        assertThat(fields.get("unknown")).isNull();
+        assertThat(fields).hasSize(1);
+
+        assertThat(fields.remove("foo")).isEqualTo("baz");
+        assertThat(fields.containsKey("foo")).isFalse();
+        assertThat(fields).isEmpty();
+    }
+
+    @Test
+    public void keepsTypesOfUnboxedValues() {
+        fields.put("long", 42L);
+        fields.put("double", -0.5d);
+        fields.put("boolean", false);
+        fields.put("integer", 23);
+        fields.put("decimal", BigDecimal.ONE);
+
+        assertThat(fields.get("long")).isInstanceOf(Long.class).isEqualTo(42L);
+        assertThat(fields.get("double")).isInstanceOf(Double.class).isEqualTo(-0.5d);
+        assertThat(fields.get("boolean")).isInstanceOf(Boolean.class).isEqualTo(false);
+        assertThat(fields.get("integer")).isInstanceOf(Integer.class).isEqualTo(23);
+        assertThat(fields.get("decimal")).isEqualTo(BigDecimal.ONE);
+
+        assertThat(fields.put("long", "string")).isEqualTo(42L);
+        assertThat(fields.get("long")).isEqualTo("string");
+    }
+
+    @Test
+    public void supportsNullValues() {
+        fields.put("null", null);
+
+        assertThat(fields.containsKey("null")).isTrue();
+        assertThat(fields.get("null")).isNull();
+        assertThat(fields).hasSize(1);
+    }
+
+    @Test
+    public void behavesLikeHashMapWhenGrowingAndShrinking() {
+        final Map<String, Object> expected = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            fields.put("field_" + i, (long) i);
+            expected.put("field_" + i, (long) i);
+        }
+        assertThat(fields).isEqualTo(expected);
+
+        // Removing every other field exercises the backward shift deletion of the probe sequences
+        for (int i = 0; i < 1000; i += 2) {
+            assertThat(fields.remove("field_" + i)).isEqualTo((long) i);
+            expected.remove("field_" + i);
+        }
+        assertThat(fields).isEqualTo(expected);
+        for (int i = 1; i < 1000; i += 2) {
+            assertThat(fields.get("field_" + i)).isEqualTo((long) i);
+        }
+        assertThat(ImmutableMap.copyOf(fields)).isEqualTo(expected);
+
+        fields.clear();
+        assertThat(fields).isEmpty();
+        assertThat(fields.get("field_1")).isNull();
+    }
+
+    @Test
+    public void storesFieldsWhichHaveNotBeenInterned() {
+        for (int i = 0; fieldNames.size() < MessageFieldNames.MAX_NAMES; i++) {
+            fieldNames.intern("interned_" + i);
+        }
+        final MessageFieldNames.FieldName fieldName = fieldNames.intern("not_interned");
+        assertThat(fieldName.isInterned()).isFalse();
+        assertThat(fieldNames.forKey(" not_interned ").name()).isEqualTo("not_interned");
+
+        fields.put(fieldName, "value");
+        fields.put("interned_0", "other value");
+
+        assertThat(fields.get("not_interned")).isEqualTo("value");
+        assertThat(fields).isEqualTo(ImmutableMap.of("not_interned", "value", "interned_0", "other value"));
+        assertThat(fields.remove(fieldNames.lookup("not_interned"))).isEqualTo("value");
+        assertThat(fields).containsOnlyKeys("interned_0");
+    }
+
+    @Test
+    public void fieldNamesCacheValidationResults() {
+        final MessageFieldNames.FieldName fieldName = fieldNames.forKey(" foo ");
+
+        assertThat(fieldName.name()).isEqualTo("foo");
+        assertThat(fieldName.isAccepted()).isTrue();
+        assertThat(fieldNames.forKey(" foo ")).isSameAs(fieldName);
+        assertThat(fieldNames.forKey("foo")).isSameAs(fieldName);
+        assertThat(fieldNames.forKey("_foo").isAccepted()).isFalse();
+    }
+}
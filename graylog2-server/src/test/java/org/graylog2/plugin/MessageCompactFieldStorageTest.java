@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.plugin;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs all {@link MessageTest message tests} with the {@link MessageFieldStorage#COMPACT compact field storage}.
+ */
+public class MessageCompactFieldStorageTest extends MessageTest {
+    @BeforeClass
+    public static void useCompactFieldStorage() {
+        Message.setFieldStorage(MessageFieldStorage.COMPACT);
+    }
+
+    @AfterClass
+    public static void resetFieldStorage() {
+        Message.setFieldStorage(MessageFieldStorage.HASH_MAP);
+    }
+
+    @Test
+    public void fieldsAreEqualForBothStorages() {
+        final Message compactMessage = new Message("foo", "bar", Tools.nowUTC());
+        compactMessage.addField("long", 42L);
+        compactMessage.addField("double", 1.5d);
+        compactMessage.addField("boolean", true);
+        compactMessage.addField("integer", 23);
+        compactMessage.addField(" string ", " value ");
+        compactMessage.removeField("integer");
+
+        Message.setFieldStorage(MessageFieldStorage.HASH_MAP);
+        final Message hashMapMessage;
+        try {
+            hashMapMessage = new Message(compactMessage.getFields());
+            hashMapMessage.addStreams(compactMessage.getStreams());
+        } finally {
+            Message.setFieldStorage(MessageFieldStorage.COMPACT);
+        }
+
+        assertThat(compactMessage.getFields()).isEqualTo(hashMapMessage.getFields());
+        assertThat(compactMessage.getSize()).isEqualTo(hashMapMessage.getSize());
+        assertThat(compactMessage.getFieldAs(Long.class, "long")).isEqualTo(42L);
+        assertThat(compactMessage.getFieldAs(Double.class, "double")).isEqualTo(1.5d);
+        assertThat(compactMessage.getFieldAs(Boolean.class, "boolean")).isTrue();
+        assertThat(compactMessage.getField("string")).isEqualTo("value");
+        assertThat(compactMessage.hasField("integer")).isFalse();
+    }
+}
@@ -19,7 +19,9 @@ package org.graylog2.plugin;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.eaio.uuid.UUID;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -27,6 +29,7 @@ import com.google.common.collect.Sets;
 import org.graylog.failure.FailureCause;
 import org.graylog.failure.ProcessingFailureCause;
 import org.graylog2.indexer.IndexSet;
+import org.graylog2.jackson.TypeReferences;
 import org.graylog2.plugin.streams.Stream;
 import org.graylog2.shared.SuppressForbidden;
 import org.graylog2.shared.bindings.providers.ObjectMapperProvider;
@@ -40,6 +43,8 @@ import org.junit.Test;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -464,6 +469,53 @@ public class MessageTest {
                 .isEqualTo(43L);
     }
 
+    @Test
+    public void writeElasticSearchObjectStreamsSameDocumentAsToElasticSearchObject() throws Exception {
+        final Stream stream = mock(Stream.class);
+        when(stream.getId()).thenReturn("stream-id");
+        when(stream.getIndexSet()).thenReturn(mock(IndexSet.class));
+        message.addStream(stream);
+        message.addField("string", "value");
+        message.addField("long", 42L);
+        message.addField("double", 23.5d);
+        message.addField("boolean", true);
+        message.addField("list", ImmutableList.of("a", "b"));
+        message.addField("date", new DateTime(2021, 8, 19, 12, 0, DateTimeZone.UTC));
+        message.addField("field.1", "dot");
+        message.addField("field.2", "conflict");
+        message.addField("field_2", "plain");
+
+        assertThat(writeElasticSearchObject(message)).isEqualTo(serializeToElasticSearchObject(message));
+        assertThat(writeElasticSearchObject(message))
+                .containsEntry("field_1", "dot")
+                .containsEntry("field_2", "plain")
+                .doesNotContainKeys("field.1", "field.2", Message.FIELD_ID);
+    }
+
+    @Test
+    public void writeElasticSearchObjectHandlesInvalidTimestamp() throws Exception {
+        message.addField("timestamp", "time!");
+
+        final Map<String, Object> object = writeElasticSearchObject(message);
+
+        assertThat(object.get("timestamp")).isEqualTo(Tools.buildElasticSearchTimeFormat(Tools.nowUTC()));
+        assertThat((String) object.get(Message.FIELD_GL2_PROCESSING_ERROR)).startsWith("Replaced invalid timestamp value");
+        assertEquals(1, invalidTimestampMeter.getCount());
+    }
+
+    private Map<String, Object> writeElasticSearchObject(Message message) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            message.writeElasticSearchObject(objectMapper, generator, invalidTimestampMeter);
+        }
+        return objectMapper.readValue(outputStream.toByteArray(), TypeReferences.MAP_STRING_OBJECT);
+    }
+
+    private Map<String, Object> serializeToElasticSearchObject(Message message) throws IOException {
+        final byte[] bytes = objectMapper.writeValueAsBytes(message.toElasticSearchObject(objectMapper, invalidTimestampMeter));
+        return objectMapper.readValue(bytes, TypeReferences.MAP_STRING_OBJECT);
+    }
+
     @Test
     public void messageSizes() {
         final Message message = new Message("1234567890", "12345", Tools.nowUTC());
@@ -16,11 +16,14 @@
  */
 package org.graylog2.plugin.journal;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.system.SimpleNodeId;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 
 import static org.junit.Assert.assertArrayEquals;
@@ -42,4 +45,30 @@ public class RawMessageTest {
         assertArrayEquals("testmessage".getBytes(StandardCharsets.UTF_8), decodedMsg.getPayload());
         assertEquals("raw", decodedMsg.getCodecName());
     }
+
+    @Test
+    public void pooledPayloadIsCopiedOnceAndReleased() {
+        final ByteBuf buffer = Unpooled.copiedBuffer("testmessage", StandardCharsets.UTF_8);
+        final long outstanding = PooledPayload.outstanding();
+
+        final RawMessage rawMessage = new RawMessage(buffer, new InetSocketAddress("127.0.0.1", 12201));
+        rawMessage.addSourceNode("inputid", new SimpleNodeId("5ca1ab1e-0000-4000-a000-000000000000"));
+        rawMessage.setCodecName("raw");
+        rawMessage.setCodecConfig(Configuration.EMPTY_CONFIGURATION);
+
+        assertEquals(0, buffer.readerIndex());
+        assertEquals(11, rawMessage.getPayloadSize());
+        assertEquals(outstanding + 1, PooledPayload.outstanding());
+
+        final byte[] encoded = rawMessage.encode();
+        rawMessage.releasePayload();
+        rawMessage.releasePayload();
+
+        assertEquals(outstanding, PooledPayload.outstanding());
+        assertEquals(0, rawMessage.getPayloadSize());
+
+        final RawMessage decodedMsg = RawMessage.decode(encoded, 1);
+        assertNotNull(decodedMsg);
+        assertArrayEquals("testmessage".getBytes(StandardCharsets.UTF_8), decodedMsg.getPayload());
+    }
 }
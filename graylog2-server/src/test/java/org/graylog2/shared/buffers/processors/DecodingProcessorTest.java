@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers.processors;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.inputs.codecs.RawCodec;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.ServerStatus;
+import org.graylog2.plugin.buffers.MessageEvent;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.inputs.codecs.BatchMessageCodec;
+import org.graylog2.plugin.inputs.codecs.Codec;
+import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.plugin.system.SimpleNodeId;
+import org.graylog2.shared.journal.Journal;
+import org.graylog2.shared.messageq.MessageQueueAcknowledger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+public class DecodingProcessorTest {
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private ServerStatus serverStatus;
+    @Mock
+    private Journal journal;
+    @Mock
+    private MessageQueueAcknowledger acknowledger;
+
+    private final AtomicInteger openedBatches = new AtomicInteger();
+    private InputCodecCache inputCodecCache;
+    private DecodingProcessor decodingProcessor;
+
+    @Before
+    public void setUp() {
+        when(serverStatus.getDetailedMessageRecordingStrategy()).thenReturn(ServerStatus.MessageDetailRecordingStrategy.NEVER);
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        inputCodecCache = new InputCodecCache(new EventBus("decoding-processor-test"));
+        final Codec.Factory<RawCodec> rawCodecFactory = new RawCodec.Factory() {
+            @Override
+            public RawCodec create(Configuration configuration) {
+                return new RawCodec(configuration);
+            }
+
+            @Override
+            public RawCodec.Config getConfig() {
+                return new RawCodec.Config();
+            }
+
+            @Override
+            public RawCodec.Descriptor getDescriptor() {
+                return new RawCodec.Descriptor();
+            }
+        };
+        final Codec.Factory<BatchRawCodec> batchCodecFactory = new Codec.Factory<BatchRawCodec>() {
+            @Override
+            public BatchRawCodec create(Configuration configuration) {
+                return new BatchRawCodec(configuration, openedBatches);
+            }
+
+            @Override
+            public RawCodec.Config getConfig() {
+                return new RawCodec.Config();
+            }
+
+            @Override
+            public RawCodec.Descriptor getDescriptor() {
+                return new RawCodec.Descriptor();
+            }
+        };
+        decodingProcessor = new DecodingProcessor(ImmutableMap.of("raw", rawCodecFactory, "batch", batchCodecFactory), serverStatus,
+                metricRegistry, journal, acknowledger, inputCodecCache, metricRegistry.timer("decodeTime"), metricRegistry.timer("parseTime"));
+    }
+
+    @Test
+    public void decodesJournalEntries() throws Exception {
+        final RawMessage rawMessage = new RawMessage("hello".getBytes(StandardCharsets.UTF_8));
+        rawMessage.setCodecName("raw");
+        rawMessage.setCodecConfig(Configuration.EMPTY_CONFIGURATION);
+        rawMessage.addSourceNode("input-id", new SimpleNodeId("5ca1ab1e-0000-4000-a000-000000000000"));
+
+        final MessageEvent event = new MessageEvent();
+        event.setEncodedRaw(rawMessage.encode(), 42L);
+        decodingProcessor.onEvent(event, 0L, false);
+
+        final Message message = event.getMessage();
+        assertThat(message).isNotNull();
+        assertThat(message.getMessage()).isEqualTo("hello");
+        assertThat(message.getMessageQueueId()).isEqualTo(42L);
+        assertThat(event.getEncodedRaw()).isNull();
+        verifyNoInteractions(acknowledger);
+    }
+
+    @Test
+    public void acknowledgesUndecodableJournalEntries() throws Exception {
+        final MessageEvent event = new MessageEvent();
+        event.setEncodedRaw(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF}, 23L);
+        decodingProcessor.onEvent(event, 0L, false);
+
+        assertThat(event.getMessage()).isNull();
+        assertThat(event.getMessages()).isNull();
+        assertThat(event.getEncodedRaw()).isNull();
+        verify(acknowledger).acknowledge(23L);
+    }
+
+    @Test
+    public void decodesEventsOfBatchCodecsWithOneBatchDecoder() throws Exception {
+        final List<MessageEvent> events = new ArrayList<>();
+        for (String codecName : new String[]{"batch", "raw", "batch"}) {
+            final RawMessage rawMessage = new RawMessage(codecName.getBytes(StandardCharsets.UTF_8));
+            rawMessage.setCodecName(codecName);
+            rawMessage.setCodecConfig(Configuration.EMPTY_CONFIGURATION);
+            rawMessage.addSourceNode(codecName + "-input", new SimpleNodeId("5ca1ab1e-0000-4000-a000-000000000000"));
+            final MessageEvent event = new MessageEvent();
+            event.setRaw(rawMessage);
+            events.add(event);
+        }
+
+        decodingProcessor.onEvents(events);
+
+        assertThat(openedBatches).hasValue(1);
+        assertThat(events).extracting(event -> event.getMessage().getMessage()).containsExactly("batch", "raw", "batch");
+    }
+
+    private static class BatchRawCodec extends RawCodec implements BatchMessageCodec {
+        private final AtomicInteger openedBatches;
+
+        BatchRawCodec(Configuration configuration, AtomicInteger openedBatches) {
+            super(configuration);
+            this.openedBatches = openedBatches;
+        }
+
+        @Nonnull
+        @Override
+        public BatchDecoder openBatch() {
+            openedBatches.incrementAndGet();
+            return rawMessage -> Collections.singletonList(decode(rawMessage));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers.processors;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.inputs.codecs.RawCodec;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.inputs.codecs.Codec;
+import org.graylog2.rest.models.system.inputs.responses.InputDeleted;
+import org.graylog2.rest.models.system.inputs.responses.InputUpdated;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InputCodecCacheTest {
+    private final Configuration config = new Configuration(ImmutableMap.of("override_source", "foo"));
+
+    private EventBus eventBus;
+    private MetricRegistry metricRegistry;
+    private InputCodecCache.ProcessorCodecs codecs;
+    private int createdCodecs;
+
+    @Before
+    public void setUp() {
+        eventBus = new EventBus("input-codec-cache-test");
+        metricRegistry = new MetricRegistry();
+        final Codec.Factory<RawCodec> rawCodecFactory = new RawCodec.Factory() {
+            @Override
+            public RawCodec create(Configuration configuration) {
+                createdCodecs++;
+                return new RawCodec(configuration);
+            }
+
+            @Override
+            public RawCodec.Config getConfig() {
+                return new RawCodec.Config();
+            }
+
+            @Override
+            public RawCodec.Descriptor getDescriptor() {
+                return new RawCodec.Descriptor();
+            }
+        };
+        codecs = new InputCodecCache(eventBus).newProcessorCodecs(ImmutableMap.of("raw", rawCodecFactory), metricRegistry);
+    }
+
+    @Test
+    public void reusesCodecOfInput() {
+        final InputCodecCache.CachedCodec codec = codecs.get("input-1", "raw", config);
+
+        assertThat(codec).isNotNull();
+        assertThat(codecs.get("input-1", "raw", config)).isSameAs(codec);
+        assertThat(codecs.get("input-1", "raw", new Configuration(config.getSource()))).isSameAs(codec);
+        assertThat(codecs.get("input-2", "raw", config)).isNotSameAs(codec);
+        assertThat(createdCodecs).isEqualTo(2);
+        assertThat(metricRegistry.getMeters()).containsKey(RawCodec.class.getName() + ".input-1.processedMessages");
+    }
+
+    @Test
+    public void createsNewCodecIfConfigurationChanges() {
+        final InputCodecCache.CachedCodec codec = codecs.get("input-1", "raw", config);
+        final InputCodecCache.CachedCodec changedCodec = codecs.get("input-1", "raw", new Configuration(ImmutableMap.of("override_source", "bar")));
+
+        assertThat(changedCodec).isNotSameAs(codec);
+        assertThat(changedCodec.getCodec().getConfiguration().getString("override_source")).isEqualTo("bar");
+        assertThat(codecs.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void returnsNullForUnknownCodec() {
+        assertThat(codecs.get("input-1", "unknown", config)).isNull();
+    }
+
+    @Test
+    public void discardsCodecsWhenInputChanges() {
+        final InputCodecCache.CachedCodec codec = codecs.get("input-1", "raw", config);
+
+        eventBus.post(InputUpdated.create("input-1"));
+        final InputCodecCache.CachedCodec updatedCodec = codecs.get("input-1", "raw", config);
+        assertThat(updatedCodec).isNotSameAs(codec);
+
+        eventBus.post(InputDeleted.create("input-1"));
+        assertThat(codecs.get("input-1", "raw", config)).isNotSameAs(updatedCodec);
+        assertThat(createdCodecs).isEqualTo(3);
+    }
+}
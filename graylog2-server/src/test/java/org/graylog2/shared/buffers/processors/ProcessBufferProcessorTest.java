@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.buffers.processors;
+
+import com.codahale.metrics.MetricRegistry;
+import de.huxhorn.sulky.ulid.ULID;
+import org.graylog.failure.FailureSubmissionService;
+import org.graylog2.buffers.OutputBuffer;
+import org.graylog2.messageprocessors.MessageFilterChainProcessor;
+import org.graylog2.messageprocessors.OrderedMessageProcessors;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.Messages;
+import org.graylog2.plugin.ServerStatus;
+import org.graylog2.plugin.Tools;
+import org.graylog2.plugin.filters.MessageFilter;
+import org.graylog2.plugin.messageprocessors.MessageProcessor;
+import org.graylog2.plugin.streams.Stream;
+import org.graylog2.shared.messageq.MessageQueueAcknowledger;
+import org.graylog2.system.processing.ProcessingStatusRecorder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ProcessBufferProcessorTest {
+    @Rule
+    public final MockitoRule mockitoRule = MockitoJUnit.rule();
+
+    @Mock
+    private OrderedMessageProcessors orderedMessageProcessors;
+    @Mock
+    private OutputBuffer outputBuffer;
+    @Mock
+    private ProcessingStatusRecorder processingStatusRecorder;
+    @Mock
+    private DecodingProcessor decodingProcessor;
+    @Mock
+    private Stream defaultStream;
+    @Mock
+    private FailureSubmissionService failureSubmissionService;
+
+    private ProcessBufferProcessor processor;
+
+    @Before
+    public void setUp() {
+        when(failureSubmissionService.submitProcessingErrors(any())).thenReturn(true);
+        processor = new ProcessBufferProcessor(new MetricRegistry(), orderedMessageProcessors, outputBuffer,
+                processingStatusRecorder, new ULID(), new MessageULIDGenerator(new ULID()), decodingProcessor,
+                () -> defaultStream, failureSubmissionService);
+    }
+
+    @Test
+    public void dispatchBatchCallsBatchProcessorsOnceAndOthersPerMessage() {
+        final CountingProcessor batchProcessor = new CountingProcessor(true);
+        final CountingProcessor singleProcessor = new CountingProcessor(false);
+        when(orderedMessageProcessors.iterator()).thenReturn(Arrays.<MessageProcessor>asList(batchProcessor, singleProcessor).iterator());
+
+        final List<Message> batch = Arrays.asList(message("one"), message("two"), message("three"));
+        processor.dispatchBatch(batch);
+
+        assertThat(batchProcessor.invocations).isEqualTo(1);
+        assertThat(singleProcessor.invocations).isEqualTo(3);
+
+        @SuppressWarnings("unchecked")
+        final ArgumentCaptor<List<Message>> captor = ArgumentCaptor.forClass(List.class);
+        verify(outputBuffer).insertBlocking(captor.capture());
+        assertThat(captor.getValue()).containsExactlyElementsOf(batch);
+        assertThat(captor.getValue()).allSatisfy(message -> {
+            assertThat(message.getStreams()).containsExactly(defaultStream);
+            assertThat(message.hasField(Message.FIELD_GL2_MESSAGE_ID)).isTrue();
+        });
+    }
+
+    @Test
+    public void dispatchBatchRetriesFailingBatchOneByOne() {
+        final MessageProcessor failingProcessor = new MessageProcessor() {
+            @Override
+            public Messages process(Messages messages) {
+                for (Message message : messages) {
+                    if ("broken".equals(message.getMessage())) {
+                        throw new IllegalStateException("broken message");
+                    }
+                }
+                return messages;
+            }
+
+            @Override
+            public boolean supportsBatches() {
+                return true;
+            }
+
+            @Override
+            public boolean isIdempotent() {
+                return true;
+            }
+        };
+        when(orderedMessageProcessors.iterator()).thenReturn(Arrays.asList(failingProcessor).iterator());
+
+        final Message broken = message("broken");
+        final Message good = message("good");
+        processor.dispatchBatch(Arrays.asList(good, broken));
+
+        verify(failureSubmissionService).submitUnknownProcessingError(any(), any());
+        @SuppressWarnings("unchecked")
+        final ArgumentCaptor<List<Message>> captor = ArgumentCaptor.forClass(List.class);
+        verify(outputBuffer).insertBlocking(captor.capture());
+        assertThat(captor.getValue()).containsExactly(good);
+    }
+
+    @Test
+    public void dispatchBatchDropsFailingBatchOfNonIdempotentProcessor() {
+        final CountingProcessor failingProcessor = new CountingProcessor(true) {
+            @Override
+            public Messages process(Messages messages) {
+                super.process(messages);
+                throw new IllegalStateException("broken message");
+            }
+        };
+        when(orderedMessageProcessors.iterator()).thenReturn(Arrays.<MessageProcessor>asList(failingProcessor).iterator());
+
+        processor.dispatchBatch(Arrays.asList(message("one"), message("two")));
+
+        assertThat(failingProcessor.invocations).isEqualTo(1);
+        verify(failureSubmissionService, times(2)).submitUnknownProcessingError(any(), any());
+        verify(outputBuffer).insertBlocking(Collections.<Message>emptyList());
+    }
+
+    @Test
+    public void dispatchBatchKeepsOtherMessagesIfFilterChainFailsForOneMessage() {
+        final Message broken = message("broken");
+        final Message good = message("good");
+        final MessageFilter filter = mock(MessageFilter.class);
+        when(filter.getName()).thenReturn("broken-filter");
+        when(filter.filter(good)).thenReturn(false);
+        when(filter.filter(broken)).thenThrow(new IllegalStateException("broken message"));
+        final ServerStatus serverStatus = mock(ServerStatus.class);
+        when(serverStatus.getDetailedMessageRecordingStrategy()).thenReturn(ServerStatus.MessageDetailRecordingStrategy.NEVER);
+        final MessageFilterChainProcessor filterChainProcessor = new MessageFilterChainProcessor(new MetricRegistry(),
+                Collections.singleton(filter), mock(MessageQueueAcknowledger.class), serverStatus);
+        when(orderedMessageProcessors.iterator()).thenReturn(Arrays.<MessageProcessor>asList(filterChainProcessor).iterator());
+
+        processor.dispatchBatch(Arrays.asList(broken, good));
+
+        @SuppressWarnings("unchecked")
+        final ArgumentCaptor<List<Message>> captor = ArgumentCaptor.forClass(List.class);
+        verify(outputBuffer).insertBlocking(captor.capture());
+        assertThat(captor.getValue()).containsExactly(broken, good);
+        assertThat(broken.processingErrors()).hasSize(1);
+        verify(failureSubmissionService, never()).submitUnknownProcessingError(any(), any());
+    }
+
+    @Test
+    public void dispatchBatchDropsMessagesWhichCannotBeFinished() {
+        final Message broken = message("broken");
+        final Message good = message("good");
+        when(orderedMessageProcessors.iterator()).thenReturn(Collections.emptyIterator());
+        when(failureSubmissionService.submitProcessingErrors(broken)).thenThrow(new IllegalStateException("broken message"));
+
+        processor.dispatchBatch(Arrays.asList(broken, good));
+
+        verify(failureSubmissionService).submitUnknownProcessingError(eq(broken), any());
+        verify(outputBuffer).insertBlocking(Collections.singletonList(good));
+    }
+
+    @Test
+    public void dispatchEmptyBatchDoesNothing() {
+        processor.dispatchBatch(new ArrayList<>());
+
+        verify(outputBuffer, never()).insertBlocking(anyList());
+    }
+
+    private static Message message(String text) {
+        return new Message(text, "source", Tools.nowUTC());
+    }
+
+    private static class CountingProcessor implements MessageProcessor {
+        private final boolean supportsBatches;
+        private int invocations = 0;
+
+        private CountingProcessor(boolean supportsBatches) {
+            this.supportsBatches = supportsBatches;
+        }
+
+        @Override
+        public Messages process(Messages messages) {
+            invocations++;
+            return messages;
+        }
+
+        @Override
+        public boolean supportsBatches() {
+            return supportsBatches;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.journal;
+
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.journal.JournalMessages;
+import org.graylog2.plugin.journal.RawMessage;
+import org.graylog2.plugin.system.SimpleNodeId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CodecConfigDictionaryTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Configuration codecConfig = new Configuration(ImmutableMap.of("charset_name", "UTF-8", "decompress_size_limit", 8388608));
+
+    @Test
+    public void sameConfigurationGetsSameId() {
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary();
+
+        final int id = dictionary.idFor(codecConfig);
+
+        assertThat(id).isPositive();
+        assertThat(dictionary.idFor(codecConfig)).isEqualTo(id);
+        assertThat(dictionary.idFor(new Configuration(codecConfig.getSource()))).isEqualTo(id);
+        assertThat(dictionary.idFor(new Configuration(ImmutableMap.of("charset_name", "ISO-8859-1")))).isNotEqualTo(id);
+        assertThat(dictionary.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void emptyConfigurationIsEmbedded() {
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary();
+
+        assertThat(dictionary.idFor(null)).isZero();
+        assertThat(dictionary.idFor(Configuration.EMPTY_CONFIGURATION)).isZero();
+        assertThat(dictionary.size()).isZero();
+    }
+
+    @Test
+    public void encodedMessageReferencesSharedConfiguration() {
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary();
+        final RawMessage rawMessage = rawMessage(codecConfig);
+
+        final byte[] encoded = rawMessage.encode(dictionary.idFor(codecConfig));
+        final RawMessage first = RawMessage.decode(encoded, 1L, dictionary::resolve);
+        final RawMessage second = RawMessage.decode(encoded, 2L, dictionary::resolve);
+
+        assertThat(encoded.length).isLessThan(rawMessage.encode().length);
+        assertThat(first).isNotNull();
+        assertThat(second).isNotNull();
+        assertThat(first.getCodecConfig().getSource()).isEqualTo(codecConfig.getSource());
+        assertThat(second.getCodecConfig()).isSameAs(first.getCodecConfig());
+        assertThat(first.getPayload()).isEqualTo("testmessage".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void decodesEntriesWithEmbeddedConfiguration() {
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary();
+
+        final byte[] encoded = rawMessage(codecConfig).encode();
+        final RawMessage decoded = RawMessage.decode(encoded, 1L, dictionary::resolve);
+
+        assertThat(decoded).isNotNull();
+        assertThat(decoded.getCodecConfig().getSource()).isEqualTo(codecConfig.getSource());
+        assertThat(RawMessage.decode(encoded, 2L, dictionary::resolve).getCodecConfig()).isSameAs(decoded.getCodecConfig());
+        assertThat(dictionary.size()).isZero();
+    }
+
+    @Test
+    public void unknownIdCannotBeDecoded() {
+        final byte[] encoded = rawMessage(codecConfig).encode(42);
+
+        assertThat(new CodecConfigDictionary().resolve(JournalMessages.CodecInfo.newBuilder().setConfigId(42).build())).isNull();
+        assertThat(RawMessage.decode(encoded, 1L, new CodecConfigDictionary()::resolve)).isNull();
+    }
+
+    @Test
+    public void dictionaryIsPersistedInJournalDirectory() throws IOException {
+        final Path journalDirectory = temporaryFolder.newFolder().toPath();
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary(journalDirectory);
+        final int id = dictionary.idFor(codecConfig);
+        final byte[] encoded = rawMessage(codecConfig).encode(id);
+
+        assertThat(journalDirectory.resolve(CodecConfigDictionary.FILE_NAME)).exists();
+
+        final CodecConfigDictionary reloaded = new CodecConfigDictionary(journalDirectory);
+        final RawMessage decoded = RawMessage.decode(encoded, 1L, reloaded::resolve);
+
+        assertThat(reloaded.size()).isEqualTo(1);
+        assertThat(decoded).isNotNull();
+        assertThat(decoded.getCodecConfig().getSource()).isEqualTo(codecConfig.getSource());
+        assertThat(reloaded.idFor(codecConfig)).isEqualTo(id);
+        assertThat(reloaded.idFor(new Configuration(ImmutableMap.of("charset_name", "ISO-8859-1")))).isGreaterThan(id);
+    }
+
+    @Test
+    public void rejectsUnsupportedVersion() throws IOException {
+        final Path journalDirectory = temporaryFolder.newFolder().toPath();
+        Files.write(journalDirectory.resolve(CodecConfigDictionary.FILE_NAME),
+                "{\"version\":2,\"configs\":{}}".getBytes(StandardCharsets.UTF_8));
+
+        assertThatThrownBy(() -> new CodecConfigDictionary(journalDirectory))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Unsupported version");
+    }
+
+    @Test
+    public void compactionDoesNotReuseIds() throws IOException {
+        final Path journalDirectory = temporaryFolder.newFolder().toPath();
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary(journalDirectory);
+        final int id = dictionary.idFor(codecConfig);
+
+        dictionary.compact();
+
+        assertThat(dictionary.size()).isZero();
+        assertThat(dictionary.resolve(JournalMessages.CodecInfo.newBuilder().setConfigId(id).build())).isNull();
+
+        final CodecConfigDictionary reloaded = new CodecConfigDictionary(journalDirectory);
+        assertThat(reloaded.size()).isZero();
+        assertThat(reloaded.idFor(codecConfig)).isGreaterThan(id);
+    }
+
+    @Test
+    public void entriesWithUnknownIdAreNotResolvable() {
+        final CodecConfigDictionary dictionary = new CodecConfigDictionary();
+        final int id = dictionary.idFor(codecConfig);
+
+        dictionary.checkResolvable(1L, rawMessage(codecConfig).encode(id));
+        dictionary.checkResolvable(2L, rawMessage(codecConfig).encode());
+        dictionary.checkResolvable(3L, "garbage".getBytes(StandardCharsets.UTF_8));
+
+        assertThatThrownBy(() -> dictionary.checkResolvable(4L, rawMessage(codecConfig).encode(id + 1)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("offset <4>");
+    }
+
+    private RawMessage rawMessage(Configuration codecConfig) {
+        final RawMessage rawMessage = new RawMessage("testmessage".getBytes(StandardCharsets.UTF_8));
+        rawMessage.addSourceNode("inputid", new SimpleNodeId("5ca1ab1e-0000-4000-a000-000000000000"));
+        rawMessage.setCodecName("raw");
+        rawMessage.setCodecConfig(codecConfig);
+        return rawMessage;
+    }
+}
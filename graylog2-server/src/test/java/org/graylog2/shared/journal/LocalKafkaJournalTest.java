@@ -17,7 +17,10 @@
 package org.graylog2.shared.journal;
 
 import com.codahale.metrics.MetricRegistry;
+import com.github.joschi.jadconfig.ParameterException;
 import com.github.joschi.jadconfig.util.Size;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.eventbus.EventBus;
@@ -31,6 +34,7 @@ import org.graylog2.Configuration;
 import org.graylog2.audit.NullAuditEventSender;
 import org.graylog2.plugin.InstantMillisProvider;
 import org.graylog2.plugin.ServerStatus;
+import org.graylog2.plugin.journal.RawMessage;
 import org.graylog2.plugin.lifecycles.Lifecycle;
 import org.graylog2.plugin.system.FilePersistedNodeIdProvider;
 import org.joda.time.DateTime;
@@ -56,6 +60,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.UUID;
@@ -70,6 +75,7 @@ import static org.apache.commons.io.filefilter.FileFilterUtils.nameFileFilter;
 import static org.apache.commons.io.filefilter.FileFilterUtils.suffixFileFilter;
 import static org.apache.commons.lang.RandomStringUtils.randomAlphanumeric;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -163,6 +169,183 @@ public class LocalKafkaJournalTest {
         assertEquals("message1", new String(firstMessage.getPayload(), UTF_8));
     }
 
+    @Test
+    public void everyBatchDurabilityFlushesEveryWrite() throws Exception {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final LocalKafkaJournal journal = new LocalKafkaJournal(journalDirectory.toPath(),
+                scheduler,
+                Size.megabytes(100L),
+                Duration.standardHours(1),
+                Size.megabytes(5L),
+                Duration.standardHours(1),
+                1_000_000,
+                Duration.standardMinutes(1),
+                JournalDurability.EVERY_BATCH,
+                100,
+                metricRegistry,
+                serverStatus,
+                LocalKafkaJournal.class.getName());
+
+        journal.write(ImmutableList.of(
+                journal.createEntry("id1".getBytes(UTF_8), "message1".getBytes(UTF_8)),
+                journal.createEntry("id2".getBytes(UTF_8), "message2".getBytes(UTF_8))));
+        journal.write("id3".getBytes(UTF_8), "message3".getBytes(UTF_8));
+
+        assertThat(metricRegistry.getGauges().get(LocalKafkaJournal.class.getName() + ".unflushedMessages").getValue()).isEqualTo(0L);
+        assertThat(metricRegistry.getGauges().get(LocalKafkaJournal.class.getName() + ".recoveryPoint").getValue()).isEqualTo(3L);
+        assertThat(metricRegistry.timer(LocalKafkaJournal.class.getName() + ".appendTime").getCount()).isEqualTo(2L);
+        assertThat(metricRegistry.timer(LocalKafkaJournal.class.getName() + ".flushTime").getCount()).isEqualTo(2L);
+    }
+
+    @Test
+    public void noDurabilityDoesNotFlush() throws Exception {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final LocalKafkaJournal journal = new LocalKafkaJournal(journalDirectory.toPath(),
+                scheduler,
+                Size.megabytes(100L),
+                Duration.standardHours(1),
+                Size.megabytes(5L),
+                Duration.standardHours(1),
+                1,
+                Duration.millis(1),
+                JournalDurability.NONE,
+                100,
+                metricRegistry,
+                serverStatus,
+                LocalKafkaJournal.class.getName());
+
+        journal.write("id1".getBytes(UTF_8), "message1".getBytes(UTF_8));
+        journal.write("id2".getBytes(UTF_8), "message2".getBytes(UTF_8));
+        journal.flushDirtyLogs();
+
+        assertThat(metricRegistry.getGauges().get(LocalKafkaJournal.class.getName() + ".unflushedMessages").getValue()).isEqualTo(2L);
+        assertThat(metricRegistry.timer(LocalKafkaJournal.class.getName() + ".appendTime").getCount()).isEqualTo(2L);
+        assertThat(metricRegistry.timer(LocalKafkaJournal.class.getName() + ".flushTime").getCount()).isZero();
+    }
+
+    @Test
+    public void durabilityConverter() {
+        final JournalDurability.Converter converter = new JournalDurability.Converter();
+
+        assertThat(converter.convertFrom("every-batch")).isEqualTo(JournalDurability.EVERY_BATCH);
+        assertThat(converter.convertFrom("INTERVAL")).isEqualTo(JournalDurability.INTERVAL);
+        assertThat(converter.convertTo(JournalDurability.EVERY_BATCH)).isEqualTo("every-batch");
+        assertThatThrownBy(() -> converter.convertFrom("always")).isInstanceOf(ParameterException.class);
+    }
+
+    @Test
+    public void compressedWriteAndRead() throws Exception {
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final LocalKafkaJournal journal = createJournal(JournalCompression.SNAPPY, metricRegistry);
+
+        journal.write(createEntries(journal, 0, 100));
+
+        final List<Journal.JournalReadEntry> messages = new ArrayList<>();
+        // Read in chunks which end in the middle of the compressed batch.
+        for (int i = 0; i < 10; i++) {
+            messages.addAll(journal.read(7));
+        }
+        assertThat(messages).hasSize(70);
+        assertThat(journal.read(100)).hasSize(30);
+        for (int i = 0; i < messages.size(); i++) {
+            assertThat(messages.get(i).getOffset()).isEqualTo(i);
+            assertThat(new String(messages.get(i).getPayload(), UTF_8)).isEqualTo(message(i));
+        }
+
+        assertThat(journal.logicalSize()).isGreaterThan(journal.size());
+        assertThat(journal.compressionRatio()).isGreaterThan(1.0d);
+        assertThat(metricRegistry.getGauges().get(LocalKafkaJournal.class.getName() + ".sizeLogical").getValue())
+                .isEqualTo(journal.logicalSize());
+    }
+
+    @Test
+    public void truncatedSegmentsAreCountedWithTheirSizeOnDisk() throws Exception {
+        final LocalKafkaJournal journal = createJournal(JournalCompression.SNAPPY, new MetricRegistry());
+
+        journal.write(createEntries(journal, 0, 100));
+        assertThat(journal.logicalSize()).isGreaterThan(journal.size());
+
+        journal.truncateTo(50);
+        assertThat(journal.logicalSize()).isEqualTo(journal.size());
+    }
+
+    @Test
+    public void readMixedCompressedAndUncompressedBatches() throws Exception {
+        final LocalKafkaJournal uncompressedJournal = createJournal(JournalCompression.NONE, new MetricRegistry());
+        uncompressedJournal.startAsync().awaitRunning();
+        uncompressedJournal.write(createEntries(uncompressedJournal, 0, 10));
+        uncompressedJournal.stopAsync().awaitTerminated();
+
+        final LocalKafkaJournal journal = createJournal(JournalCompression.GZIP, new MetricRegistry());
+        journal.write(createEntries(journal, 10, 20));
+        journal.write(createEntries(journal, 20, 30));
+
+        final List<Journal.JournalReadEntry> messages = journal.read(0, 100);
+        assertThat(messages).hasSize(30);
+        for (int i = 0; i < messages.size(); i++) {
+            assertThat(messages.get(i).getOffset()).isEqualTo(i);
+            assertThat(new String(messages.get(i).getPayload(), UTF_8)).isEqualTo(message(i));
+        }
+        assertThat(journal.read(15, 3)).extracting(Journal.JournalReadEntry::getOffset).containsExactly(15L, 16L, 17L);
+    }
+
+    @Test
+    public void failsOnUnprocessedEntriesWithMissingCodecConfiguration() throws Exception {
+        final LocalKafkaJournal journal = createJournal(JournalCompression.NONE, new MetricRegistry());
+        journal.startAsync().awaitRunning();
+        final RawMessage rawMessage = new RawMessage("testmessage".getBytes(UTF_8));
+        rawMessage.setCodecName("raw");
+        rawMessage.setCodecConfig(new org.graylog2.plugin.configuration.Configuration(ImmutableMap.of("charset_name", "UTF-8")));
+        final int configId = journal.getCodecConfigDictionary().idFor(rawMessage.getCodecConfig());
+        journal.write(rawMessage.getIdBytes(), rawMessage.encode(configId));
+        journal.stopAsync().awaitTerminated();
+
+        Files.delete(journalDirectory.toPath().resolve(CodecConfigDictionary.FILE_NAME));
+
+        assertThatThrownBy(() -> createJournal(JournalCompression.NONE, new MetricRegistry()))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("codec configuration <" + configId + ">");
+    }
+
+    @Test
+    public void compressionConverter() {
+        final JournalCompression.Converter converter = new JournalCompression.Converter();
+
+        assertThat(converter.convertFrom("gzip")).isEqualTo(JournalCompression.GZIP);
+        assertThat(converter.convertFrom("NONE")).isEqualTo(JournalCompression.NONE);
+        assertThat(converter.convertTo(JournalCompression.SNAPPY)).isEqualTo("snappy");
+        assertThatThrownBy(() -> converter.convertFrom("lz4")).isInstanceOf(ParameterException.class);
+    }
+
+    private LocalKafkaJournal createJournal(JournalCompression compression, MetricRegistry metricRegistry) {
+        return new LocalKafkaJournal(journalDirectory.toPath(),
+                scheduler,
+                Size.megabytes(100L),
+                Duration.standardHours(1),
+                Size.megabytes(5L),
+                Duration.standardHours(1),
+                1_000_000,
+                Duration.standardMinutes(1),
+                JournalDurability.INTERVAL,
+                compression,
+                100,
+                metricRegistry,
+                serverStatus,
+                LocalKafkaJournal.class.getName());
+    }
+
+    private List<Journal.Entry> createEntries(Journal journal, int from, int to) {
+        final List<Journal.Entry> entries = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            entries.add(journal.createEntry(("id" + i).getBytes(UTF_8), message(i).getBytes(UTF_8)));
+        }
+        return entries;
+    }
+
+    private static String message(int i) {
+        return "a compressible message which repeats itself, a compressible message which repeats itself " + i;
+    }
+
     private int createBulkChunks(LocalKafkaJournal journal, Size segmentSize, int bulkCount) {
         // Magic numbers deduced by magic…
         int bulkSize = Ints.saturatedCast(segmentSize.toBytes() / (2L * 16L));
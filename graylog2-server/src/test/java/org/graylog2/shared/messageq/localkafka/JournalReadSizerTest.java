@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.messageq.localkafka;
+
+import org.junit.jupiter.api.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JournalReadSizerTest {
+    private final JournalReadSizer sizer = new JournalReadSizer(10, 1000, MILLISECONDS.toNanos(100), SECONDS.toNanos(1));
+
+    @Test
+    void readsMaximumUntilRateIsKnown() {
+        sizer.recordInsert(500, 0);
+        sizer.recordInsert(500, MILLISECONDS.toNanos(500));
+        assertThat(sizer.nextReadSize()).isEqualTo(1000);
+    }
+
+    @Test
+    void readSizeFollowsProcessingRate() {
+        // 2000 messages/s, 100ms worth of messages
+        sizer.recordInsert(500, 0);
+        sizer.recordInsert(1000, MILLISECONDS.toNanos(500));
+        sizer.recordInsert(1000, SECONDS.toNanos(1));
+        assertThat(sizer.nextReadSize()).isEqualTo(200);
+    }
+
+    @Test
+    void rateIncludesTimeWithoutInserts() {
+        sizer.recordInsert(500, 0);
+        sizer.recordInsert(1000, SECONDS.toNanos(4));
+        assertThat(sizer.getMessagesPerSecond()).isEqualTo(250.0);
+    }
+
+    @Test
+    void readSizeIsClamped() {
+        sizer.recordInsert(10, 0);
+        sizer.recordInsert(10, SECONDS.toNanos(1));
+        assertThat(sizer.nextReadSize()).isEqualTo(10);
+
+        final JournalReadSizer fast = new JournalReadSizer(10, 1000, MILLISECONDS.toNanos(100), SECONDS.toNanos(1));
+        fast.recordInsert(1_000_000, 0);
+        fast.recordInsert(1_000_000, SECONDS.toNanos(1));
+        assertThat(fast.nextReadSize()).isEqualTo(1000);
+    }
+
+    @Test
+    void rateIsSmoothed() {
+        sizer.recordInsert(500, 0);
+        sizer.recordInsert(2000, SECONDS.toNanos(1));
+        sizer.recordInsert(1000, SECONDS.toNanos(2));
+        assertThat(sizer.getMessagesPerSecond()).isEqualTo(1800.0);
+    }
+
+    @Test
+    void backlogSeconds() {
+        assertThat(JournalReadSizer.backlogSeconds(0, 0)).isEqualTo(0.0);
+        assertThat(JournalReadSizer.backlogSeconds(100, 0)).isEqualTo(-1.0);
+        assertThat(JournalReadSizer.backlogSeconds(1000, 100)).isEqualTo(10.0);
+    }
+}
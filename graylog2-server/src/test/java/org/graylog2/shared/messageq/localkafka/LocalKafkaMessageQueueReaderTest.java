@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.shared.messageq.localkafka;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.eventbus.EventBus;
+import org.graylog2.plugin.lifecycles.Lifecycle;
+import org.graylog2.shared.buffers.ProcessBuffer;
+import org.graylog2.shared.journal.Journal;
+import org.graylog2.shared.messageq.MessageQueueReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.concurrent.Semaphore;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class LocalKafkaMessageQueueReaderTest {
+    @Mock
+    Journal journal;
+
+    @Mock
+    ProcessBuffer processBuffer;
+
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    MessageQueueReader.Metrics readerMetrics;
+
+    @Test
+    void readerFailsIfJournalCannotBeRead() {
+        final RuntimeException failure = new RuntimeException("Corrupted journal");
+        when(processBuffer.getRingBufferSize()).thenReturn(1024);
+        when(journal.read(anyLong())).thenThrow(failure);
+
+        final LocalKafkaMessageQueueReader reader = new LocalKafkaMessageQueueReader(journal, processBuffer,
+                new Semaphore(0), new MetricRegistry(), new EventBus(), readerMetrics);
+        reader.startAsync().awaitRunning();
+        reader.listenForLifecycleChanges(Lifecycle.RUNNING);
+
+        assertThatThrownBy(() -> reader.awaitTerminated(10, SECONDS)).isInstanceOf(IllegalStateException.class);
+        assertThat(reader.failureCause()).hasCause(failure);
+    }
+}
@@ -31,11 +31,15 @@ import org.joda.time.DateTimeZone;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
 import javax.inject.Provider;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -50,29 +54,40 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+@RunWith(Parameterized.class)
 public class StreamRouterEngineTest {
     @Rule
     public final MockitoRule mockitoRule = MockitoJUnit.rule();
 
+    @Parameterized.Parameters(name = "compiled={0}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][]{{true}, {false}});
+    }
+
+    @Parameterized.Parameter
+    public boolean compiled;
+
     @Mock
     private StreamFaultManager streamFaultManager;
     @Mock
     private Stream defaultStream;
     private Provider<Stream> defaultStreamProvider;
 
+    private MetricRegistry metricRegistry;
     private StreamMetrics streamMetrics;
 
     @Before
     public void setUp() throws Exception {
         defaultStreamProvider = () -> defaultStream;
-        streamMetrics = new StreamMetrics(new MetricRegistry());
+        metricRegistry = new MetricRegistry();
+        streamMetrics = new StreamMetrics(metricRegistry);
         when(streamFaultManager.getStreamProcessingTimeout()).thenReturn(250L);
     }
 
     @SuppressForbidden("Executors#newSingleThreadExecutor() is okay for tests")
     private StreamRouterEngine newEngine(List<Stream> streams) {
         return new StreamRouterEngine(streams, Executors.newSingleThreadExecutor(), streamFaultManager, streamMetrics,
-                defaultStreamProvider, new MetricRegistry());
+                defaultStreamProvider, new MetricRegistry(), compiled);
     }
 
     @Test
@@ -765,6 +780,108 @@ public class StreamRouterEngineTest {
                 Lists.newArrayList(stream), engine.match(message2));
     }
 
+    @Test
+    public void testManyContainsAndLiteralRegexRulesOnSameField() {
+        final StreamMock stream1 = getStreamMock("test1");
+        final StreamMock stream2 = getStreamMock("test2", Stream.MatchingType.OR);
+        final StreamMock stream3 = getStreamMock("test3");
+
+        stream1.setStreamRules(Lists.newArrayList(
+                getStreamRuleMock("rule1", StreamRuleType.CONTAINS, "message", "foo"),
+                getStreamRuleMock("rule2", StreamRuleType.REGEX, "message", "oba")));
+        stream2.setStreamRules(Lists.newArrayList(
+                getStreamRuleMock("rule3", StreamRuleType.CONTAINS, "message", "nope"),
+                getStreamRuleMock("rule4", StreamRuleType.REGEX, "message", "ar$")));
+        stream3.setStreamRules(Lists.newArrayList(
+                getStreamRuleMock("rule5", StreamRuleType.CONTAINS, "message", "foobar"),
+                getStreamRuleMock("rule6", StreamRuleType.EXACT, "source", "localhost")));
+
+        final StreamRouterEngine engine = newEngine(Lists.newArrayList(stream1, stream2, stream3));
+        assertThat(engine.isCompiled()).isEqualTo(compiled);
+
+        final Message message1 = getMessage();
+        message1.addField("message", "a foobar");
+        assertThat(engine.match(message1)).containsExactlyInAnyOrder(stream1, stream2, stream3);
+
+        final Message message2 = getMessage();
+        message2.addField("message", "fooba");
+        assertThat(engine.match(message2)).containsExactly(stream1);
+
+        final Message message3 = getMessage();
+        message3.addField("message", "foobar");
+        message3.addField("source", "otherhost");
+        assertThat(engine.match(message3)).containsExactlyInAnyOrder(stream1, stream2);
+    }
+
+    @Test
+    public void testRuleMetricsAreUpdated() {
+        final StreamMock stream = getStreamMock("test", Stream.MatchingType.OR);
+        stream.setStreamRules(Lists.newArrayList(
+                getStreamRuleMock("rule1", StreamRuleType.EXACT, "testfield1", "value"),
+                getStreamRuleMock("rule2", StreamRuleType.CONTAINS, "testfield2", "value")));
+
+        final StreamRouterEngine engine = newEngine(Lists.newArrayList(stream));
+
+        final Message message = getMessage();
+        message.addField("testfield1", "other");
+        message.addField("testfield2", new Object() {
+            @Override
+            public String toString() {
+                throw new IllegalStateException("broken field value");
+            }
+        });
+        assertThat(engine.match(message)).isEmpty();
+
+        assertThat(streamMetrics.getExecutionTimer(stream.getId(), "rule1").getCount()).isEqualTo(1);
+        assertThat(streamMetrics.getExecutionTimer(stream.getId(), "rule2").getCount()).isEqualTo(1);
+        assertThat(metricRegistry.meter(MetricRegistry.name(Stream.class, stream.getId(), "matchingExceptions")).getCount())
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void testInvertedIndexedRules() {
+        final StreamMock stream = getStreamMock("test");
+        final StreamRule exactRule = getStreamRuleMock("rule1", StreamRuleType.EXACT, "testfield1", "value");
+        when(exactRule.getInverted()).thenReturn(true);
+        final StreamRule containsRule = getStreamRuleMock("rule2", StreamRuleType.CONTAINS, "testfield2", "value");
+        when(containsRule.getInverted()).thenReturn(true);
+        stream.setStreamRules(Lists.newArrayList(exactRule, containsRule));
+
+        final StreamRouterEngine engine = newEngine(Lists.newArrayList(stream));
+
+        // Inverted rules match if the field is missing.
+        assertThat(engine.match(getMessage())).containsExactly(stream);
+
+        final Message message1 = getMessage();
+        message1.addField("testfield1", " value ");
+        assertThat(engine.match(message1)).isEmpty();
+
+        final Message message2 = getMessage();
+        message2.addField("testfield1", "other");
+        message2.addField("testfield2", "some value");
+        assertThat(engine.match(message2)).isEmpty();
+
+        final Message message3 = getMessage();
+        message3.addField("testfield1", "other");
+        message3.addField("testfield2", "other");
+        assertThat(engine.match(message3)).containsExactly(stream);
+    }
+
+    @Test
+    public void testInputMatchIgnoresCase() {
+        final StreamMock stream = getStreamMock("test");
+        stream.setStreamRules(Lists.newArrayList(
+                getStreamRuleMock("rule1", StreamRuleType.MATCH_INPUT, Message.FIELD_GL2_SOURCE_INPUT, "5d4bb1c9e7a8b2c3d4e5f601")));
+
+        final StreamRouterEngine engine = newEngine(Lists.newArrayList(stream));
+
+        final Message message = getMessage();
+        assertThat(engine.match(message)).isEmpty();
+
+        message.addField(Message.FIELD_GL2_SOURCE_INPUT, "5D4BB1C9E7A8B2C3D4E5F601");
+        assertThat(engine.match(message)).containsExactly(stream);
+    }
+
     private StreamMock getStreamMock(String title) {
         return getStreamMock(title, Stream.MatchingType.AND);
     }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.utilities;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AhoCorasickAutomatonTest {
+    private static Set<Integer> search(AhoCorasickAutomaton automaton, String text) {
+        final Set<Integer> result = new TreeSet<>();
+        automaton.search(text, result::add);
+        return result;
+    }
+
+    @Test
+    void findsAllOverlappingPatterns() {
+        final AhoCorasickAutomaton automaton = AhoCorasickAutomaton.builder()
+                .add("he", 1)
+                .add("she", 2)
+                .add("his", 3)
+                .add("hers", 4)
+                .build();
+
+        assertThat(search(automaton, "ushers")).containsExactly(1, 2, 4);
+        assertThat(search(automaton, "this")).containsExactly(3);
+        assertThat(search(automaton, "nothing")).isEmpty();
+        assertThat(search(automaton, "")).isEmpty();
+    }
+
+    @Test
+    void reportsEveryIdOfDuplicatePatterns() {
+        final AhoCorasickAutomaton automaton = AhoCorasickAutomaton.builder()
+                .add("error", 1)
+                .add("error", 2)
+                .add("rror", 3)
+                .build();
+
+        assertThat(search(automaton, "an error occurred")).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    void emptyPatternMatchesEverything() {
+        final AhoCorasickAutomaton automaton = AhoCorasickAutomaton.builder()
+                .add("", 1)
+                .add("abc", 2)
+                .build();
+
+        assertThat(search(automaton, "")).containsExactly(1);
+        assertThat(search(automaton, "xabcx")).containsExactly(1, 2);
+    }
+
+    @Test
+    void followsFailureLinksAcrossPartialMatches() {
+        final AhoCorasickAutomaton automaton = AhoCorasickAutomaton.builder()
+                .add("aab", 1)
+                .add("ab", 2)
+                .add("bc", 3)
+                .build();
+
+        assertThat(search(automaton, "aaab")).containsExactly(1, 2);
+        assertThat(search(automaton, "aabc")).containsExactly(1, 2, 3);
+        assertThat(search(automaton, "aac")).isEmpty();
+    }
+}
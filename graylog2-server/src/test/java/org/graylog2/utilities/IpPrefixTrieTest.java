@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2020 Graylog, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Server Side Public License, version 1,
+ * as published by MongoDB, Inc.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * Server Side Public License for more details.
+ *
+ * You should have received a copy of the Server Side Public License
+ * along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package org.graylog2.utilities;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IpPrefixTrieTest {
+    @Test
+    void findsLongestMatchingPrefix() {
+        final IpPrefixTrie<String> trie = new IpPrefixTrie<>();
+        trie.add("10.0.0.0/8", "a");
+        trie.add("10.1.0.0/16", "b");
+        trie.add("10.1.2.0/24", "c");
+        trie.add("10.1.2.3", "d");
+        trie.add("192.168.0.0/16", "e");
+
+        assertThat(trie.size()).isEqualTo(5);
+        assertThat(trie.find("10.200.0.1")).isEqualTo("a");
+        assertThat(trie.find("10.1.200.1")).isEqualTo("b");
+        assertThat(trie.find("10.1.2.200")).isEqualTo("c");
+        assertThat(trie.find("10.1.2.3")).isEqualTo("d");
+        assertThat(trie.find("192.168.255.255")).isEqualTo("e");
+        assertThat(trie.find("11.0.0.1")).isNull();
+    }
+
+    @Test
+    void findsPrefixesAddedInAnyOrder() {
+        final IpPrefixTrie<String> trie = new IpPrefixTrie<>();
+        trie.add("10.1.2.0/24", "c");
+        trie.add("10.1.3.0/24", "d");
+        trie.add("10.0.0.0/8", "a");
+        trie.add("0.0.0.0/0", "default");
+
+        assertThat(trie.find("10.1.2.1")).isEqualTo("c");
+        assertThat(trie.find("10.1.3.1")).isEqualTo("d");
+        assertThat(trie.find("10.1.4.1")).isEqualTo("a");
+        assertThat(trie.find("8.8.8.8")).isEqualTo("default");
+    }
+
+    @Test
+    void separatesAddressFamilies() {
+        final IpPrefixTrie<String> trie = new IpPrefixTrie<>();
+        trie.add("0.0.0.0/0", "ipv4");
+        trie.add("2001:db8::/32", "documentation");
+        trie.add("2001:db8:1234::/48", "site");
+        trie.add("2001:db7::", "single");
+
+        assertThat(trie.find("2001:db8:1234:5678::1")).isEqualTo("site");
+        assertThat(trie.find("2001:db8:ffff::1")).isEqualTo("documentation");
+        assertThat(trie.find("2001:db7::")).isEqualTo("single");
+        assertThat(trie.find("2001:db7::1")).isNull();
+        assertThat(trie.find("::1")).isNull();
+        assertThat(trie.find("127.0.0.1")).isEqualTo("ipv4");
+    }
+
+    @Test
+    void keepsExistingValueAndIgnoresHostBits() {
+        final IpPrefixTrie<String> trie = new IpPrefixTrie<>();
+
+        assertThat(trie.add("192.168.1.0/24", "first")).isTrue();
+        assertThat(trie.add("192.168.1.42/24", "second")).isFalse();
+
+        assertThat(trie.size()).isEqualTo(1);
+        assertThat(trie.find("192.168.1.1")).isEqualTo("first");
+    }
+
+    @Test
+    void rejectsInvalidRanges() {
+        final IpPrefixTrie<String> trie = new IpPrefixTrie<>();
+
+        assertThatThrownBy(() -> trie.add("10.0.0.0/33", "x")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> trie.add("10.0.0.0/x", "x")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> trie.add("example.com/8", "x")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> trie.find("not an address")).isInstanceOf(IllegalArgumentException.class);
+        assertThat(trie.isEmpty()).isTrue();
+    }
+
+    @Test
+    void matchesLinearScanOverSubnets() throws UnknownHostException {
+        final Random random = new Random(42L);
+        final IpPrefixTrie<String> trie = new IpPrefixTrie<>();
+        final List<IpSubnet> subnets = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final String cidr = randomAddress(random, i % 2 == 0 ? 4 : 16).getHostAddress() + "/" + random.nextInt(i % 2 == 0 ? 33 : 129);
+            final IpSubnet subnet = new IpSubnet(cidr);
+            if (trie.add(cidr, subnet.toString())) {
+                subnets.add(subnet);
+            }
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            final InetAddress address = randomAddress(random, i % 2 == 0 ? 4 : 16);
+            final String expected = subnets.stream()
+                    .filter(subnet -> subnet.getNetworkAddress().contains(":") == address.getHostAddress().contains(":"))
+                    .filter(subnet -> subnet.contains(address))
+                    .max((a, b) -> Integer.compare(prefixLength(a), prefixLength(b)))
+                    .map(IpSubnet::toString)
+                    .orElse(null);
+
+            assertThat(trie.find(address)).isEqualTo(expected);
+        }
+    }
+
+    private static int prefixLength(IpSubnet subnet) {
+        final String cidr = subnet.toString();
+        return Integer.parseInt(cidr.substring(cidr.indexOf('/') + 1));
+    }
+
+    private static InetAddress randomAddress(Random random, int length) throws UnknownHostException {
+        final byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        // Keep the addresses close together to get overlapping prefixes.
+        bytes[0] = (byte) (bytes[0] & 0x03);
+        return InetAddress.getByAddress(bytes);
+    }
+}